@@ -56,6 +56,8 @@ public class AppLauncher {
       // logging mode (debug / info)
       Level logLevel = PreferencesFactory.getInstance(appConfig).isDebugMode() ? Level.DEBUG : Level.INFO;
       LogUtils.setLogLevel(logLevel);
+      // check lock before the message is queued, this instance keeps running if no other instance is alive
+      boolean running = checkForRunningProcess();
       // add message to the queue
       if (args.length > 0) {
         String input = args[0];
@@ -77,8 +79,11 @@ public class AppLauncher {
         }
       }
       checkDevMode();
-      // check lock
-      checkForRunningProcess();
+      if (running) {
+        // message handed over to the running app
+        logger.info("App is alive, exiting");
+        System.exit(0);
+      }
       // start app
       AppPreloader preloader = new AppPreloader();
       preloader.launchApp(args);
@@ -96,7 +101,7 @@ public class AppLauncher {
     logger.info("Queued message: " + msgId);
   }
 
-  private static void checkForRunningProcess() throws IOException {
+  private static boolean checkForRunningProcess() throws IOException {
     ProcessHandler handler;
     if (OS.isWindows()) {
       handler = new WindowsProcessHandler();
@@ -104,7 +109,7 @@ public class AppLauncher {
       handler = new UnixProcessHandler();
     }
     ProcessService s = new ProcessService(handler, appConfig);
-    s.checkRunning();
+    return s.checkRunning();
   }
 
   private static void checkDevMode() {
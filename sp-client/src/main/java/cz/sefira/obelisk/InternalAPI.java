@@ -21,6 +21,8 @@ import cz.sefira.obelisk.api.model.EnvironmentInfo;
 import cz.sefira.obelisk.api.model.ScAPI;
 import cz.sefira.obelisk.api.notification.Notification;
 import cz.sefira.obelisk.api.plugin.VersionPlugin;
+import cz.sefira.obelisk.api.trace.Span;
+import cz.sefira.obelisk.api.trace.Tracer;
 import cz.sefira.obelisk.api.ws.proxy.ProxyProvider;
 import cz.sefira.obelisk.api.ws.model.*;
 import cz.sefira.obelisk.api.ws.ssl.SSLCertificateProvider;
@@ -105,7 +107,11 @@ public class InternalAPI implements PlatformAPI {
 
   @Override
   public List<DetectedCard> detectCards(boolean showBusy) {
-    return detector.detectCards(showBusy);
+    try (Span span = Tracer.span("detect-cards")) {
+      List<DetectedCard> cards = detector.detectCards(showBusy);
+      span.setAttribute("cards", cards != null ? cards.size() : null);
+      return cards;
+    }
   }
 
   @Override
@@ -192,7 +198,7 @@ public class InternalAPI implements PlatformAPI {
           if ((currentTask != null) && !currentTask.isDone()) {
             currentTask.cancel(true);
           }
-          task = executor.submit(() -> flow.execute(this, request));
+          task = executor.submit(Tracer.wrap(() -> flow.execute(this, request)));
           currentTask = task;
         }
         resp = task.get();
@@ -227,6 +233,14 @@ public class InternalAPI implements PlatformAPI {
     return executeRequest(flow, request);
   }
 
+  @Override
+  public Execution<BatchSignatureResponse> batchSign(BatchSignatureRequest request) {
+    Flow<BatchSignatureRequest, BatchSignatureResponse> flow =
+        flowRegistry.getFlow(FlowRegistry.BATCH_SIGNATURE_FLOW, display, this);
+    flow.setOperationFactory(operationFactory);
+    return executeRequest(flow, request);
+  }
+
   @Override
   public Execution<Boolean> checkSession(SessionValue sessionValue) {
     Flow<SessionValue, Boolean> flow = flowRegistry.getFlow(FlowRegistry.CHECK_SESSION_FLOW, display, this);
@@ -239,8 +253,8 @@ public class InternalAPI implements PlatformAPI {
   }
 
   @Override
-  public void supportedSmartcardInfos(List<SmartcardInfo> infos, byte[] digest) {
-    pkcs11Manager.supportedSmartcardInfos(infos, digest);
+  public void supportedSmartcardInfos(List<SmartcardInfo> infos, Collection<String> removed) {
+    pkcs11Manager.supportedSmartcardInfos(infos, removed);
   }
 
   @Override
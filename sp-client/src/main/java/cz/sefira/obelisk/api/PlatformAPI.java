@@ -32,6 +32,7 @@ import cz.sefira.obelisk.view.core.UIDisplay;
 import javax.smartcardio.CardException;
 import javax.smartcardio.CardTerminal;
 import java.beans.PropertyChangeListener;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -69,6 +70,8 @@ public interface PlatformAPI {
 
 	Execution<SignatureResponse> sign(SignatureRequest request);
 
+	Execution<BatchSignatureResponse> batchSign(BatchSignatureRequest request);
+
 	Execution<Boolean> checkSession(SessionValue sessionValue);
 
 	// Utils API
@@ -79,7 +82,7 @@ public interface PlatformAPI {
 
 	UIDisplay getDisplay();
 
-	void supportedSmartcardInfos(List<SmartcardInfo> infos, byte[] digest);
+	void supportedSmartcardInfos(List<SmartcardInfo> infos, Collection<String> removed);
 
 	PKCS11Manager getPKCS11Manager();
 
@@ -31,19 +31,24 @@ import cz.sefira.obelisk.api.notification.LongActivityNotifier;
 import cz.sefira.obelisk.api.notification.MessageType;
 import cz.sefira.obelisk.api.plugin.InitErrorMessage;
 import cz.sefira.obelisk.api.plugin.AppPlugin;
+import cz.sefira.obelisk.api.trace.Span;
+import cz.sefira.obelisk.api.trace.Trace;
+import cz.sefira.obelisk.api.trace.TraceExporter;
+import cz.sefira.obelisk.api.trace.Tracer;
 import cz.sefira.obelisk.api.ws.GenericApiException;
 import cz.sefira.obelisk.api.ws.HttpResponseException;
 import cz.sefira.obelisk.api.ws.SpApiClient;
 import cz.sefira.obelisk.api.ws.auth.*;
 import cz.sefira.obelisk.api.ws.model.*;
+import cz.sefira.obelisk.api.ws.resilience.ResilienceEvent;
+import cz.sefira.obelisk.api.ws.resilience.ResilientTransport;
 import cz.sefira.obelisk.api.ws.ssl.HttpResponse;
 import cz.sefira.obelisk.api.ws.ssl.SSLCommunicationException;
-import cz.sefira.obelisk.dss.DigestAlgorithm;
 import cz.sefira.obelisk.ipc.Message;
 import cz.sefira.obelisk.ipc.MessageQueue;
 import cz.sefira.obelisk.ipc.MessageQueueFactory;
 import cz.sefira.obelisk.json.GsonHelper;
-import cz.sefira.obelisk.util.DSSUtils;
+import cz.sefira.obelisk.storage.model.OutboxEntry;
 import cz.sefira.obelisk.util.HttpUtils;
 import cz.sefira.obelisk.util.ResourceUtils;
 import cz.sefira.obelisk.util.TextUtils;
@@ -51,6 +56,7 @@ import cz.sefira.obelisk.view.BusyIndicator;
 import cz.sefira.obelisk.view.DialogMessage;
 import cz.sefira.obelisk.view.StandaloneDialog;
 import org.apache.hc.core5.http.*;
+import org.apache.hc.core5.http.message.BasicHeader;
 import org.apache.hc.core5.net.URIBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -58,11 +64,8 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.net.URLDecoder;
-import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
-import java.util.Collections;
-import java.util.Date;
-import java.util.List;
+import java.util.*;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -77,20 +80,30 @@ public class Dispatcher implements AppPlugin {
 
   private static final Logger logger = LoggerFactory.getLogger(Dispatcher.class.getName());
   private static final long SYNC_SUPPORTED_SMARTCARDS_MILLISECONDS = TimeUnit.MINUTES.toMillis(15);
-  private static final long IDLE_PERIOD_MILLISECONDS = TimeUnit.SECONDS.toMillis(2);
   private static final long IDLE_TIMEOUT_MILLISECONDS = TimeUnit.SECONDS.toMillis(60);
   private static final long LONG_ACTIVITY_IDLE_MILLISECONDS = TimeUnit.SECONDS.toMillis(6);
+  private static final long QUEUE_SCAN_MILLISECONDS = TimeUnit.SECONDS.toMillis(10);
+  private static final int MAX_DRAIN_MESSAGES = 32;
 
   private PlatformAPI api;
   private MessageQueue messageQueue;
   private SpApiClient client;
+  private PollingStrategy polling;
+  private SmartcardSync smartcardSync;
+  private OutboxSender outboxSender;
+  private boolean resultQueued;
 
   private Date initializedDate;
   private boolean initialized;
 
   private long lastSyncTimestamp = 0L;
 
+  private LinkCoalescer coalescer;
+
   private long idleWaitStart = 0L;
+  private int idlePolls = 0;
+  private int auditPolls = 0;
+  private long auditWaited = 0L;
   private BusyIndicator idleIndicator = null;
   private LongActivityNotifier activityNotifier = null;
 
@@ -107,7 +120,15 @@ public class Dispatcher implements AppPlugin {
       this.api = api;
       this.messageQueue = MessageQueueFactory.getInstance(AppConfig.get());
       this.client = new SpApiClient(api);
-      dispatcher.scheduleAtFixedRate(() -> {
+      this.polling = PollingStrategy.fromConfig();
+      this.smartcardSync = new SmartcardSync(api, client, AppConfig.get().getSmartcardsEndpoint());
+      this.outboxSender = new OutboxSender(api.getStorageHandler().getOutboxStorage(), client);
+      // server may send next work request in response to result delivered in background
+      outboxSender.setContinuation((entry, response, authProvider) ->
+          dispatcher.execute(() -> resumeWork(entry, response, authProvider)));
+      logger.info("Polling strategy: " + polling.getName());
+      this.coalescer = new LinkCoalescer(AppConfig.get().getLinkCoalesceWindow());
+      dispatcher.scheduleWithFixedDelay(() -> {
         // init thread
         if (!initialized) {
           logger.info("Dispatcher thread started");
@@ -115,11 +136,29 @@ public class Dispatcher implements AppPlugin {
           initializedDate = new Date();
         }
         try {
-          validateMessage(messageQueue.getMessage());
+          // wait until message arrives, timeout serves as a safety-net queue scan
+          Message message = messageQueue.takeMessage(QUEUE_SCAN_MILLISECONDS, TimeUnit.MILLISECONDS);
+          if (message != null) {
+            // take all other pending messages so duplicates can be coalesced
+            List<Message> messages = new ArrayList<>();
+            messages.add(message);
+            messages.addAll(messageQueue.drain(MAX_DRAIN_MESSAGES));
+            for (Message m : messages) {
+              String linkKey = LinkCoalescer.getLinkKey(m);
+              if (coalescer.isDuplicate(linkKey, m.getTimestamp(), System.currentTimeMillis())) {
+                logger.info("Coalescing duplicate message: "+m.getId());
+                String messageText = ResourceUtils.getBundle().getString("notification.event.duplicate");
+                api.getEventsStorage().addNotification(new EventNotification(messageText, MessageType.INFO));
+                continue;
+              }
+              validateMessage(m);
+              coalescer.executed(linkKey, System.currentTimeMillis()); // window runs from the end of execution
+            }
+          }
         } catch (Exception e) {
           logger.error(e.getMessage(), e);
         }
-      }, 1000, 500, TimeUnit.MILLISECONDS);
+      }, 1000, 1, TimeUnit.MILLISECONDS);
     } catch (Exception e) {
       logger.error(e.getMessage(), e);
       return List.of(new InitErrorMessage(this.getClass().getSimpleName(), "error.application.init", e));
@@ -136,6 +175,11 @@ public class Dispatcher implements AppPlugin {
         return;
       }
       logger.info("Processing message: "+message.getId());
+      Tracer.start("dispatch").setAttribute("message", message.getId());
+      if (message.getTimestamp() != null) {
+        // time the message waited in the queue
+        Tracer.record("queue", message.getTimestamp(), System.currentTimeMillis());
+      }
       // payload?
       byte[] payload = message.getPayload();
       if (payload == null) {
@@ -171,9 +215,23 @@ public class Dispatcher implements AppPlugin {
       // process version
       // TODO
       String magicLink = URLDecoder.decode(magicParam.getValue(), UTF_8);
-      AuthenticationProvider tokenProvider = new BearerTokenProvider(magicLink, api); // obtain authorization credentials
-      Execution<?> result = processMessage(tokenProvider);
-      if (result != null) {
+      Execution<?> result;
+      AuthenticationProvider authProvider;
+      try (Span span = Tracer.span("token")) {
+        try {
+          authProvider = new BearerTokenProvider(magicLink, api); // obtain authorization credentials
+        } catch (AuthenticationProviderException | SSLCommunicationException e) {
+          span.setError(e);
+          throw e;
+        }
+      }
+      try (AuthenticationProvider tokenProvider = authProvider) {
+        result = processMessage(tokenProvider);
+      }
+      if (resultQueued) {
+        notificationProperty = "notification.event.outbox";
+        notificationType = MessageType.INFO;
+      } else if (result != null) {
         if (result.isSuccess()) {
           notificationProperty = "notification.event.success";
           notificationType = MessageType.SUCCESS;
@@ -231,6 +289,11 @@ public class Dispatcher implements AppPlugin {
       notificationType = MessageType.ERROR;
     } finally {
       closeIdleNotifier();
+      Trace trace = Tracer.finish();
+      if (trace != null) {
+        logger.info("Message " + message.getId() + " processed, trace: " + trace.getTraceId());
+        TraceExporter.export(trace);
+      }
       if (notificationProperty != null) {
         // close notification
         String messageText = ResourceUtils.getBundle().getString(notificationProperty);
@@ -242,102 +305,225 @@ public class Dispatcher implements AppPlugin {
   private Execution<?> processMessage(AuthenticationProvider tokenProvider) throws AuthenticationProviderException,
       GeneralSecurityException, URISyntaxException, IOException, InterruptedException {
     String url = tokenProvider.getRedirectUri();
+    resultQueued = false;
     boolean sync = performSync();
-    Execution<?> result;
-    do {
-      // GET work request
-      HttpResponse response = client.call("GET", url, tokenProvider, null, sync);
-      if (response.getCode() == HttpStatus.SC_ACCEPTED) {
-        idle(); // wait operation = go back to GET method
-        continue;
-      } else if (response.getCode() == HttpStatus.SC_NO_CONTENT) {
-        return null; // no work - finish process
-      } else if (response.getCode() != HttpStatus.SC_OK) {
-        // unexpected status code result
-        throw new HttpResponseException(response.getCode(), response.getReasonPhrase());
-      }
-      closeIdleNotifier();
-      BaseRequest req = GsonHelper.fromJson(new String(response.getContent(), StandardCharsets.UTF_8), BaseRequest.class);
-      // execute  result
-      while (true) {
-        // check if request is present
-        if (req == null) {
-          break;
+    if (sync && smartcardSync.isEnabled()) {
+      try (Span span = Tracer.span("sync")) {
+        boolean synced = smartcardSync.sync(url, tokenProvider);
+        span.setAttribute("synchronized", synced);
+        if (synced) {
+          // database synchronized by its own endpoint, no need to send it with work request
+          lastSyncTimestamp = System.currentTimeMillis();
+          sync = false;
         }
-        // check session
-        if (!checkSession(req.getSession(), url, tokenProvider)) {
-          return null;
+      }
+    }
+    client.drainResilienceEvents(); // drop events of previous process
+    auditPolls = 0;
+    auditWaited = 0L;
+    return processWork(url, tokenProvider, sync, null);
+  }
+
+  /**
+   * Execute work requests until the server has no more work
+   * @param url Work endpoint
+   * @param tokenProvider Credentials of the process
+   * @param sync Send supported hardware database with work request
+   * @param response Server response to delivered result to continue with, null to ask for work
+   * @return Last flow result, null if no flow was executed
+   */
+  private Execution<?> processWork(String url, AuthenticationProvider tokenProvider, boolean sync,
+                                   HttpResponse response) throws AuthenticationProviderException,
+      GeneralSecurityException, URISyntaxException, IOException, InterruptedException {
+    Execution<?> result = null;
+    while (true) {
+      BaseRequest req;
+      if (response == null) {
+        // GET work request
+        long requestStart = System.currentTimeMillis();
+        response = client.call("GET", url, tokenProvider, null, sync, polling.getWait());
+        if (response.getCode() == HttpStatus.SC_ACCEPTED) {
+          idle(response, System.currentTimeMillis() - requestStart); // wait operation = go back to GET method
+          response = null;
+          continue;
+        } else if (response.getCode() == HttpStatus.SC_NO_CONTENT) {
+          return null; // no work - finish process
+        } else if (response.getCode() != HttpStatus.SC_OK) {
+          // unexpected status code result
+          throw new HttpResponseException(response.getCode(), response.getReasonPhrase());
         }
-        // notification
-        api.getSystray().pushNotification(new EventNotification(req.getDescription()));
-        // synchronize supported hardware database
-        sync = sync && syncDevices(req);
-        // execute flow
-        result = executeFlow(req, response.getContent());
-        if (result != null) {
-          audit(result, response);
-          // send results
-          response = client.call("POST", url, tokenProvider, result, false);
-          // flow finished and result successfully transmitted
-          flowFinished(req, result);
-          // process response
-          int responseCode = response.getCode();
-          if (responseCode == HttpStatus.SC_OK) {
-            req = GsonHelper.fromJson(new String(response.getContent(), StandardCharsets.UTF_8), BaseRequest.class);
-          } else if (responseCode == HttpStatus.SC_NO_CONTENT) {
-            return result; // no more work - finish process
-          } else if (responseCode == HttpStatus.SC_SEE_OTHER || responseCode == HttpStatus.SC_MOVED_TEMPORARILY) {
-            url = HttpUtils.getLocationURI(response);
-            break; // go back to GET method
-          } else if (responseCode == HttpStatus.SC_ACCEPTED) {
-            idle();
-            break; // wait operation = go back to GET method
-          }
+        closeIdleNotifier();
+        req = GsonHelper.fromJson(response.getJson(), BaseRequest.class);
+      } else {
+        // process response to the result
+        int responseCode = response.getCode();
+        if (responseCode == HttpStatus.SC_OK) {
+          req = GsonHelper.fromJson(response.getJson(), BaseRequest.class);
+        } else if (responseCode == HttpStatus.SC_NO_CONTENT) {
+          return result; // no more work - finish process
+        } else if (responseCode == HttpStatus.SC_SEE_OTHER || responseCode == HttpStatus.SC_MOVED_TEMPORARILY) {
+          url = HttpUtils.getLocationURI(response);
+          response = null;
+          continue; // go back to GET method
+        } else if (responseCode == HttpStatus.SC_ACCEPTED) {
+          idle(response, 0);
+          response = null;
+          continue; // wait operation = go back to GET method
+        } else {
+          // unexpected status code result
+          throw new HttpResponseException(responseCode, response.getReasonPhrase());
         }
       }
-    } while (true); // batch ended
+      // check if request is present
+      if (req == null) {
+        response = null;
+        continue;
+      }
+      // check session
+      if (!checkSession(req.getSession(), url, tokenProvider)) {
+        return null;
+      }
+      // results left undelivered for this endpoint and session
+      outboxSender.resume(url, getSessionId(req), tokenProvider);
+      // notification
+      api.getSystray().pushNotification(new EventNotification(req.getDescription()));
+      // synchronize supported hardware database
+      sync = sync && syncDevices(req);
+      // execute flow
+      result = executeFlow(req);
+      // send results
+      try (Span span = Tracer.span("result")) {
+        span.setAttribute("success", result.isSuccess());
+        audit(result, response);
+        response = sendResult(url, tokenProvider, req, result);
+        span.setAttribute("queued", response == null);
+      }
+      // flow finished, result transmitted or kept in outbox
+      flowFinished(req, result);
+      if (response == null) {
+        // result kept in outbox, process cannot continue without server
+        return result;
+      }
+    }
   }
 
-  private Execution<?> executeFlow(BaseRequest req, byte[] requestData) {
-    // start flow
+  /**
+   * Continue the process after its result was delivered from the outbox
+   * @param entry Delivered outbox entry
+   * @param response Server response to the result
+   * @param authProvider Credentials the result was delivered with
+   */
+  private void resumeWork(OutboxEntry entry, HttpResponse response, AuthenticationProvider authProvider) {
+    logger.info("Continuing process of delivered outbox entry: "+entry.getRequestId());
+    Tracer.start("outbox").setAttribute("entry", entry.getRequestId());
+    try {
+      resultQueued = false;
+      processWork(entry.getUrl(), authProvider, false, response);
+    } catch (Exception e) {
+      logger.error("Unable to continue process of outbox entry "+entry.getRequestId()+": "+e.getMessage(), e);
+      String messageText = ResourceUtils.getBundle().getString("notification.event.fatal");
+      api.getSystray().pushNotification(new EventNotification(messageText, MessageType.ERROR, true, 5));
+    } finally {
+      closeIdleNotifier();
+      Trace trace = Tracer.finish();
+      if (trace != null) {
+        TraceExporter.export(trace);
+      }
+    }
+  }
+
+  /**
+   * Send flow result, result that could not be delivered because the server is unreachable is kept in the outbox
+   * and delivered in background, so the card operation does not need to be repeated
+   * @return Server response or null if the result was queued
+   */
+  private HttpResponse sendResult(String url, AuthenticationProvider tokenProvider, BaseRequest req,
+                                  Execution<?> result)
+      throws AuthenticationProviderException, GeneralSecurityException, URISyntaxException, IOException {
+    String requestId = UUID.randomUUID().toString();
+    try {
+      return client.call("POST", url, tokenProvider, result, false, 0,
+          new BasicHeader(ResilientTransport.IDEMPOTENCY_KEY, requestId));
+    } catch (IOException | RuntimeException | AuthenticationProviderException e) {
+      if (!OutboxSender.isUndelivered(e)) {
+        throw e;
+      }
+      logger.error("Unable to send result: "+e.getMessage(), e);
+      long now = System.currentTimeMillis();
+      String flowId = result.getStepId() != null ? String.valueOf(result.getStepId()) : req.getOperation();
+      outboxSender.enqueue(new OutboxEntry(requestId, flowId, getSessionId(req), url, GsonHelper.toJson(result),
+          new Date(now), new Date(now + AppConfig.get().getOutboxExpiration())), tokenProvider);
+      resultQueued = true;
+      return null;
+    }
+  }
+
+  private Execution<?> executeFlow(BaseRequest req) {
+    // start flow, request is already deserialized as the concrete type of the operation
     Execution<?> result;
-    switch (req.getOperation()) {
-      case GET_CERTIFICATE:
-        GetCertificateRequest getCertificateRequest = GsonHelper.fromJson(new String(requestData, StandardCharsets.UTF_8),
-                GetCertificateRequest.class);
-        result = api.getCertificate(getCertificateRequest);
-        break;
-      case SIGN:
-        SignatureRequest signatureRequest = GsonHelper.fromJson(new String(requestData, StandardCharsets.UTF_8), SignatureRequest.class);
-        result = api.sign(signatureRequest);
-        result.setStepId(signatureRequest.getSignParams().getStepId());
-        break;
-      default:
-        throw new IllegalStateException("Unknown operation: " + req.getOperation());
+    try (Span span = Tracer.span("flow")) {
+      span.setAttribute("operation", req.getOperation());
+      switch (req.getOperation()) {
+        case GET_CERTIFICATE:
+          result = api.getCertificate((GetCertificateRequest) req);
+          break;
+        case SIGN:
+          SignatureRequest signatureRequest = (SignatureRequest) req;
+          result = api.sign(signatureRequest);
+          result.setStepId(signatureRequest.getSignParams().getStepId());
+          break;
+        case BATCH_SIGN:
+          // step of each signature is part of the result
+          result = api.batchSign((BatchSignatureRequest) req);
+          break;
+        default:
+          throw new IllegalStateException("Unknown operation: " + req.getOperation());
+      }
     }
     return result;
   }
 
+  private static String getSessionId(BaseRequest req) {
+    return req.getSession() != null ? req.getSession().getSessionId() : null;
+  }
+
   private boolean checkSession(SessionValue sessionValue, String url, AuthenticationProvider tokenProvider)
       throws AuthenticationProviderException, GeneralSecurityException, URISyntaxException, IOException {
-    Execution<?> result = api.checkSession(sessionValue);
-    if (!result.isSuccess()) {
-      client.call("POST", url, tokenProvider, result, false);
-      logger.error("Session invalid, stop process");
-      return false;
+    try (Span span = Tracer.span("session")) {
+      Execution<?> result = api.checkSession(sessionValue);
+      if (!result.isSuccess()) {
+        span.setAttribute("error", result.getError());
+        client.call("POST", url, tokenProvider, result, false);
+        logger.error("Session invalid, stop process");
+        return false;
+      }
+      return true;
     }
-    return true;
   }
 
-  private void idle() throws InterruptedException {
+  /**
+   * Wait before polling pending work again, delay is given by the polling strategy
+   * @param response Pending response
+   * @param requestMillis Duration of the pending request (server may hold long-poll request)
+   */
+  private void idle(HttpResponse response, long requestMillis) throws InterruptedException {
     if (idleIndicator == null) {
       idleIndicator = new BusyIndicator(true, true);
-      idleWaitStart = System.currentTimeMillis();
+      idleWaitStart = System.currentTimeMillis() - requestMillis;
     }
     if (activityNotifier == null) {
       activityNotifier = new LongActivityNotifier(api, "notification.long.activity.idle", LONG_ACTIVITY_IDLE_MILLISECONDS);
     }
-    Thread.sleep(IDLE_PERIOD_MILLISECONDS);
+    idlePolls++;
+    long delay = polling.nextDelay(idlePolls, requestMillis, response);
+    long remaining = IDLE_TIMEOUT_MILLISECONDS - (System.currentTimeMillis() - idleWaitStart);
+    long sleep = Math.max(0, Math.min(delay, remaining + 1));
+    try (Span span = Tracer.span("idle")) {
+      span.setAttribute("poll", idlePolls);
+      Thread.sleep(sleep);
+    }
+    auditPolls++;
+    auditWaited += requestMillis + sleep;
     if (System.currentTimeMillis() - idleWaitStart > IDLE_TIMEOUT_MILLISECONDS) {
       throw new GenericApiException("Operation timeout, server communication stalled", "dispatcher.idle.error");
     }
@@ -349,8 +535,7 @@ public class Dispatcher implements AppPlugin {
       return true; // try again
     }
     logger.info("Synchronizing supported hardware tokens database");
-    byte[] digest = DSSUtils.digest(DigestAlgorithm.SHA1, smartcardInfos.toString().getBytes());
-    api.supportedSmartcardInfos(smartcardInfos, digest);
+    api.supportedSmartcardInfos(smartcardInfos, Collections.emptyList());
     // mark sync time
     lastSyncTimestamp = System.currentTimeMillis();
     return false; // synchronized
@@ -363,6 +548,19 @@ public class Dispatcher implements AppPlugin {
 
   private void audit(Execution<?> result, HttpResponse response) {
     Audit audit = new Audit(result.getUsedProduct(), initializedDate);
+    List<ResilienceEvent> events = client.drainResilienceEvents();
+    if (!events.isEmpty()) {
+      audit.setCommunication(events);
+    }
+    if (auditPolls > 0) {
+      audit.setPolling(new Audit.Polling(polling.getName(), auditPolls, auditWaited));
+      auditPolls = 0;
+      auditWaited = 0L;
+    }
+    Trace trace = Tracer.current();
+    if (trace != null) {
+      audit.setTimeline(trace.snapshot());
+    }
     result.setAudit(audit);
   }
 
@@ -388,6 +586,7 @@ public class Dispatcher implements AppPlugin {
    */
   private void closeIdleNotifier() {
     idleWaitStart = 0L;
+    idlePolls = 0;
     if (idleIndicator != null) {
       idleIndicator.close();
       idleIndicator = null;
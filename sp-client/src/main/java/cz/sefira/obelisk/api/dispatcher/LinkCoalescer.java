@@ -0,0 +1,105 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.api.dispatcher;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.api.dispatcher.LinkCoalescer
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import cz.sefira.obelisk.ipc.Message;
+import org.apache.hc.core5.http.NameValuePair;
+import org.apache.hc.core5.net.URIBuilder;
+
+import java.net.URISyntaxException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Coalescing of identical links opened repeatedly (double-click, browser retry). Link received within the window
+ * after the identical link was accepted or executed is a duplicate. The window runs from the end of execution,
+ * so a link opened again while its flow was running is dropped as well.
+ */
+class LinkCoalescer {
+
+  private final long window;
+  // link key -> time the link was last accepted or executed
+  private final Map<String, Long> recentLinks = new HashMap<>();
+
+  /**
+   * @param window Coalesce window in milliseconds, zero or negative disables coalescing
+   */
+  LinkCoalescer(long window) {
+    this.window = window;
+  }
+
+  /**
+   * Returns key identifying the link by its magic link and language parameters
+   * @param message Queue message
+   * @return Link key or null if message does not carry a magic link
+   */
+  static String getLinkKey(Message message) {
+    if (message.getPayload() == null) {
+      return null;
+    }
+    try {
+      URIBuilder uriBuilder = new URIBuilder(new String(message.getPayload()));
+      NameValuePair magicParam = uriBuilder.getFirstQueryParam("m");
+      if (magicParam == null || magicParam.getValue() == null) {
+        return null;
+      }
+      NameValuePair langParam = uriBuilder.getFirstQueryParam("l");
+      return magicParam.getValue() + "\n" + (langParam != null ? langParam.getValue() : "");
+    } catch (URISyntaxException e) {
+      return null; // rejected during validation
+    }
+  }
+
+  /**
+   * Check if identical link was already accepted within the window, link that is not a duplicate is accepted
+   * @param linkKey Link key
+   * @param received Time the message was received, null if unknown
+   * @param now Current time
+   * @return True if message is a duplicate and must not be executed
+   */
+  boolean isDuplicate(String linkKey, Long received, long now) {
+    recentLinks.values().removeIf(accepted -> now - accepted > window);
+    if (linkKey == null || window <= 0) {
+      return false;
+    }
+    Long accepted = recentLinks.get(linkKey);
+    if (accepted != null && (received != null ? received : now) - accepted <= window) {
+      return true;
+    }
+    recentLinks.put(linkKey, now);
+    return false;
+  }
+
+  /**
+   * Link executed, the window starts again
+   * @param linkKey Link key
+   * @param now Current time
+   */
+  void executed(String linkKey, long now) {
+    if (linkKey != null && window > 0) {
+      recentLinks.put(linkKey, now);
+    }
+  }
+
+}
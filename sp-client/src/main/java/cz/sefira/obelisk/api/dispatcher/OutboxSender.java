@@ -0,0 +1,249 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.api.dispatcher;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.api.dispatcher.OutboxSender
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import com.google.gson.JsonParser;
+import cz.sefira.obelisk.api.ws.HttpResponseException;
+import cz.sefira.obelisk.api.ws.SpApiClient;
+import cz.sefira.obelisk.api.ws.auth.AuthenticationProvider;
+import cz.sefira.obelisk.api.ws.auth.AuthenticationProviderException;
+import cz.sefira.obelisk.api.ws.auth.CommunicationExpirationException;
+import cz.sefira.obelisk.api.ws.resilience.CircuitOpenException;
+import cz.sefira.obelisk.api.ws.resilience.ResilientTransport;
+import cz.sefira.obelisk.api.ws.ssl.HttpResponse;
+import cz.sefira.obelisk.api.ws.ssl.SSLCommunicationException;
+import cz.sefira.obelisk.storage.OutboxStorage;
+import cz.sefira.obelisk.storage.model.OutboxEntry;
+import org.apache.hc.core5.http.HttpStatus;
+import org.apache.hc.core5.http.message.BasicHeader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Background delivery of flow results kept in the outbox. Each result is delivered with credentials of the process
+ * that produced it, failed attempts are retried with exponential backoff until the entry expires. Entries left
+ * over from previous run are resumed when a new process works with the same endpoint in the same session, other
+ * entries without credentials expire undelivered. Server response to the delivered result (next work request,
+ * redirect or wait) is passed to the {@link Continuation}.
+ */
+public class OutboxSender {
+
+  private static final Logger logger = LoggerFactory.getLogger(OutboxSender.class.getName());
+
+  private static final long INITIAL_BACKOFF_MILLISECONDS = 2000;
+  private static final long MAX_BACKOFF_MILLISECONDS = TimeUnit.MINUTES.toMillis(2);
+
+  private static final ScheduledExecutorService sender = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread t = new Thread(r, "OutboxSender");
+    t.setDaemon(true);
+    return t;
+  });
+
+  /**
+   * Delivery of the outbox entry to SP API
+   */
+  interface Delivery {
+
+    HttpResponse deliver(OutboxEntry entry, AuthenticationProvider authProvider) throws Exception;
+
+  }
+
+  /**
+   * Process continued by the server response to the delivered result
+   */
+  public interface Continuation {
+
+    /**
+     * @param entry Delivered outbox entry
+     * @param response Server response other than no content (no more work)
+     * @param authProvider Credentials the result was delivered with
+     */
+    void resume(OutboxEntry entry, HttpResponse response, AuthenticationProvider authProvider);
+
+  }
+
+  private final OutboxStorage outbox;
+  private final Delivery delivery;
+  private final long initialBackoff;
+  private final long maxBackoff;
+  private final Map<String, AuthenticationProvider> credentials = new ConcurrentHashMap<>();
+  private final Map<String, ScheduledFuture<?>> scheduled = new ConcurrentHashMap<>();
+  private volatile Continuation continuation;
+
+  public OutboxSender(OutboxStorage outbox, SpApiClient client) {
+    this(outbox, (entry, authProvider) -> client.call("POST", entry.getUrl(), authProvider,
+        JsonParser.parseString(entry.getPayload()), false, 0,
+        new BasicHeader(ResilientTransport.IDEMPOTENCY_KEY, entry.getRequestId())),
+        INITIAL_BACKOFF_MILLISECONDS, MAX_BACKOFF_MILLISECONDS);
+  }
+
+  OutboxSender(OutboxStorage outbox, Delivery delivery, long initialBackoff, long maxBackoff) {
+    this.outbox = outbox;
+    this.delivery = delivery;
+    this.initialBackoff = initialBackoff;
+    this.maxBackoff = maxBackoff;
+  }
+
+  /**
+   * Set the continuation of processes whose result was delivered in background, without it the server response
+   * is only logged
+   */
+  public void setContinuation(Continuation continuation) {
+    this.continuation = continuation;
+  }
+
+  /**
+   * Persist undelivered result and schedule its delivery
+   * @param entry Outbox entry
+   * @param authProvider Credentials of the process that produced the result
+   * @return False if result with the same request ID is already queued
+   */
+  public boolean enqueue(OutboxEntry entry, AuthenticationProvider authProvider) {
+    if (!outbox.add(entry)) {
+      logger.info("Result already in outbox: "+entry.getRequestId());
+      return false;
+    }
+    logger.info("Result of flow "+entry.getFlowId()+" queued for delivery: "+entry.getRequestId());
+    credentials.put(entry.getRequestId(), authProvider);
+    schedule(entry.getRequestId(), initialBackoff);
+    return true;
+  }
+
+  /**
+   * Resume delivery of entries waiting for credentials (left over from previous run) to the given endpoint
+   * @param url Work endpoint
+   * @param sessionId Work session verified for the current process
+   * @param authProvider Credentials of the current process
+   * @return Number of resumed entries
+   */
+  public int resume(String url, String sessionId, AuthenticationProvider authProvider) {
+    if (sessionId == null) {
+      return 0;
+    }
+    outbox.removeExpired(System.currentTimeMillis());
+    int resumed = 0;
+    for (OutboxEntry entry : outbox.getEntries()) {
+      if (entry.getUrl().equals(url) && sessionId.equals(entry.getSessionId()) &&
+          credentials.putIfAbsent(entry.getRequestId(), authProvider) == null) {
+        schedule(entry.getRequestId(), 0);
+        resumed++;
+      }
+    }
+    if (resumed > 0) {
+      logger.info("Resumed delivery of "+resumed+" outbox entries");
+    }
+    return resumed;
+  }
+
+  /**
+   * Check if the result was not delivered because the server could not be reached, such result is worth keeping
+   * in the outbox. Rejected requests (including server errors that may have processed the result) and SSL trust
+   * issues are not retried. Credentials that could not be refreshed are retried unless the auth server rejected
+   * them.
+   * @param e Failure of the result delivery
+   * @return True if delivery may succeed later
+   */
+  public static boolean isUndelivered(Exception e) {
+    if (e instanceof HttpResponseException) {
+      int code = ((HttpResponseException) e).getStatusCode();
+      return code == HttpStatus.SC_TOO_MANY_REQUESTS || code == HttpStatus.SC_BAD_GATEWAY ||
+          code == HttpStatus.SC_SERVICE_UNAVAILABLE || code == HttpStatus.SC_GATEWAY_TIMEOUT;
+    }
+    if (e instanceof SSLCommunicationException) {
+      return false;
+    }
+    if (e instanceof AuthenticationProviderException) {
+      Throwable cause = e.getCause();
+      return !(cause instanceof HttpResponseException) || isUndelivered((HttpResponseException) cause);
+    }
+    return e instanceof IOException || e instanceof CommunicationExpirationException ||
+        e instanceof CircuitOpenException;
+  }
+
+  private void schedule(String requestId, long delay) {
+    scheduled.compute(requestId, (id, running) -> {
+      if (running != null) {
+        running.cancel(false);
+      }
+      return sender.schedule(() -> attempt(id), delay, TimeUnit.MILLISECONDS);
+    });
+  }
+
+  void attempt(String requestId) {
+    OutboxEntry entry = outbox.get(requestId);
+    AuthenticationProvider authProvider = credentials.get(requestId);
+    if (entry == null || authProvider == null) {
+      return;
+    }
+    if (entry.isExpired(System.currentTimeMillis())) {
+      logger.warn("Outbox entry expired undelivered: "+requestId+" (flow "+entry.getFlowId()+")");
+      finished(requestId);
+      return;
+    }
+    try {
+      HttpResponse response = delivery.deliver(entry, authProvider);
+      logger.info("Outbox entry delivered: "+requestId+" (flow "+entry.getFlowId()+", attempt "+
+          (entry.getAttempts() + 1)+")");
+      finished(requestId);
+      if (response != null && response.getCode() != HttpStatus.SC_NO_CONTENT) {
+        Continuation next = continuation;
+        if (next != null) {
+          next.resume(entry, response, authProvider);
+        } else {
+          logger.warn("Response to outbox entry "+requestId+" ignored: "+response.getCode());
+        }
+      }
+    } catch (Exception e) {
+      if (!isUndelivered(e)) {
+        logger.error("Outbox entry rejected: "+requestId+" - "+e.getMessage(), e);
+        finished(requestId);
+        return;
+      }
+      entry.failed(e.getClass().getSimpleName()+": "+e.getMessage());
+      outbox.update(entry);
+      long delay = backoff(entry.getAttempts());
+      logger.warn("Outbox entry "+requestId+" not delivered ("+entry.getLastError()+"), retry in "+delay+" ms");
+      schedule(requestId, delay);
+    }
+  }
+
+  /**
+   * Exponential backoff, delay is shortened by random jitter (up to a quarter) so entries do not retry in bursts
+   */
+  long backoff(int attempts) {
+    long delay = Math.min(initialBackoff << Math.min(attempts - 1, 20), maxBackoff);
+    return delay - ThreadLocalRandom.current().nextLong(delay / 4 + 1);
+  }
+
+  private void finished(String requestId) {
+    outbox.remove(requestId);
+    credentials.remove(requestId);
+    scheduled.remove(requestId);
+  }
+
+}
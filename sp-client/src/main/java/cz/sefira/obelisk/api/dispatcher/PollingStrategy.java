@@ -0,0 +1,214 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.api.dispatcher;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.api.dispatcher.PollingStrategy
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import cz.sefira.obelisk.api.AppConfig;
+import cz.sefira.obelisk.api.ws.ssl.HttpResponse;
+import cz.sefira.obelisk.util.HttpUtils;
+import org.apache.hc.core5.http.Header;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polling of pending SP API work (202 Accepted). Delay requested by the server (Retry-After or poll interval hint)
+ * takes precedence over the strategy schedule.
+ */
+public abstract class PollingStrategy {
+
+  private static final Logger logger = LoggerFactory.getLogger(PollingStrategy.class.getName());
+
+  public static final String FIXED = "fixed";
+  public static final String ADAPTIVE = "adaptive";
+  public static final String LONG_POLL = "long-poll";
+
+  /**
+   * Custom hint header with poll interval in milliseconds
+   */
+  public static final String POLL_INTERVAL_HEADER = "X-Poll-Interval";
+
+  private static final long FIXED_PERIOD_MILLISECONDS = TimeUnit.SECONDS.toMillis(2);
+  private static final long ADAPTIVE_INITIAL_MILLISECONDS = 100;
+  private static final long ADAPTIVE_MAX_MILLISECONDS = TimeUnit.SECONDS.toMillis(2);
+  private static final long MAX_HINT_MILLISECONDS = TimeUnit.SECONDS.toMillis(30);
+
+  /**
+   * Create strategy selected by application configuration
+   * @return Polling strategy
+   */
+  public static PollingStrategy fromConfig() {
+    return create(AppConfig.get().getPollingStrategy(), AppConfig.get().getPollingLongWait());
+  }
+
+  /**
+   * Create strategy
+   * @param name Strategy name (fixed, adaptive or long-poll)
+   * @param longWait Period (s) the server may hold long-poll request open
+   * @return Polling strategy, adaptive if name is unknown
+   */
+  public static PollingStrategy create(String name, long longWait) {
+    if (FIXED.equals(name)) {
+      return new Fixed(FIXED_PERIOD_MILLISECONDS);
+    } else if (LONG_POLL.equals(name) && longWait > 0) {
+      return new LongPoll(longWait, new Adaptive(ADAPTIVE_INITIAL_MILLISECONDS, ADAPTIVE_MAX_MILLISECONDS));
+    } else if (name != null && !ADAPTIVE.equals(name)) {
+      logger.warn("Unknown polling strategy: " + name + ", using " + ADAPTIVE);
+    }
+    return new Adaptive(ADAPTIVE_INITIAL_MILLISECONDS, ADAPTIVE_MAX_MILLISECONDS);
+  }
+
+  public abstract String getName();
+
+  /**
+   * Period (s) the server may hold the work request open until work is ready
+   * @return Wait period or 0 if long-poll is not used
+   */
+  public long getWait() {
+    return 0;
+  }
+
+  /**
+   * Returns delay before next poll
+   * @param poll Number of pending responses received in current waiting period (starting from 1)
+   * @param requestMillis Duration of the last request
+   * @param response Pending response
+   * @return Delay in milliseconds
+   */
+  public long nextDelay(int poll, long requestMillis, HttpResponse response) {
+    long hint = getServerHint(response != null ? response.getHeaders() : null);
+    if (hint >= 0) {
+      return Math.min(hint, MAX_HINT_MILLISECONDS);
+    }
+    return schedule(poll, requestMillis);
+  }
+
+  /**
+   * Delay of the strategy schedule
+   */
+  protected abstract long schedule(int poll, long requestMillis);
+
+  /**
+   * Returns delay requested by the server, Retry-After or poll interval hint
+   * @return Delay in milliseconds or -1 if server did not ask for any
+   */
+  static long getServerHint(Header[] headers) {
+    long retryAfter = HttpUtils.getRetryAfter(headers);
+    if (retryAfter >= 0 || headers == null) {
+      return retryAfter;
+    }
+    for (Header h : headers) {
+      if (POLL_INTERVAL_HEADER.equalsIgnoreCase(h.getName()) && h.getValue() != null) {
+        try {
+          return Math.max(0, Long.parseLong(h.getValue().trim()));
+        } catch (NumberFormatException e) {
+          logger.warn("Invalid " + POLL_INTERVAL_HEADER + " value: " + h.getValue());
+        }
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Poll in fixed period
+   */
+  static class Fixed extends PollingStrategy {
+
+    private final long period;
+
+    Fixed(long period) {
+      this.period = period;
+    }
+
+    @Override
+    public String getName() {
+      return FIXED;
+    }
+
+    @Override
+    protected long schedule(int poll, long requestMillis) {
+      return period;
+    }
+  }
+
+  /**
+   * Short initial delay doubled with every poll up to the maximum, fast results are picked up quickly while slow
+   * operations are not polled more often than in fixed period
+   */
+  static class Adaptive extends PollingStrategy {
+
+    private final long initial;
+    private final long max;
+
+    Adaptive(long initial, long max) {
+      this.initial = initial;
+      this.max = max;
+    }
+
+    @Override
+    public String getName() {
+      return ADAPTIVE;
+    }
+
+    @Override
+    protected long schedule(int poll, long requestMillis) {
+      return Math.min(max, initial << Math.min(Math.max(poll - 1, 0), 20));
+    }
+  }
+
+  /**
+   * Server holds the request open until work is ready or wait period elapses, then it is polled again
+   * immediately. If the server answers sooner (long-poll not supported) fallback schedule is used.
+   */
+  static class LongPoll extends PollingStrategy {
+
+    private final long wait;
+    private final PollingStrategy fallback;
+
+    LongPoll(long wait, PollingStrategy fallback) {
+      this.wait = wait;
+      this.fallback = fallback;
+    }
+
+    @Override
+    public String getName() {
+      return LONG_POLL;
+    }
+
+    @Override
+    public long getWait() {
+      return wait;
+    }
+
+    @Override
+    protected long schedule(int poll, long requestMillis) {
+      // request held at least half of the wait period means the server supports long-poll
+      if (requestMillis >= TimeUnit.SECONDS.toMillis(wait) / 2) {
+        return 0;
+      }
+      return fallback.schedule(poll, requestMillis);
+    }
+  }
+
+}
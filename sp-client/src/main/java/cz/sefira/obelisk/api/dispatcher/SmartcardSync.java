@@ -0,0 +1,148 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.api.dispatcher;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.api.dispatcher.SmartcardSync
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import cz.sefira.obelisk.api.PlatformAPI;
+import cz.sefira.obelisk.api.ws.SpApiClient;
+import cz.sefira.obelisk.api.ws.auth.AuthenticationProvider;
+import cz.sefira.obelisk.api.ws.model.SmartcardInfo;
+import cz.sefira.obelisk.api.ws.model.SmartcardsDelta;
+import cz.sefira.obelisk.api.ws.ssl.HttpResponse;
+import cz.sefira.obelisk.json.GsonHelper;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.HttpStatus;
+import org.apache.hc.core5.http.message.BasicHeader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Supported smartcards database synchronization by dedicated endpoint. Requests are conditional (ETag,
+ * Last-Modified) so unchanged database is not transferred, changes since the known version are requested
+ * as delta (RFC 3229, {@code A-IM: smartcards-delta}) and server may still answer with the full database.
+ */
+public class SmartcardSync {
+
+  private static final Logger logger = LoggerFactory.getLogger(SmartcardSync.class.getName());
+
+  public static final String A_IM = "A-IM";
+  public static final String IM = "IM";
+  public static final String DELTA = "smartcards-delta";
+
+  private final PlatformAPI api;
+  private final SpApiClient client;
+  private final String endpoint;
+
+  /**
+   * Validators of the last synchronized version
+   */
+  private String etag;
+  private String lastModified;
+
+  public SmartcardSync(PlatformAPI api, SpApiClient client, String endpoint) {
+    this.api = api;
+    this.client = client;
+    this.endpoint = endpoint;
+  }
+
+  /**
+   * @return True if database is synchronized by dedicated endpoint
+   */
+  public boolean isEnabled() {
+    return endpoint != null && !endpoint.isEmpty();
+  }
+
+  /**
+   * Synchronize supported smartcards database
+   * @param workUrl SP API work URL the endpoint is resolved against
+   * @param authProvider Endpoint authentication
+   * @return True if database is up to date, false if it needs to be sent with work request
+   */
+  public synchronized boolean sync(String workUrl, AuthenticationProvider authProvider) {
+    try {
+      String url = URI.create(workUrl).resolve(endpoint).toString();
+      List<Header> headers = new ArrayList<>();
+      if (etag != null) {
+        headers.add(new BasicHeader(HttpHeaders.IF_NONE_MATCH, etag));
+      }
+      if (lastModified != null) {
+        headers.add(new BasicHeader(HttpHeaders.IF_MODIFIED_SINCE, lastModified));
+      }
+      if (!headers.isEmpty()) {
+        headers.add(new BasicHeader(A_IM, DELTA)); // delta is relative to the known version
+      }
+      HttpResponse response = client.get(url, authProvider, headers.toArray(new Header[0]));
+      switch (response.getCode()) {
+        case HttpStatus.SC_NOT_MODIFIED:
+          logger.info("Supported hardware tokens database not modified");
+          break;
+        case HttpStatus.SC_IM_USED:
+          if (!DELTA.equalsIgnoreCase(getHeader(response, IM))) {
+            logger.warn("Unsupported instance manipulation: " + getHeader(response, IM));
+            return false;
+          }
+          SmartcardsDelta delta = GsonHelper.fromJson(response.getJson(), SmartcardsDelta.class);
+          logger.info("Synchronizing supported hardware tokens database (delta)");
+          api.supportedSmartcardInfos(delta.getChanged() != null ? delta.getChanged() : Collections.emptyList(),
+              delta.getRemoved());
+          break;
+        case HttpStatus.SC_OK:
+          SmartcardInfo[] smartcards = GsonHelper.fromJson(response.getJson(), SmartcardInfo[].class);
+          logger.info("Synchronizing supported hardware tokens database");
+          api.supportedSmartcardInfos(Arrays.asList(smartcards), Collections.emptyList());
+          break;
+        default:
+          return false;
+      }
+      String responseEtag = getHeader(response, HttpHeaders.ETAG);
+      String responseLastModified = getHeader(response, HttpHeaders.LAST_MODIFIED);
+      if (responseEtag != null || responseLastModified != null) {
+        etag = responseEtag;
+        lastModified = responseLastModified;
+      }
+      return true;
+    } catch (Exception e) {
+      logger.warn("Unable to synchronize supported hardware tokens database: " + e.getMessage());
+      return false;
+    }
+  }
+
+  private static String getHeader(HttpResponse response, String name) {
+    if (response.getHeaders() != null) {
+      for (Header h : response.getHeaders()) {
+        if (name.equalsIgnoreCase(h.getName())) {
+          return h.getValue();
+        }
+      }
+    }
+    return null;
+  }
+
+}
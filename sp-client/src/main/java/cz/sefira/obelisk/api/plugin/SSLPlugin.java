@@ -25,8 +25,8 @@ package cz.sefira.obelisk.api.plugin;
 
 import cz.sefira.obelisk.api.PlatformAPI;
 import cz.sefira.obelisk.api.ws.ssl.SSLCertificateProvider;
+import cz.sefira.obelisk.api.ws.ssl.TrustStoreWatcher;
 import cz.sefira.obelisk.storage.SSLCacheStorage;
-import cz.sefira.obelisk.storage.model.CertificateChain;
 import cz.sefira.obelisk.util.X509Utils;
 import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
@@ -62,41 +62,35 @@ public class SSLPlugin implements AppPlugin {
         }
         truststore.load(byteStream, "zx9h6$Cs39CV7DSf#@6d".toCharArray());
       }
-      int count = 0;
+      List<X509Certificate> embedded = new ArrayList<>();
       Enumeration<String> aliases = truststore.aliases();
       while (aliases.hasMoreElements()) {
-        sslProvider.put((X509Certificate) truststore.getCertificate(aliases.nextElement()));
-        count++;
+        embedded.add((X509Certificate) truststore.getCertificate(aliases.nextElement()));
       }
-      logger.info("Loaded "+count+" SSL certificates from embedded truststore");
+      sslProvider.putAll(embedded);
+      logger.info("Loaded "+embedded.size()+" SSL certificates from embedded truststore");
 
       // load SSL certificates from OS specific stores
-      X509Utils.loadSSLCertificates(truststore, sslProvider);
+      List<X509Certificate> anchors = new ArrayList<>(embedded);
+      anchors.addAll(X509Utils.loadSSLCertificates(truststore, sslProvider));
 
       // establish trust store as SSL cert source
       sslProvider.setTrustStore(truststore);
 
-      // add intermediate certificates from cache that complete chains to trusted anchors
+      api.setSslCertificateProvider(sslProvider);
+      logger.info("Trusted SSL certificates in total: "+sslProvider.getUnique().size());
+
+      // rebuild trusted certificates in background when OS stores change
       try {
-        List<CertificateChain> remove = new ArrayList<>();
-        for (CertificateChain chain : cache.getAll()) {
-          if (!sslProvider.addTrustedChain(chain.getCertificateChain(), false)) {
-            remove.add(chain);
-          }
-        }
-        if (remove.size() > 0) {
-          logger.info("Removing " + remove.size() + " from SSL cache");
-        }
-        // remove untrusted certificates from cache
-        for (CertificateChain r : remove) {
-          cache.remove(r);
-        }
+        TrustStoreWatcher watcher = new TrustStoreWatcher(sslProvider, anchors, () -> {
+          List<X509Certificate> reloaded = new ArrayList<>(embedded);
+          reloaded.addAll(X509Utils.loadSystemCertificates());
+          return reloaded;
+        }, X509Utils.getSystemCertificateDirectories());
+        watcher.start();
       } catch (Exception e) {
-        logger.error("Unable to load SSL cache: "+e.getMessage(), e);
+        logger.error("Unable to watch trusted SSL certificates: "+e.getMessage(), e);
       }
-
-      api.setSslCertificateProvider(sslProvider);
-      logger.info("Trusted SSL certificates in total: "+sslProvider.getUnique().size());
     } catch (Exception e) {
       logger.error(e.getMessage(), e);
       return List.of(new InitErrorMessage(this.getClass().getSimpleName(), "error.install.ssl.cert.message", e));
@@ -0,0 +1,165 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.api.trace;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.api.trace.Span
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Timed unit of work within a trace, spans are closed in try-with-resources blocks
+ */
+public class Span implements AutoCloseable {
+
+  /**
+   * Span of code running outside of any trace, records nothing
+   */
+  static final Span NOOP = new Span(null, null, null, "noop", null);
+
+  private final String spanId;
+  private final String parentId;
+  private final String name;
+  private final long start;
+  private Double duration;
+  private Boolean open;
+  private Map<String, String> attributes;
+
+  private final transient Trace trace;
+  private final transient Span parent;
+  private final transient long startNanos;
+
+  Span(Trace trace, Span parent, String spanId, String name, Long start) {
+    this.trace = trace;
+    this.parent = parent;
+    this.spanId = spanId;
+    this.parentId = parent != null ? parent.spanId : null;
+    this.name = name;
+    this.startNanos = System.nanoTime();
+    this.start = start != null ? start : System.currentTimeMillis();
+  }
+
+  /**
+   * Copy of the span for a timeline snapshot, spans still running report elapsed time
+   */
+  Span(Span span, long nanos) {
+    this.trace = null;
+    this.parent = null;
+    this.spanId = span.spanId;
+    this.parentId = span.parentId;
+    this.name = span.name;
+    this.startNanos = span.startNanos;
+    this.start = span.start;
+    synchronized (span) {
+      this.duration = span.duration != null ? span.duration : toMillis(nanos - span.startNanos);
+      this.open = span.duration == null ? Boolean.TRUE : span.open;
+      this.attributes = span.attributes != null ? new LinkedHashMap<>(span.attributes) : null;
+    }
+  }
+
+  public String getSpanId() {
+    return spanId;
+  }
+
+  public String getParentId() {
+    return parentId;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Start time (epoch milliseconds)
+   */
+  public long getStart() {
+    return start;
+  }
+
+  /**
+   * Duration (ms) or null if the span is still running
+   */
+  public Double getDuration() {
+    return duration;
+  }
+
+  public Map<String, String> getAttributes() {
+    return attributes;
+  }
+
+  public boolean isRecording() {
+    return trace != null;
+  }
+
+  /**
+   * Add attribute to the span
+   * @return This span
+   */
+  public synchronized Span setAttribute(String key, Object value) {
+    if (trace != null && value != null) {
+      if (attributes == null) {
+        attributes = new LinkedHashMap<>();
+      }
+      attributes.put(key, String.valueOf(value));
+    }
+    return this;
+  }
+
+  /**
+   * Mark the span failed
+   * @return This span
+   */
+  public Span setError(Throwable e) {
+    return setAttribute("error", e.getClass().getSimpleName() + (e.getMessage() != null ? ": " + e.getMessage() : ""));
+  }
+
+  /**
+   * End the span with explicit duration (spans recorded afterwards)
+   */
+  synchronized void end(double durationMillis) {
+    if (duration == null) {
+      duration = durationMillis;
+    }
+  }
+
+  @Override
+  public void close() {
+    if (trace == null) {
+      return;
+    }
+    end(toMillis(System.nanoTime() - startNanos));
+    Tracer.ended(this);
+  }
+
+  Trace getTrace() {
+    return trace;
+  }
+
+  Span getParent() {
+    return parent;
+  }
+
+  private static double toMillis(long nanos) {
+    return Math.round(nanos / 1000.0) / 1000.0;
+  }
+
+}
@@ -0,0 +1,83 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.api.trace;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.api.trace.Trace
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import cz.sefira.obelisk.json.GsonHelper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Timeline of spans sharing one trace identifier (W3C trace context), spans are in order of their start
+ */
+public class Trace {
+
+  private final String traceId;
+  private final List<Span> spans;
+
+  Trace(String traceId) {
+    this(traceId, new ArrayList<>());
+  }
+
+  private Trace(String traceId, List<Span> spans) {
+    this.traceId = traceId;
+    this.spans = spans;
+  }
+
+  public String getTraceId() {
+    return traceId;
+  }
+
+  /**
+   * @return Copy of recorded spans
+   */
+  public synchronized List<Span> getSpans() {
+    return new ArrayList<>(spans);
+  }
+
+  synchronized void add(Span span) {
+    spans.add(span);
+  }
+
+  /**
+   * Copy of the timeline, spans still running report time elapsed so far
+   * @return Timeline snapshot
+   */
+  public synchronized Trace snapshot() {
+    long now = System.nanoTime();
+    List<Span> copy = new ArrayList<>(spans.size());
+    for (Span span : spans) {
+      copy.add(new Span(span, now));
+    }
+    return new Trace(traceId, copy);
+  }
+
+  /**
+   * @return Timeline as JSON
+   */
+  public String toJson() {
+    return GsonHelper.toJson(snapshot());
+  }
+
+}
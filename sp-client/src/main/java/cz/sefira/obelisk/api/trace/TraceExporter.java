@@ -0,0 +1,106 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.api.trace;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.api.trace.TraceExporter
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import cz.sefira.obelisk.api.AppConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Export of flow timelines as JSON files, only the most recent timelines are kept
+ */
+public class TraceExporter {
+
+  private static final Logger logger = LoggerFactory.getLogger(TraceExporter.class.getName());
+
+  private static final String TRACES_DIRECTORY = "traces";
+  private static final int MAX_EXPORTED_TRACES = 50;
+
+  private static final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+    Thread t = new Thread(r, "TraceExport");
+    t.setDaemon(true);
+    return t;
+  });
+
+  private final Path directory;
+  private final int maxTraces;
+
+  TraceExporter(Path directory, int maxTraces) {
+    this.directory = directory;
+    this.maxTraces = maxTraces;
+  }
+
+  /**
+   * Export the timeline in background if enabled by configuration
+   * @param trace Finished trace
+   */
+  public static void export(Trace trace) {
+    AppConfig config = AppConfig.get();
+    if (trace == null || !config.isTracingExport() || config.getAppUserHome() == null) {
+      return;
+    }
+    TraceExporter exporter = new TraceExporter(config.getAppUserHome().toPath().resolve(TRACES_DIRECTORY),
+        MAX_EXPORTED_TRACES);
+    executor.execute(() -> {
+      try {
+        exporter.write(trace);
+      } catch (IOException e) {
+        logger.warn("Unable to export trace " + trace.getTraceId() + ": " + e.getMessage());
+      }
+    });
+  }
+
+  /**
+   * Write the timeline and remove the oldest ones over the limit
+   * @return Written file
+   */
+  Path write(Trace trace) throws IOException {
+    Files.createDirectories(directory);
+    String time = new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date());
+    Path file = directory.resolve(time + "-" + trace.getTraceId() + ".json");
+    Files.writeString(file, trace.toJson(), StandardCharsets.UTF_8);
+    List<Path> exported;
+    try (Stream<Path> files = Files.list(directory)) {
+      // file names start with export time
+      exported = files.filter(p -> p.getFileName().toString().endsWith(".json")).sorted().collect(Collectors.toList());
+    }
+    for (int i = 0; i < exported.size() - maxTraces; i++) {
+      Files.deleteIfExists(exported.get(i));
+    }
+    return file;
+  }
+
+}
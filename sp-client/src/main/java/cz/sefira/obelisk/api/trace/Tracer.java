@@ -0,0 +1,176 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.api.trace;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.api.trace.Tracer
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import cz.sefira.obelisk.api.AppConfig;
+import cz.sefira.obelisk.util.TextUtils;
+
+import java.security.SecureRandom;
+import java.util.concurrent.Callable;
+
+/**
+ * Lightweight flow tracing. Trace is bound to the thread that started it and spans opened on that thread
+ * (or on threads running {@link #wrap(Callable) wrapped} tasks) are recorded as children of the current span.
+ * Code running outside of a trace gets no-op spans.
+ */
+public class Tracer {
+
+  private static final SecureRandom random = new SecureRandom();
+
+  private static final ThreadLocal<Span> current = new ThreadLocal<>();
+
+  private Tracer() {}
+
+  /**
+   * Start new trace bound to the current thread, tracing disabled by configuration returns no-op span
+   * @param name Root span name
+   * @return Root span, closing it does not unbind the trace (see {@link #finish()})
+   */
+  public static Span start(String name) {
+    if (!AppConfig.get().isTracingEnabled()) {
+      return Span.NOOP;
+    }
+    Trace trace = new Trace(randomId(16));
+    Span root = new Span(trace, null, randomId(8), name, null);
+    trace.add(root);
+    current.set(root);
+    return root;
+  }
+
+  /**
+   * Open child span of the current span
+   * @param name Span name
+   * @return Span to be closed, no-op span outside of a trace
+   */
+  public static Span span(String name) {
+    Span parent = current.get();
+    if (parent == null) {
+      return Span.NOOP;
+    }
+    Trace trace = parent.getTrace();
+    Span span = new Span(trace, parent, randomId(8), name, null);
+    trace.add(span);
+    current.set(span);
+    return span;
+  }
+
+  /**
+   * Record already finished child span of the current span (e.g. time spent in queue)
+   * @param name Span name
+   * @param start Start time (epoch milliseconds)
+   * @param end End time (epoch milliseconds)
+   */
+  public static void record(String name, long start, long end) {
+    Span parent = current.get();
+    if (parent == null) {
+      return;
+    }
+    Span span = new Span(parent.getTrace(), parent, randomId(8), name, start);
+    span.end(Math.max(0, end - start));
+    parent.getTrace().add(span);
+  }
+
+  /**
+   * @return Trace bound to the current thread or null
+   */
+  public static Trace current() {
+    Span span = current.get();
+    return span != null ? span.getTrace() : null;
+  }
+
+  /**
+   * Trace context of the current span for outgoing requests
+   * @return W3C traceparent header value or null outside of a trace
+   */
+  public static String traceparent() {
+    Span span = current.get();
+    if (span == null) {
+      return null;
+    }
+    return "00-" + span.getTrace().getTraceId() + "-" + span.getSpanId() + "-01";
+  }
+
+  /**
+   * End all spans of the current thread and unbind the trace
+   * @return Finished trace or null if no trace was bound
+   */
+  public static Trace finish() {
+    Span span = current.get();
+    if (span == null) {
+      return null;
+    }
+    current.remove();
+    Span root = span;
+    while (root.getParent() != null) {
+      root = root.getParent();
+    }
+    for (Span s : root.getTrace().getSpans()) {
+      if (s.getDuration() == null) {
+        s.close();
+      }
+    }
+    return root.getTrace();
+  }
+
+  /**
+   * Propagate trace context of the current thread to a task executed by another thread
+   * @param task Task
+   * @return Task running with the captured context
+   */
+  public static <T> Callable<T> wrap(Callable<T> task) {
+    Span captured = current.get();
+    if (captured == null) {
+      return task;
+    }
+    return () -> {
+      Span previous = current.get();
+      current.set(captured);
+      try {
+        return task.call();
+      } finally {
+        if (previous != null) {
+          current.set(previous);
+        } else {
+          current.remove();
+        }
+      }
+    };
+  }
+
+  /**
+   * Closed span gives the current position back to its parent
+   */
+  static void ended(Span span) {
+    if (current.get() == span && span.getParent() != null) {
+      current.set(span.getParent());
+    }
+  }
+
+  private static String randomId(int bytes) {
+    byte[] id = new byte[bytes];
+    random.nextBytes(id);
+    return TextUtils.encodeHexString(id).toLowerCase();
+  }
+
+}
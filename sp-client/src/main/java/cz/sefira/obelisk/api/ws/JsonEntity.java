@@ -0,0 +1,92 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.api.ws;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.api.ws.JsonEntity
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import cz.sefira.obelisk.json.GsonHelper;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.io.entity.AbstractHttpEntity;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * HTTP entity serializing the payload as JSON straight into the connection output stream, the payload is never
+ * held as a JSON string or byte array. Content is sent chunked, optionally gzip compressed.
+ */
+public class JsonEntity extends AbstractHttpEntity {
+
+  private static final String GZIP = "gzip";
+  private static final int BUFFER_SIZE = 8192;
+
+  private final Object payload;
+  private final boolean compress;
+
+  public JsonEntity(Object payload, boolean compress) {
+    super(ContentType.APPLICATION_JSON, compress ? GZIP : null, true);
+    this.payload = payload;
+    this.compress = compress;
+  }
+
+  @Override
+  public void writeTo(OutputStream outStream) throws IOException {
+    GZIPOutputStream gzip = compress ? new GZIPOutputStream(outStream, BUFFER_SIZE) : null;
+    // connection stream is owned by the client, writer is only flushed
+    Writer writer = new BufferedWriter(new OutputStreamWriter(gzip != null ? gzip : outStream, StandardCharsets.UTF_8),
+        BUFFER_SIZE);
+    GsonHelper.toJson(payload, writer);
+    writer.flush();
+    if (gzip != null) {
+      gzip.finish();
+    }
+  }
+
+  @Override
+  public InputStream getContent() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(BUFFER_SIZE);
+    writeTo(out);
+    return new ByteArrayInputStream(out.toByteArray());
+  }
+
+  @Override
+  public long getContentLength() {
+    return -1;
+  }
+
+  @Override
+  public boolean isRepeatable() {
+    return true;
+  }
+
+  @Override
+  public boolean isStreaming() {
+    return false;
+  }
+
+  @Override
+  public void close() {
+    // nothing to release
+  }
+
+}
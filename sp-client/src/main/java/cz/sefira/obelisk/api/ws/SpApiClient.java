@@ -28,14 +28,18 @@ import cz.sefira.obelisk.api.PlatformAPI;
 import cz.sefira.obelisk.api.model.Platform;
 import cz.sefira.obelisk.api.ws.auth.AuthenticationProvider;
 import cz.sefira.obelisk.api.ws.auth.AuthenticationProviderException;
+import cz.sefira.obelisk.api.ws.resilience.ResilienceEvent;
+import cz.sefira.obelisk.api.ws.resilience.ResilientTransport;
+import cz.sefira.obelisk.api.ws.ssl.AsyncHttpsClient;
 import cz.sefira.obelisk.api.ws.ssl.HttpResponse;
+import cz.sefira.obelisk.api.ws.ssl.HttpTransport;
 import cz.sefira.obelisk.api.ws.ssl.HttpsClient;
-import cz.sefira.obelisk.json.GsonHelper;
+import cz.sefira.obelisk.api.trace.Span;
+import cz.sefira.obelisk.api.trace.Tracer;
+import cz.sefira.obelisk.util.HttpUtils;
 import org.apache.hc.client5.http.classic.methods.HttpUriRequestBase;
 import org.apache.hc.client5.http.config.RequestConfig;
-import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
 import org.apache.hc.core5.http.*;
-import org.apache.hc.core5.http.io.entity.StringEntity;
 import org.apache.hc.core5.http.message.BasicNameValuePair;
 import org.apache.hc.core5.net.URIBuilder;
 import org.slf4j.Logger;
@@ -45,6 +49,7 @@ import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.security.*;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -54,33 +59,113 @@ public class SpApiClient {
 
   private static final Logger logger = LoggerFactory.getLogger(SpApiClient.class.getName());
 
-  private final HttpsClient client;
+  private static final long LONG_POLL_RESPONSE_MARGIN_SECONDS = 10;
+
+  private final ResilientTransport client;
 
   public SpApiClient(PlatformAPI api) {
-    this.client = new HttpsClient(api);
+    HttpTransport transport;
+    if ("async".equals(AppConfig.get().getHttpTransport())) {
+      transport = new AsyncHttpsClient(api);
+    } else {
+      transport = new HttpsClient(api);
+    }
+    this.client = new ResilientTransport(transport);
   }
 
   public HttpResponse call(String method, String url, AuthenticationProvider authProvider, Object payload, boolean sync)
           throws AuthenticationProviderException, URISyntaxException, GeneralSecurityException, IOException {
+    return call(method, url, authProvider, payload, sync, 0);
+  }
+
+  /**
+   * Call SP API endpoint
+   * @param wait Period (s) the server may hold the request open until work is ready (long-poll), 0 = no wait
+   * @param headers Additional request headers
+   */
+  public HttpResponse call(String method, String url, AuthenticationProvider authProvider, Object payload, boolean sync,
+                           long wait, Header... headers)
+          throws AuthenticationProviderException, URISyntaxException, GeneralSecurityException, IOException {
     // URI builder
     URIBuilder uriBuilder = new URIBuilder(url);
     uriBuilder.addParameter(new BasicNameValuePair("version", AppConfig.get().getApplicationVersion()));
     uriBuilder.addParameter(new BasicNameValuePair("platform", Platform.get()));
     uriBuilder.addParameter(new BasicNameValuePair("devices", String.valueOf(sync)));
+    if (wait > 0) {
+      uriBuilder.addParameter(new BasicNameValuePair("wait", String.valueOf(wait)));
+    }
     // execute request
     URI requestUri = uriBuilder.build();
     logger.info(method+" "+requestUri);
     HttpUriRequestBase request = new HttpUriRequestBase(method, requestUri);
     request.addHeader(HttpHeaders.AUTHORIZATION, authProvider.getEndpointAuthentication());
-    HttpClientBuilder clientBuilder = HttpClientBuilder.create().disableRedirectHandling();
-    clientBuilder.setDefaultRequestConfig(RequestConfig.custom()
-        .setConnectionRequestTimeout(5, TimeUnit.SECONDS)
-        .build());
+    for (Header header : headers) {
+      request.addHeader(header);
+    }
+    RequestConfig.Builder requestConfig = RequestConfig.custom()
+        .setRedirectsEnabled(false)
+        .setConnectionRequestTimeout(5, TimeUnit.SECONDS);
+    if (wait > 0) {
+      request.addHeader(HttpUtils.PREFER, "wait=" + wait);
+      requestConfig.setResponseTimeout(wait + LONG_POLL_RESPONSE_MARGIN_SECONDS, TimeUnit.SECONDS);
+    }
     if (payload != null) {
-      HttpEntity entity = new StringEntity(GsonHelper.toJson(payload), ContentType.APPLICATION_JSON);
-      request.setEntity(entity);
+      request.setEntity(new JsonEntity(payload, AppConfig.get().isHttpCompressRequests()));
+    }
+    return execute(request, requestConfig.build());
+  }
+
+  /**
+   * Conditional GET of SP API resource
+   * @param headers Additional request headers (validators, accepted instance manipulations)
+   */
+  public HttpResponse get(String url, AuthenticationProvider authProvider, Header... headers)
+          throws AuthenticationProviderException, URISyntaxException, GeneralSecurityException, IOException {
+    URIBuilder uriBuilder = new URIBuilder(url);
+    uriBuilder.addParameter(new BasicNameValuePair("version", AppConfig.get().getApplicationVersion()));
+    uriBuilder.addParameter(new BasicNameValuePair("platform", Platform.get()));
+    URI requestUri = uriBuilder.build();
+    logger.info("GET "+requestUri);
+    HttpUriRequestBase request = new HttpUriRequestBase("GET", requestUri);
+    request.addHeader(HttpHeaders.AUTHORIZATION, authProvider.getEndpointAuthentication());
+    for (Header header : headers) {
+      request.addHeader(header);
     }
-    return client.execute(request, clientBuilder);
+    RequestConfig requestConfig = RequestConfig.custom()
+        .setRedirectsEnabled(false)
+        .setConnectionRequestTimeout(5, TimeUnit.SECONDS)
+        .build();
+    return execute(request, requestConfig);
+  }
+
+  /**
+   * Execute request as a span of the current trace, trace context is propagated to the server
+   */
+  private HttpResponse execute(HttpUriRequestBase request, RequestConfig requestConfig)
+      throws GeneralSecurityException, IOException, URISyntaxException {
+    try (Span span = Tracer.span("http " + request.getMethod())) {
+      span.setAttribute("path", request.getPath());
+      String traceparent = Tracer.traceparent();
+      if (traceparent != null) {
+        request.setHeader(HttpUtils.TRACEPARENT, traceparent);
+      }
+      try {
+        HttpResponse response = client.execute(request, requestConfig);
+        span.setAttribute("status", response.getCode());
+        return response;
+      } catch (GeneralSecurityException | IOException | URISyntaxException | RuntimeException e) {
+        span.setError(e);
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Returns and clears retries, hedged requests and circuit breaker actions taken since the last call
+   * @return Resilience events for the audit
+   */
+  public List<ResilienceEvent> drainResilienceEvents() {
+    return client.drainEvents();
   }
 
 }
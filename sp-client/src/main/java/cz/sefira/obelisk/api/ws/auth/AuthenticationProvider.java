@@ -28,7 +28,7 @@ import cz.sefira.obelisk.api.ws.ssl.SSLCommunicationException;
 /**
  * Authentication provider interface
  */
-public interface AuthenticationProvider {
+public interface AuthenticationProvider extends AutoCloseable {
 
   /**
    * Returns URI where to redirect HTTP client to use this auth credentials (might be null)
@@ -43,4 +43,11 @@ public interface AuthenticationProvider {
    * @throws SSLCommunicationException
    */
   String getEndpointAuthentication() throws AuthenticationProviderException, SSLCommunicationException;
+
+  /**
+   * Stops background tasks of the provider (credentials refresh)
+   */
+  @Override
+  default void close() {
+  }
 }
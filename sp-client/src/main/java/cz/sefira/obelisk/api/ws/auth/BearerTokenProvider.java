@@ -30,19 +30,19 @@ import cz.sefira.obelisk.api.ws.ssl.HttpsClient;
 import cz.sefira.obelisk.api.ws.ssl.SSLCommunicationException;
 import cz.sefira.obelisk.json.GsonHelper;
 import cz.sefira.obelisk.util.HttpUtils;
-import cz.sefira.obelisk.util.JwtTokenUtils;
 import org.apache.hc.client5.http.classic.methods.HttpUriRequestBase;
 import org.apache.hc.client5.http.entity.UrlEncodedFormEntity;
-import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
+import org.apache.hc.client5.http.config.RequestConfig;
 import org.apache.hc.core5.http.*;
 import org.apache.hc.core5.http.message.BasicNameValuePair;
 import org.apache.hc.core5.net.URIBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
 
 /**
  * Bearer token provider
@@ -53,6 +53,13 @@ public class BearerTokenProvider implements AuthenticationProvider {
 
   private static final String CLIENT_ID = "obelisk-sp-client";
   private static final String AUTH_TYPE = "Bearer ";
+  private static final RequestConfig NO_REDIRECTS = RequestConfig.custom().setRedirectsEnabled(false).build();
+
+  private static final ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread t = new Thread(r, "BearerTokenRefresh");
+    t.setDaemon(true);
+    return t;
+  });
 
   private final String magicLink;
   private final PlatformAPI api;
@@ -62,13 +69,18 @@ public class BearerTokenProvider implements AuthenticationProvider {
   private transient String redirectUri = null;
   private transient String code = null;
   private transient String sessionState = null;
-  private transient BearerToken currentToken = null;
+  private transient volatile TokenState currentToken = null;
+
+  private final Random random = new Random();
+  private CompletableFuture<TokenState> refreshing;
+  private ScheduledFuture<?> scheduledRefresh;
+  private boolean closed = false;
 
   public BearerTokenProvider(String magicLink, PlatformAPI api)
       throws AuthenticationProviderException, SSLCommunicationException {
     this.magicLink = magicLink;
     this.api = api;
-    this.currentToken = initToken();
+    setToken(initToken());
   }
 
   public String getRedirectUri() {
@@ -76,20 +88,81 @@ public class BearerTokenProvider implements AuthenticationProvider {
   }
 
   public String getEndpointAuthentication() throws AuthenticationProviderException, SSLCommunicationException {
-    if (currentToken == null) {
-      currentToken = initToken();
-      return AUTH_TYPE + currentToken.getAccessToken();
+    TokenState token = currentToken;
+    long now = System.currentTimeMillis();
+    if (token == null) {
+      token = setToken(initToken());
     }
-    else if (!JwtTokenUtils.isExpired(currentToken.getAccessToken())) {
-      return AUTH_TYPE + currentToken.getAccessToken();
+    else if (!token.isAccessValid(now)) {
+      if (!token.canRefresh(now)) {
+        throw new AuthExpirationException("Authentication credentials expired and cannot be refreshed");
+      }
+      // background refresh did not make it in time, join the running one
+      token = awaitRefresh();
     }
-    else if (currentToken.getRefreshToken() != null && JwtTokenUtils.isExpired(currentToken.getAccessToken())
-        && !JwtTokenUtils.isExpired(currentToken.getRefreshToken())) {
-      currentToken = refreshToken();
-      return AUTH_TYPE + currentToken.getAccessToken();
+    return AUTH_TYPE + token.getToken().getAccessToken();
+  }
+
+  @Override
+  public synchronized void close() {
+    closed = true;
+    if (scheduledRefresh != null) {
+      scheduledRefresh.cancel(false);
     }
-    else {
-      throw new AuthExpirationException("Authentication credentials expired and cannot be refreshed");
+  }
+
+  private TokenState setToken(BearerToken token) {
+    TokenState state = new TokenState(token, System.currentTimeMillis());
+    currentToken = state;
+    scheduleRefresh(state);
+    return state;
+  }
+
+  private synchronized void scheduleRefresh(TokenState state) {
+    if (scheduledRefresh != null) {
+      scheduledRefresh.cancel(false);
+    }
+    long delay = closed ? -1 : state.getRefreshDelay(System.currentTimeMillis(), random);
+    if (delay >= 0) {
+      logger.info("Bearer token refresh scheduled in "+delay/1000+" s");
+      scheduledRefresh = refresher.schedule(() -> refresh().whenComplete((t, e) -> {
+        if (e != null) {
+          logger.error("Background bearer token refresh failed: "+e.getMessage(), e);
+        }
+      }), delay, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Returns running refresh or starts a new one, concurrent callers share the same refresh
+   */
+  private synchronized CompletableFuture<TokenState> refresh() {
+    if (refreshing == null || refreshing.isDone()) {
+      refreshing = CompletableFuture.supplyAsync(() -> {
+        try {
+          return setToken(refreshToken());
+        } catch (Exception e) {
+          throw new CompletionException(e);
+        }
+      }, refresher);
+    }
+    return refreshing;
+  }
+
+  private TokenState awaitRefresh() throws AuthenticationProviderException, SSLCommunicationException {
+    try {
+      return refresh().get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new AuthenticationProviderException(e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof SSLCommunicationException) {
+        throw (SSLCommunicationException) cause;
+      } else if (cause instanceof AuthenticationProviderException) {
+        throw (AuthenticationProviderException) cause;
+      }
+      throw new AuthenticationProviderException(cause);
     }
   }
 
@@ -107,7 +180,7 @@ public class BearerTokenProvider implements AuthenticationProvider {
     params.add(new BasicNameValuePair("code", code));
     params.add(new BasicNameValuePair("session_state", sessionState));
     logger.info("Init bearer token");
-    return currentToken = token(params);
+    return token(params);
   }
 
   private BearerToken refreshToken() throws AuthenticationProviderException, SSLCommunicationException {
@@ -116,11 +189,11 @@ public class BearerTokenProvider implements AuthenticationProvider {
       List<NameValuePair> params = new ArrayList<>();
       params.add(new BasicNameValuePair("client_id", CLIENT_ID));
       params.add(new BasicNameValuePair("grant_type", "refresh_token"));
-      params.add(new BasicNameValuePair("refresh_token", currentToken.getRefreshToken()));
+      params.add(new BasicNameValuePair("refresh_token", currentToken.getToken().getRefreshToken()));
       params.add(new BasicNameValuePair("code", code));
       params.add(new BasicNameValuePair("session_state", sessionState));
       logger.info("Refreshing bearer token");
-      return currentToken = token(params);
+      return token(params);
     } catch (SSLCommunicationException e) {
       throw e;
     } catch (Exception e) {
@@ -132,8 +205,7 @@ public class BearerTokenProvider implements AuthenticationProvider {
     try {
       URIBuilder uriBuilder = new URIBuilder(magicLink);
       HttpUriRequestBase request = new HttpUriRequestBase("GET", uriBuilder.build());
-      HttpClientBuilder clientBuilder = HttpClientBuilder.create().disableRedirectHandling();
-      HttpResponse response = client.execute(request, clientBuilder);
+      HttpResponse response = client.execute(request, NO_REDIRECTS);
       int responseCode = response.getCode();
       if (responseCode == HttpStatus.SC_MOVED_TEMPORARILY) {
         String location = HttpUtils.getLocationURI(response);
@@ -170,9 +242,8 @@ public class BearerTokenProvider implements AuthenticationProvider {
       uriBuilder.appendPath(AppConfig.get().getTokenEndpoint()); // /protocol/openid-connect/token
       HttpUriRequestBase request = new HttpUriRequestBase("POST", uriBuilder.build());
       request.setEntity(new UrlEncodedFormEntity(params));
-      HttpClientBuilder clientBuilder = HttpClientBuilder.create().disableRedirectHandling();
-      HttpResponse response = client.execute(request, clientBuilder);
-      return GsonHelper.fromJson(new String(response.getContent(), StandardCharsets.UTF_8), BearerToken.class);
+      HttpResponse response = client.execute(request, NO_REDIRECTS);
+      return GsonHelper.fromJson(response.getJson(), BearerToken.class);
     } catch (SSLCommunicationException e) {
       throw e;
     } catch (Exception e) {
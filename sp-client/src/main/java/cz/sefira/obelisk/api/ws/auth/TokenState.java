@@ -0,0 +1,81 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.api.ws.auth;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.api.ws.auth.TokenState
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import cz.sefira.obelisk.util.JwtTokenUtils;
+
+import java.util.Random;
+
+/**
+ * Bearer token with expiration claims parsed once when the token is obtained
+ */
+class TokenState {
+
+  private static final int JITTER_FRACTION = 20; // up to 5% of the token lifetime
+
+  private final BearerToken token;
+  private final long issuedAt;
+  private final long accessExpiresAt;
+  private final long refreshExpiresAt;
+
+  TokenState(BearerToken token, long issuedAt) {
+    this.token = token;
+    this.issuedAt = issuedAt;
+    this.accessExpiresAt = JwtTokenUtils.getExpirationThreshold(JwtTokenUtils.parsePayload(token.getAccessToken()));
+    this.refreshExpiresAt = token.getRefreshToken() != null ?
+        JwtTokenUtils.getExpirationThreshold(JwtTokenUtils.parsePayload(token.getRefreshToken())) : Long.MIN_VALUE;
+  }
+
+  BearerToken getToken() {
+    return token;
+  }
+
+  boolean isAccessValid(long now) {
+    return now < accessExpiresAt;
+  }
+
+  boolean canRefresh(long now) {
+    return now < refreshExpiresAt;
+  }
+
+  /**
+   * Returns delay of the background refresh, the refresh is spread randomly before the expiration threshold
+   * @param now Current time
+   * @param random Jitter source
+   * @return Delay in milliseconds or -1 if token does not need (or cannot be) refreshed
+   */
+  long getRefreshDelay(long now, Random random) {
+    if (accessExpiresAt == Long.MAX_VALUE) {
+      return -1;
+    }
+    long lifetime = accessExpiresAt - issuedAt;
+    long jitter = lifetime > JITTER_FRACTION ? (long) (random.nextDouble() * (lifetime / JITTER_FRACTION)) : 0;
+    long refreshAt = accessExpiresAt - jitter;
+    if (!canRefresh(refreshAt)) {
+      return -1;
+    }
+    return Math.max(0, refreshAt - now);
+  }
+
+}
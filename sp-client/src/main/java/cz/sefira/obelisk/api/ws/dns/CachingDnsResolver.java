@@ -0,0 +1,175 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.api.ws.dns;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.api.ws.dns.CachingDnsResolver
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import org.apache.hc.client5.http.DnsResolver;
+import org.apache.hc.client5.http.SystemDefaultDnsResolver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.security.Security;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * In-process DNS cache. Positive and negative answers are cached for the JVM configured TTL
+ * ({@code networkaddress.cache.ttl}, {@code networkaddress.cache.negative.ttl}), expired positive answers
+ * are still served for a short period while they are revalidated in background.
+ */
+public class CachingDnsResolver implements DnsResolver {
+
+  private static final Logger logger = LoggerFactory.getLogger(CachingDnsResolver.class.getName());
+
+  private static final long DEFAULT_TTL_SECONDS = 30;
+  private static final long DEFAULT_NEGATIVE_TTL_SECONDS = 10;
+  private static final long STALE_WINDOW_MILLISECONDS = 5 * 60 * 1000;
+
+  private static final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+    Thread t = new Thread(r, "DnsRevalidation");
+    t.setDaemon(true);
+    return t;
+  });
+
+  private static final CachingDnsResolver instance = new CachingDnsResolver(SystemDefaultDnsResolver.INSTANCE,
+      ttl("networkaddress.cache.ttl", DEFAULT_TTL_SECONDS),
+      ttl("networkaddress.cache.negative.ttl", DEFAULT_NEGATIVE_TTL_SECONDS), STALE_WINDOW_MILLISECONDS);
+
+  private final DnsResolver delegate;
+  private final long ttl;
+  private final long negativeTtl;
+  private final long staleWindow;
+  private final Map<String, Entry> cache = new ConcurrentHashMap<>();
+  private final Set<String> revalidating = ConcurrentHashMap.newKeySet();
+
+  CachingDnsResolver(DnsResolver delegate, long ttl, long negativeTtl, long staleWindow) {
+    this.delegate = delegate;
+    this.ttl = ttl;
+    this.negativeTtl = negativeTtl;
+    this.staleWindow = staleWindow;
+  }
+
+  /**
+   * Returns shared resolver backed by the system resolver
+   * @return Shared DNS cache
+   */
+  public static CachingDnsResolver getInstance() {
+    return instance;
+  }
+
+  @Override
+  public InetAddress[] resolve(String host) throws UnknownHostException {
+    long now = System.currentTimeMillis();
+    Entry entry = cache.get(host);
+    if (entry != null) {
+      if (now < entry.expiresAt) {
+        return entry.get(host);
+      }
+      if (entry.addresses != null && now < entry.expiresAt + staleWindow) {
+        revalidate(host);
+        return entry.get(host);
+      }
+    }
+    return lookup(host);
+  }
+
+  @Override
+  public String resolveCanonicalHostname(String host) throws UnknownHostException {
+    return delegate.resolveCanonicalHostname(host);
+  }
+
+  /**
+   * Drop all cached answers
+   */
+  public void invalidate() {
+    cache.clear();
+  }
+
+  private InetAddress[] lookup(String host) throws UnknownHostException {
+    try {
+      InetAddress[] addresses = delegate.resolve(host);
+      cache.put(host, new Entry(addresses, System.currentTimeMillis() + ttl));
+      return addresses.clone();
+    } catch (UnknownHostException e) {
+      cache.put(host, new Entry(null, System.currentTimeMillis() + negativeTtl));
+      throw e;
+    }
+  }
+
+  private void revalidate(String host) {
+    if (!revalidating.add(host)) {
+      return;
+    }
+    executor.execute(() -> {
+      try {
+        InetAddress[] addresses = delegate.resolve(host);
+        cache.put(host, new Entry(addresses, System.currentTimeMillis() + ttl));
+      } catch (UnknownHostException e) {
+        // keep serving the stale answer until the stale window elapses
+        logger.warn("Unable to revalidate address of " + host + ": " + e.getMessage());
+      } finally {
+        revalidating.remove(host);
+      }
+    });
+  }
+
+  private static long ttl(String property, long defaultSeconds) {
+    String value = Security.getProperty(property);
+    if (value != null) {
+      try {
+        long seconds = Long.parseLong(value.trim());
+        // negative value (cache forever) is not honored, addresses need to be revalidated
+        if (seconds >= 0) {
+          return seconds * 1000;
+        }
+      } catch (NumberFormatException e) {
+        logger.warn("Invalid " + property + " value: " + value);
+      }
+    }
+    return defaultSeconds * 1000;
+  }
+
+  private static class Entry {
+
+    private final InetAddress[] addresses;
+    private final long expiresAt;
+
+    private Entry(InetAddress[] addresses, long expiresAt) {
+      this.addresses = addresses;
+      this.expiresAt = expiresAt;
+    }
+
+    private InetAddress[] get(String host) throws UnknownHostException {
+      if (addresses == null) {
+        throw new UnknownHostException(host);
+      }
+      return addresses.clone();
+    }
+  }
+
+}
@@ -0,0 +1,257 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.api.ws.dns;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.api.ws.dns.HappyEyeballsSocketFactory
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import org.apache.hc.client5.http.DnsResolver;
+import org.apache.hc.client5.http.socket.ConnectionSocketFactory;
+import org.apache.hc.client5.http.socket.LayeredConnectionSocketFactory;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.*;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Socket factory racing TCP connects to all resolved addresses of the target (RFC 8305). Address families are
+ * interleaved and next attempt starts when the previous one fails or after a short delay, the first established
+ * connection wins and it is layered by the delegate (TLS).
+ */
+public class HappyEyeballsSocketFactory implements LayeredConnectionSocketFactory {
+
+  private static final Logger logger = LoggerFactory.getLogger(HappyEyeballsSocketFactory.class.getName());
+
+  private static final long CONNECTION_ATTEMPT_DELAY_MILLISECONDS = 250;
+
+  private static final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+    Thread t = new Thread(r, "HappyEyeballs");
+    t.setDaemon(true);
+    return t;
+  });
+
+  private final ConnectionSocketFactory delegate;
+  private final DnsResolver resolver;
+  private final long attemptDelay;
+
+  public HappyEyeballsSocketFactory(ConnectionSocketFactory delegate, DnsResolver resolver) {
+    this(delegate, resolver, CONNECTION_ATTEMPT_DELAY_MILLISECONDS);
+  }
+
+  HappyEyeballsSocketFactory(ConnectionSocketFactory delegate, DnsResolver resolver, long attemptDelay) {
+    this.delegate = delegate;
+    this.resolver = resolver;
+    this.attemptDelay = attemptDelay;
+  }
+
+  /**
+   * Resolver for the connection manager, only the preferred address is returned so the connection operator
+   * makes a single attempt and the factory races the remaining addresses
+   * @param resolver Full resolver
+   * @return Resolver returning only the first address
+   */
+  public static DnsResolver preferredAddress(DnsResolver resolver) {
+    return new DnsResolver() {
+      @Override
+      public InetAddress[] resolve(String host) throws UnknownHostException {
+        return new InetAddress[]{resolver.resolve(host)[0]};
+      }
+
+      @Override
+      public String resolveCanonicalHostname(String host) throws UnknownHostException {
+        return resolver.resolveCanonicalHostname(host);
+      }
+    };
+  }
+
+  @Override
+  public Socket createSocket(HttpContext context) throws IOException {
+    return delegate.createSocket(context);
+  }
+
+  @Override
+  public Socket connectSocket(TimeValue connectTimeout, Socket socket, HttpHost host, InetSocketAddress remoteAddress,
+                              InetSocketAddress localAddress, HttpContext context) throws IOException {
+    Timeout timeout = connectTimeout != null ? Timeout.of(connectTimeout.getDuration(), connectTimeout.getTimeUnit()) : null;
+    return connectSocket(socket, host, remoteAddress, localAddress, timeout, null, context);
+  }
+
+  @Override
+  public Socket connectSocket(Socket socket, HttpHost host, InetSocketAddress remoteAddress,
+                              InetSocketAddress localAddress, Timeout connectTimeout, Object attachment,
+                              HttpContext context) throws IOException {
+    List<InetAddress> addresses = host.getAddress() == null ?
+        order(remoteAddress.getAddress(), resolver.resolve(host.getHostName())) : List.of();
+    if (addresses.size() < 2) {
+      return delegate.connectSocket(socket, host, remoteAddress, localAddress, connectTimeout, attachment, context);
+    }
+    Socket connected = race(socket, addresses, remoteAddress.getPort(), localAddress, connectTimeout, context);
+    if (delegate instanceof LayeredConnectionSocketFactory) {
+      try {
+        return ((LayeredConnectionSocketFactory) delegate).createLayeredSocket(connected, host.getHostName(),
+            remoteAddress.getPort(), attachment, context);
+      } catch (IOException | RuntimeException e) {
+        closeQuietly(connected);
+        throw e;
+      }
+    }
+    return connected;
+  }
+
+  @Override
+  public Socket createLayeredSocket(Socket socket, String target, int port, HttpContext context) throws IOException {
+    return createLayeredSocket(socket, target, port, null, context);
+  }
+
+  @Override
+  public Socket createLayeredSocket(Socket socket, String target, int port, Object attachment, HttpContext context)
+      throws IOException {
+    if (delegate instanceof LayeredConnectionSocketFactory) {
+      return ((LayeredConnectionSocketFactory) delegate).createLayeredSocket(socket, target, port, attachment, context);
+    }
+    return socket;
+  }
+
+  /**
+   * Connect the socket, overridden in tests to inject delays
+   */
+  void connect(Socket socket, InetSocketAddress address, int timeout) throws IOException {
+    socket.connect(address, timeout);
+  }
+
+  private Socket race(Socket socket, List<InetAddress> addresses, int port, InetSocketAddress localAddress,
+                      Timeout connectTimeout, HttpContext context) throws IOException {
+    int timeout = Timeout.defaultsToDisabled(connectTimeout).toMillisecondsIntBound();
+    CompletionService<Socket> completion = new ExecutorCompletionService<>(executor);
+    List<Socket> sockets = new ArrayList<>(addresses.size());
+    LinkedList<InetAddress> pending = new LinkedList<>(addresses);
+    long deadline = timeout > 0 ? System.currentTimeMillis() + timeout : Long.MAX_VALUE;
+    int running = 0;
+    IOException failure = null;
+    Socket winner = null;
+    try {
+      while (winner == null && (running > 0 || !pending.isEmpty())) {
+        // next attempt starts when the previous one failed or the attempt delay elapsed
+        if (!pending.isEmpty()) {
+          InetSocketAddress address = new InetSocketAddress(pending.poll(), port);
+          Socket attempt = sockets.isEmpty() ? socket : copyOptions(socket, delegate.createSocket(context));
+          sockets.add(attempt);
+          completion.submit(() -> {
+            if (localAddress != null) {
+              attempt.bind(localAddress);
+            }
+            connect(attempt, address, timeout);
+            return attempt;
+          });
+          running++;
+        }
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0) {
+          break;
+        }
+        Future<Socket> done = completion.poll(pending.isEmpty() ? remaining : Math.min(attemptDelay, remaining),
+            TimeUnit.MILLISECONDS);
+        if (done == null) {
+          continue;
+        }
+        running--;
+        try {
+          winner = done.get();
+        } catch (ExecutionException e) {
+          if (logger.isDebugEnabled()) {
+            logger.debug("Connection attempt failed: " + e.getCause().getMessage());
+          }
+          failure = e.getCause() instanceof IOException ? (IOException) e.getCause() :
+              new ConnectException(e.getCause().getMessage());
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      failure = new InterruptedIOException("Connection attempts interrupted");
+    } finally {
+      // cancel attempts still in progress
+      for (Socket s : sockets) {
+        if (s != winner) {
+          closeQuietly(s);
+        }
+      }
+    }
+    if (winner != null) {
+      return winner;
+    }
+    throw failure != null ? failure : new SocketTimeoutException("Connect timed out");
+  }
+
+  /**
+   * Interleave address families, the family of the preferred address goes first
+   */
+  static List<InetAddress> order(InetAddress preferred, InetAddress[] addresses) {
+    List<InetAddress> first = new LinkedList<>();
+    List<InetAddress> second = new LinkedList<>();
+    first.add(preferred);
+    for (InetAddress address : addresses) {
+      if (address.equals(preferred)) {
+        continue;
+      }
+      (address.getClass() == preferred.getClass() ? first : second).add(address);
+    }
+    List<InetAddress> ordered = new ArrayList<>(first.size() + second.size());
+    while (!first.isEmpty() || !second.isEmpty()) {
+      if (!first.isEmpty()) {
+        ordered.add(first.remove(0));
+      }
+      if (!second.isEmpty()) {
+        ordered.add(second.remove(0));
+      }
+    }
+    return ordered;
+  }
+
+  private static Socket copyOptions(Socket source, Socket target) throws SocketException {
+    target.setSoTimeout(source.getSoTimeout());
+    target.setTcpNoDelay(source.getTcpNoDelay());
+    target.setKeepAlive(source.getKeepAlive());
+    target.setReuseAddress(source.getReuseAddress());
+    if (source.getSoLinger() >= 0) {
+      target.setSoLinger(true, source.getSoLinger());
+    }
+    return target;
+  }
+
+  private static void closeQuietly(Socket socket) {
+    try {
+      socket.close();
+    } catch (IOException e) {
+      // ignore
+    }
+  }
+
+}
@@ -24,6 +24,8 @@ package cz.sefira.obelisk.api.ws.model;
  */
 
 import cz.sefira.obelisk.api.AbstractProduct;
+import cz.sefira.obelisk.api.trace.Trace;
+import cz.sefira.obelisk.api.ws.resilience.ResilienceEvent;
 import cz.sefira.obelisk.generic.ConnectionInfo;
 import cz.sefira.obelisk.token.keystore.ConfiguredKeystore;
 import cz.sefira.obelisk.token.pkcs11.DetectedCard;
@@ -48,6 +50,9 @@ public class Audit {
   private String username;
   private String appDate;
   private UsedToken usedToken;
+  private List<ResilienceEvent> communication;
+  private Polling polling;
+  private Trace timeline;
 
   public Audit(AbstractProduct usedProduct, Date initDate) {
     if (usedProduct != null) {
@@ -90,6 +95,33 @@ public class Audit {
     return usedToken;
   }
 
+  public List<ResilienceEvent> getCommunication() {
+    return communication;
+  }
+
+  public void setCommunication(List<ResilienceEvent> communication) {
+    this.communication = communication;
+  }
+
+  public Polling getPolling() {
+    return polling;
+  }
+
+  public void setPolling(Polling polling) {
+    this.polling = polling;
+  }
+
+  /**
+   * Spans of the process recorded until the flow finished
+   */
+  public Trace getTimeline() {
+    return timeline;
+  }
+
+  public void setTimeline(Trace timeline) {
+    this.timeline = timeline;
+  }
+
   public static class UsedToken {
 
     private String type;
@@ -116,4 +148,35 @@ public class Audit {
       this.detail = detail;
     }
   }
+
+  /**
+   * Waiting for pending work preceding the flow
+   */
+  public static class Polling {
+
+    private String strategy;
+    private int polls;
+    private long waited;
+
+    public Polling(String strategy, int polls, long waited) {
+      this.strategy = strategy;
+      this.polls = polls;
+      this.waited = waited;
+    }
+
+    public String getStrategy() {
+      return strategy;
+    }
+
+    public int getPolls() {
+      return polls;
+    }
+
+    /**
+     * Time (ms) spent waiting for the work
+     */
+    public long getWaited() {
+      return waited;
+    }
+  }
 }
@@ -0,0 +1,51 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.api.ws.model;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.api.ws.model.BatchSignatureRequest
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import java.util.List;
+
+/**
+ * Signature of multiple data with the same certificate, token and key are resolved once for the whole batch
+ */
+public class BatchSignatureRequest extends BaseRequest {
+
+  private List<SignParameters> signParams;
+
+  public BatchSignatureRequest() {
+    super();
+  }
+
+  public BatchSignatureRequest(final List<SignParameters> signParams) {
+    super();
+    this.signParams = signParams;
+  }
+
+  public List<SignParameters> getSignParams() {
+    return signParams;
+  }
+
+  public void setSignParams(List<SignParameters> signParams) {
+    this.signParams = signParams;
+  }
+}
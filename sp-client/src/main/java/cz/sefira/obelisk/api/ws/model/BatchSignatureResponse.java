@@ -0,0 +1,110 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.api.ws.model;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.api.ws.model.BatchSignatureResponse
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import cz.sefira.obelisk.api.flow.OperationStatus;
+import cz.sefira.obelisk.dss.SignatureAlgorithm;
+import cz.sefira.obelisk.dss.SignatureValue;
+import cz.sefira.obelisk.dss.x509.CertificateToken;
+
+import java.util.List;
+
+/**
+ * Batch signature result, signatures are in order of the requested sign parameters and each one is either
+ * a signature value or an error
+ */
+public class BatchSignatureResponse {
+
+  private final CertificateToken certificate;
+  private final CertificateToken[] certificateChain;
+  private final List<Signature> signatures;
+
+  public BatchSignatureResponse(CertificateToken certificate, CertificateToken[] certificateChain,
+                                List<Signature> signatures) {
+    this.certificate = certificate;
+    this.certificateChain = certificateChain;
+    this.signatures = signatures;
+  }
+
+  public CertificateToken getCertificate() {
+    return certificate;
+  }
+
+  public CertificateToken[] getCertificateChain() {
+    return certificateChain;
+  }
+
+  public List<Signature> getSignatures() {
+    return signatures;
+  }
+
+  public static class Signature {
+
+    private final Long stepId;
+    private final byte[] signatureValue;
+    private final SignatureAlgorithm signatureAlgorithm;
+    private final String error;
+    private final String errorMessage;
+
+    public Signature(Long stepId, SignatureValue signatureValue) {
+      this.stepId = stepId;
+      this.signatureValue = signatureValue.getValue();
+      this.signatureAlgorithm = signatureValue.getAlgorithm();
+      this.error = null;
+      this.errorMessage = null;
+    }
+
+    public Signature(Long stepId, OperationStatus errorStatus, String errorMessage) {
+      this.stepId = stepId;
+      this.signatureValue = null;
+      this.signatureAlgorithm = null;
+      this.error = errorStatus.getCode();
+      this.errorMessage = errorMessage != null ? errorMessage : errorStatus.getLabel();
+    }
+
+    public Long getStepId() {
+      return stepId;
+    }
+
+    public boolean isSuccess() {
+      return error == null;
+    }
+
+    public byte[] getSignatureValue() {
+      return signatureValue;
+    }
+
+    public SignatureAlgorithm getSignatureAlgorithm() {
+      return signatureAlgorithm;
+    }
+
+    public String getError() {
+      return error;
+    }
+
+    public String getErrorMessage() {
+      return errorMessage;
+    }
+  }
+}
@@ -30,6 +30,7 @@ public class Operation {
 
   public static final String GET_CERTIFICATE = "GetCertificate";
   public static final String SIGN = "Sign";
+  public static final String BATCH_SIGN = "BatchSign";
   public static final String WAIT = "Wait";
 
 }
@@ -0,0 +1,52 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.api.ws.model;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.api.ws.model.SmartcardsDelta
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import java.util.List;
+
+/**
+ * Changes of supported smartcards database since the version known to the client
+ */
+public class SmartcardsDelta {
+
+  private List<SmartcardInfo> changed;
+
+  private List<String> removed;
+
+  public List<SmartcardInfo> getChanged() {
+    return changed;
+  }
+
+  public void setChanged(List<SmartcardInfo> changed) {
+    this.changed = changed;
+  }
+
+  public List<String> getRemoved() {
+    return removed;
+  }
+
+  public void setRemoved(List<String> removed) {
+    this.removed = removed;
+  }
+}
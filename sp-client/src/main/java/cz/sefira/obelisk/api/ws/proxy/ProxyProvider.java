@@ -23,7 +23,6 @@ package cz.sefira.obelisk.api.ws.proxy;
  * Author: hlavnicka
  */
 
-import com.github.markusbernhardt.proxy.ProxySearch;
 import com.github.markusbernhardt.proxy.ProxySearchStrategy;
 import com.github.markusbernhardt.proxy.search.browser.firefox.FirefoxProxySearchStrategy;
 import com.github.markusbernhardt.proxy.search.browser.ie.IEProxySearchStrategy;
@@ -38,7 +37,6 @@ import cz.sefira.obelisk.api.AppConfig;
 import cz.sefira.obelisk.api.model.OS;
 import cz.sefira.obelisk.prefs.PreferencesFactory;
 import cz.sefira.obelisk.prefs.UserPreferences;
-import cz.sefira.obelisk.util.LogUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.hc.client5.http.auth.AuthScope;
 import org.apache.hc.client5.http.auth.CredentialsProvider;
@@ -46,15 +44,18 @@ import org.apache.hc.client5.http.auth.UsernamePasswordCredentials;
 import org.apache.hc.client5.http.classic.methods.HttpUriRequestBase;
 import org.apache.hc.client5.http.impl.auth.BasicCredentialsProvider;
 import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClientBuilder;
 import org.apache.hc.client5.http.impl.routing.DefaultProxyRoutePlanner;
+import org.apache.hc.client5.http.routing.HttpRoutePlanner;
 import org.apache.hc.core5.http.HttpHost;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.*;
-import java.util.LinkedHashSet;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Set;
+import java.util.Objects;
+import java.util.function.Consumer;
 
 /**
  * Proxy provider
@@ -88,7 +89,8 @@ public class ProxyProvider {
       new JavaProxySearchStrategy()
   };
 
-  private final Set<Proxy> proxies = new LinkedHashSet<>();
+  private final ProxyResolver resolver = new ProxyResolver(Arrays.asList(OS.isWindows() ? WIN_STRATS :
+      OS.isMacOS() ? MACOS_STRATS : LINUX_STRATS));
 
   private UserPreferences prefs;
   private ProxySetup setup = null;
@@ -96,24 +98,57 @@ public class ProxyProvider {
 
   public ProxyProvider() {}
 
-  public void setupProxy(HttpUriRequestBase request, HttpClientBuilder clientBuilder) throws URISyntaxException {
+  /**
+   * Resolve proxy setup for given request
+   * @param request HTTP request
+   * @return Key identifying the proxy setup, clients built for the same key can be reused
+   */
+  public String getProxyKey(HttpUriRequestBase request) throws URISyntaxException {
     synchronized (sync) {
       this.prefs = PreferencesFactory.getInstance(AppConfig.get());
-      if (setup == null || !initFlag) {
-        if (prefs.isUseSystemProxy()) {
-          setup = detectSystemProxy(request.getUri());
-        }
+      if (setup == null || !initFlag || prefs.isUseSystemProxy()) {
+        // system proxy is resolved per target host, detection results are cached by the resolver
+        setup = prefs.isUseSystemProxy() ? selectProxy(resolver.resolve(request.getUri())) : null;
         if (setup == null || (Proxy.Type.HTTP.equals(setup.getType()) && (StringUtils.isBlank(setup.getProxyHost()) || setup.getProxyPort() == null || setup.getUseHttps() == null))) {
           setup = preferencesProxy();
         }
       }
+      if (setup != null && StringUtils.isNotBlank(setup.getProxyHost())) {
+        String key = (setup.getUseHttps() ? "https" : "http") + "://" + setup.getProxyHost() + ":" + setup.getProxyPort();
+        if (prefs.isProxyAuthentication()) {
+          key += "|" + prefs.getProxyUsername() + "|" + Objects.hashCode(prefs.getProxyPassword());
+        }
+        return key;
+      }
+      return "direct";
+    }
+  }
+
+  /**
+   * Apply resolved proxy setup to the client
+   * @param clientBuilder HTTP client builder
+   */
+  public void applyProxy(HttpClientBuilder clientBuilder) {
+    applyProxy(clientBuilder::setRoutePlanner, clientBuilder::setDefaultCredentialsProvider);
+  }
+
+  /**
+   * Apply resolved proxy setup to the async client
+   * @param clientBuilder HTTP async client builder
+   */
+  public void applyProxy(HttpAsyncClientBuilder clientBuilder) {
+    applyProxy(clientBuilder::setRoutePlanner, clientBuilder::setDefaultCredentialsProvider);
+  }
+
+  private void applyProxy(Consumer<HttpRoutePlanner> routePlanner, Consumer<CredentialsProvider> credentials) {
+    synchronized (sync) {
       if (setup != null && StringUtils.isNotBlank(setup.getProxyHost())) {
         HttpHost proxy = new HttpHost(setup.getUseHttps() ? "https" : "http", setup.getProxyHost(), setup.getProxyPort());
         logger.info("Using proxy: "+proxy);
-        clientBuilder.setRoutePlanner(new DefaultProxyRoutePlanner(proxy));
+        routePlanner.accept(new DefaultProxyRoutePlanner(proxy));
         CredentialsProvider credentialsProvider = getProxyCredentialsProvider(proxy);
         if (credentialsProvider != null) {
-          clientBuilder.setDefaultCredentialsProvider(credentialsProvider);
+          credentials.accept(credentialsProvider);
         }
       }
     }
@@ -128,42 +163,21 @@ public class ProxyProvider {
       if (setup != null && !initFlag) {
         logger.info("Resetting proxy setup");
         this.setup = null;
+        resolver.invalidate();
       }
       this.initFlag = initFlag;
     }
   }
 
-  private ProxySetup detectSystemProxy(URI uri) {
-    proxies.clear(); // clear proxy list
-    ProxySearchStrategy[] strategies = OS.isWindows() ? WIN_STRATS : OS.isMacOS() ? MACOS_STRATS : LINUX_STRATS;
-    for (ProxySearchStrategy strategy : strategies) {
-      try (LogUtils.Time time = new LogUtils.Time("Proxy strategy "+strategy.getName()+" loaded in", true)) {
-        final ProxySearch ps = new ProxySearch();
-        ps.addStrategy(strategy, false);
-        final ProxySelector proxySelector = ps.getProxySelector();
-        if (proxySelector == null) {
-          if (logger.isDebugEnabled()) {
-            logger.debug("Proxy strategy: " + strategy.getName() + " - no settings available");
-          }
-          continue;
-        }
-        List<Proxy> proxyList = proxySelector.select(uri);
-        logger.info("Proxy strategy: " + strategy.getName() + " - found: "+proxyList);
-        proxies.addAll(proxyList);
-      } catch (Exception e) {
-        logger.error("Failed to process proxy settings for strategy "+ strategy.getName()+": "+e.getMessage(), e);
-      }
-    }
-    if (proxies.isEmpty()){
+  private ProxySetup selectProxy(List<Proxy> proxies) {
+    if (proxies.isEmpty()) {
       return null;
-    } else {
-      if (proxies.size() > 1) {
-        logger.warn("Multiple different proxy settings found.");
-        proxies.forEach(p -> logger.warn("Proxy: " + p.toString()));
-      }
-      Proxy proxy = proxies.stream().findFirst().get(); // TODO - heuristic to choose the best?
-      return selectProxy(proxy);
     }
+    if (proxies.size() > 1) {
+      logger.warn("Multiple different proxy settings found.");
+      proxies.forEach(p -> logger.warn("Proxy: " + p.toString()));
+    }
+    return selectProxy(proxies.get(0)); // TODO - heuristic to choose the best?
   }
 
   private ProxySetup selectProxy(Proxy proxy) {
@@ -0,0 +1,246 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.api.ws.proxy;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.api.ws.proxy.ProxyResolver
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import com.github.markusbernhardt.proxy.ProxySearch;
+import com.github.markusbernhardt.proxy.ProxySearchStrategy;
+import cz.sefira.obelisk.api.model.OS;
+import cz.sefira.obelisk.util.LogUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+/**
+ * System proxy resolution. Proxy search strategies run concurrently, answer of the highest priority strategy with
+ * settings is cached per target host, cache is invalidated when the network fingerprint changes or the entry expires.
+ */
+public class ProxyResolver {
+
+  private static final Logger logger = LoggerFactory.getLogger(ProxyResolver.class.getName());
+
+  private static final long CACHE_TTL_MILLISECONDS = 15 * 60 * 1000;
+  private static final long FINGERPRINT_INTERVAL_MILLISECONDS = 5000;
+  private static final long DETECTION_TIMEOUT_MILLISECONDS = 20000;
+  private static final Path RESOLV_CONF = Path.of("/etc/resolv.conf");
+
+  private static final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+    Thread t = new Thread(r, "ProxyDetection");
+    t.setDaemon(true);
+    return t;
+  });
+
+  private final List<ProxySearchStrategy> strategies;
+  private final Supplier<String> fingerprintSource;
+  private final long ttl;
+  private final long fingerprintInterval;
+  private final Map<String, Entry> cache = new HashMap<>();
+
+  private String fingerprint;
+  private long fingerprintTime;
+
+  public ProxyResolver(List<ProxySearchStrategy> strategies) {
+    this(strategies, ProxyResolver::networkFingerprint, CACHE_TTL_MILLISECONDS, FINGERPRINT_INTERVAL_MILLISECONDS);
+  }
+
+  ProxyResolver(List<ProxySearchStrategy> strategies, Supplier<String> fingerprintSource, long ttl,
+                long fingerprintInterval) {
+    this.strategies = strategies;
+    this.fingerprintSource = fingerprintSource;
+    this.ttl = ttl;
+    this.fingerprintInterval = fingerprintInterval;
+  }
+
+  /**
+   * Resolve system proxies for given target
+   * @param uri Target URI
+   * @return Proxies found by the highest priority strategy with settings, empty if no system proxy settings are available
+   */
+  public synchronized List<Proxy> resolve(URI uri) {
+    long now = System.currentTimeMillis();
+    String currentFingerprint = getFingerprint(now);
+    String host = uri.getScheme() + "://" + uri.getHost() + ":" + uri.getPort();
+    Entry entry = cache.get(host);
+    if (entry != null && entry.expiresAt > now && entry.fingerprint.equals(currentFingerprint)) {
+      return entry.proxies;
+    }
+    List<Proxy> proxies = detect(uri);
+    cache.put(host, new Entry(proxies, currentFingerprint, now + ttl));
+    return proxies;
+  }
+
+  /**
+   * Drop all cached results, proxies are detected again on next request
+   */
+  public synchronized void invalidate() {
+    cache.clear();
+  }
+
+  private List<Proxy> detect(URI uri) {
+    CompletionService<Integer> completion = new ExecutorCompletionService<>(executor);
+    List<Future<Integer>> running = new ArrayList<>(strategies.size());
+    AtomicReferenceArray<List<Proxy>> results = new AtomicReferenceArray<>(strategies.size());
+    for (int i = 0; i < strategies.size(); i++) {
+      final int priority = i;
+      final ProxySearchStrategy strategy = strategies.get(i);
+      running.add(completion.submit(() -> {
+        try {
+          results.set(priority, select(strategy, uri));
+        } catch (Exception e) {
+          logger.error("Failed to process proxy settings: "+e.getMessage(), e);
+          results.set(priority, Collections.emptyList());
+        }
+        return priority;
+      }));
+    }
+    long deadline = System.currentTimeMillis() + DETECTION_TIMEOUT_MILLISECONDS;
+    try {
+      for (int i = 0; i < running.size(); i++) {
+        long remaining = deadline - System.currentTimeMillis();
+        Future<Integer> done = remaining > 0 ? completion.poll(remaining, TimeUnit.MILLISECONDS) : null;
+        if (done == null) {
+          logger.error("Proxy detection timeout");
+          break;
+        }
+        // strategies are ordered by priority, answer of lower priority strategy has to wait for those above it
+        List<Proxy> proxies = conclusive(results, false);
+        if (proxies != null) {
+          return proxies;
+        }
+      }
+      List<Proxy> proxies = conclusive(results, true);
+      return proxies != null ? proxies : Collections.emptyList();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return Collections.emptyList();
+    } finally {
+      running.forEach(f -> f.cancel(true));
+    }
+  }
+
+  /**
+   * Proxies of the highest priority strategy with settings
+   * @param results Results by strategy priority, null while strategy is still running
+   * @param skipRunning Ignore strategies still running (on timeout)
+   * @return Proxies or null if not decided yet
+   */
+  private static List<Proxy> conclusive(AtomicReferenceArray<List<Proxy>> results, boolean skipRunning) {
+    for (int i = 0; i < results.length(); i++) {
+      List<Proxy> proxies = results.get(i);
+      if (proxies == null) {
+        if (skipRunning) {
+          continue;
+        }
+        return null;
+      }
+      if (!proxies.isEmpty()) {
+        return proxies;
+      }
+    }
+    return null;
+  }
+
+  private List<Proxy> select(ProxySearchStrategy strategy, URI uri) throws Exception {
+    try (LogUtils.Time time = new LogUtils.Time("Proxy strategy "+strategy.getName()+" loaded in", true)) {
+      final ProxySearch ps = new ProxySearch();
+      ps.addStrategy(strategy, false);
+      final ProxySelector proxySelector = ps.getProxySelector();
+      if (proxySelector == null) {
+        if (logger.isDebugEnabled()) {
+          logger.debug("Proxy strategy: " + strategy.getName() + " - no settings available");
+        }
+        return Collections.emptyList();
+      }
+      List<Proxy> proxyList = proxySelector.select(uri);
+      logger.info("Proxy strategy: " + strategy.getName() + " - found: "+proxyList);
+      return proxyList != null ? proxyList : Collections.emptyList();
+    }
+  }
+
+  private String getFingerprint(long now) {
+    if (fingerprint == null || now - fingerprintTime >= fingerprintInterval) {
+      String currentFingerprint = fingerprintSource.get();
+      if (fingerprint != null && !fingerprint.equals(currentFingerprint)) {
+        logger.info("Network configuration changed, detecting proxy settings again");
+      }
+      fingerprint = currentFingerprint;
+      fingerprintTime = now;
+    }
+    return fingerprint;
+  }
+
+  /**
+   * Cheap network fingerprint (active interfaces and their addresses, DNS configuration on Linux/macOS)
+   */
+  static String networkFingerprint() {
+    StringBuilder sb = new StringBuilder();
+    try {
+      for (NetworkInterface ni : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+        if (!ni.isUp() || ni.isLoopback()) {
+          continue;
+        }
+        sb.append(ni.getName()).append('[');
+        for (InterfaceAddress address : ni.getInterfaceAddresses()) {
+          sb.append(address.getAddress().getHostAddress()).append('/').append(address.getNetworkPrefixLength()).append(',');
+        }
+        sb.append(']');
+      }
+    } catch (SocketException e) {
+      logger.error("Unable to list network interfaces: "+e.getMessage(), e);
+    }
+    if (!OS.isWindows() && Files.isReadable(RESOLV_CONF)) {
+      try {
+        for (String line : Files.readAllLines(RESOLV_CONF, StandardCharsets.UTF_8)) {
+          if (line.startsWith("search") || line.startsWith("domain") || line.startsWith("nameserver")) {
+            sb.append(line.trim()).append(';');
+          }
+        }
+      } catch (Exception e) {
+        logger.error("Unable to read DNS configuration: "+e.getMessage(), e);
+      }
+    }
+    return sb.toString();
+  }
+
+  private static class Entry {
+
+    private final List<Proxy> proxies;
+    private final String fingerprint;
+    private final long expiresAt;
+
+    private Entry(List<Proxy> proxies, String fingerprint, long expiresAt) {
+      this.proxies = proxies;
+      this.fingerprint = fingerprint;
+      this.expiresAt = expiresAt;
+    }
+  }
+
+}
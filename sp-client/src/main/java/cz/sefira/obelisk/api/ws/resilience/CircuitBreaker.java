@@ -0,0 +1,99 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.api.ws.resilience;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.api.ws.resilience.CircuitBreaker
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+/**
+ * Per-host circuit breaker. Circuit opens after consecutive failures, requests then fail fast until the open
+ * period elapses and a single probe request decides whether the circuit closes again.
+ */
+class CircuitBreaker {
+
+  enum State { CLOSED, OPEN, HALF_OPEN }
+
+  private final int failureThreshold;
+  private final long openDuration;
+
+  private State state = State.CLOSED;
+  private int failures;
+  private long openedAt;
+
+  CircuitBreaker(int failureThreshold, long openDuration) {
+    this.failureThreshold = failureThreshold;
+    this.openDuration = openDuration;
+  }
+
+  /**
+   * Check if request may be sent
+   * @param now Current time
+   * @return True if request is allowed (closed circuit or half-open probe)
+   */
+  synchronized boolean allow(long now) {
+    switch (state) {
+      case CLOSED:
+        return true;
+      case OPEN:
+        if (now - openedAt >= openDuration) {
+          state = State.HALF_OPEN;
+          return true;
+        }
+        return false;
+      default:
+        return false; // probe in progress
+    }
+  }
+
+  /**
+   * Release half-open probe which ended without telling whether the server recovered, next request probes again
+   */
+  synchronized void release() {
+    if (state == State.HALF_OPEN) {
+      state = State.OPEN; // open period already elapsed
+    }
+  }
+
+  synchronized void onSuccess() {
+    state = State.CLOSED;
+    failures = 0;
+  }
+
+  /**
+   * Record failure
+   * @param now Current time
+   * @return True if the failure opened the circuit
+   */
+  synchronized boolean onFailure(long now) {
+    failures++;
+    if (state == State.HALF_OPEN || (state == State.CLOSED && failureThreshold > 0 && failures >= failureThreshold)) {
+      state = State.OPEN;
+      openedAt = now;
+      return true;
+    }
+    return false;
+  }
+
+  synchronized State getState() {
+    return state;
+  }
+
+}
@@ -0,0 +1,86 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.api.ws.resilience;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.api.ws.resilience.ResilienceEvent
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import cz.sefira.obelisk.util.TextUtils;
+
+import java.util.Date;
+
+/**
+ * Resilience action taken during SP API communication, reported in the audit
+ */
+public class ResilienceEvent {
+
+  public enum Action {
+    RETRY,
+    HEDGE,
+    CIRCUIT_OPENED,
+    CIRCUIT_REJECTED
+  }
+
+  private final String time;
+  private final String endpoint;
+  private final String host;
+  private final int attempt;
+  private final Action action;
+  private final String detail;
+
+  public ResilienceEvent(String endpoint, String host, int attempt, Action action, String detail) {
+    this.time = TextUtils.formatXsDateTime(new Date());
+    this.endpoint = endpoint;
+    this.host = host;
+    this.attempt = attempt;
+    this.action = action;
+    this.detail = detail;
+  }
+
+  public String getTime() {
+    return time;
+  }
+
+  public String getEndpoint() {
+    return endpoint;
+  }
+
+  public String getHost() {
+    return host;
+  }
+
+  public int getAttempt() {
+    return attempt;
+  }
+
+  public Action getAction() {
+    return action;
+  }
+
+  public String getDetail() {
+    return detail;
+  }
+
+  @Override
+  public String toString() {
+    return action + " " + endpoint + " " + host + " #" + attempt + (detail != null ? " (" + detail + ")" : "");
+  }
+}
@@ -0,0 +1,144 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.api.ws.resilience;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.api.ws.resilience.ResiliencePolicy
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import cz.sefira.obelisk.api.AppConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Locale;
+
+/**
+ * Resilience settings of one SP API endpoint (retries, backoff and hedging), configured by
+ * {@code http_resilience_{endpoint}} application property
+ */
+public class ResiliencePolicy {
+
+  private static final Logger logger = LoggerFactory.getLogger(ResiliencePolicy.class.getName());
+
+  private static final String PROPERTY_PREFIX = "http_resilience_";
+
+  public static final ResiliencePolicy NONE = new ResiliencePolicy(1, 0, 0, 0, false);
+
+  private final int maxAttempts;
+  private final long backoff;
+  private final long maxBackoff;
+  private final double hedgePercentile;
+  private final boolean idempotent;
+
+  ResiliencePolicy(int maxAttempts, long backoff, long maxBackoff, double hedgePercentile, boolean idempotent) {
+    this.maxAttempts = maxAttempts;
+    this.backoff = backoff;
+    this.maxBackoff = maxBackoff;
+    this.hedgePercentile = hedgePercentile;
+    this.idempotent = idempotent;
+  }
+
+  /**
+   * Returns configured policy of given endpoint
+   * @param endpoint Endpoint name (lower-case HTTP method)
+   * @return Configured policy or {@link #NONE} if endpoint is not configured
+   */
+  public static ResiliencePolicy forEndpoint(String endpoint) {
+    String value = AppConfig.get().getProperties() != null ?
+        AppConfig.get().getProperties().getProperty(PROPERTY_PREFIX + endpoint.toLowerCase(Locale.ROOT)) : null;
+    return value != null ? parse(value) : NONE;
+  }
+
+  /**
+   * Parse policy settings, e.g. {@code attempts=3,backoff=500,max_backoff=8000,hedge=0.95,idempotent=false}
+   * @param value Comma separated settings
+   * @return Policy, unspecified settings keep values of {@link #NONE}
+   */
+  public static ResiliencePolicy parse(String value) {
+    int maxAttempts = NONE.maxAttempts;
+    long backoff = NONE.backoff;
+    long maxBackoff = NONE.maxBackoff;
+    double hedgePercentile = NONE.hedgePercentile;
+    boolean idempotent = NONE.idempotent;
+    for (String setting : value.split(",")) {
+      String[] kv = setting.split("=", 2);
+      if (kv.length != 2) {
+        continue;
+      }
+      String key = kv[0].trim();
+      String val = kv[1].trim();
+      try {
+        switch (key) {
+          case "attempts":
+            maxAttempts = Math.max(1, Integer.parseInt(val));
+            break;
+          case "backoff":
+            backoff = Long.parseLong(val);
+            break;
+          case "max_backoff":
+            maxBackoff = Long.parseLong(val);
+            break;
+          case "hedge":
+            hedgePercentile = Double.parseDouble(val);
+            break;
+          case "idempotent":
+            idempotent = Boolean.parseBoolean(val);
+            break;
+          default:
+            logger.warn("Unknown resilience setting: " + key);
+        }
+      } catch (NumberFormatException e) {
+        logger.error("Invalid resilience setting: " + setting.trim());
+      }
+    }
+    return new ResiliencePolicy(maxAttempts, backoff, Math.max(backoff, maxBackoff), hedgePercentile, idempotent);
+  }
+
+  public int getMaxAttempts() {
+    return maxAttempts;
+  }
+
+  public long getBackoff() {
+    return backoff;
+  }
+
+  public long getMaxBackoff() {
+    return maxBackoff;
+  }
+
+  /**
+   * Latency percentile (0-1) after which a duplicate GET is sent, 0 if hedging is disabled
+   */
+  public double getHedgePercentile() {
+    return hedgePercentile;
+  }
+
+  public boolean isHedging() {
+    return hedgePercentile > 0 && hedgePercentile < 1;
+  }
+
+  /**
+   * POST requests carry Idempotency-Key header and server accepts them repeatedly
+   */
+  public boolean isIdempotent() {
+    return idempotent;
+  }
+
+}
@@ -0,0 +1,358 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.api.ws.resilience;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.api.ws.resilience.ResilientTransport
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import cz.sefira.obelisk.api.AppConfig;
+import cz.sefira.obelisk.api.ws.HttpResponseException;
+import cz.sefira.obelisk.api.ws.auth.CommunicationExpirationException;
+import cz.sefira.obelisk.api.ws.ssl.HttpResponse;
+import cz.sefira.obelisk.api.ws.ssl.HttpTransport;
+import cz.sefira.obelisk.util.HttpUtils;
+import org.apache.hc.client5.http.ConnectTimeoutException;
+import org.apache.hc.client5.http.classic.methods.HttpUriRequestBase;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.core5.http.ConnectionClosedException;
+import org.apache.hc.core5.http.NoHttpResponseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.*;
+import java.security.GeneralSecurityException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+import static cz.sefira.obelisk.api.ws.resilience.ResilienceEvent.Action.*;
+
+/**
+ * HTTP transport applying resilience policies of SP API endpoints: idempotency-aware retries with exponential
+ * backoff and jitter, hedged GET requests after a latency percentile and per-host circuit breaker. Actions taken
+ * are collected for the audit.
+ */
+public class ResilientTransport implements HttpTransport {
+
+  private static final Logger logger = LoggerFactory.getLogger(ResilientTransport.class.getName());
+
+  public static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+
+  private static final Set<String> IDEMPOTENT_METHODS = Set.of("GET", "HEAD", "OPTIONS", "PUT", "DELETE", "TRACE");
+  private static final Set<Integer> RETRYABLE_STATUS = Set.of(429, 502, 503, 504);
+  private static final int LATENCY_SAMPLES = 128;
+  private static final int MIN_HEDGE_SAMPLES = 20;
+  private static final int MAX_EVENTS = 100;
+
+  private static final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+    Thread t = new Thread(r, "HedgedRequest");
+    t.setDaemon(true);
+    return t;
+  });
+
+  private final HttpTransport delegate;
+  private final Function<String, ResiliencePolicy> policies;
+  private final int failureThreshold;
+  private final long openDuration;
+  private final Map<String, ResiliencePolicy> endpointPolicies = new ConcurrentHashMap<>();
+  private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+  private final Map<String, LatencyTracker> latencies = new ConcurrentHashMap<>();
+  private final LinkedList<ResilienceEvent> events = new LinkedList<>();
+  private final Random random = new Random();
+
+  public ResilientTransport(HttpTransport delegate) {
+    this(delegate, ResiliencePolicy::forEndpoint, AppConfig.get().getHttpCircuitFailureThreshold(),
+        AppConfig.get().getHttpCircuitOpenDuration());
+  }
+
+  ResilientTransport(HttpTransport delegate, Function<String, ResiliencePolicy> policies, int failureThreshold,
+                     long openDuration) {
+    this.delegate = delegate;
+    this.policies = policies;
+    this.failureThreshold = failureThreshold;
+    this.openDuration = openDuration;
+  }
+
+  @Override
+  public HttpResponse execute(HttpUriRequestBase request, RequestConfig requestConfig)
+      throws GeneralSecurityException, IOException, URISyntaxException {
+    String endpoint = request.getMethod().toLowerCase(Locale.ROOT);
+    ResiliencePolicy policy = endpointPolicies.computeIfAbsent(endpoint, policies);
+    URI uri = request.getUri();
+    String host = uri.getHost();
+    CircuitBreaker breaker = breakers.computeIfAbsent(host + ":" + uri.getPort(),
+        k -> new CircuitBreaker(failureThreshold, openDuration));
+    boolean idempotent = IDEMPOTENT_METHODS.contains(request.getMethod());
+    if (!idempotent && policy.isIdempotent()) {
+      // same key for all attempts lets the server recognize repeated request
+      if (!request.containsHeader(IDEMPOTENCY_KEY)) {
+        request.setHeader(IDEMPOTENCY_KEY, UUID.randomUUID().toString());
+      }
+      idempotent = true;
+    }
+    for (int attempt = 1; ; attempt++) {
+      if (!breaker.allow(System.currentTimeMillis())) {
+        record(new ResilienceEvent(endpoint, host, attempt, CIRCUIT_REJECTED, null));
+        throw new CircuitOpenException(host);
+      }
+      long start = System.currentTimeMillis();
+      boolean settled = false;
+      try {
+        HttpResponse response = send(request, requestConfig, endpoint, host, attempt, policy);
+        settled = true;
+        breaker.onSuccess();
+        if (!isLongPoll(request)) {
+          latency(endpoint).record(System.currentTimeMillis() - start);
+        }
+        return response;
+      } catch (IOException | RuntimeException e) {
+        settled = true;
+        boolean serverFailure = isServerFailure(e);
+        if (!serverFailure) {
+          breaker.onSuccess(); // server is reachable
+        } else if (breaker.onFailure(System.currentTimeMillis())) {
+          logger.warn("Circuit opened for " + host);
+          record(new ResilienceEvent(endpoint, host, attempt, CIRCUIT_OPENED, describe(e)));
+        }
+        boolean retryable = serverFailure && (idempotent || !isSent(e)) && !isExpired(e);
+        long delay = retryable && attempt < policy.getMaxAttempts() ? getBackoff(policy, attempt, e) : -1;
+        if (delay < 0) {
+          throw e;
+        }
+        logger.warn("Request " + request.getMethod() + " " + uri + " failed (" + describe(e) + "), retry in " +
+            delay + " ms");
+        record(new ResilienceEvent(endpoint, host, attempt, RETRY, describe(e)));
+        sleep(delay);
+      } finally {
+        if (!settled) {
+          // e.g. GeneralSecurityException says nothing about the server, half-open probe must not stay in progress
+          breaker.release();
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns and clears resilience actions collected since the last call
+   * @return Resilience events
+   */
+  public List<ResilienceEvent> drainEvents() {
+    synchronized (events) {
+      List<ResilienceEvent> drained = new ArrayList<>(events);
+      events.clear();
+      return drained;
+    }
+  }
+
+  private HttpResponse send(HttpUriRequestBase request, RequestConfig requestConfig, String endpoint, String host,
+                            int attempt, ResiliencePolicy policy)
+      throws GeneralSecurityException, IOException, URISyntaxException {
+    long threshold = "GET".equals(request.getMethod()) && policy.isHedging() && !isLongPoll(request) ?
+        latency(endpoint).percentile(policy.getHedgePercentile()) : -1;
+    if (threshold < 0) {
+      return delegate.execute(copy(request), requestConfig);
+    }
+    CompletionService<HttpResponse> completion = new ExecutorCompletionService<>(executor);
+    Map<Future<HttpResponse>, HttpUriRequestBase> running = new HashMap<>();
+    HttpUriRequestBase primary = copy(request);
+    running.put(completion.submit(() -> delegate.execute(primary, requestConfig)), primary);
+    Future<HttpResponse> winner = null;
+    try {
+      Future<HttpResponse> done = completion.poll(threshold, TimeUnit.MILLISECONDS);
+      if (done == null) {
+        // primary is slower than usual, race it with a duplicate request
+        record(new ResilienceEvent(endpoint, host, attempt, HEDGE, "after " + threshold + " ms"));
+        HttpUriRequestBase hedge = copy(request);
+        running.put(completion.submit(() -> delegate.execute(hedge, requestConfig)), hedge);
+        done = completion.take();
+      }
+      int pending = running.size();
+      while (true) {
+        pending--;
+        try {
+          HttpResponse response = done.get();
+          winner = done;
+          return response;
+        } catch (ExecutionException e) {
+          if (pending == 0) {
+            throw rethrow(e.getCause());
+          }
+        }
+        done = completion.take();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Request interrupted");
+    } finally {
+      for (Map.Entry<Future<HttpResponse>, HttpUriRequestBase> r : running.entrySet()) {
+        if (r.getKey() != winner) {
+          r.getValue().cancel();
+        }
+      }
+    }
+  }
+
+  private LatencyTracker latency(String endpoint) {
+    return latencies.computeIfAbsent(endpoint, e -> new LatencyTracker());
+  }
+
+  private void record(ResilienceEvent event) {
+    synchronized (events) {
+      if (events.size() >= MAX_EVENTS) {
+        events.removeFirst();
+      }
+      events.add(event);
+    }
+  }
+
+  /**
+   * Exponential backoff with jitter, Retry-After of the response is respected
+   * @return Delay in milliseconds or -1 if server asks to wait longer than the policy allows
+   */
+  private long getBackoff(ResiliencePolicy policy, int attempt, Exception e) {
+    long cap = Math.min(policy.getMaxBackoff(), policy.getBackoff() << Math.min(attempt - 1, 20));
+    long delay = cap / 2 + (long) (random.nextDouble() * (cap - cap / 2));
+    long retryAfter = getRetryAfter(e);
+    if (retryAfter > policy.getMaxBackoff()) {
+      return -1;
+    }
+    return Math.max(delay, retryAfter);
+  }
+
+  static long getRetryAfter(Exception e) {
+    if (!(e instanceof HttpResponseException)) {
+      return 0;
+    }
+    return Math.max(0, HttpUtils.getRetryAfter(((HttpResponseException) e).getHeaders()));
+  }
+
+  /**
+   * Failure caused by unavailable or overloaded server (counted by circuit breaker, may be retried)
+   */
+  static boolean isServerFailure(Exception e) {
+    if (e instanceof HttpResponseException) {
+      return RETRYABLE_STATUS.contains(((HttpResponseException) e).getStatusCode());
+    }
+    if (e instanceof CommunicationExpirationException) {
+      return true;
+    }
+    return e instanceof SocketException || e instanceof UnknownHostException || e instanceof NoHttpResponseException ||
+        e instanceof ConnectionClosedException;
+  }
+
+  /**
+   * Request may have reached the server (failure of non-idempotent request cannot be retried)
+   */
+  static boolean isSent(Exception e) {
+    if (e instanceof HttpResponseException) {
+      int status = ((HttpResponseException) e).getStatusCode();
+      return status != 429 && status != 503;
+    }
+    if (e instanceof CommunicationExpirationException) {
+      return !(e.getCause() instanceof ConnectTimeoutException);
+    }
+    return !(e instanceof ConnectException || e instanceof NoRouteToHostException || e instanceof UnknownHostException);
+  }
+
+  /**
+   * Server may hold the request open (Prefer: wait), its duration is not a latency sample and it is never hedged
+   */
+  static boolean isLongPoll(HttpUriRequestBase request) {
+    return HttpUtils.getPreferredWait(request) > 0;
+  }
+
+  /**
+   * Request ran out of time, only connect timeout is retried
+   */
+  private static boolean isExpired(Exception e) {
+    return e instanceof CommunicationExpirationException && !(e.getCause() instanceof ConnectTimeoutException);
+  }
+
+  private static String describe(Exception e) {
+    if (e instanceof HttpResponseException) {
+      return "HTTP " + ((HttpResponseException) e).getStatusCode();
+    }
+    return e.getClass().getSimpleName() + (e.getMessage() != null ? ": " + e.getMessage() : "");
+  }
+
+  private static HttpUriRequestBase copy(HttpUriRequestBase request) throws URISyntaxException {
+    HttpUriRequestBase copy = new HttpUriRequestBase(request.getMethod(), request.getUri());
+    copy.setHeaders(request.getHeaders());
+    copy.setEntity(request.getEntity());
+    copy.setConfig(request.getConfig());
+    return copy;
+  }
+
+  private static void sleep(long delay) throws InterruptedIOException {
+    try {
+      Thread.sleep(delay);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Retry interrupted");
+    }
+  }
+
+  private static IOException rethrow(Throwable t) throws GeneralSecurityException, IOException, URISyntaxException {
+    if (t instanceof GeneralSecurityException) {
+      throw (GeneralSecurityException) t;
+    } else if (t instanceof IOException) {
+      throw (IOException) t;
+    } else if (t instanceof URISyntaxException) {
+      throw (URISyntaxException) t;
+    } else if (t instanceof RuntimeException) {
+      throw (RuntimeException) t;
+    } else if (t instanceof Error) {
+      throw (Error) t;
+    }
+    return new IOException(t);
+  }
+
+  /**
+   * Sliding window of recent successful request latencies
+   */
+  private static class LatencyTracker {
+
+    private final long[] samples = new long[LATENCY_SAMPLES];
+    private int count;
+    private int next;
+
+    synchronized void record(long latency) {
+      samples[next] = latency;
+      next = (next + 1) % samples.length;
+      count = Math.min(count + 1, samples.length);
+    }
+
+    /**
+     * @return Latency percentile or -1 if there are not enough samples yet
+     */
+    synchronized long percentile(double p) {
+      if (count < MIN_HEDGE_SAMPLES) {
+        return -1;
+      }
+      long[] sorted = Arrays.copyOf(samples, count);
+      Arrays.sort(sorted);
+      return sorted[Math.max(0, (int) Math.ceil(p * count) - 1)];
+    }
+  }
+
+}
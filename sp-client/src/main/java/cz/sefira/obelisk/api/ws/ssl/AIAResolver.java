@@ -0,0 +1,267 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.api.ws.ssl;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.api.ws.ssl.AIAResolver
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import cz.sefira.obelisk.storage.AIACacheStorage;
+import cz.sefira.obelisk.util.DSSUtils;
+import cz.sefira.obelisk.util.X509Utils;
+import org.apache.hc.client5.http.utils.Hex;
+import org.bouncycastle.asn1.x509.AuthorityKeyIdentifier;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.SubjectKeyIdentifier;
+import org.bouncycastle.cert.jcajce.JcaX509ExtensionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.security.auth.x500.X500Principal;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Completes SSL certificate chains up to trusted anchors using Authority Information Access (caIssuers).
+ * <p>
+ * Downloaded certificates are kept in {@link AIACacheStorage} keyed by subject name and subject key identifier,
+ * so the issuer of a certificate is found by its issuer name and authority key identifier without downloading.
+ * Alternative AIA locations are fetched in parallel, locations that failed are not accessed again
+ * until the negative cache entry expires.
+ */
+public class AIAResolver {
+
+  private static final Logger logger = LoggerFactory.getLogger(AIAResolver.class.getName());
+
+  private static final int MAX_DEPTH = 8;
+  private static final long FETCH_TIMEOUT_MILLISECONDS = 10000;
+  private static final long NEGATIVE_TTL_MILLISECONDS = 10 * 60 * 1000;
+
+  private static final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+    Thread t = new Thread(r, "AIAFetcher");
+    t.setDaemon(true);
+    return t;
+  });
+
+  private final AIACacheStorage store;
+  private final long fetchTimeout;
+  private final long negativeTtl;
+  private final Map<String, Long> unreachable = new ConcurrentHashMap<>();
+
+  public AIAResolver(AIACacheStorage store) {
+    this(store, FETCH_TIMEOUT_MILLISECONDS, NEGATIVE_TTL_MILLISECONDS);
+  }
+
+  AIAResolver(AIACacheStorage store, long fetchTimeout, long negativeTtl) {
+    this.store = store;
+    this.fetchTimeout = fetchTimeout;
+    this.negativeTtl = negativeTtl;
+  }
+
+  /**
+   * Downloads content of AIA location
+   */
+  public interface Fetcher {
+
+    byte[] fetch(String url) throws Exception;
+
+  }
+
+  /**
+   * Complete certificate chain to trusted anchor
+   * @param sslChain Certificate chain presented by server (end-certificate first)
+   * @param provider Trusted anchors
+   * @param fetcher Downloads AIA locations
+   * @return Completed chain (without the anchor) or null if no chain to trusted anchor was found
+   */
+  public List<X509Certificate> resolve(List<X509Certificate> sslChain, SSLCertificateProvider provider, Fetcher fetcher) {
+    List<X509Certificate> certificates = new ArrayList<>(sslChain);
+    X509Certificate subject = certificates.get(certificates.size() - 1);
+    for (int depth = 0; depth < MAX_DEPTH; depth++) {
+      if (X509Utils.isSelfSigned(subject)) {
+        return null; // chain ends with untrusted self-sign, nothing to do here
+      }
+      X509Certificate issuer = findIssuer(subject, fetcher);
+      if (issuer == null) {
+        return null;
+      }
+      certificates.add(issuer);
+      // did we find certificate issued by trust-anchor?
+      List<X509Certificate> anchors = provider.getBySubject(issuer.getIssuerX500Principal());
+      if (anchors != null && X509Utils.validateCertificateChain(certificates)) {
+        for (X509Certificate anchor : anchors) {
+          if (X509Utils.validateCertificateIssuer(issuer, anchor)) {
+            logger.info("Found trusted certificate chain");
+            return certificates;
+          }
+        }
+      }
+      subject = issuer;
+    }
+    return null;
+  }
+
+  private X509Certificate findIssuer(X509Certificate subject, Fetcher fetcher) {
+    String issuerKey = getIssuerKey(subject);
+    if (store != null) {
+      for (X509Certificate cached : store.get(issuerKey)) {
+        if (X509Utils.validateCertificateIssuer(subject, cached)) {
+          logger.info("AIA certificate found in cache: "+cached.getSubjectX500Principal());
+          return cached;
+        }
+      }
+    }
+    List<String> urls = getUrls(subject);
+    if (urls.isEmpty()) {
+      return null;
+    }
+    // fetch alternative locations in parallel, first location providing the issuer wins
+    CompletionService<Collection<X509Certificate>> completion = new ExecutorCompletionService<>(executor);
+    Map<Future<Collection<X509Certificate>>, String> running = new HashMap<>();
+    for (String url : urls) {
+      running.put(completion.submit(() -> download(url, fetcher)), url);
+    }
+    long deadline = System.currentTimeMillis() + fetchTimeout;
+    try {
+      while (!running.isEmpty()) {
+        long remaining = deadline - System.currentTimeMillis();
+        Future<Collection<X509Certificate>> done = remaining > 0 ? completion.poll(remaining, TimeUnit.MILLISECONDS) : null;
+        if (done == null) {
+          logger.error("AIA download timeout: "+running.values());
+          running.values().forEach(this::markUnreachable);
+          return null;
+        }
+        String url = running.remove(done);
+        try {
+          for (X509Certificate certificate : done.get()) {
+            if (X509Utils.validateCertificateIssuer(subject, certificate)) {
+              return certificate;
+            }
+          }
+          logger.info("AIA location does not provide issuer certificate: "+url);
+        } catch (ExecutionException e) {
+          logger.error("Unable to download AIA certificate: "+url+" ("+e.getCause().getMessage()+")");
+          markUnreachable(url);
+        }
+      }
+      return null;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    } finally {
+      running.keySet().forEach(f -> f.cancel(true));
+    }
+  }
+
+  private Collection<X509Certificate> download(String url, Fetcher fetcher) throws Exception {
+    logger.info("Accessing AIA URL: "+url);
+    byte[] content = fetcher.fetch(url);
+    if (content == null) {
+      throw new IOException("No content");
+    }
+    Collection<X509Certificate> certificates = parse(content);
+    if (store != null) {
+      for (X509Certificate certificate : certificates) {
+        store.add(getKey(certificate), certificate);
+      }
+    }
+    return certificates;
+  }
+
+  private List<String> getUrls(X509Certificate subject) {
+    List<String> urls = new ArrayList<>();
+    List<String> locations = DSSUtils.getAccessLocations(subject);
+    if (locations != null) {
+      long now = System.currentTimeMillis();
+      unreachable.values().removeIf(expiration -> expiration < now);
+      for (String url : locations) {
+        if (!url.toLowerCase().startsWith("http")) {
+          continue; // not HTTP URL
+        }
+        if (unreachable.containsKey(url)) {
+          logger.info("Skipping unreachable AIA URL: "+url);
+          continue;
+        }
+        urls.add(url);
+      }
+    }
+    return urls;
+  }
+
+  private void markUnreachable(String url) {
+    unreachable.put(url, System.currentTimeMillis() + negativeTtl);
+  }
+
+  /**
+   * Parse DER/PEM encoded certificate or PKCS#7 certificate bag
+   */
+  static Collection<X509Certificate> parse(byte[] content) throws CertificateException {
+    Collection<? extends Certificate> certificates = CertificateFactory.getInstance("X.509")
+        .generateCertificates(new ByteArrayInputStream(content));
+    List<X509Certificate> x509Certificates = new ArrayList<>(certificates.size());
+    for (Certificate certificate : certificates) {
+      x509Certificates.add((X509Certificate) certificate);
+    }
+    return x509Certificates;
+  }
+
+  /**
+   * Cache key of certificate (subject name and subject key identifier)
+   */
+  static String getKey(X509Certificate certificate) {
+    byte[] keyIdentifier = null;
+    try {
+      byte[] ski = certificate.getExtensionValue(Extension.subjectKeyIdentifier.getId());
+      if (ski != null) {
+        keyIdentifier = SubjectKeyIdentifier.getInstance(JcaX509ExtensionUtils.parseExtensionValue(ski)).getKeyIdentifier();
+      }
+    } catch (IOException e) {
+      logger.error("Invalid subject key identifier: "+e.getMessage());
+    }
+    return toKey(certificate.getSubjectX500Principal(), keyIdentifier);
+  }
+
+  /**
+   * Cache key of the certificate issuer (issuer name and authority key identifier)
+   */
+  static String getIssuerKey(X509Certificate certificate) {
+    byte[] keyIdentifier = null;
+    try {
+      byte[] aki = certificate.getExtensionValue(Extension.authorityKeyIdentifier.getId());
+      if (aki != null) {
+        keyIdentifier = AuthorityKeyIdentifier.getInstance(JcaX509ExtensionUtils.parseExtensionValue(aki)).getKeyIdentifier();
+      }
+    } catch (IOException e) {
+      logger.error("Invalid authority key identifier: "+e.getMessage());
+    }
+    return toKey(certificate.getIssuerX500Principal(), keyIdentifier);
+  }
+
+  private static String toKey(X500Principal name, byte[] keyIdentifier) {
+    return name.getName(X500Principal.CANONICAL) + "#" + (keyIdentifier != null ? Hex.encodeHexString(keyIdentifier) : "");
+  }
+
+}
@@ -0,0 +1,191 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.api.ws.ssl;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.api.ws.ssl.AnchorIndex
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import org.apache.hc.client5.http.utils.Hex;
+import org.bouncycastle.asn1.x509.AuthorityKeyIdentifier;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.SubjectKeyIdentifier;
+import org.bouncycastle.cert.jcajce.JcaX509ExtensionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.security.auth.x500.X500Principal;
+import java.io.IOException;
+import java.security.cert.X509Certificate;
+import java.util.*;
+
+/**
+ * Immutable index of trusted certificates by subject name and subject key identifier. Adding certificates creates
+ * a new index (copy-on-write), readers always see a consistent snapshot without locking.
+ */
+public final class AnchorIndex {
+
+  private static final Logger logger = LoggerFactory.getLogger(AnchorIndex.class.getName());
+
+  /**
+   * Index without any trusted certificate
+   */
+  public static final AnchorIndex EMPTY = new AnchorIndex(Map.of(), Map.of(), Set.of());
+
+  private final Map<String, List<X509Certificate>> bySubject;
+  private final Map<String, List<X509Certificate>> byKeyId;
+  private final Set<X509Certificate> certificates;
+  private volatile X509Certificate[] acceptedIssuers;
+
+  private AnchorIndex(Map<String, List<X509Certificate>> bySubject, Map<String, List<X509Certificate>> byKeyId,
+                      Set<X509Certificate> certificates) {
+    this.bySubject = bySubject;
+    this.byKeyId = byKeyId;
+    this.certificates = certificates;
+  }
+
+  /**
+   * Index extended by given certificates
+   * @param added Certificates to add
+   * @return New index or this index if all certificates are already present
+   */
+  public AnchorIndex with(Collection<X509Certificate> added) {
+    Map<String, List<X509Certificate>> subjects = null;
+    Map<String, List<X509Certificate>> keyIds = null;
+    Set<X509Certificate> all = null;
+    for (X509Certificate certificate : added) {
+      if (certificates.contains(certificate) || (all != null && all.contains(certificate))) {
+        continue;
+      }
+      if (all == null) {
+        subjects = new HashMap<>(bySubject);
+        keyIds = new HashMap<>(byKeyId);
+        all = new HashSet<>(certificates);
+      }
+      all.add(certificate);
+      append(subjects, subjectKey(certificate.getSubjectX500Principal()), certificate);
+      byte[] keyId = getSubjectKeyIdentifier(certificate);
+      if (keyId != null) {
+        append(keyIds, Hex.encodeHexString(keyId), certificate);
+      }
+    }
+    if (all == null) {
+      return this;
+    }
+    return new AnchorIndex(Collections.unmodifiableMap(subjects), Collections.unmodifiableMap(keyIds),
+        Collections.unmodifiableSet(all));
+  }
+
+  public boolean contains(X509Certificate certificate) {
+    return certificates.contains(certificate);
+  }
+
+  /**
+   * @return Trusted certificates with given subject name or null
+   */
+  public List<X509Certificate> getBySubject(X500Principal subjectName) {
+    return bySubject.get(subjectKey(subjectName));
+  }
+
+  /**
+   * @return Trusted certificates with given subject key identifier or null
+   */
+  public List<X509Certificate> getByKeyIdentifier(byte[] keyIdentifier) {
+    return byKeyId.get(Hex.encodeHexString(keyIdentifier));
+  }
+
+  /**
+   * Candidate issuers of the certificate, looked up by authority key identifier and issuer name
+   * (signature is not verified)
+   * @param certificate Issued certificate
+   * @return Trusted certificates that may have issued the certificate
+   */
+  public List<X509Certificate> findIssuers(X509Certificate certificate) {
+    List<X509Certificate> byName = getBySubject(certificate.getIssuerX500Principal());
+    byte[] keyId = getAuthorityKeyIdentifier(certificate);
+    List<X509Certificate> byKey = keyId != null ? getByKeyIdentifier(keyId) : null;
+    if (byKey == null) {
+      return byName != null ? byName : Collections.emptyList();
+    }
+    List<X509Certificate> issuers = new ArrayList<>(byKey.size());
+    for (X509Certificate issuer : byKey) {
+      if (issuer.getSubjectX500Principal().equals(certificate.getIssuerX500Principal())) {
+        issuers.add(issuer);
+      }
+    }
+    return issuers.isEmpty() && byName != null ? byName : issuers;
+  }
+
+  public Set<X509Certificate> getCertificates() {
+    return certificates;
+  }
+
+  public int size() {
+    return certificates.size();
+  }
+
+  X509Certificate[] getAcceptedIssuers() {
+    X509Certificate[] issuers = acceptedIssuers;
+    if (issuers == null) {
+      issuers = certificates.toArray(new X509Certificate[0]);
+      acceptedIssuers = issuers;
+    }
+    return issuers.clone();
+  }
+
+  static byte[] getSubjectKeyIdentifier(X509Certificate certificate) {
+    try {
+      byte[] ski = certificate.getExtensionValue(Extension.subjectKeyIdentifier.getId());
+      if (ski != null) {
+        return SubjectKeyIdentifier.getInstance(JcaX509ExtensionUtils.parseExtensionValue(ski)).getKeyIdentifier();
+      }
+    } catch (IOException | IllegalArgumentException e) {
+      logger.error("Invalid subject key identifier: "+e.getMessage());
+    }
+    return null;
+  }
+
+  static byte[] getAuthorityKeyIdentifier(X509Certificate certificate) {
+    try {
+      byte[] aki = certificate.getExtensionValue(Extension.authorityKeyIdentifier.getId());
+      if (aki != null) {
+        return AuthorityKeyIdentifier.getInstance(JcaX509ExtensionUtils.parseExtensionValue(aki)).getKeyIdentifier();
+      }
+    } catch (IOException | IllegalArgumentException e) {
+      logger.error("Invalid authority key identifier: "+e.getMessage());
+    }
+    return null;
+  }
+
+  private static String subjectKey(X500Principal name) {
+    return name.getName(X500Principal.CANONICAL);
+  }
+
+  private static void append(Map<String, List<X509Certificate>> map, String key, X509Certificate certificate) {
+    List<X509Certificate> current = map.get(key);
+    List<X509Certificate> updated = new ArrayList<>(current != null ? current.size() + 1 : 1);
+    if (current != null) {
+      updated.addAll(current);
+    }
+    updated.add(certificate);
+    map.put(key, Collections.unmodifiableList(updated));
+  }
+
+}
@@ -0,0 +1,269 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.api.ws.ssl;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.api.ws.ssl.AsyncHttpsClient
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import cz.sefira.obelisk.api.PlatformAPI;
+import cz.sefira.obelisk.api.notification.LongActivityNotifier;
+import cz.sefira.obelisk.api.ws.auth.CommunicationExpirationException;
+import cz.sefira.obelisk.api.ws.dns.CachingDnsResolver;
+import cz.sefira.obelisk.util.HttpUtils;
+import cz.sefira.obelisk.view.BusyIndicator;
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.async.methods.SimpleRequestBuilder;
+import org.apache.hc.client5.http.async.methods.SimpleRequestProducer;
+import org.apache.hc.client5.http.async.methods.SimpleResponseConsumer;
+import org.apache.hc.client5.http.classic.methods.HttpUriRequestBase;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.client5.http.ssl.ClientTlsStrategyBuilder;
+import org.apache.hc.client5.http.ssl.DefaultHostnameVerifier;
+import org.apache.hc.core5.concurrent.CallbackContribution;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.ConnectionClosedException;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http.nio.ssl.TlsStrategy;
+import org.apache.hc.core5.http2.impl.nio.ProtocolNegotiationException;
+import org.apache.hc.core5.http2.ssl.ApplicationProtocol;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.io.ModalCloseable;
+import org.apache.hc.core5.net.NamedEndpoint;
+import org.apache.hc.core5.reactor.IOReactorConfig;
+import org.apache.hc.core5.reactor.ssl.TlsDetails;
+import org.apache.hc.core5.reactor.ssl.TransportSecurityLayer;
+import org.apache.hc.core5.ssl.SSLContexts;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.security.GeneralSecurityException;
+import java.util.Set;
+import java.util.concurrent.*;
+
+/**
+ * Asynchronous HTTP/2 client, concurrent requests to one host are multiplexed as streams over a single connection.
+ * Requests going through a proxy (HTTP/2 client does not tunnel) or to hosts not speaking HTTP/2 are handed over to
+ * the classic {@link HttpsClient}, as well as requests failing on untrusted certificate chain, which the classic
+ * client completes via AIA (and reloads OS trusted certificates where {@link TrustStoreWatcher} cannot watch them).
+ */
+public class AsyncHttpsClient implements HttpTransport {
+
+  private static final Logger logger = LoggerFactory.getLogger(AsyncHttpsClient.class.getName());
+
+  private static final String DIRECT = "direct";
+  private static final Timeout LONG_ACTIVITY = Timeout.ofSeconds(3);
+  private static final Timeout CONNECT_TIMEOUT = Timeout.ofSeconds(10);
+  private static final Timeout SOCKET_TIMEOUT = Timeout.ofSeconds(30);
+  private static final Timeout HARD_TIMEOUT = Timeout.ofMinutes(2);
+  private static final TimeValue IDLE_EVICTION = TimeValue.ofSeconds(30);
+
+  private static final ScheduledExecutorService closer = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread t = new Thread(r, "AsyncHttpsClientCloser");
+    t.setDaemon(true);
+    return t;
+  });
+
+  // hosts which did not negotiate HTTP/2, served by the classic client
+  private static final Set<String> http1Hosts = ConcurrentHashMap.newKeySet();
+
+  private static CloseableHttpAsyncClient client;
+  private static SSLContext sslContext;
+
+  private final PlatformAPI api;
+  private final HttpsClient fallback;
+
+  public AsyncHttpsClient(PlatformAPI api) {
+    this.api = api;
+    this.fallback = new HttpsClient(api);
+  }
+
+  @Override
+  public HttpResponse execute(HttpUriRequestBase request, RequestConfig requestConfig)
+      throws GeneralSecurityException, IOException, URISyntaxException {
+    final String host = getHost(request);
+    if (http1Hosts.contains(host) || !DIRECT.equals(api.getProxyProvider().getProxyKey(request))) {
+      return fallback.execute(request, requestConfig);
+    }
+    try (BusyIndicator busyIndicator = new BusyIndicator(true, false);
+         LongActivityNotifier notifier = new LongActivityNotifier(api, "notification.long.activity.server",
+             LONG_ACTIVITY.toMilliseconds() + HttpUtils.getPreferredWait(request))) {
+      return send(request, requestConfig);
+    } catch (SSLException e) {
+      if (HttpsClient.sslTrustIssue(e)) {
+        logger.info("Untrusted certificate chain, retrying with classic client");
+        return fallback.execute(request, requestConfig);
+      }
+      throw new SSLCommunicationException(e, request.getUri().getHost(), api.getSslCertificateProvider() != null ?
+          api.getSslCertificateProvider().getCertificateChain() : null);
+    } catch (ProtocolNegotiationException e) {
+      logger.info("HTTP/2 not negotiated with "+host+", using classic client");
+      http1Hosts.add(host);
+      return fallback.execute(request, requestConfig);
+    }
+  }
+
+  /**
+   * Send request and wait for the complete response
+   */
+  HttpResponse send(HttpUriRequestBase request, RequestConfig requestConfig)
+      throws GeneralSecurityException, IOException, URISyntaxException {
+    SimpleRequestBuilder builder = SimpleRequestBuilder.create(request.getMethod())
+        .setUri(request.getUri())
+        .setHeaders(request.getHeaders());
+    HttpEntity entity = request.getEntity();
+    if (entity != null) {
+      ContentType contentType = entity.getContentType() != null ? ContentType.parse(entity.getContentType()) : null;
+      ByteArrayOutputStream body = new ByteArrayOutputStream(entity.getContentLength() > 0 ?
+          (int) entity.getContentLength() : 8192);
+      entity.writeTo(body);
+      builder.setBody(body.toByteArray(), contentType);
+      if (entity.getContentEncoding() != null) {
+        builder.setHeader(HttpHeaders.CONTENT_ENCODING, entity.getContentEncoding());
+      }
+    }
+    SimpleHttpRequest asyncRequest = builder.build();
+    HttpClientContext context = HttpClientContext.create();
+    context.setRequestConfig(requestConfig);
+    Future<SimpleHttpResponse> future = getClient().execute(SimpleRequestProducer.create(asyncRequest),
+        SimpleResponseConsumer.create(), context, null);
+    try {
+      SimpleHttpResponse response = future.get(HARD_TIMEOUT.toMilliseconds(), TimeUnit.MILLISECONDS);
+      return HttpsClient.toResponse(api, response.getCode(), response.getReasonPhrase(), response.getHeaders(),
+          response.getBodyBytes());
+    } catch (TimeoutException e) {
+      future.cancel(true);
+      throw new CommunicationExpirationException("Connection expired: "+e.getMessage(), e);
+    } catch (InterruptedException e) {
+      future.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new IOException("Request interrupted", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof SocketTimeoutException || cause instanceof ConnectionClosedException) {
+        throw new CommunicationExpirationException("Connection expired: "+cause.getMessage(), cause);
+      } else if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  private CloseableHttpAsyncClient getClient() throws GeneralSecurityException {
+    synchronized (AsyncHttpsClient.class) {
+      SSLContext currentContext = api.getSslCertificateProvider() != null ?
+          api.getSslCertificateProvider().getSSLContext() : SSLContexts.createSystemDefault();
+      if (client != null && sslContext == currentContext) {
+        return client;
+      }
+      if (client != null) {
+        // let running requests finish
+        final CloseableHttpAsyncClient retired = client;
+        closer.schedule(() -> retired.close(CloseMode.GRACEFUL), HARD_TIMEOUT.toMilliseconds(), TimeUnit.MILLISECONDS);
+      }
+      logger.info("Creating async HTTP/2 client");
+      client = HttpAsyncClients.customHttp2()
+          .setTlsStrategy(new H2OnlyTlsStrategy(ClientTlsStrategyBuilder.create()
+              .setSslContext(currentContext)
+              .setHostnameVerifier(new DefaultHostnameVerifier())
+              .build()))
+          .setDnsResolver(CachingDnsResolver.getInstance())
+          .setDefaultConnectionConfig(ConnectionConfig.custom()
+              .setConnectTimeout(CONNECT_TIMEOUT)
+              .setSocketTimeout(SOCKET_TIMEOUT)
+              .build())
+          .setIOReactorConfig(IOReactorConfig.custom()
+              .setSoTimeout(SOCKET_TIMEOUT)
+              .build())
+          .evictIdleConnections(IDLE_EVICTION)
+          .build();
+      client.start();
+      sslContext = currentContext;
+      return client;
+    }
+  }
+
+  private static String getHost(HttpUriRequestBase request) throws URISyntaxException {
+    URI uri = request.getUri();
+    return uri.getHost() + ":" + uri.getPort();
+  }
+
+  /**
+   * TLS strategy failing the connection when server does not select HTTP/2 by ALPN, HTTP/2 client would send its
+   * preface to HTTP/1.1 server anyway and the request would end with closed connection
+   */
+  private static class H2OnlyTlsStrategy implements TlsStrategy {
+
+    private final TlsStrategy delegate;
+
+    H2OnlyTlsStrategy(TlsStrategy delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void upgrade(TransportSecurityLayer tlsSession, NamedEndpoint endpoint, Object attachment,
+                        Timeout handshakeTimeout, FutureCallback<TransportSecurityLayer> callback) {
+      delegate.upgrade(tlsSession, endpoint, attachment, handshakeTimeout, new CallbackContribution<>(callback) {
+        @Override
+        public void completed(TransportSecurityLayer result) {
+          TlsDetails details = result.getTlsDetails();
+          String protocol = details != null ? details.getApplicationProtocol() : null;
+          if (ApplicationProtocol.HTTP_2.id.equals(protocol)) {
+            callback.completed(result);
+            return;
+          }
+          callback.failed(new ProtocolNegotiationException("HTTP/2 not negotiated with " + endpoint.getHostName() +
+              " (ALPN: " + protocol + ")"));
+          if (result instanceof ModalCloseable) {
+            ((ModalCloseable) result).close(CloseMode.IMMEDIATE);
+          }
+        }
+      });
+    }
+
+    @Override
+    @Deprecated
+    public boolean upgrade(TransportSecurityLayer sessionLayer, HttpHost host, SocketAddress localAddress,
+                           SocketAddress remoteAddress, Object attachment, Timeout handshakeTimeout) {
+      return delegate.upgrade(sessionLayer, host, localAddress, remoteAddress, attachment, handshakeTimeout);
+    }
+  }
+
+}
@@ -0,0 +1,177 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.api.ws.ssl;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.api.ws.ssl.HttpClientPool
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import cz.sefira.obelisk.api.PlatformAPI;
+import cz.sefira.obelisk.api.ws.dns.CachingDnsResolver;
+import cz.sefira.obelisk.api.ws.dns.HappyEyeballsSocketFactory;
+import org.apache.hc.client5.http.classic.methods.HttpUriRequestBase;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.socket.ConnectionSocketFactory;
+import org.apache.hc.client5.http.socket.PlainConnectionSocketFactory;
+import org.apache.hc.client5.http.ssl.SSLConnectionSocketFactory;
+import org.apache.hc.core5.http.config.Registry;
+import org.apache.hc.core5.http.config.RegistryBuilder;
+import org.apache.hc.core5.pool.PoolConcurrencyPolicy;
+import org.apache.hc.core5.pool.PoolReusePolicy;
+import org.apache.hc.core5.http.io.SocketConfig;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URISyntaxException;
+import java.security.GeneralSecurityException;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long-lived HTTP clients with pooled keep-alive connections. One client is kept per proxy setup, so targets
+ * resolved to different proxies (PAC) reuse their pools, all clients are rebuilt when the trust material (socket
+ * factory) changes.
+ */
+class HttpClientPool {
+
+  private static final Logger logger = LoggerFactory.getLogger(HttpClientPool.class.getName());
+
+  private static final int MAX_TOTAL = 20;
+  private static final int MAX_PER_ROUTE = 5;
+  private static final TimeValue IDLE_EVICTION = TimeValue.ofSeconds(30);
+  private static final TimeValue TIME_TO_LIVE = TimeValue.ofMinutes(5);
+  private static final TimeValue VALIDATE_AFTER_INACTIVITY = TimeValue.ofSeconds(2);
+  private static final int MAX_CLIENTS = 4;
+
+  private static final ScheduledExecutorService closer = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread t = new Thread(r, "HttpClientPoolCloser");
+    t.setDaemon(true);
+    return t;
+  });
+
+  private final Timeout connectTimeout;
+  private final Timeout socketTimeout;
+  private final Timeout retireTimeout;
+
+  // proxy key -> client, least recently used client is retired when the limit is exceeded
+  private final Map<String, CloseableHttpClient> clients = new LinkedHashMap<>(MAX_CLIENTS + 1, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, CloseableHttpClient> eldest) {
+      if (size() > MAX_CLIENTS) {
+        logger.info("Too many proxy setups, retiring pooled HTTP client for " + eldest.getKey());
+        retire(eldest.getValue());
+        return true;
+      }
+      return false;
+    }
+  };
+  private Registry<ConnectionSocketFactory> socketFactory;
+
+  HttpClientPool(Timeout connectTimeout, Timeout socketTimeout, Timeout retireTimeout) {
+    this.connectTimeout = connectTimeout;
+    this.socketTimeout = socketTimeout;
+    this.retireTimeout = retireTimeout;
+  }
+
+  /**
+   * Returns shared client for given request, client is created for new proxy setup or when socket factory changed
+   * @param api Platform API
+   * @param request HTTP request
+   * @return Shared HTTP client
+   */
+  CloseableHttpClient getClient(PlatformAPI api, HttpUriRequestBase request)
+      throws GeneralSecurityException, URISyntaxException {
+    // proxy resolution (PAC/WPAD) may take long, other requests do not wait for it
+    String proxyKey = api.getProxyProvider().getProxyKey(request);
+    Registry<ConnectionSocketFactory> currentSocketFactory = api.getSslCertificateProvider() != null ?
+        api.getSslCertificateProvider().getSocketFactory() : null;
+    return getClient(api, proxyKey, currentSocketFactory);
+  }
+
+  private synchronized CloseableHttpClient getClient(PlatformAPI api, String proxyKey,
+                                                     Registry<ConnectionSocketFactory> currentSocketFactory) {
+    if (socketFactory != currentSocketFactory && !clients.isEmpty()) {
+      logger.info("Trust material changed, replacing pooled HTTP clients");
+      clients.values().forEach(this::retire);
+      clients.clear();
+    }
+    socketFactory = currentSocketFactory;
+    CloseableHttpClient client = clients.get(proxyKey);
+    if (client != null) {
+      return client;
+    }
+    logger.info("Creating pooled HTTP client");
+    PoolingHttpClientConnectionManager connectionManager = createConnectionManager(currentSocketFactory);
+    connectionManager.setMaxTotal(MAX_TOTAL);
+    connectionManager.setDefaultMaxPerRoute(MAX_PER_ROUTE);
+    connectionManager.setDefaultSocketConfig(SocketConfig.custom()
+        .setSoTimeout(socketTimeout)
+        .build());
+    connectionManager.setDefaultConnectionConfig(ConnectionConfig.custom()
+        .setConnectTimeout(connectTimeout)
+        .setSocketTimeout(socketTimeout)
+        .setValidateAfterInactivity(VALIDATE_AFTER_INACTIVITY)
+        .setTimeToLive(TIME_TO_LIVE)
+        .build());
+    HttpClientBuilder clientBuilder = HttpClientBuilder.create()
+        .setConnectionManager(connectionManager)
+        .evictExpiredConnections()
+        .evictIdleConnections(IDLE_EVICTION);
+    api.getProxyProvider().applyProxy(clientBuilder);
+    client = clientBuilder.build();
+    clients.put(proxyKey, client);
+    return client;
+  }
+
+  /**
+   * Connection manager resolving through the in-process DNS cache, connects race all resolved addresses
+   */
+  private static PoolingHttpClientConnectionManager createConnectionManager(Registry<ConnectionSocketFactory> registry) {
+    if (registry == null) {
+      registry = RegistryBuilder.<ConnectionSocketFactory>create()
+          .register("http", PlainConnectionSocketFactory.getSocketFactory())
+          .register("https", SSLConnectionSocketFactory.getSocketFactory())
+          .build();
+    }
+    CachingDnsResolver dnsResolver = CachingDnsResolver.getInstance();
+    Registry<ConnectionSocketFactory> racing = RegistryBuilder.<ConnectionSocketFactory>create()
+        .register("http", new HappyEyeballsSocketFactory(registry.lookup("http"), dnsResolver))
+        .register("https", new HappyEyeballsSocketFactory(registry.lookup("https"), dnsResolver))
+        .build();
+    return new PoolingHttpClientConnectionManager(racing, PoolConcurrencyPolicy.STRICT, PoolReusePolicy.LIFO,
+        TimeValue.NEG_ONE_MILLISECOND, null, HappyEyeballsSocketFactory.preferredAddress(dnsResolver), null);
+  }
+
+  /**
+   * Replaced clients may still serve running requests, they are closed after the hard timeout elapses
+   */
+  private void retire(CloseableHttpClient client) {
+    closer.schedule(() -> client.close(CloseMode.GRACEFUL), retireTimeout.toMilliseconds(), TimeUnit.MILLISECONDS);
+  }
+
+}
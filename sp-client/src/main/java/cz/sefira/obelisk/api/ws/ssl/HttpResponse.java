@@ -23,14 +23,21 @@ package cz.sefira.obelisk.api.ws.ssl;
  * Author: hlavnicka
  */
 
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
 import org.apache.hc.core5.http.Header;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
 public class HttpResponse {
 
   private final int code;
   private final String reasonPhrase;
   private final byte[] content;
   private final Header[] headers;
+  private JsonElement json;
 
   public HttpResponse(int httpCode, String reasonPhrase, Header[] headers, byte[] content) {
     this.code = httpCode;
@@ -39,6 +46,15 @@ public class HttpResponse {
     this.content = content;
   }
 
+  /**
+   * Response with JSON body decoded while it was read
+   */
+  static HttpResponse ofJson(int httpCode, String reasonPhrase, Header[] headers, JsonElement json) {
+    HttpResponse response = new HttpResponse(httpCode, reasonPhrase, headers, null);
+    response.json = json;
+    return response;
+  }
+
   public int getCode() {
     return code;
   }
@@ -47,10 +63,23 @@ public class HttpResponse {
     return reasonPhrase;
   }
 
+  /**
+   * @return Body content, null if the body was decoded as JSON while it was read (see {@link #getJson()})
+   */
   public byte[] getContent() {
     return content;
   }
 
+  /**
+   * @return JSON body, decoded from the content if the client did not decode it while reading
+   */
+  public JsonElement getJson() {
+    if (json == null && content != null) {
+      json = JsonParser.parseReader(new InputStreamReader(new ByteArrayInputStream(content), StandardCharsets.UTF_8));
+    }
+    return json;
+  }
+
   public Header[] getHeaders() {
     return headers;
   }
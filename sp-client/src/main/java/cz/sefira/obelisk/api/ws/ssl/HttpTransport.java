@@ -0,0 +1,47 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.api.ws.ssl;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.api.ws.ssl.HttpTransport
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import org.apache.hc.client5.http.classic.methods.HttpUriRequestBase;
+import org.apache.hc.client5.http.config.RequestConfig;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.security.GeneralSecurityException;
+
+/**
+ * HTTP(S) transport executing requests of the SP API client
+ */
+public interface HttpTransport {
+
+  /**
+   * Execute HTTP request
+   * @param request HTTP request
+   * @param requestConfig Request parameters
+   * @return Http response
+   */
+  HttpResponse execute(HttpUriRequestBase request, RequestConfig requestConfig)
+      throws GeneralSecurityException, IOException, URISyntaxException;
+
+}
@@ -27,19 +27,17 @@ import cz.sefira.obelisk.api.PlatformAPI;
 import cz.sefira.obelisk.api.ws.HttpResponseException;
 import cz.sefira.obelisk.api.ws.auth.CommunicationExpirationException;
 import cz.sefira.obelisk.api.notification.LongActivityNotifier;
-import cz.sefira.obelisk.util.DSSUtils;
+import cz.sefira.obelisk.storage.StorageHandler;
+import cz.sefira.obelisk.util.HttpUtils;
 import cz.sefira.obelisk.util.X509Utils;
 import cz.sefira.obelisk.view.BusyIndicator;
 import org.apache.hc.client5.http.classic.methods.HttpUriRequestBase;
-import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
-import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
 import org.apache.hc.client5.http.impl.classic.RequestFailedException;
-import org.apache.hc.client5.http.impl.io.BasicHttpClientConnectionManager;
 import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.core5.http.Header;
 import org.apache.hc.core5.http.HttpEntity;
-import org.apache.hc.core5.http.io.SocketConfig;
-import org.apache.hc.core5.http.io.entity.EntityUtils;
 import org.apache.hc.core5.net.URIBuilder;
 import org.apache.hc.core5.util.Timeout;
 import org.slf4j.Logger;
@@ -53,15 +51,18 @@ import java.security.GeneralSecurityException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
+import static org.apache.hc.core5.http.ContentType.APPLICATION_JSON;
 import static org.apache.hc.core5.http.HttpStatus.*;
 
 /**
  * SSL enabled http(s) client
  */
-public class HttpsClient {
+public class HttpsClient implements HttpTransport {
 
   private static final Logger logger = LoggerFactory.getLogger(HttpsClient.class.getName());
 
@@ -70,6 +71,19 @@ public class HttpsClient {
   private static final Timeout SOCKET_TIMEOUT = Timeout.ofSeconds(30);
   private static final Timeout HARD_TIMEOUT = Timeout.ofMinutes(2);
 
+  private static final RequestConfig AIA_REQUEST = RequestConfig.custom()
+      .setResponseTimeout(SOCKET_TIMEOUT)
+      .build();
+
+  private static final HttpClientPool pool = new HttpClientPool(CONNECT_TIMEOUT, SOCKET_TIMEOUT, HARD_TIMEOUT);
+  private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread t = new Thread(r, "HttpsClientTimeout");
+    t.setDaemon(true);
+    return t;
+  });
+
+  private static AIAResolver aiaResolver;
+
   private final PlatformAPI api;
 
   public HttpsClient(PlatformAPI api) {
@@ -79,62 +93,50 @@ public class HttpsClient {
   /**
    * Execute HTTP request
    * @param request HTTP request
-   * @param clientBuilder Request parameters
+   * @param requestConfig Request parameters
    * @return Http response
    * @throws GeneralSecurityException
    * @throws IOException
    */
-  public HttpResponse execute(HttpUriRequestBase request, HttpClientBuilder clientBuilder)
+  @Override
+  public HttpResponse execute(HttpUriRequestBase request, RequestConfig requestConfig)
       throws GeneralSecurityException, IOException, URISyntaxException {
-    return execute(request, clientBuilder, true, true);
+    return execute(request, requestConfig, true, !TrustStoreWatcher.coversSystemStores());
   }
 
   /**
    * Execute HTTP request
    * @param request HTTP request
-   * @param clientBuilder Request parameters
+   * @param requestConfig Request parameters
    * @param allowAIA Allow using AIA to try and complete SSL certificate chain till trusted anchors
-   * @param reloadSSL Reload SSL certificate stores to check if new trusted anchors didn't appear
+   * @param reloadSSL Reload SSL certificate stores to check if new trusted anchors didn't appear (OS stores not
+   *                  covered by {@link TrustStoreWatcher})
    * @return Http response
    */
-  private HttpResponse execute(HttpUriRequestBase request, HttpClientBuilder clientBuilder, boolean allowAIA,
+  private HttpResponse execute(HttpUriRequestBase request, RequestConfig requestConfig, boolean allowAIA,
                                boolean reloadSSL) throws GeneralSecurityException, IOException, URISyntaxException {
-
-    BasicHttpClientConnectionManager connectionManager;
-    if (api.getSslCertificateProvider() != null) {
-      connectionManager = new BasicHttpClientConnectionManager(api.getSslCertificateProvider().getSocketFactory());
-    } else {
-      connectionManager = new BasicHttpClientConnectionManager();
-    }
-    connectionManager.setSocketConfig(SocketConfig.custom()
-        .setSoTimeout(SOCKET_TIMEOUT)
-        .build());
-    connectionManager.setConnectionConfig(ConnectionConfig.custom()
-        .setConnectTimeout(CONNECT_TIMEOUT)
-        .setSocketTimeout(SOCKET_TIMEOUT)
-        .build());
-    clientBuilder.setConnectionManager(connectionManager);
-    api.getProxyProvider().setupProxy(request, clientBuilder);
-    setHardTimeout(request);
+    CloseableHttpClient httpClient = pool.getClient(api, request);
+    ScheduledFuture<?> hardTimeout = setHardTimeout(request);
     try (BusyIndicator busyIndicator = new BusyIndicator(true, false);
-         LongActivityNotifier notifier = new LongActivityNotifier(api, "notification.long.activity.server", LONG_ACTIVITY.toMilliseconds());
-         CloseableHttpClient httpClient = clientBuilder.build()) {
+         LongActivityNotifier notifier = new LongActivityNotifier(api, "notification.long.activity.server",
+             LONG_ACTIVITY.toMilliseconds() + HttpUtils.getPreferredWait(request))) {
       HttpClientContext context = HttpClientContext.create();
+      context.setRequestConfig(requestConfig);
       return httpClient.execute(request, context, response -> {
-        // process response
-        int responseCode = response.getCode();
+        // process response, accepted JSON body is decoded as it is read, the JSON type is known only to the
+        // caller; other bodies are buffered once for the caller and error handling (problem details)
         final HttpEntity entity = response.getEntity();
+        if (entity != null && isAccepted(response.getCode()) &&
+            HttpUtils.isExpectedContentType(response.getHeaders(), APPLICATION_JSON)) {
+          api.getProxyProvider().setInitFlag(true);
+          return HttpResponse.ofJson(response.getCode(), response.getReasonPhrase(), response.getHeaders(),
+              HttpUtils.readJson(entity));
+        }
         byte[] content = null;
         if (entity != null) {
-          content = EntityUtils.toByteArray(entity);
-        }
-        if (responseCode == SC_OK || responseCode == SC_ACCEPTED || responseCode == SC_NO_CONTENT ||
-            responseCode == SC_MOVED_TEMPORARILY || responseCode == SC_SEE_OTHER) {
-          api.getProxyProvider().setInitFlag(true);
-          return new HttpResponse(responseCode, response.getReasonPhrase(), response.getHeaders(), content);
-        } else {
-          throw new HttpResponseException(responseCode, response.getReasonPhrase(), response.getHeaders(), content);
+          content = HttpUtils.readContent(entity);
         }
+        return toResponse(api, response.getCode(), response.getReasonPhrase(), response.getHeaders(), content);
       });
     } catch (SSLException e) {
       SSLCertificateProvider provider = api.getSslCertificateProvider();
@@ -142,95 +144,84 @@ public class HttpsClient {
       if (reloadSSL && sslTrustIssue(e)) {
         logger.info("Reload system SSL certificates");
         X509Utils.loadSSLCertificates(provider.getTrustStore(), provider); // refresh trusted SSL certificates
-        return execute(request, clientBuilder, true, false);
+        return execute(request, requestConfig, true, false);
       }
       // if AIA is allowed
-      if (allowAIA && processSSLException(e, sslChain)) {
+      List<X509Certificate> completedChain = allowAIA ? completeCertificateChain(e, sslChain) : null;
+      if (completedChain != null) {
         // we found trusted chain
         // put all but end-certificate to SSL cache and add to runtime trust
-        List<X509Certificate> subChain = new ArrayList<>(sslChain.size() - 1);
-        for (int i = 1; i < sslChain.size(); i++) {
-          subChain.add(sslChain.get(i));
-        }
+        List<X509Certificate> subChain = new ArrayList<>(completedChain.subList(1, completedChain.size()));
         // add to cache and trusted store
         provider.addTrustedChain(subChain, true);
         // try again with new completed trust chain
-        return execute(request, clientBuilder, false, false);
+        return execute(request, requestConfig, false, false);
       } else {
         throw new SSLCommunicationException(e, request.getUri().getHost(), sslChain);
       }
     } catch (SocketTimeoutException | RequestFailedException e) {
       throw new CommunicationExpirationException("Connection expired: "+e.getMessage(), e);
+    } finally {
+      hardTimeout.cancel(false);
     }
   }
 
-  private void setHardTimeout(HttpUriRequestBase request) {
-    TimerTask task = new TimerTask() {
-      @Override
-      public void run() {
-        request.abort();
-      }
-    };
-    new Timer(true).schedule(task, HARD_TIMEOUT.toMilliseconds());
-  }
-
-  private boolean processSSLException(SSLException e, List<X509Certificate> sslChain) {
-    if (sslTrustIssue(e) && sslChain != null && !sslChain.isEmpty()) {
-      return completeCertificateChain(sslChain.get(sslChain.size()-1), sslChain);
+  /**
+   * Accept response with expected status code, otherwise throw exception carrying the response
+   */
+  static HttpResponse toResponse(PlatformAPI api, int responseCode, String reasonPhrase, Header[] headers,
+                                 byte[] content) throws HttpResponseException {
+    if (isAccepted(responseCode)) {
+      api.getProxyProvider().setInitFlag(true);
+      return new HttpResponse(responseCode, reasonPhrase, headers, content);
+    } else {
+      throw new HttpResponseException(responseCode, reasonPhrase, headers, content);
     }
-    return false;
   }
 
-  private boolean completeCertificateChain(X509Certificate subject, List<X509Certificate> certificates) {
-    if (X509Utils.isSelfSigned(subject)) {
-      return false; // chain ends with untrusted self-sign, nothing to do here
-    }
-    List<String> urls = DSSUtils.getAccessLocations(subject);
-    if (urls == null)
-      return false; // no AIA URLs
-    for (String url : urls) {
-      if (!url.toLowerCase().startsWith("http")) {
-        continue; // not HTTP URL
-      }
-      try {
-        logger.info("Accessing AIA URL: "+url);
-        HttpUriRequestBase request = new HttpUriRequestBase("GET", new URIBuilder(url).build());
-        HttpResponse response = execute(request, HttpClientBuilder.create(), false, false);
-        if (response == null || response.getContent() == null)
-          continue; // no certificate downloaded
-        X509Certificate issuer = X509Utils.getCertificateFromBytes(response.getContent());
-        certificates.add(issuer);
-        // did we find certificate issued by trust-anchor?
-        List<X509Certificate> anchors = api.getSslCertificateProvider().getBySubject(issuer.getIssuerX500Principal());
-        if (anchors != null) {
-          boolean validChain = X509Utils.validateCertificateChain(certificates); // validate certificate chain
-          for (X509Certificate anchor : anchors) {
-            // find trusted-anchor that signs the chain
-            if (validChain && X509Utils.validateCertificateIssuer(issuer, anchor)) {
-              logger.info("Found trusted certificate chain");
-              return true;
-            }
-          }
-        }
-        // is there a point to continue?
-        if (!X509Utils.isSelfSigned(issuer)) {
-          return completeCertificateChain(issuer, certificates); // still not at root or anchor
-        } else {
-          return false; // self-signed and not amongst trust-anchors
-        }
-      } catch (HttpResponseException e) {
-        logger.error("Unable to download AIA certificate: "+e.getStatusCode()+" "+e.getReasonPhrase());
-      } catch (Exception e) {
-        logger.error("Unable to download AIA certificate: "+e.getMessage(), e);
-      }
-    }
-    return false;
+  private static boolean isAccepted(int responseCode) {
+    return responseCode == SC_OK || responseCode == SC_ACCEPTED || responseCode == SC_NO_CONTENT ||
+        responseCode == SC_MOVED_TEMPORARILY || responseCode == SC_SEE_OTHER || responseCode == SC_NOT_MODIFIED ||
+        responseCode == SC_IM_USED;
   }
 
-  private boolean sslTrustIssue(SSLException e) {
+  static boolean sslTrustIssue(SSLException e) {
     String exceptionMsg = e.getMessage();
     exceptionMsg = exceptionMsg != null ? exceptionMsg.toLowerCase() : "";
     return  exceptionMsg.contains("unable to find valid certification path to requested target");
   }
 
+  private ScheduledFuture<?> setHardTimeout(HttpUriRequestBase request) {
+    return timer.schedule(request::abort, HARD_TIMEOUT.toMilliseconds(), TimeUnit.MILLISECONDS);
+  }
+
+  private List<X509Certificate> completeCertificateChain(SSLException e, List<X509Certificate> sslChain) {
+    if (sslTrustIssue(e) && sslChain != null && !sslChain.isEmpty()) {
+      return getAIAResolver(api).resolve(sslChain, api.getSslCertificateProvider(), this::download);
+    }
+    return null;
+  }
+
+  /**
+   * Download AIA location content, without user notifications and trust recovery
+   */
+  private byte[] download(String url) throws IOException, GeneralSecurityException, URISyntaxException {
+    HttpUriRequestBase request = new HttpUriRequestBase("GET", new URIBuilder(url).build());
+    HttpClientContext context = HttpClientContext.create();
+    context.setRequestConfig(AIA_REQUEST);
+    return pool.getClient(api, request).execute(request, context, response -> {
+      final HttpEntity entity = response.getEntity();
+      byte[] content = entity != null ? HttpUtils.readContent(entity) : null;
+      return toResponse(api, response.getCode(), response.getReasonPhrase(), response.getHeaders(), content).getContent();
+    });
+  }
+
+  private static synchronized AIAResolver getAIAResolver(PlatformAPI api) {
+    if (aiaResolver == null) {
+      StorageHandler storageHandler = api.getStorageHandler();
+      aiaResolver = new AIAResolver(storageHandler != null ? storageHandler.getAiaCacheStorage() : null);
+    }
+    return aiaResolver;
+  }
+
 }
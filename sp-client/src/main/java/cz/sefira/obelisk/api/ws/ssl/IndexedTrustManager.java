@@ -0,0 +1,267 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.api.ws.ssl;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.api.ws.ssl.IndexedTrustManager
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import cz.sefira.obelisk.cache.TokenCache;
+
+import javax.net.ssl.*;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.cert.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Trust manager backed by the {@link AnchorIndex}. Candidate trust anchors of the presented chain are found in the
+ * index and the chain is validated by the PKIX trust manager over those anchors only, so anchors can be added or the
+ * whole index replaced atomically without rebuilding the SSL context (established sessions and pooled connections
+ * stay valid).
+ */
+public class IndexedTrustManager extends X509ExtendedTrustManager {
+
+  /**
+   * Message of missing trust anchor, recognized by the AIA chain completion
+   */
+  static final String NO_TRUSTED_PATH = "PKIX path building failed: " +
+      "unable to find valid certification path to requested target";
+
+  // delegates built for candidate anchor sets, busy hosts repeat the same candidates on every handshake
+  private static final int MAX_DELEGATES = 64;
+
+  private final AtomicReference<AnchorIndex> index = new AtomicReference<>(AnchorIndex.EMPTY);
+  private final Map<Set<X509Certificate>, X509ExtendedTrustManager> delegates =
+      Collections.synchronizedMap(new TokenCache<>(MAX_DELEGATES));
+
+  private volatile IssuerSource issuerSource;
+
+  public AnchorIndex getIndex() {
+    return index.get();
+  }
+
+  /**
+   * Add trusted certificates
+   * @param certificates Certificates to add
+   * @return Certificates that were not trusted yet
+   */
+  public List<X509Certificate> add(Collection<X509Certificate> certificates) {
+    while (true) {
+      AnchorIndex current = index.get();
+      AnchorIndex updated = current.with(certificates);
+      if (updated == current) {
+        return Collections.emptyList();
+      }
+      if (index.compareAndSet(current, updated)) {
+        List<X509Certificate> added = new ArrayList<>();
+        for (X509Certificate certificate : certificates) {
+          if (!current.contains(certificate) && !added.contains(certificate)) {
+            added.add(certificate);
+          }
+        }
+        return added;
+      }
+    }
+  }
+
+  /**
+   * Replace all trusted certificates, fails when the index was changed since {@code expected} was read
+   * @param expected Index the new one was built from
+   * @param anchors New index
+   * @return True if the new index was published
+   */
+  public boolean publish(AnchorIndex expected, AnchorIndex anchors) {
+    if (index.compareAndSet(expected, anchors)) {
+      // removed anchors are not referenced by cached delegates any longer
+      delegates.clear();
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Set source of certificates trusted on demand, it is asked when no path to indexed anchors is found
+   */
+  public void setIssuerSource(IssuerSource issuerSource) {
+    this.issuerSource = issuerSource;
+  }
+
+  @Override
+  public void checkClientTrusted(X509Certificate[] chain, String authType, Socket socket)
+      throws CertificateException {
+    validate(chain, delegate -> delegate.checkClientTrusted(chain, authType, socket));
+  }
+
+  @Override
+  public void checkClientTrusted(X509Certificate[] chain, String authType, SSLEngine engine)
+      throws CertificateException {
+    validate(chain, delegate -> delegate.checkClientTrusted(chain, authType, engine));
+  }
+
+  @Override
+  public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+    validate(chain, delegate -> delegate.checkClientTrusted(chain, authType));
+  }
+
+  @Override
+  public void checkServerTrusted(X509Certificate[] chain, String authType, Socket socket)
+      throws CertificateException {
+    validate(chain, delegate -> delegate.checkServerTrusted(chain, authType, socket));
+  }
+
+  @Override
+  public void checkServerTrusted(X509Certificate[] chain, String authType, SSLEngine engine)
+      throws CertificateException {
+    validate(chain, delegate -> delegate.checkServerTrusted(chain, authType, engine));
+  }
+
+  @Override
+  public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+    validate(chain, delegate -> delegate.checkServerTrusted(chain, authType));
+  }
+
+  @Override
+  public X509Certificate[] getAcceptedIssuers() {
+    return index.get().getAcceptedIssuers();
+  }
+
+  /**
+   * Validate chain against candidate anchors found in the index
+   * @param chain Presented chain (end-entity first)
+   * @param check Check of the JSSE trust manager
+   */
+  private void validate(X509Certificate[] chain, Check check) throws CertificateException {
+    if (chain == null || chain.length == 0) {
+      throw new CertificateException("Empty certificate chain");
+    }
+    IssuerSource source = issuerSource;
+    try {
+      validate(chain, check, index.get());
+      return;
+    } catch (CertificateException e) {
+      if (source == null || !NO_TRUSTED_PATH.equals(e.getMessage())) {
+        throw e;
+      }
+    }
+    boolean resolved = false;
+    for (X509Certificate certificate : chain) {
+      resolved |= source.resolve(certificate);
+    }
+    if (!resolved) {
+      throw new CertificateException(NO_TRUSTED_PATH);
+    }
+    validate(chain, check, index.get());
+  }
+
+  /**
+   * Index only narrows trust anchors, path building (alternative paths of cross-signed chains), algorithm
+   * constraints, key usage and endpoint identification are done by the PKIX trust manager of JSSE
+   */
+  private void validate(X509Certificate[] chain, Check check, AnchorIndex anchors) throws CertificateException {
+    Set<X509Certificate> candidates = new HashSet<>();
+    for (X509Certificate certificate : chain) {
+      if (anchors.contains(certificate)) {
+        candidates.add(certificate);
+      }
+      candidates.addAll(anchors.findIssuers(certificate));
+    }
+    if (candidates.isEmpty()) {
+      throw new CertificateException(NO_TRUSTED_PATH);
+    }
+    X509ExtendedTrustManager delegate = delegates.get(candidates);
+    if (delegate == null) {
+      delegate = createDelegate(candidates);
+      delegates.put(candidates, delegate);
+    }
+    try {
+      check.check(delegate);
+    } catch (CertificateException e) {
+      if (isPathBuildingFailure(e)) {
+        // none of the candidates issued the chain
+        throw new CertificateException(NO_TRUSTED_PATH, e);
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * PKIX trust manager of JSSE trusting given anchors only
+   */
+  private static X509ExtendedTrustManager createDelegate(Set<X509Certificate> candidates)
+      throws CertificateException {
+    Set<TrustAnchor> trustAnchors = new HashSet<>();
+    for (X509Certificate candidate : candidates) {
+      trustAnchors.add(new TrustAnchor(candidate, null));
+    }
+    try {
+      PKIXBuilderParameters parameters = new PKIXBuilderParameters(trustAnchors, new X509CertSelector());
+      // revocation is not checked, same as the default JSSE trust manager
+      parameters.setRevocationEnabled(false);
+      TrustManagerFactory factory = TrustManagerFactory.getInstance("PKIX");
+      factory.init(new CertPathTrustManagerParameters(parameters));
+      return (X509ExtendedTrustManager) factory.getTrustManagers()[0];
+    } catch (GeneralSecurityException e) {
+      throw new CertificateException(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * @return Number of cached delegated trust managers
+   */
+  int getDelegateCount() {
+    return delegates.size();
+  }
+
+  private static boolean isPathBuildingFailure(CertificateException e) {
+    for (Throwable t = e; t != null; t = t.getCause()) {
+      if (t instanceof CertPathBuilderException || (t instanceof CertPathValidatorException &&
+          ((CertPathValidatorException) t).getReason() == PKIXReason.NO_TRUST_ANCHOR)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Check of presented chain by the delegated trust manager
+   */
+  private interface Check {
+
+    void check(X509ExtendedTrustManager delegate) throws CertificateException;
+
+  }
+
+  /**
+   * Source of trusted certificates loaded on demand
+   */
+  public interface IssuerSource {
+
+    /**
+     * Trust certificates that may issue given certificate
+     * @param certificate Certificate without trusted issuer
+     * @return True if any certificate became trusted
+     */
+    boolean resolve(X509Certificate certificate);
+
+  }
+
+}
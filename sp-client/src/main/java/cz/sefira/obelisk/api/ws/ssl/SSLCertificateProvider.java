@@ -25,6 +25,7 @@ package cz.sefira.obelisk.api.ws.ssl;
 
 import cz.sefira.obelisk.dss.DigestAlgorithm;
 import cz.sefira.obelisk.storage.SSLCacheStorage;
+import cz.sefira.obelisk.storage.model.SSLCacheEntry;
 import cz.sefira.obelisk.util.DSSUtils;
 import cz.sefira.obelisk.util.X509Utils;
 import org.apache.hc.client5.http.socket.ConnectionSocketFactory;
@@ -47,6 +48,7 @@ import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Pool of trusted certificates
@@ -54,70 +56,91 @@ import java.util.*;
 public class SSLCertificateProvider {
 
   private static final Logger logger = LoggerFactory.getLogger(SSLCertificateProvider.class);
+  private static final int SESSION_TIMEOUT_SECONDS = 3600;
 
   private final SSLCacheStorage cache;
-  private final Map<String, List<X509Certificate>> certsBySubject = new HashMap<>();
-  private final Set<X509Certificate> unique = new HashSet<>();
+  private final IndexedTrustManager trustManager = new IndexedTrustManager();
+  private final Set<X509Certificate> runtime = ConcurrentHashMap.newKeySet();
 
   private KeyStore trustStore;
   private DelegatedTrustManager delegatedTrustManager;
   private Registry<ConnectionSocketFactory> socketFactory;
+  private SSLContext sslContext;
 
   public SSLCertificateProvider(SSLCacheStorage cache) {
     this.cache = cache;
+    if (cache != null) {
+      // cached chains are trusted on first use, they are not loaded at startup
+      trustManager.setIssuerSource(this::resolveCached);
+    }
   }
 
   public boolean put(X509Certificate certificate) {
-    if (!unique.contains(certificate)) {
-      final String subjectName = certificate.getSubjectX500Principal().getName(X500Principal.CANONICAL);
-      List<X509Certificate> certs = certsBySubject.computeIfAbsent(subjectName, k -> new ArrayList<>());
-      certs.add(certificate);
-      unique.add(certificate);
-      return true;
-    }
-    return false;
+    return !trustManager.add(List.of(certificate)).isEmpty();
+  }
+
+  /**
+   * Trust all given certificates at once
+   * @param certificates Certificates to trust
+   * @return Certificates that were not trusted yet
+   */
+  public List<X509Certificate> putAll(Collection<X509Certificate> certificates) {
+    return trustManager.add(certificates);
   }
 
   public List<X509Certificate> getBySubject(X500Principal subjectName) {
-    String canonicalSubjectName = subjectName.getName(X500Principal.CANONICAL);
-    return certsBySubject.get(canonicalSubjectName);
+    return trustManager.getIndex().getBySubject(subjectName);
   }
 
-  public KeyStore getTrustStore() {
-    return trustStore;
+  /**
+   * @return Current (immutable) index of trusted certificates
+   */
+  public AnchorIndex getAnchorIndex() {
+    return trustManager.getIndex();
   }
 
-  public void unregisterSocketFactory() {
-    socketFactory = null;
+  public KeyStore getTrustStore() {
+    return trustStore;
   }
 
+  /**
+   * Establish trust store as SSL cert source, its certificate entries are trusted as well
+   */
   public void setTrustStore(KeyStore trustStore) {
     this.trustStore = trustStore;
+    try {
+      List<X509Certificate> certificates = new ArrayList<>();
+      Enumeration<String> aliases = trustStore.aliases();
+      while (aliases.hasMoreElements()) {
+        String alias = aliases.nextElement();
+        if (trustStore.isCertificateEntry(alias)) {
+          certificates.add((X509Certificate) trustStore.getCertificate(alias));
+        }
+      }
+      putAll(certificates);
+    } catch (KeyStoreException e) {
+      logger.error("Unable to read trust store: " + e.getMessage(), e);
+    }
   }
 
   public Set<X509Certificate> getUnique() {
-    return unique;
+    return trustManager.getIndex().getCertificates();
   }
 
   public List<X509Certificate> getCertificateChain() {
     return delegatedTrustManager != null ? delegatedTrustManager.getCertificateChain() : null;
   }
 
+  /**
+   * Trust the chain if it completes to a trusted anchor, cached chain is published to the trust manager directly
+   * (SSL cache storage is not watched for changes)
+   */
   public boolean addTrustedChain(List<X509Certificate> chain, boolean addToCache)
       throws CertificateException, KeyStoreException {
-    boolean trustedChain = false;
-    X509Certificate chainEnd = chain.get(chain.size()-1);
-    List<X509Certificate> anchors = getBySubject(chainEnd.getIssuerX500Principal());
-    if (anchors != null) {
-      for (X509Certificate anchor : anchors) {
-        // find trusted-anchor that signs the chain
-        if (X509Utils.validateCertificateIssuer(chainEnd, anchor)) {
-          trustedChain = true;
-        }
-      }
-    }
-    if (trustedChain) {
-      addToRuntimeTruststore(chain);
+    if (isTrusted(trustManager.getIndex(), chain)) {
+      // chain completed by AIA survives rebuilds of trusted certificates
+      runtime.addAll(chain);
+      trust(chain);
       // trusted chain found - add to cache if needed
       if (addToCache) {
         cache.add(chain);
@@ -130,30 +153,83 @@ public class SSLCertificateProvider {
     }
   }
 
+  /**
+   * Trust the certificates until the application exits, trust manager sees them immediately and the SSL context is kept
+   */
   public void addToRuntimeTruststore(List<X509Certificate> chain)
       throws KeyStoreException, CertificateEncodingException {
-    for (X509Certificate certificate : chain) {
-      if (put(certificate)) {
-        String alias = Hex.encodeHexString(DSSUtils.digest(DigestAlgorithm.SHA1, certificate.getEncoded()));
-        logger.info("Add certificate to runtime trust: " + certificate.getSubjectX500Principal().toString() + " (" + alias + ")");
-        getTrustStore().setCertificateEntry(alias, certificate);
+    runtime.addAll(chain);
+    trust(chain);
+  }
+
+  /**
+   * Rebuild trusted certificates from given anchors and certificates trusted at runtime, cached chains are trusted
+   * again on their next use. New index is published atomically, connections in progress are not affected.
+   * @param anchors Trusted anchors (embedded and OS stores)
+   */
+  public void reload(Collection<X509Certificate> anchors) {
+    while (true) {
+      AnchorIndex current = trustManager.getIndex();
+      AnchorIndex index = AnchorIndex.EMPTY.with(anchors).with(runtime);
+      // certificates added meanwhile are not lost, index is built again
+      if (trustManager.publish(current, index)) {
+        logger.info("Trusted SSL certificates reloaded: " + current.size() + " -> " + index.size());
+        return;
+      }
+    }
+  }
+
+  private List<X509Certificate> trust(List<X509Certificate> chain)
+      throws KeyStoreException, CertificateEncodingException {
+    List<X509Certificate> added = trustManager.add(chain);
+    for (X509Certificate certificate : added) {
+      String alias = Hex.encodeHexString(DSSUtils.digest(DigestAlgorithm.SHA1, certificate.getEncoded()));
+      logger.info("Add certificate to runtime trust: " + certificate.getSubjectX500Principal().toString() + " (" + alias + ")");
+      if (trustStore != null) {
+        trustStore.setCertificateEntry(alias, certificate);
+      }
+    }
+    return added;
+  }
+
+  /**
+   * Trust cached chains with the issuer of given certificate if they complete to trusted anchors
+   */
+  private boolean resolveCached(X509Certificate certificate) {
+    boolean resolved = false;
+    for (SSLCacheEntry entry : cache.findBySubject(certificate.getIssuerX500Principal())) {
+      try {
+        List<X509Certificate> chain = cache.load(entry);
+        if (isTrusted(trustManager.getIndex(), chain)) {
+          resolved |= !trust(chain).isEmpty();
+        } else {
+          // no longer able to find path to trusted anchor - remove from cache
+          logger.info("Removing untrusted chain from SSL cache: " + entry.getFingerprint());
+          cache.remove(entry.getFingerprint());
+        }
+      } catch (Exception e) {
+        logger.error("Unable to load cached chain " + entry.getFingerprint() + ": " + e.getMessage(), e);
       }
     }
-    unregisterSocketFactory();
+    return resolved;
   }
 
-  public Registry<ConnectionSocketFactory> getSocketFactory()
-      throws KeyStoreException, KeyManagementException, NoSuchAlgorithmException {
+  /**
+   * Returns socket factory, it is created once and trusts the current content of the anchor index
+   */
+  public synchronized Registry<ConnectionSocketFactory> getSocketFactory()
+      throws KeyManagementException, NoSuchAlgorithmException {
     if (socketFactory != null) {
       return socketFactory;
     }
     logger.info("Creating new socket factory");
-    TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
-    tmf.init(trustStore);
-    delegatedTrustManager = new DelegatedTrustManager((X509ExtendedTrustManager) tmf.getTrustManagers()[0]);
+    delegatedTrustManager = new DelegatedTrustManager(trustManager);
     TrustManager[] trustManagers = {delegatedTrustManager};
     SSLContext sc = SSLContext.getInstance("TLS");
     sc.init(null, trustManagers, new SecureRandom());
+    // context is shared by pooled connections, cached sessions allow abbreviated handshakes
+    sc.getClientSessionContext().setSessionTimeout(SESSION_TIMEOUT_SECONDS);
+    sslContext = sc;
     SSLConnectionSocketFactory sslSocketFactory = new SSLConnectionSocketFactory(sc, new DefaultHostnameVerifier());
     socketFactory = RegistryBuilder.<ConnectionSocketFactory>create()
         .register("http", PlainConnectionSocketFactory.getSocketFactory())
@@ -161,4 +237,27 @@ public class SSLCertificateProvider {
         .build();
     return socketFactory;
   }
+
+  /**
+   * Returns SSL context of the socket factory
+   */
+  public synchronized SSLContext getSSLContext() throws KeyManagementException, NoSuchAlgorithmException {
+    getSocketFactory();
+    return sslContext;
+  }
+
+  /**
+   * Chain is trusted if its last certificate is signed by a trusted anchor
+   */
+  private static boolean isTrusted(AnchorIndex index, List<X509Certificate> chain) {
+    X509Certificate chainEnd = chain.get(chain.size()-1);
+    for (X509Certificate anchor : index.findIssuers(chainEnd)) {
+      // find trusted-anchor that signs the chain
+      if (X509Utils.validateCertificateIssuer(chainEnd, anchor)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
 }
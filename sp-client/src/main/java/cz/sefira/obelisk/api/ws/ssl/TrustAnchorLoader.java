@@ -0,0 +1,212 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.api.ws.ssl;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.api.ws.ssl.TrustAnchorLoader
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import cz.sefira.obelisk.dss.DigestAlgorithm;
+import cz.sefira.obelisk.util.TextUtils;
+import cz.sefira.obelisk.util.X509Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Loader of trust anchors from a certificate directory (e.g. /etc/ssl/certs). Symlinked hash aliases are read once,
+ * files are parsed in parallel and parsed anchors are kept in a binary snapshot keyed by the directory content
+ * (files, modification times and sizes), so unchanged directory is loaded from a single file.
+ */
+public class TrustAnchorLoader {
+
+  private static final Logger logger = LoggerFactory.getLogger(TrustAnchorLoader.class.getName());
+
+  private static final int SNAPSHOT_MAGIC = 0x54414e43; // TANC
+  private static final int SNAPSHOT_VERSION = 1;
+
+  private static final ExecutorService executor = Executors.newFixedThreadPool(
+      Math.max(2, Runtime.getRuntime().availableProcessors()), r -> {
+        Thread t = new Thread(r, "TrustAnchorLoader");
+        t.setDaemon(true);
+        return t;
+      });
+
+  private final Path snapshot;
+
+  /**
+   * @param snapshot Snapshot file, null = no snapshot
+   */
+  public TrustAnchorLoader(Path snapshot) {
+    this.snapshot = snapshot;
+  }
+
+  /**
+   * Load trust anchors of the directory
+   * @param directory Certificate directory
+   * @return Anchors in order of their (real) file names, each file contributes one certificate
+   * @throws IOException Directory cannot be listed
+   */
+  public List<X509Certificate> load(Path directory) throws IOException {
+    List<Path> files = listFiles(directory);
+    String key = key(files);
+    List<X509Certificate> anchors = readSnapshot(key);
+    if (anchors != null) {
+      logger.info("Trust anchors of " + directory + " loaded from snapshot: " + anchors.size());
+      return anchors;
+    }
+    anchors = parseAll(files);
+    logger.info("Trust anchors of " + directory + " parsed: " + anchors.size() + " (" + files.size() + " files)");
+    writeSnapshot(key, anchors);
+    return anchors;
+  }
+
+  /**
+   * Regular files of the directory resolved to their real paths, symlinked aliases of the same file are merged
+   */
+  static List<Path> listFiles(Path directory) throws IOException {
+    Set<Path> real = new TreeSet<>();
+    try (Stream<Path> list = Files.list(directory)) {
+      for (Path path : list.collect(Collectors.toList())) {
+        try {
+          if (Files.isRegularFile(path)) {
+            real.add(path.toRealPath());
+          }
+        } catch (IOException e) {
+          logger.warn("Unable to resolve " + path + ": " + e.getMessage()); // dangling link
+        }
+      }
+    }
+    return new ArrayList<>(real);
+  }
+
+  /**
+   * Parse certificate file, overridden in tests to count parsed files
+   */
+  X509Certificate parse(Path file) throws IOException, CertificateException {
+    try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+      return X509Utils.getCertificateFromStream(in);
+    }
+  }
+
+  private List<X509Certificate> parseAll(List<Path> files) throws IOException {
+    List<Future<X509Certificate>> parsed = new ArrayList<>(files.size());
+    for (Path file : files) {
+      parsed.add(executor.submit(() -> parse(file)));
+    }
+    List<X509Certificate> anchors = new ArrayList<>(files.size());
+    try {
+      for (int i = 0; i < files.size(); i++) {
+        try {
+          anchors.add(parsed.get(i).get());
+        } catch (ExecutionException e) {
+          logger.error("Unable to parse " + files.get(i) + ": " + e.getCause().getMessage());
+        }
+      }
+    } catch (InterruptedException e) {
+      parsed.forEach(f -> f.cancel(true));
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Trust anchors loading interrupted");
+    }
+    return anchors;
+  }
+
+  /**
+   * Directory content key (real paths, modification times and sizes)
+   */
+  static String key(List<Path> files) throws IOException {
+    try {
+      MessageDigest digest = MessageDigest.getInstance(DigestAlgorithm.SHA256.getJavaName());
+      for (Path file : files) {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        digest.update((file + "\n" + attributes.lastModifiedTime().toMillis() + "\n" + attributes.size() + "\n")
+            .getBytes(StandardCharsets.UTF_8));
+      }
+      return TextUtils.encodeHexString(digest.digest());
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private List<X509Certificate> readSnapshot(String key) {
+    if (snapshot == null || !Files.isRegularFile(snapshot)) {
+      return null;
+    }
+    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(snapshot)))) {
+      if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION || !key.equals(in.readUTF())) {
+        return null;
+      }
+      int count = in.readInt();
+      List<X509Certificate> anchors = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        byte[] encoded = new byte[in.readInt()];
+        in.readFully(encoded);
+        anchors.add(X509Utils.getCertificateFromBytes(encoded));
+      }
+      return anchors;
+    } catch (IOException | CertificateException | RuntimeException e) {
+      logger.warn("Trust anchors snapshot cannot be used: " + e.getMessage());
+      return null;
+    }
+  }
+
+  private void writeSnapshot(String key, List<X509Certificate> anchors) {
+    if (snapshot == null) {
+      return;
+    }
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (DataOutputStream out = new DataOutputStream(bytes)) {
+        out.writeInt(SNAPSHOT_MAGIC);
+        out.writeInt(SNAPSHOT_VERSION);
+        out.writeUTF(key);
+        out.writeInt(anchors.size());
+        for (X509Certificate anchor : anchors) {
+          byte[] encoded = anchor.getEncoded();
+          out.writeInt(encoded.length);
+          out.write(encoded);
+        }
+      }
+      Files.createDirectories(snapshot.toAbsolutePath().getParent());
+      Path temp = Files.createTempFile(snapshot.toAbsolutePath().getParent(), "anchors", ".tmp");
+      try {
+        Files.write(temp, bytes.toByteArray());
+        Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        Files.deleteIfExists(temp);
+      }
+    } catch (Exception e) {
+      logger.warn("Unable to write trust anchors snapshot: " + e.getMessage());
+    }
+  }
+
+}
@@ -0,0 +1,176 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.api.ws.ssl;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.api.ws.ssl.TrustStoreWatcher
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import cz.sefira.obelisk.util.X509Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.*;
+import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Watches directories with OS trusted certificates. Trusted certificates are rebuilt in background when they change
+ * and published to {@link SSLCertificateProvider}, requests never wait for a reload. SSL cache storage is not watched,
+ * the provider publishes chains it caches itself.
+ */
+public class TrustStoreWatcher implements Closeable {
+
+  private static final Logger logger = LoggerFactory.getLogger(TrustStoreWatcher.class.getName());
+
+  private static final long DEBOUNCE_MILLISECONDS = 2000;
+
+  private static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread t = new Thread(r, "TrustStoreReload");
+    t.setDaemon(true);
+    return t;
+  });
+
+  private final SSLCertificateProvider provider;
+  private final Supplier<Collection<X509Certificate>> anchorSource;
+  private final List<Path> anchorDirectories;
+  private final long debounce;
+  private final Set<WatchKey> keys = ConcurrentHashMap.newKeySet();
+
+  private WatchService watchService;
+  private ScheduledFuture<?> pending;
+  // anchors the provider was last built from
+  private Set<X509Certificate> anchors;
+
+  /**
+   * @param provider Provider the rebuilt trusted certificates are published to
+   * @param anchors Trusted anchors loaded at startup, the provider already trusts them
+   * @param anchorSource Loads trusted anchors (embedded and OS stores) again after a change
+   * @param anchorDirectories Directories with OS trusted certificates
+   */
+  public TrustStoreWatcher(SSLCertificateProvider provider, Collection<X509Certificate> anchors,
+                           Supplier<Collection<X509Certificate>> anchorSource, List<Path> anchorDirectories) {
+    this(provider, anchors, anchorSource, anchorDirectories, DEBOUNCE_MILLISECONDS);
+  }
+
+  TrustStoreWatcher(SSLCertificateProvider provider, Collection<X509Certificate> anchors,
+                    Supplier<Collection<X509Certificate>> anchorSource, List<Path> anchorDirectories, long debounce) {
+    this.provider = provider;
+    this.anchors = new HashSet<>(anchors);
+    this.anchorSource = anchorSource;
+    this.anchorDirectories = anchorDirectories;
+    this.debounce = debounce;
+  }
+
+  /**
+   * @return True if OS trusted certificates are stored in watched directories (Linux, macOS), Windows stores live
+   * in the registry and are reloaded after a trust failure instead
+   */
+  public static boolean coversSystemStores() {
+    return !X509Utils.getSystemCertificateDirectories().isEmpty();
+  }
+
+  /**
+   * Start watching, trusted certificates already loaded in the provider are kept until the first change
+   */
+  public synchronized void start() throws IOException {
+    watchService = FileSystems.getDefault().newWatchService();
+    for (Path directory : anchorDirectories) {
+      register(directory);
+    }
+    Thread thread = new Thread(this::watch, "TrustStoreWatcher");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (pending != null) {
+      pending.cancel(false);
+    }
+    if (watchService != null) {
+      watchService.close();
+    }
+  }
+
+  private void register(Path directory) {
+    try {
+      keys.add(directory.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY));
+      logger.info("Watching trusted certificates in " + directory);
+    } catch (IOException e) {
+      logger.error("Unable to watch " + directory + ": " + e.getMessage());
+    }
+  }
+
+  private void watch() {
+    while (true) {
+      WatchKey key;
+      try {
+        key = watchService.take();
+      } catch (InterruptedException | ClosedWatchServiceException e) {
+        return;
+      }
+      if (keys.contains(key) && !key.pollEvents().isEmpty()) {
+        changed();
+      }
+      if (!key.reset()) {
+        keys.remove(key);
+        logger.warn("Directory is no longer watched: " + key.watchable());
+      }
+    }
+  }
+
+  /**
+   * Schedule reload, burst of changes (package update) results in a single reload
+   */
+  private synchronized void changed() {
+    if (pending != null) {
+      pending.cancel(false);
+    }
+    pending = executor.schedule(this::reload, debounce, TimeUnit.MILLISECONDS);
+  }
+
+  private void reload() {
+    long start = System.currentTimeMillis();
+    try {
+      Set<X509Certificate> loaded = new HashSet<>(anchorSource.get());
+      if (loaded.equals(anchors)) {
+        // touched files only, the provider is kept as is
+        logger.info("Trusted SSL certificates not changed");
+        return;
+      }
+      provider.reload(loaded);
+      anchors = loaded;
+      logger.info("Trusted SSL certificates rebuilt in: " + (System.currentTimeMillis() - start) + "ms");
+    } catch (Exception e) {
+      logger.error("Unable to reload trusted SSL certificates: " + e.getMessage(), e);
+    }
+  }
+
+}
@@ -0,0 +1,216 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.flow;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.flow.AbstractSignatureFlow
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import cz.sefira.obelisk.api.*;
+import cz.sefira.obelisk.api.flow.BasicOperationStatus;
+import cz.sefira.obelisk.api.flow.Operation;
+import cz.sefira.obelisk.api.flow.OperationResult;
+import cz.sefira.obelisk.api.ws.model.CertificateFilter;
+import cz.sefira.obelisk.api.ws.model.GetCertificateRequest;
+import cz.sefira.obelisk.api.ws.model.GetCertificateResponse;
+import cz.sefira.obelisk.dss.DigestAlgorithm;
+import cz.sefira.obelisk.dss.token.DSSPrivateKeyEntry;
+import cz.sefira.obelisk.dss.token.SignatureTokenConnection;
+import cz.sefira.obelisk.dss.x509.CertificateToken;
+import cz.sefira.obelisk.flow.operation.*;
+import cz.sefira.obelisk.generic.QuickAccessProductsMap;
+import cz.sefira.obelisk.generic.SessionManager;
+import cz.sefira.obelisk.token.pkcs11.DetectedCard;
+import cz.sefira.obelisk.util.TextUtils;
+import cz.sefira.obelisk.view.core.UIDisplay;
+import cz.sefira.obelisk.view.core.UIOperation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Base of signature flows, resolves product, token and private key of the signing certificate
+ */
+abstract class AbstractSignatureFlow<I, O> extends AbstractCoreFlow<I, O> {
+
+  private static final Logger logger = LoggerFactory.getLogger(AbstractSignatureFlow.class.getName());
+
+  public AbstractSignatureFlow(UIDisplay display, PlatformAPI api) {
+    super(display, api);
+  }
+
+  /**
+   * Resolve product, token and private key of the signing certificate
+   * @param api Platform API
+   * @param certificateToken Signing certificate
+   * @param userInteraction User may be asked to fix the profile when the key is not found
+   * @param context Resolved signing context
+   * @return Error execution, or null when the context was resolved
+   */
+  @SuppressWarnings("unchecked")
+  protected final Execution<O> resolve(PlatformAPI api, CertificateToken certificateToken, boolean userInteraction,
+                                       SigningContext context) throws Exception {
+    while (true) {
+      // find correct product device
+      byte[] digest = certificateToken.getDigest(DigestAlgorithm.SHA256);
+      String certificateId = TextUtils.encodeHexString(digest);
+
+      List<AbstractProduct> products = QuickAccessProductsMap.access().get(certificateId);
+      ProductAdapter productAdapter = null;
+      AbstractProduct selectedProduct = null;
+
+      // manual select certificate/key
+      if (products == null || products.isEmpty()) { // TODO - possibly to do without user interaction??
+        // given certificate not known - information dialog
+        final OperationResult<Object> result = this.getOperationFactory().getOperation(UIOperation.class,
+            "/fxml/unknown-certificate.fxml", new Object[] {api, certificateToken}).perform();
+        if (result.getStatus().equals(BasicOperationStatus.USER_CANCEL)) {
+          return this.handleErrorOperationResult(result);
+        }
+        // manual select certificate/key
+        GetCertificateRequest request = new GetCertificateRequest();
+        request.setCertificateFilter(new CertificateFilter(certificateToken.getDigest(DigestAlgorithm.SHA256)));
+        request.setUserInteraction(true);
+        Execution<GetCertificateResponse> getCertificate = api.getCertificate(request);
+        if (!getCertificate.isSuccess()) {
+          // manual selection error
+          return this.handleErrorOperationResult(getCertificate.getOperationResult());
+        }
+        products = QuickAccessProductsMap.access().get(certificateId);
+      }
+
+      if (products == null || products.isEmpty()) {
+        return this.handleErrorOperationResult(new OperationResult<>(CoreOperationStatus.NO_PRODUCT_FOUND));
+      }
+      else if (products.size() > 1) {
+        // private key is found on multiple devices - selection dialog
+        while (true) {
+          // check current session if we already don't use one of the colliding device
+          for (AbstractProduct p : products) {
+            if (SessionManager.getManager().isCurrentlyInitializedToken(p)) {
+              selectedProduct = p;
+              break;
+            }
+          }
+          if (selectedProduct != null) {
+            break;
+          }
+          // present collision to user to select device
+          final Operation<AbstractProduct> operation = this.getOperationFactory()
+              .getOperation(UIOperation.class, "/fxml/product-collision.fxml", api, products);
+          final OperationResult<AbstractProduct> selectProductOperationResult = operation.perform();
+          if (selectProductOperationResult.getStatus().equals(BasicOperationStatus.SUCCESS)) {
+            selectedProduct = selectProductOperationResult.getResult();
+            break;
+          }
+          else if (!selectProductOperationResult.getStatus().equals(CoreOperationStatus.BACK)) {
+            return this.handleErrorOperationResult(selectProductOperationResult);
+          }
+        }
+      }
+      else {
+        selectedProduct = products.get(0);
+      }
+
+      List<Match> matchingProductAdapters;
+      final OperationResult<List<Match>> getMatchingCardAdaptersOperationResult = this.getOperationFactory().getOperation(GetMatchingProductAdaptersOperation.class, Collections.singletonList(selectedProduct), api).perform();
+      if (getMatchingCardAdaptersOperationResult.getStatus().equals(BasicOperationStatus.SUCCESS)) {
+        matchingProductAdapters = getMatchingCardAdaptersOperationResult.getResult();
+      } else {
+        return this.handleErrorOperationResult(getMatchingCardAdaptersOperationResult);
+      }
+      // configure the product
+      final OperationResult<List<Match>> configureProductOperationResult = this.getOperationFactory().getOperation(ConfigureProductOperation.class, matchingProductAdapters, api).perform();
+      if (configureProductOperationResult.getStatus().equals(BasicOperationStatus.SUCCESS)) {
+        matchingProductAdapters = configureProductOperationResult.getResult();
+      } else {
+        return this.handleErrorOperationResult(configureProductOperationResult);
+      }
+      // find token
+      SignatureTokenConnection token = SessionManager.getManager().getInitializedTokenForProduct(selectedProduct);
+      if (token == null) {
+        // Create token
+        final OperationResult<Map<TokenOperationResultKey, Object>> createTokenOperationResult = this.getOperationFactory().getOperation(CreateTokenOperation.class, api, matchingProductAdapters, selectedProduct, certificateId).perform();
+        if (createTokenOperationResult.getStatus().equals(BasicOperationStatus.SUCCESS)) {
+          final Map<TokenOperationResultKey, Object> map = createTokenOperationResult.getResult();
+          token = (SignatureTokenConnection) map.get(TokenOperationResultKey.TOKEN);
+          productAdapter = (ProductAdapter) map.get(TokenOperationResultKey.SELECTED_PRODUCT_ADAPTER);
+        }
+        else {
+          return this.handleErrorOperationResult(createTokenOperationResult);
+        }
+      }
+      logger.info("Token: " + token.getClass().getSimpleName());
+      logger.info("Using product: " + TextUtils.getProductLabel(selectedProduct));
+      if (selectedProduct instanceof DetectedCard card) {
+        logger.info("Using card ATR: " + card.getAtr());
+      }
+
+      // select key
+      final OperationResult<DSSPrivateKeyEntry> selectPrivateKeyOperationResult = getOperationFactory().getOperation(TokenPrivateKeyOperation.class, token, api, certificateId).perform();
+      if (selectPrivateKeyOperationResult.getStatus().equals(BasicOperationStatus.SUCCESS)) {
+        DSSPrivateKeyEntry key = selectPrivateKeyOperationResult.getResult();
+        logger.info("Key " + key + " '" + key.getCertificateToken().getCertificate().getSubjectX500Principal() + "' issued by '" + key.getCertificateToken().getCertificate().getIssuerX500Principal()+"'");
+        context.token = token;
+        context.key = key;
+        context.product = selectedProduct;
+        return null;
+      }
+      // TODO mandatory user interaction at signature flow?
+      else if (userInteraction && selectPrivateKeyOperationResult.getStatus().equals(CoreOperationStatus.NO_KEY)) {
+        final Operation<Boolean> notFoundOperation = this.getOperationFactory()
+            .getOperation(UIOperation.class,
+                "/fxml/certificate-not-found.fxml", api, certificateToken);
+        final OperationResult<Boolean> notFoundOperationResult = notFoundOperation.perform();
+        if (notFoundOperationResult.getStatus().equals(BasicOperationStatus.USER_CANCEL) ||
+            !notFoundOperationResult.getResult()) {
+          // user will fix profile
+          return this.handleErrorOperationResult(selectPrivateKeyOperationResult);
+        }
+        else {
+          if (productAdapter == null) {
+            productAdapter = matchingProductAdapters.get(0).getAdapter();
+          }
+          // repeat the process with certificate forgotten to make user find it again
+          productAdapter.removeProduct(selectedProduct);
+          QuickAccessProductsMap.access().remove(certificateId, selectedProduct);
+        }
+      }
+      else {
+        return this.handleErrorOperationResult(selectPrivateKeyOperationResult);
+      }
+    }
+  }
+
+  /**
+   * Token, private key and product resolved for the signing certificate
+   */
+  static class SigningContext {
+
+    SignatureTokenConnection token;
+    DSSPrivateKeyEntry key;
+    AbstractProduct product;
+
+  }
+
+}
@@ -31,6 +31,8 @@ public class BasicFlowRegistry implements FlowRegistry {
 			return new GetCertificateFlow(display, api);
 		case SIGNATURE_FLOW:
 			return new SignatureFlow(display, api);
+		case BATCH_SIGNATURE_FLOW:
+			return new BatchSignatureFlow(display, api);
 		case CHECK_SESSION_FLOW:
 			return new CheckSessionFlow(display, api);
 		default:
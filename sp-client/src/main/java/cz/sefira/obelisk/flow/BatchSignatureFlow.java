@@ -0,0 +1,130 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.flow;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.flow.BatchSignatureFlow
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import cz.sefira.obelisk.AppException;
+import cz.sefira.obelisk.api.Execution;
+import cz.sefira.obelisk.api.PlatformAPI;
+import cz.sefira.obelisk.api.flow.BasicOperationStatus;
+import cz.sefira.obelisk.api.flow.OperationResult;
+import cz.sefira.obelisk.api.ws.model.BatchSignatureRequest;
+import cz.sefira.obelisk.api.ws.model.BatchSignatureResponse;
+import cz.sefira.obelisk.api.ws.model.SignParameters;
+import cz.sefira.obelisk.dss.SignatureValue;
+import cz.sefira.obelisk.dss.token.DSSPrivateKeyEntry;
+import cz.sefira.obelisk.dss.x509.CertificateToken;
+import cz.sefira.obelisk.flow.operation.BatchSignOperation;
+import cz.sefira.obelisk.generic.SessionManager;
+import cz.sefira.obelisk.view.core.UIDisplay;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Signature of multiple data with one certificate. Product, token and key are resolved once, the user
+ * authenticates once and signatures are created in order with errors reported per item.
+ */
+class BatchSignatureFlow extends AbstractSignatureFlow<BatchSignatureRequest, BatchSignatureResponse> {
+
+  private static final Logger logger = LoggerFactory.getLogger(BatchSignatureFlow.class.getName());
+
+  public BatchSignatureFlow(UIDisplay display, PlatformAPI api) {
+    super(display, api);
+  }
+
+  @Override
+  protected Execution<BatchSignatureResponse> process(PlatformAPI api, BatchSignatureRequest req) throws Exception {
+    try {
+      List<SignParameters> items = req.getSignParams();
+      if (items == null || items.isEmpty()) {
+        throw new AppException("SignParams is empty");
+      }
+      // check mandatory values, all items are signed by the same certificate
+      CertificateToken certificate = items.get(0) != null ? items.get(0).getCertificate() : null;
+      if (certificate == null || certificate.getCertificate() == null) {
+        throw new AppException("Certificate is null");
+      }
+      for (SignParameters item : items) {
+        if (item != null && item.getCertificate() != null && !certificate.equals(item.getCertificate())) {
+          throw new AppException("Batch items must be signed by the same certificate");
+        }
+      }
+
+      // find product, token and key
+      SigningContext context = new SigningContext();
+      Execution<BatchSignatureResponse> error = resolve(api, certificate, req.isUserInteraction(), context);
+      if (error != null) {
+        return error;
+      }
+      DSSPrivateKeyEntry key = context.key;
+
+      // sign data
+      final OperationResult<List<OperationResult<SignatureValue>>> batchOperationResult = getOperationFactory()
+          .getOperation(BatchSignOperation.class, context.token, api, items, key).perform();
+      if (!batchOperationResult.getStatus().equals(BasicOperationStatus.SUCCESS)) {
+        return handleErrorOperationResult(batchOperationResult);
+      }
+      List<OperationResult<SignatureValue>> results = batchOperationResult.getResult();
+      List<BatchSignatureResponse.Signature> signatures = toSignatures(items, results);
+      long signed = signatures.stream().filter(BatchSignatureResponse.Signature::isSuccess).count();
+      logger.info("Batch signatures created: " + signed + "/" + items.size());
+      if (signed == 0 && BasicOperationStatus.USER_CANCEL.equals(results.get(0).getStatus())) {
+        // nothing signed, the whole batch was cancelled
+        return handleErrorOperationResult(results.get(0));
+      }
+      BatchSignatureResponse resp = new BatchSignatureResponse(key.getCertificateToken(), key.getCertificateChain(),
+          signatures);
+      return new Execution<>(resp, context.product);
+    } catch (Exception e) {
+      logger.error("Flow error", e);
+      SessionManager.getManager().destroy();
+      throw handleException(e);
+    }
+  }
+
+  /**
+   * Signature values or errors in order of the sign parameters
+   */
+  static List<BatchSignatureResponse.Signature> toSignatures(List<SignParameters> items,
+                                                             List<OperationResult<SignatureValue>> results) {
+    List<BatchSignatureResponse.Signature> signatures = new ArrayList<>(items.size());
+    for (int i = 0; i < items.size(); i++) {
+      Long stepId = items.get(i) != null ? items.get(i).getStepId() : null;
+      OperationResult<SignatureValue> result = results.get(i);
+      if (BasicOperationStatus.SUCCESS.equals(result.getStatus())) {
+        signatures.add(new BatchSignatureResponse.Signature(stepId, result.getResult()));
+      } else {
+        String message = result.getMessage();
+        if (message == null && result.getException() != null) {
+          message = result.getException().getMessage();
+        }
+        signatures.add(new BatchSignatureResponse.Signature(stepId, result.getStatus(), message));
+      }
+    }
+    return signatures;
+  }
+
+}
@@ -21,6 +21,8 @@ public interface FlowRegistry {
 
 	static final String SIGNATURE_FLOW = "signature";
 
+	static final String BATCH_SIGNATURE_FLOW = "batchSignature";
+
 	static final String CERTIFICATE_FLOW = "certificate";
 
 	static final String CHECK_SESSION_FLOW = "checkSession";
@@ -17,29 +17,17 @@ package cz.sefira.obelisk.flow;
 import cz.sefira.obelisk.AppException;
 import cz.sefira.obelisk.api.*;
 import cz.sefira.obelisk.api.flow.BasicOperationStatus;
-import cz.sefira.obelisk.api.flow.Operation;
 import cz.sefira.obelisk.api.flow.OperationResult;
 import cz.sefira.obelisk.api.ws.model.*;
-import cz.sefira.obelisk.dss.DigestAlgorithm;
-import cz.sefira.obelisk.dss.x509.CertificateToken;
 import cz.sefira.obelisk.flow.operation.*;
-import cz.sefira.obelisk.generic.QuickAccessProductsMap;
 import cz.sefira.obelisk.generic.SessionManager;
-import cz.sefira.obelisk.token.pkcs11.DetectedCard;
-import cz.sefira.obelisk.util.TextUtils;
 import cz.sefira.obelisk.view.core.UIDisplay;
 import cz.sefira.obelisk.dss.SignatureValue;
 import cz.sefira.obelisk.dss.token.DSSPrivateKeyEntry;
-import cz.sefira.obelisk.dss.token.SignatureTokenConnection;
-import cz.sefira.obelisk.view.core.UIOperation;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Collections;
-import java.util.List;
-import java.util.Map;
-
-class SignatureFlow extends AbstractCoreFlow<SignatureRequest, SignatureResponse> {
+class SignatureFlow extends AbstractSignatureFlow<SignatureRequest, SignatureResponse> {
 
   private static final Logger logger = LoggerFactory.getLogger(SignatureFlow.class.getName());
 
@@ -48,9 +36,7 @@ class SignatureFlow extends AbstractCoreFlow<SignatureRequest, SignatureResponse
   }
 
   @Override
-  @SuppressWarnings("unchecked")
   protected Execution<SignatureResponse> process(PlatformAPI api, SignatureRequest req) throws Exception {
-    SignatureTokenConnection token = null;
     try {
       if (req.getSignParams() == null) {
         throw new AppException("SignParams is null");
@@ -68,142 +54,22 @@ class SignatureFlow extends AbstractCoreFlow<SignatureRequest, SignatureResponse
         throw new AppException("Digest algorithm expected");
       }
 
-      // find correct product device
-      CertificateToken certificateToken = signParams.getCertificate();
-      byte[] digest = certificateToken.getDigest(DigestAlgorithm.SHA256);
-      String certificateId = TextUtils.encodeHexString(digest);
-
-      List<AbstractProduct> products = QuickAccessProductsMap.access().get(certificateId);
-      ProductAdapter productAdapter = null;
-      AbstractProduct selectedProduct = null;
-
-      // manual select certificate/key
-      if (products == null || products.isEmpty()) { // TODO - possibly to do without user interaction??
-        // given certificate not known - information dialog
-        final OperationResult<Object> result = this.getOperationFactory().getOperation(UIOperation.class,
-            "/fxml/unknown-certificate.fxml", new Object[] {api, certificateToken}).perform();
-        if (result.getStatus().equals(BasicOperationStatus.USER_CANCEL)) {
-          return this.handleErrorOperationResult(result);
-        }
-        // manual select certificate/key
-        GetCertificateRequest request = new GetCertificateRequest();
-        request.setCertificateFilter(new CertificateFilter(certificateToken.getDigest(DigestAlgorithm.SHA256)));
-        request.setUserInteraction(true);
-        Execution<GetCertificateResponse> getCertificate = api.getCertificate(request);
-        if (!getCertificate.isSuccess()) {
-          // manual selection error
-          return this.handleErrorOperationResult(getCertificate.getOperationResult());
-        }
-        products = QuickAccessProductsMap.access().get(certificateId);
-      }
-
-      if (products == null || products.isEmpty()) {
-        return this.handleErrorOperationResult(new OperationResult<>(CoreOperationStatus.NO_PRODUCT_FOUND));
-      }
-      else if (products.size() > 1) {
-        // private key is found on multiple devices - selection dialog
-        while (true) {
-          // check current session if we already don't use one of the colliding device
-          for (AbstractProduct p : products) {
-            if (SessionManager.getManager().isCurrentlyInitializedToken(p)) {
-              selectedProduct = p;
-              break;
-            }
-          }
-          if (selectedProduct != null) {
-            break;
-          }
-          // present collision to user to select device
-          final Operation<AbstractProduct> operation = this.getOperationFactory()
-              .getOperation(UIOperation.class, "/fxml/product-collision.fxml", api, products);
-          final OperationResult<AbstractProduct> selectProductOperationResult = operation.perform();
-          if (selectProductOperationResult.getStatus().equals(BasicOperationStatus.SUCCESS)) {
-            selectedProduct = selectProductOperationResult.getResult();
-            break;
-          }
-          else if (!selectProductOperationResult.getStatus().equals(CoreOperationStatus.BACK)) {
-            return this.handleErrorOperationResult(selectProductOperationResult);
-          }
-        }
-      }
-      else {
-        selectedProduct = products.get(0);
-      }
-
-      List<Match> matchingProductAdapters;
-      final OperationResult<List<Match>> getMatchingCardAdaptersOperationResult = this.getOperationFactory().getOperation(GetMatchingProductAdaptersOperation.class, Collections.singletonList(selectedProduct), api).perform();
-      if (getMatchingCardAdaptersOperationResult.getStatus().equals(BasicOperationStatus.SUCCESS)) {
-        matchingProductAdapters = getMatchingCardAdaptersOperationResult.getResult();
-      } else {
-        return this.handleErrorOperationResult(getMatchingCardAdaptersOperationResult);
-      }
-      // configure the product
-      final OperationResult<List<Match>> configureProductOperationResult = this.getOperationFactory().getOperation(ConfigureProductOperation.class, matchingProductAdapters, api).perform();
-      if (configureProductOperationResult.getStatus().equals(BasicOperationStatus.SUCCESS)) {
-        matchingProductAdapters = configureProductOperationResult.getResult();
-      } else {
-        return this.handleErrorOperationResult(configureProductOperationResult);
-      }
-      // find token
-      token = SessionManager.getManager().getInitializedTokenForProduct(selectedProduct);
-      if (token == null) {
-        // Create token
-        final OperationResult<Map<TokenOperationResultKey, Object>> createTokenOperationResult = this.getOperationFactory().getOperation(CreateTokenOperation.class, api, matchingProductAdapters, selectedProduct, certificateId).perform();
-        if (createTokenOperationResult.getStatus().equals(BasicOperationStatus.SUCCESS)) {
-          final Map<TokenOperationResultKey, Object> map = createTokenOperationResult.getResult();
-          token = (SignatureTokenConnection) map.get(TokenOperationResultKey.TOKEN);
-          productAdapter = (ProductAdapter) map.get(TokenOperationResultKey.SELECTED_PRODUCT_ADAPTER);
-        }
-        else {
-          return this.handleErrorOperationResult(createTokenOperationResult);
-        }
-      }
-      logger.info("Token: " + token.getClass().getSimpleName());
-      logger.info("Using product: " + TextUtils.getProductLabel(selectedProduct));
-      if (selectedProduct instanceof DetectedCard card) {
-        logger.info("Using card ATR: " + card.getAtr());
-      }
-
-      // select key
-      DSSPrivateKeyEntry key;
-      final OperationResult<DSSPrivateKeyEntry> selectPrivateKeyOperationResult = getOperationFactory().getOperation(TokenPrivateKeyOperation.class, token, api, certificateId).perform();
-      if (selectPrivateKeyOperationResult.getStatus().equals(BasicOperationStatus.SUCCESS)) {
-        key = selectPrivateKeyOperationResult.getResult();
-        logger.info("Key " + key + " '" + key.getCertificateToken().getCertificate().getSubjectX500Principal() + "' issued by '" + key.getCertificateToken().getCertificate().getIssuerX500Principal()+"'");
-      }
-      // TODO mandatory user interaction at signature flow?
-      else if (req.isUserInteraction() && selectPrivateKeyOperationResult.getStatus().equals(CoreOperationStatus.NO_KEY)) {
-        final Operation<Boolean> notFoundOperation = this.getOperationFactory()
-            .getOperation(UIOperation.class,
-                "/fxml/certificate-not-found.fxml", api, certificateToken);
-        final OperationResult<Boolean> notFoundOperationResult = notFoundOperation.perform();
-        if (notFoundOperationResult.getStatus().equals(BasicOperationStatus.USER_CANCEL) ||
-            !notFoundOperationResult.getResult()) {
-          // user will fix profile
-          return this.handleErrorOperationResult(selectPrivateKeyOperationResult);
-        }
-        else {
-          if (productAdapter == null) {
-            productAdapter = matchingProductAdapters.get(0).getAdapter();
-          }
-          // repeat the process with certificate forgotten to make user find it again
-          productAdapter.removeProduct(selectedProduct);
-          QuickAccessProductsMap.access().remove(certificateId, selectedProduct);
-          return process(api, req);
-        }
-      }
-      else {
-        return this.handleErrorOperationResult(selectPrivateKeyOperationResult);
+      // find product, token and key
+      SigningContext context = new SigningContext();
+      Execution<SignatureResponse> error = resolve(api, signParams.getCertificate(), req.isUserInteraction(), context);
+      if (error != null) {
+        return error;
       }
+      DSSPrivateKeyEntry key = context.key;
 
       // sign data
       final OperationResult<SignatureValue> signOperationResult = getOperationFactory().getOperation(
-          SignOperation.class, token, api, signParams, key).perform();
+          SignOperation.class, context.token, api, signParams, key).perform();
       if(signOperationResult.getStatus().equals(BasicOperationStatus.SUCCESS)) {
         final SignatureValue value = signOperationResult.getResult();
         logger.info("Signature created: " + value);
         SignatureResponse resp = new SignatureResponse(value, key.getCertificateToken(), key.getCertificateChain());
-        return new Execution<>(resp, selectedProduct);
+        return new Execution<>(resp, context.product);
       } else {
         return handleErrorOperationResult(signOperationResult);
       }
@@ -17,6 +17,7 @@ package cz.sefira.obelisk.flow.operation;
 import cz.sefira.obelisk.api.AppConfig;
 import cz.sefira.obelisk.api.flow.Operation;
 import cz.sefira.obelisk.api.flow.OperationFactory;
+import cz.sefira.obelisk.api.trace.Tracer;
 import cz.sefira.obelisk.prefs.PreferencesFactory;
 import cz.sefira.obelisk.prefs.UserPreferences;
 import cz.sefira.obelisk.view.DialogMessage;
@@ -52,6 +53,11 @@ public class BasicOperationFactory implements OperationFactory {
                 uiDisplayAwareOperation.setDisplay(this.display);
             }
             operation.setParams(params);
+            if (Tracer.current() != null) {
+                // record operation in the flow timeline, views are recorded as user interaction
+                Object view = params != null && params.length > 0 && params[0] instanceof String ? params[0] : null;
+                return new TracedOperation<>(operation, clazz.getSimpleName(), view);
+            }
             return operation;
         } catch (ReflectiveOperationException e) {
             throw new IllegalArgumentException(e);
@@ -0,0 +1,127 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.flow.operation;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.flow.operation.BatchSignOperation
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import cz.sefira.obelisk.api.PlatformAPI;
+import cz.sefira.obelisk.api.flow.BasicOperationStatus;
+import cz.sefira.obelisk.api.flow.OperationResult;
+import cz.sefira.obelisk.api.flow.OperationStatus;
+import cz.sefira.obelisk.api.ws.model.SignParameters;
+import cz.sefira.obelisk.dss.SignatureValue;
+import cz.sefira.obelisk.dss.token.DSSPrivateKeyEntry;
+import cz.sefira.obelisk.dss.token.SignatureTokenConnection;
+import cz.sefira.obelisk.token.windows.WindowsSignatureTokenAdapter;
+import cz.sefira.obelisk.view.BusyIndicator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Sign multiple data with one private key, the token stays logged in for the whole batch (keys with
+ * CKA_ALWAYS_AUTHENTICATE are re-authenticated by the token for each signature). Results are in order of the sign
+ * parameters, failure of a single item does not stop the batch, user cancellation or unusable key does.
+ *
+ * Expected parameters:
+ * <ol>
+ * <li>{@link SignatureTokenConnection}</li>
+ * <li>{@link PlatformAPI}</li>
+ * <li>List of {@link SignParameters}</li>
+ * <li>{@link DSSPrivateKeyEntry}</li>
+ * </ol>
+ */
+public class BatchSignOperation extends AbstractCompositeOperation<List<OperationResult<SignatureValue>>> {
+
+  private static final Logger logger = LoggerFactory.getLogger(BatchSignOperation.class.getName());
+
+  private SignatureTokenConnection token;
+  private PlatformAPI api;
+  private List<SignParameters> signParams;
+  private DSSPrivateKeyEntry key;
+
+  public BatchSignOperation() {
+    super();
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public void setParams(Object... params) {
+    try {
+      this.token = (SignatureTokenConnection) params[0];
+      this.api = (PlatformAPI) params[1];
+      this.signParams = (List<SignParameters>) params[2];
+      this.key = (DSSPrivateKeyEntry) params[3];
+    } catch(final ArrayIndexOutOfBoundsException | ClassCastException e) {
+      throw new IllegalArgumentException("Expected parameters: SignatureTokenConnection, PlatformAPI, List<SignParams>, DSSPrivateKeyEntry");
+    }
+  }
+
+  @Override
+  public OperationResult<List<OperationResult<SignatureValue>>> perform() {
+    // one busy indicator for the whole batch, windows minidriver PIN input must not be covered
+    boolean alwaysOnTop = !(token instanceof WindowsSignatureTokenAdapter);
+    try (BusyIndicator busyIndicator = new BusyIndicator(true, alwaysOnTop)) {
+      return new OperationResult<>(signAll(signParams, item -> operationFactory.getOperation(SignOperation.class,
+          token, api, item, key, false).perform()));
+    }
+  }
+
+  /**
+   * Sign items in order
+   * @param items Sign parameters
+   * @param signer Signature of single item
+   * @return Result of each item
+   */
+  static List<OperationResult<SignatureValue>> signAll(List<SignParameters> items,
+                                                       Function<SignParameters, OperationResult<SignatureValue>> signer) {
+    List<OperationResult<SignatureValue>> results = new ArrayList<>(items.size());
+    OperationStatus stopped = null;
+    for (int i = 0; i < items.size(); i++) {
+      SignParameters item = items.get(i);
+      OperationResult<SignatureValue> result;
+      if (stopped != null) {
+        result = new OperationResult<>(stopped);
+      } else if (item == null || item.getToBeSigned() == null || item.getDigestAlgorithm() == null) {
+        result = new OperationResult<>(BasicOperationStatus.EXCEPTION, "ToBeSigned and digest algorithm expected");
+      } else {
+        try {
+          result = signer.apply(item);
+        } catch (Exception e) {
+          logger.error("Signature " + i + " failed: " + e.getMessage(), e);
+          result = new OperationResult<>(e);
+        }
+        // remaining items would fail (or ask for PIN) again
+        if (BasicOperationStatus.USER_CANCEL.equals(result.getStatus()) ||
+            CoreOperationStatus.CANNOT_SELECT_KEY.equals(result.getStatus())) {
+          stopped = result.getStatus();
+        }
+      }
+      results.add(result);
+    }
+    return results;
+  }
+
+}
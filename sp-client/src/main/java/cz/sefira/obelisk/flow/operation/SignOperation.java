@@ -41,6 +41,7 @@ import java.security.SignatureException;
  * <li>{@link PlatformAPI}</li>
  * <li>{@link SignParameters}</li>
  * <li>{@link DSSPrivateKeyEntry}</li>
+ * <li>{@link Boolean} show busy indicator (optional, default true)</li>
  * </ol>
  *
  * @author Jean Lepropre (jean.lepropre@nowina.lu)
@@ -53,6 +54,7 @@ public class SignOperation extends AbstractCompositeOperation<SignatureValue> {
 	 private PlatformAPI api;
 	 private SignParameters signParams;
 	 private DSSPrivateKeyEntry key;
+	 private boolean showBusyIndicator = true;
 
 	public SignOperation() {
 		super();
@@ -65,6 +67,9 @@ public class SignOperation extends AbstractCompositeOperation<SignatureValue> {
 			this.api = (PlatformAPI) params[1];
 			this.signParams = (SignParameters) params[2];
 			this.key = (DSSPrivateKeyEntry) params[3];
+			if (params.length > 4) {
+				this.showBusyIndicator = (Boolean) params[4];
+			}
 		} catch(final ArrayIndexOutOfBoundsException | ClassCastException e) {
 			throw new IllegalArgumentException("Expected parameters: SignatureTokenConnection, PlatformAPI, SignParams, DSSPrivateKeyEntry");
 		}
@@ -87,7 +92,7 @@ public class SignOperation extends AbstractCompositeOperation<SignatureValue> {
 																							 MaskGenerationFunction maskGenerationFunction, DSSPrivateKeyEntry key) {
 		// to prevent covering windows minidriver PIN input being covered by busy indicator
 		boolean alwaysOnTop = !(token instanceof WindowsSignatureTokenAdapter);
-		try (BusyIndicator busyIndicator = new BusyIndicator(true, alwaysOnTop)) {
+		try (BusyIndicator busyIndicator = new BusyIndicator(showBusyIndicator, alwaysOnTop)) {
 			return new OperationResult<>(token.sign(toBeSigned, digestAlgorithm, maskGenerationFunction, key));
 		} catch (AbstractTokenRuntimeException e) {
 			this.operationFactory.getMessageDialog(api, e.getDialogMessage(), true);
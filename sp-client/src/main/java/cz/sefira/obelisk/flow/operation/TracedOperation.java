@@ -0,0 +1,68 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.flow.operation;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.flow.operation.TracedOperation
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import cz.sefira.obelisk.api.flow.Operation;
+import cz.sefira.obelisk.api.flow.OperationResult;
+import cz.sefira.obelisk.api.trace.Span;
+import cz.sefira.obelisk.api.trace.Tracer;
+
+/**
+ * Operation recorded as a span of the flow timeline
+ */
+class TracedOperation<R> implements Operation<R> {
+
+  private final Operation<R> operation;
+  private final String name;
+  private final Object view;
+
+  TracedOperation(Operation<R> operation, String name, Object view) {
+    this.operation = operation;
+    this.name = name;
+    this.view = view;
+  }
+
+  @Override
+  public void setParams(Object... params) {
+    operation.setParams(params);
+  }
+
+  @Override
+  public OperationResult<R> perform() {
+    try (Span span = Tracer.span(name)) {
+      span.setAttribute("view", view);
+      try {
+        OperationResult<R> result = operation.perform();
+        if (result != null) {
+          span.setAttribute("status", result.getStatus().getCode());
+        }
+        return result;
+      } catch (RuntimeException e) {
+        span.setError(e);
+        throw e;
+      }
+    }
+  }
+
+}
@@ -0,0 +1,239 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.json;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.json.DiscriminatorTypeAdapterFactory
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import com.google.gson.*;
+import com.google.gson.annotations.SerializedName;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.*;
+
+/**
+ * Polymorphic deserialization of base type by discriminator field in a single streaming pass. Fields are decoded
+ * directly into the concrete type selected by the discriminator value, unknown fields are skipped without being
+ * materialized. Only fields read before the discriminator that have different meaning in the subtypes are
+ * buffered. Unknown discriminator value is deserialized as the base type.
+ */
+public class DiscriminatorTypeAdapterFactory<T> implements TypeAdapterFactory {
+
+  private final Class<T> baseType;
+  private final String discriminator;
+  private final Map<String, Class<? extends T>> subtypes = new LinkedHashMap<>();
+
+  private DiscriminatorTypeAdapterFactory(Class<T> baseType, String discriminator) {
+    this.baseType = baseType;
+    this.discriminator = discriminator;
+  }
+
+  /**
+   * Create factory for given base type
+   * @param baseType Base type, declared type of the deserialized values
+   * @param discriminator Name of field holding the type label
+   * @return Factory
+   */
+  public static <T> DiscriminatorTypeAdapterFactory<T> of(Class<T> baseType, String discriminator) {
+    return new DiscriminatorTypeAdapterFactory<>(baseType, discriminator);
+  }
+
+  /**
+   * Register concrete type
+   * @param type Concrete type (requires no-arg constructor)
+   * @param label Discriminator value
+   * @return This factory
+   */
+  public DiscriminatorTypeAdapterFactory<T> registerSubtype(Class<? extends T> type, String label) {
+    subtypes.put(label, type);
+    return this;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <R> TypeAdapter<R> create(Gson gson, TypeToken<R> type) {
+    if (type.getRawType() != baseType) {
+      return null; // concrete types are handled by their own adapters
+    }
+    return (TypeAdapter<R>) new Adapter(gson).nullSafe();
+  }
+
+  private class Adapter extends TypeAdapter<T> {
+
+    private final Gson gson;
+    private final Map<Class<? extends T>, Binding> bindings = new HashMap<>();
+    private final Map<String, BoundField> shared = new HashMap<>();
+    private final Set<String> ambiguous = new HashSet<>();
+
+    private Adapter(Gson gson) {
+      this.gson = gson;
+      bindings.put(baseType, new Binding(baseType));
+      for (Class<? extends T> type : subtypes.values()) {
+        bindings.put(type, new Binding(type));
+      }
+      // fields that can be decoded before the discriminator is known
+      for (Binding binding : bindings.values()) {
+        for (Map.Entry<String, BoundField> f : binding.fields.entrySet()) {
+          BoundField known = shared.get(f.getKey());
+          if (known != null && !known.field.equals(f.getValue().field)) {
+            ambiguous.add(f.getKey());
+          }
+          shared.put(f.getKey(), f.getValue());
+        }
+      }
+      ambiguous.forEach(shared::remove);
+    }
+
+    @Override
+    public T read(JsonReader in) throws IOException {
+      Binding binding = null;
+      Map<Field, Object> values = new LinkedHashMap<>();
+      Map<String, JsonElement> deferred = null;
+      in.beginObject();
+      while (in.hasNext()) {
+        String name = in.nextName();
+        if (binding == null && discriminator.equals(name) && in.peek() == JsonToken.STRING) {
+          String label = in.nextString();
+          binding = bindings.get(subtypes.getOrDefault(label, baseType));
+          BoundField f = binding.fields.get(name);
+          if (f != null) {
+            values.put(f.field, label);
+          }
+          continue;
+        }
+        BoundField f = binding != null ? binding.fields.get(name) : shared.get(name);
+        if (f != null) {
+          values.put(f.field, f.adapter.read(in));
+        } else if (binding == null && ambiguous.contains(name)) {
+          if (deferred == null) {
+            deferred = new LinkedHashMap<>();
+          }
+          deferred.put(name, JsonParser.parseReader(in));
+        } else {
+          in.skipValue();
+        }
+      }
+      in.endObject();
+      if (binding == null) {
+        binding = bindings.get(baseType);
+      }
+      T instance = binding.newInstance();
+      for (Map.Entry<Field, Object> v : values.entrySet()) {
+        // fields of other subtypes read before the discriminator are dropped
+        if (v.getKey().getDeclaringClass().isAssignableFrom(binding.type)) {
+          set(instance, v.getKey(), v.getValue());
+        }
+      }
+      if (deferred != null) {
+        for (Map.Entry<String, JsonElement> d : deferred.entrySet()) {
+          BoundField f = binding.fields.get(d.getKey());
+          if (f != null) {
+            set(instance, f.field, f.adapter.fromJsonTree(d.getValue()));
+          }
+        }
+      }
+      return instance;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void write(JsonWriter out, T value) throws IOException {
+      TypeAdapter<T> adapter = value.getClass() == baseType ?
+          gson.getDelegateAdapter(DiscriminatorTypeAdapterFactory.this, TypeToken.get(baseType)) :
+          (TypeAdapter<T>) gson.getAdapter(value.getClass());
+      adapter.write(out, value);
+    }
+
+    private void set(T instance, Field field, Object value) {
+      if (value == null && field.getType().isPrimitive()) {
+        return;
+      }
+      try {
+        field.set(instance, value);
+      } catch (IllegalAccessException e) {
+        throw new JsonIOException("Unable to set field " + field.getName(), e);
+      }
+    }
+
+    private class Binding {
+
+      private final Class<? extends T> type;
+      private final Constructor<? extends T> constructor;
+      private final Map<String, BoundField> fields = new HashMap<>();
+
+      private Binding(Class<? extends T> type) {
+        this.type = type;
+        try {
+          this.constructor = type.getDeclaredConstructor();
+          this.constructor.setAccessible(true);
+        } catch (NoSuchMethodException e) {
+          throw new JsonIOException("No-arg constructor required: " + type.getName(), e);
+        }
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+          for (Field field : c.getDeclaredFields()) {
+            int modifiers = field.getModifiers();
+            if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()) {
+              continue;
+            }
+            field.setAccessible(true);
+            BoundField bound = new BoundField(field, gson.getAdapter(TypeToken.get(field.getGenericType())));
+            SerializedName serializedName = field.getAnnotation(SerializedName.class);
+            if (serializedName != null) {
+              fields.putIfAbsent(serializedName.value(), bound);
+              for (String alternate : serializedName.alternate()) {
+                fields.putIfAbsent(alternate, bound);
+              }
+            } else {
+              fields.putIfAbsent(field.getName(), bound); // subclass field hides superclass field
+            }
+          }
+        }
+      }
+
+      private T newInstance() {
+        try {
+          return constructor.newInstance();
+        } catch (ReflectiveOperationException e) {
+          throw new JsonIOException("Unable to create " + type.getName(), e);
+        }
+      }
+    }
+  }
+
+  private static class BoundField {
+
+    private final Field field;
+    private final TypeAdapter<?> adapter;
+
+    private BoundField(Field field, TypeAdapter<?> adapter) {
+      this.field = field;
+      this.adapter = adapter;
+    }
+  }
+
+}
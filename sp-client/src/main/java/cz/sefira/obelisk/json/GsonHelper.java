@@ -16,23 +16,66 @@ package cz.sefira.obelisk.json;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import cz.sefira.obelisk.api.ws.model.BaseRequest;
+import cz.sefira.obelisk.api.ws.model.BatchSignatureRequest;
+import cz.sefira.obelisk.api.ws.model.GetCertificateRequest;
+import cz.sefira.obelisk.api.ws.model.Operation;
+import cz.sefira.obelisk.api.ws.model.SignatureRequest;
 import cz.sefira.obelisk.dss.DigestAlgorithm;
 import cz.sefira.obelisk.dss.x509.CertificateToken;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
 public class GsonHelper {
 
 	private static final Gson customGson = new GsonBuilder().disableHtmlEscaping()
 			.registerTypeHierarchyAdapter(byte[].class, new ByteArrayTypeAdapter())
 			.registerTypeAdapter(CertificateToken.class, new CertificateTypeAdapter())
 			.registerTypeAdapter(DigestAlgorithm.class, new DigestAlgorithmAdapter())
+			.registerTypeAdapterFactory(DiscriminatorTypeAdapterFactory.of(BaseRequest.class, "operation")
+					.registerSubtype(GetCertificateRequest.class, Operation.GET_CERTIFICATE)
+					.registerSubtype(SignatureRequest.class, Operation.SIGN)
+					.registerSubtype(BatchSignatureRequest.class, Operation.BATCH_SIGN))
 			.create();
 
 	public static String toJson(Object o) {
 		return customGson.toJson(o);
 	}
 
+	/**
+	 * Serialize object directly into the writer, without intermediate JSON string
+	 */
+	public static void toJson(Object o, Appendable writer) {
+		customGson.toJson(o, writer);
+	}
+
 	public static <T> T fromJson(String json, Class<T> clasz) {
 		return customGson.fromJson(json, clasz);
 	}
 
+	/**
+	 * Deserialize object from the reader, the JSON is parsed as it is read
+	 */
+	public static <T> T fromJson(Reader json, Class<T> clasz) {
+		return customGson.fromJson(json, clasz);
+	}
+
+	/**
+	 * Deserialize object from JSON tree
+	 */
+	public static <T> T fromJson(JsonElement json, Class<T> clasz) {
+		return customGson.fromJson(json, clasz);
+	}
+
+	/**
+	 * Deserialize object from UTF-8 encoded JSON, without intermediate JSON string
+	 */
+	public static <T> T fromJson(byte[] json, Class<T> clasz) {
+		return fromJson(new InputStreamReader(new ByteArrayInputStream(json), StandardCharsets.UTF_8), clasz);
+	}
+
 }
@@ -0,0 +1,72 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.storage;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.storage.AIACacheStorage
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import cz.sefira.obelisk.storage.handler.X509CertificateTypeHandler;
+import one.microstream.persistence.internal.LoggingLegacyTypeMappingResultor;
+import one.microstream.persistence.types.PersistenceLegacyTypeMappingResultor;
+import one.microstream.storage.embedded.types.EmbeddedStorage;
+import one.microstream.storage.embedded.types.EmbeddedStorageFoundation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.security.cert.X509Certificate;
+import java.util.*;
+
+/**
+ * Cache of intermediate certificates downloaded from AIA locations, keyed by subject name and key identifier
+ */
+public class AIACacheStorage extends AbstractStorage {
+
+  private static final Logger logger = LoggerFactory.getLogger(AIACacheStorage.class.getName());
+
+  private final Map<String, List<X509Certificate>> certificates = new HashMap<>();
+
+  public AIACacheStorage(Path store) {
+    EmbeddedStorageFoundation<?> foundation = EmbeddedStorage.Foundation(store);
+    foundation.getConnectionFoundation().setLegacyTypeMappingResultor(
+        LoggingLegacyTypeMappingResultor.New(
+            PersistenceLegacyTypeMappingResultor.New()
+        )
+    );
+    foundation.registerTypeHandler(new X509CertificateTypeHandler());
+    this.storage = foundation.createEmbeddedStorageManager(certificates).start();
+    logger.info("Cached AIA certificates: "+certificates.size());
+  }
+
+  public synchronized List<X509Certificate> get(String key) {
+    List<X509Certificate> certs = certificates.get(key);
+    return certs != null ? new ArrayList<>(certs) : Collections.emptyList();
+  }
+
+  public synchronized void add(String key, X509Certificate certificate) {
+    List<X509Certificate> certs = certificates.computeIfAbsent(key, k -> new ArrayList<>());
+    if (!certs.contains(certificate)) {
+      certs.add(certificate);
+      commitChange(certificates);
+    }
+  }
+
+}
@@ -40,6 +40,13 @@ public abstract class AbstractStorage implements AutoCloseable {
     storer.commit();
   }
 
+  /**
+   * Lazy store, already persisted instances referenced by the root are not written again
+   */
+  protected void storeChange(Object root) {
+    storage.store(root);
+  }
+
   private PersistenceRefactoringMappingProvider createMappings() {
     // example refactoring mapping (package change)
     //KeyValue<String, String> mapping = KeyValue.New("cz.sefira.obelisk.storage.EventsRoot", "cz.sefira.obelisk.storage.model.EventsRoot");
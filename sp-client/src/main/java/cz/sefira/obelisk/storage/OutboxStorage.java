@@ -0,0 +1,125 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.storage;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.storage.OutboxStorage
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import cz.sefira.obelisk.storage.model.OutboxEntry;
+import cz.sefira.obelisk.storage.model.OutboxRoot;
+import one.microstream.persistence.internal.LoggingLegacyTypeMappingResultor;
+import one.microstream.persistence.types.PersistenceLegacyTypeMappingResultor;
+import one.microstream.storage.embedded.types.EmbeddedStorage;
+import one.microstream.storage.embedded.types.EmbeddedStorageFoundation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Durable outbox of flow results that could not be delivered to SP API, entries survive application restart
+ */
+public class OutboxStorage extends AbstractStorage {
+
+  private static final Logger logger = LoggerFactory.getLogger(OutboxStorage.class.getName());
+
+  private final OutboxRoot outboxRoot = new OutboxRoot();
+
+  public OutboxStorage(Path store) {
+    EmbeddedStorageFoundation<?> foundation = EmbeddedStorage.Foundation(store);
+    foundation.getConnectionFoundation().setLegacyTypeMappingResultor(
+        LoggingLegacyTypeMappingResultor.New(
+            PersistenceLegacyTypeMappingResultor.New()
+        )
+    );
+    this.storage = foundation.createEmbeddedStorageManager(outboxRoot).start();
+    logger.info("Outbox size: "+outboxRoot.getEntries().size());
+    removeExpired(System.currentTimeMillis());
+  }
+
+  /**
+   * Persist undelivered result
+   * @param entry Outbox entry
+   * @return False if result with the same request ID is already in the outbox
+   */
+  public synchronized boolean add(OutboxEntry entry) {
+    if (outboxRoot.getEntries().putIfAbsent(entry.getRequestId(), entry) != null) {
+      return false;
+    }
+    commitChange(outboxRoot);
+    return true;
+  }
+
+  /**
+   * Persist changed delivery state of the entry
+   * @param entry Outbox entry
+   */
+  public synchronized void update(OutboxEntry entry) {
+    if (outboxRoot.getEntries().get(entry.getRequestId()) == entry) {
+      commitChange(entry);
+    }
+  }
+
+  /**
+   * Remove delivered or dropped entry
+   * @param requestId Request ID
+   */
+  public synchronized void remove(String requestId) {
+    if (outboxRoot.getEntries().remove(requestId) != null) {
+      commitChange(outboxRoot);
+    }
+  }
+
+  public synchronized OutboxEntry get(String requestId) {
+    return outboxRoot.getEntries().get(requestId);
+  }
+
+  /**
+   * @return Entries in order of their creation
+   */
+  public synchronized List<OutboxEntry> getEntries() {
+    return new ArrayList<>(outboxRoot.getEntries().values());
+  }
+
+  /**
+   * Remove entries that can no longer be delivered
+   * @param now Current time
+   * @return Number of removed entries
+   */
+  public synchronized int removeExpired(long now) {
+    int size = outboxRoot.getEntries().size();
+    outboxRoot.getEntries().values().removeIf(entry -> {
+      if (entry.isExpired(now)) {
+        logger.warn("Outbox entry expired undelivered: "+entry.getRequestId()+" (flow "+entry.getFlowId()+")");
+        return true;
+      }
+      return false;
+    });
+    int removed = size - outboxRoot.getEntries().size();
+    if (removed > 0) {
+      commitChange(outboxRoot);
+    }
+    return removed;
+  }
+
+}
@@ -1,16 +1,3 @@
-/**
- * © SEFIRA spol. s r.o., 2020-2023
- * <p>
- * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
- * You may use this work only in accordance with the License.
- * You can obtain a copy of the License at the following address:
- * <p>
- * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
- * <p>
- * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
- * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
- * See the License for specific permissions and language restrictions under the License.
- */
 package cz.sefira.obelisk.storage;
 
 /*
@@ -23,31 +10,245 @@ package cz.sefira.obelisk.storage;
  * Author: hlavnicka
  */
 
+import cz.sefira.obelisk.api.AppConfig;
+import cz.sefira.obelisk.dss.DigestAlgorithm;
 import cz.sefira.obelisk.storage.handler.X509CertificateTypeHandler;
 import cz.sefira.obelisk.storage.model.CertificateChain;
+import cz.sefira.obelisk.storage.model.SSLCacheEntry;
+import cz.sefira.obelisk.storage.model.SSLCacheRoot;
+import cz.sefira.obelisk.util.TextUtils;
 import one.microstream.persistence.internal.LoggingLegacyTypeMappingResultor;
 import one.microstream.persistence.types.PersistenceLegacyTypeMappingResultor;
 import one.microstream.storage.embedded.types.EmbeddedStorage;
 import one.microstream.storage.embedded.types.EmbeddedStorageFoundation;
+import one.microstream.storage.embedded.types.EmbeddedStorageManager;
+import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.security.auth.x500.X500Principal;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
 import java.security.cert.X509Certificate;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
 
 /**
- * SSL certificates cache
+ * SSL certificates cache. Chains are keyed by SHA-256 fingerprint and indexed by subject names of their certificates,
+ * certificates are loaded lazily on first use. Chains not used for the expiration period and least recently used
+ * chains above the size limit are evicted.
  */
 public class SSLCacheStorage extends AbstractStorage {
 
   private static final Logger logger = LoggerFactory.getLogger(SSLCacheStorage.class.getName());
 
-  private final Set<CertificateChain> certificateChains = new HashSet<>();
+  // last use is persisted with this resolution, not on every use
+  private static final long TOUCH_RESOLUTION_MILLISECONDS = 60 * 60 * 1000;
+
+  private final SSLCacheRoot root = new SSLCacheRoot();
+  // canonical subject name -> fingerprints of cached chains with certificate of such subject
+  private final Map<String, Set<String>> bySubject = new HashMap<>();
+  private final int maxSize;
+  private final long ttl;
+
+  public SSLCacheStorage(Path store, Path legacyStore) {
+    this(store, legacyStore, AppConfig.get().getSslCacheMaxSize(), AppConfig.get().getSslCacheExpiration());
+  }
+
+  SSLCacheStorage(Path store, Path legacyStore, int maxSize, long ttl) {
+    this.maxSize = maxSize;
+    this.ttl = ttl;
+    this.storage = foundation(store).createEmbeddedStorageManager(root).start();
+    // entries are stored separately (lazy storing), root must reference the persisted map
+    root.getEntries();
+    storeChange(root);
+    for (SSLCacheEntry entry : root.getEntries().values()) {
+      index(entry);
+    }
+    boolean changed = false;
+    if (legacyStore != null && Files.isDirectory(legacyStore)) {
+      changed = migrate(legacyStore);
+    }
+    changed |= evict(System.currentTimeMillis());
+    if (changed) {
+      storeChange(root.getEntries());
+    }
+    logger.info("Cached certificate chains: "+root.getEntries().size());
+  }
+
+  /**
+   * Cache certificate chain, already cached chain is marked as used
+   * @param chain Certificate chain
+   * @return True if the chain was not cached yet
+   */
+  public synchronized boolean add(List<X509Certificate> chain) {
+    long now = System.currentTimeMillis();
+    SSLCacheEntry entry = root.getEntries().get(fingerprint(chain));
+    if (entry != null) {
+      touch(entry, now);
+      return false;
+    }
+    put(chain, now);
+    evict(now);
+    storeChange(root.getEntries());
+    return true;
+  }
+
+  /**
+   * Find cached chains with certificate of given subject, certificates of the chains are not loaded
+   * @param subject Subject name
+   * @return Cached chains
+   */
+  public synchronized List<SSLCacheEntry> findBySubject(X500Principal subject) {
+    Set<String> fingerprints = bySubject.get(subject.getName(X500Principal.CANONICAL));
+    if (fingerprints == null) {
+      return Collections.emptyList();
+    }
+    List<SSLCacheEntry> entries = new ArrayList<>(fingerprints.size());
+    for (String fingerprint : fingerprints) {
+      entries.add(root.getEntries().get(fingerprint));
+    }
+    return entries;
+  }
+
+  /**
+   * Load certificates of the cached chain and mark it as used
+   * @param entry Cached chain
+   * @return Certificate chain
+   */
+  public synchronized List<X509Certificate> load(SSLCacheEntry entry) {
+    List<X509Certificate> chain = new ArrayList<>(entry.getChain());
+    touch(entry, System.currentTimeMillis());
+    return chain;
+  }
+
+  public synchronized SSLCacheEntry get(String fingerprint) {
+    return root.getEntries().get(fingerprint);
+  }
 
-  public SSLCacheStorage(Path store) {
+  public synchronized void remove(String fingerprint) {
+    SSLCacheEntry entry = root.getEntries().remove(fingerprint);
+    if (entry != null) {
+      unindex(entry);
+      storeChange(root.getEntries());
+    }
+  }
+
+  public synchronized int size() {
+    return root.getEntries().size();
+  }
+
+  /**
+   * SHA-256 fingerprint of the certificate chain
+   */
+  public static String fingerprint(List<X509Certificate> chain) {
+    try {
+      MessageDigest md = MessageDigest.getInstance(DigestAlgorithm.SHA256.getJavaName());
+      for (X509Certificate certificate : chain) {
+        md.update(certificate.getEncoded());
+      }
+      return TextUtils.encodeHexString(md.digest());
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private void put(List<X509Certificate> chain, long now) {
+    String fingerprint = fingerprint(chain);
+    if (root.getEntries().containsKey(fingerprint)) {
+      return;
+    }
+    List<String> subjects = new ArrayList<>(chain.size());
+    for (X509Certificate certificate : chain) {
+      subjects.add(certificate.getSubjectX500Principal().getName(X500Principal.CANONICAL));
+    }
+    SSLCacheEntry entry = new SSLCacheEntry(fingerprint, subjects, new ArrayList<>(chain), now);
+    root.getEntries().put(fingerprint, entry);
+    index(entry);
+  }
+
+  private void touch(SSLCacheEntry entry, long now) {
+    if (now - entry.getLastUsed() > TOUCH_RESOLUTION_MILLISECONDS) {
+      entry.setLastUsed(now);
+      storeChange(entry);
+    }
+  }
+
+  /**
+   * Remove expired and least recently used chains above the size limit
+   * @return True if any chain was removed
+   */
+  private boolean evict(long now) {
+    Map<String, SSLCacheEntry> entries = root.getEntries();
+    List<SSLCacheEntry> evicted = new ArrayList<>();
+    for (SSLCacheEntry entry : entries.values()) {
+      if (entry.isExpired(now, ttl)) {
+        evicted.add(entry);
+      }
+    }
+    int overflow = entries.size() - evicted.size() - maxSize;
+    if (overflow > 0) {
+      List<SSLCacheEntry> lru = new ArrayList<>(entries.values());
+      lru.removeAll(evicted);
+      lru.sort(Comparator.comparingLong(SSLCacheEntry::getLastUsed));
+      evicted.addAll(lru.subList(0, overflow));
+    }
+    for (SSLCacheEntry entry : evicted) {
+      entries.remove(entry.getFingerprint());
+      unindex(entry);
+    }
+    if (!evicted.isEmpty()) {
+      logger.info("Evicted "+evicted.size()+" certificate chains from SSL cache");
+    }
+    return !evicted.isEmpty();
+  }
+
+  private void index(SSLCacheEntry entry) {
+    for (String subject : entry.getSubjects()) {
+      bySubject.computeIfAbsent(subject, k -> new HashSet<>()).add(entry.getFingerprint());
+    }
+  }
+
+  private void unindex(SSLCacheEntry entry) {
+    for (String subject : entry.getSubjects()) {
+      Set<String> fingerprints = bySubject.get(subject);
+      if (fingerprints != null) {
+        fingerprints.remove(entry.getFingerprint());
+        if (fingerprints.isEmpty()) {
+          bySubject.remove(subject);
+        }
+      }
+    }
+  }
+
+  /**
+   * Move chains from the legacy cache (set of chains) and delete it
+   * @return True if any chain was migrated
+   */
+  private boolean migrate(Path legacyStore) {
+    Set<CertificateChain> chains = new HashSet<>();
+    int count = root.getEntries().size();
+    EmbeddedStorageManager legacy = foundation(legacyStore).createEmbeddedStorageManager(chains).start();
+    try {
+      long now = System.currentTimeMillis();
+      for (CertificateChain chain : chains) {
+        put(chain.getCertificateChain(), now);
+      }
+    } finally {
+      legacy.shutdown();
+    }
+    logger.info("Migrated "+chains.size()+" certificate chains from legacy SSL cache");
+    try {
+      FileUtils.deleteDirectory(legacyStore.toFile());
+    } catch (IOException e) {
+      logger.error("Unable to delete legacy SSL cache: "+e.getMessage(), e);
+    }
+    return root.getEntries().size() != count;
+  }
+
+  private static EmbeddedStorageFoundation<?> foundation(Path store) {
     EmbeddedStorageFoundation<?> foundation = EmbeddedStorage.Foundation(store);
     foundation.getConnectionFoundation().setLegacyTypeMappingResultor(
         LoggingLegacyTypeMappingResultor.New(
@@ -55,22 +256,7 @@ public class SSLCacheStorage extends AbstractStorage {
         )
     );
     foundation.registerTypeHandler(new X509CertificateTypeHandler());
-    this.storage = foundation.createEmbeddedStorageManager(certificateChains).start();
-    logger.info("Cached certificate chains: "+certificateChains.size());
-  }
-
-  public void add(List<X509Certificate> chain) {
-    certificateChains.add(new CertificateChain(chain));
-    commitChange(certificateChains);
-  }
-
-  public Set<CertificateChain> getAll() {
-    return certificateChains;
-  }
-
-  public void remove(CertificateChain chain) {
-    certificateChains.remove(chain);
-    commitChange(certificateChains);
+    return foundation;
   }
 
 }
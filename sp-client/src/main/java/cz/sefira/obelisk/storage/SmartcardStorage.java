@@ -24,6 +24,9 @@ package cz.sefira.obelisk.storage;
  */
 
 import cz.sefira.obelisk.api.ws.model.SmartcardInfo;
+import cz.sefira.obelisk.dss.DigestAlgorithm;
+import cz.sefira.obelisk.json.GsonHelper;
+import cz.sefira.obelisk.util.TextUtils;
 import one.microstream.persistence.internal.LoggingLegacyTypeMappingResultor;
 import one.microstream.persistence.types.PersistenceLegacyTypeMappingResultor;
 import one.microstream.storage.embedded.types.EmbeddedStorage;
@@ -31,7 +34,10 @@ import one.microstream.storage.embedded.types.EmbeddedStorageFoundation;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -44,6 +50,12 @@ public class SmartcardStorage extends AbstractStorage {
 
   private final List<SmartcardInfo> smartcards = new ArrayList<>();
 
+  /**
+   * Position and content hash of stored entries by ATR
+   */
+  private final Map<String, Integer> index = new HashMap<>();
+  private final Map<String, String> hashes = new HashMap<>();
+
   public SmartcardStorage(Path store) {
     EmbeddedStorageFoundation<?> foundation = EmbeddedStorage.Foundation(store);
     foundation.getConnectionFoundation().setLegacyTypeMappingResultor(
@@ -52,29 +64,65 @@ public class SmartcardStorage extends AbstractStorage {
         )
     );
     this.storage = foundation.createEmbeddedStorageManager(smartcards).start();
+    reindex();
     logger.info("Supported smartcards: "+smartcards.size());
   }
 
-  public final synchronized void setSmartcards(List<SmartcardInfo> smartcardList) {
-    for (SmartcardInfo smartcard : smartcardList) {
-      int index = smartcards.indexOf(smartcard);
-      // this ATR is stored
-      if (index > -1) {
-        SmartcardInfo stored = smartcards.get(index);
-        // but info differs
-        if (!stored.compare(smartcard)) {
-          // replace the stored value with the new one
-          smartcards.remove(stored);
-          smartcards.add(smartcard);
-        }
+  /**
+   * Merge smartcard informations, stored entries of other ATRs are kept
+   * @param smartcardList Smartcard informations
+   * @return Number of added or changed entries
+   */
+  public final synchronized int setSmartcards(List<SmartcardInfo> smartcardList) {
+    return update(smartcardList, Collections.emptyList());
+  }
+
+  /**
+   * Apply changes of smartcard informations, only entries whose content differs are written and storage is not
+   * touched at all when nothing changed
+   * @param changed Added or changed smartcard informations
+   * @param removed ATRs of removed smartcard informations
+   * @return Number of added, changed or removed entries
+   */
+  public final synchronized int update(List<SmartcardInfo> changed, Collection<String> removed) {
+    int changes = 0;
+    for (SmartcardInfo smartcard : changed) {
+      String atr = smartcard.getAtr();
+      String hash = hash(smartcard);
+      if (hash.equals(hashes.get(atr))) {
+        continue; // same content
+      }
+      Integer position = index.get(atr);
+      if (position != null) {
+        smartcards.set(position, smartcard);
       } else {
+        index.put(atr, smartcards.size());
         smartcards.add(smartcard);
       }
+      hashes.put(atr, hash);
+      changes++;
+    }
+    boolean removal = false;
+    for (String atr : removed) {
+      if (index.containsKey(atr)) {
+        hashes.remove(atr);
+        index.remove(atr);
+        removal = true;
+        changes++;
+      }
+    }
+    if (removal) {
+      smartcards.removeIf(s -> !index.containsKey(s.getAtr()));
+      reindex();
     }
-    commitChange(this.smartcards);
+    if (changes > 0) {
+      // list and new entries are written only, unchanged entries are already persisted
+      storeChange(smartcards);
+    }
+    return changes;
   }
 
-  public Map<String, SmartcardInfo> getSmartcardInfosMap() {
+  public synchronized Map<String, SmartcardInfo> getSmartcardInfosMap() {
     Map<String, SmartcardInfo> infosMap = new ConcurrentHashMap<>();
     for(SmartcardInfo smartcardInfo : smartcards) {
       infosMap.put(smartcardInfo.getAtr(), smartcardInfo);
@@ -82,4 +130,27 @@ public class SmartcardStorage extends AbstractStorage {
     return infosMap;
   }
 
-}
\ No newline at end of file
+  private void reindex() {
+    index.clear();
+    hashes.clear();
+    for (int i = 0; i < smartcards.size(); i++) {
+      SmartcardInfo smartcard = smartcards.get(i);
+      index.put(smartcard.getAtr(), i);
+      hashes.put(smartcard.getAtr(), hash(smartcard));
+    }
+  }
+
+  /**
+   * Content hash of the entry
+   */
+  static String hash(SmartcardInfo smartcard) {
+    byte[] content = GsonHelper.toJson(smartcard).getBytes(StandardCharsets.UTF_8);
+    try {
+      MessageDigest md = MessageDigest.getInstance(DigestAlgorithm.SHA256.getJavaName());
+      return TextUtils.encodeHexString(md.digest(content));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+}
@@ -42,13 +42,17 @@ public class StorageHandler implements Closeable {
   private final SmartcardStorage smartcardStorage;
   private final EventsStorage eventsStorage;
   private final SSLCacheStorage sslCacheStorage;
+  private final AIACacheStorage aiaCacheStorage;
+  private final OutboxStorage outboxStorage;
 
   public StorageHandler() throws IOException {
     Path storage = AppConfig.get().getAppStorageDirectory();
     productStorage = new ProductStorage<>(storage.resolve("products"));
     smartcardStorage = new SmartcardStorage(storage.resolve("smartcards"));
     eventsStorage = new EventsStorage(storage.resolve("events"));
-    sslCacheStorage = new SSLCacheStorage(storage.resolve("ssl"));
+    sslCacheStorage = new SSLCacheStorage(storage.resolve("ssl-cache"), storage.resolve("ssl"));
+    aiaCacheStorage = new AIACacheStorage(storage.resolve("aia"));
+    outboxStorage = new OutboxStorage(storage.resolve("outbox"));
   }
 
   public ProductStorage<?> getProductStorage() {
@@ -67,6 +71,14 @@ public class StorageHandler implements Closeable {
     return sslCacheStorage;
   }
 
+  public AIACacheStorage getAiaCacheStorage() {
+    return aiaCacheStorage;
+  }
+
+  public OutboxStorage getOutboxStorage() {
+    return outboxStorage;
+  }
+
   @Override
   public void close() {
     logger.info("Stopping products storage");
@@ -77,5 +89,9 @@ public class StorageHandler implements Closeable {
     eventsStorage.close();
     logger.info("Stopping SSL cache storage");
     sslCacheStorage.close();
+    logger.info("Stopping AIA cache storage");
+    aiaCacheStorage.close();
+    logger.info("Stopping outbox storage");
+    outboxStorage.close();
   }
 }
@@ -16,7 +16,7 @@ import java.security.cert.X509Certificate;
 import java.util.List;
 
 /**
- * Certificate chain
+ * Certificate chain, element of the legacy SSL cache (kept to migrate it to {@link SSLCacheRoot})
  */
 public class CertificateChain {
 
@@ -0,0 +1,95 @@
+package cz.sefira.obelisk.storage.model;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.storage.model.OutboxEntry
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import java.util.Date;
+
+/**
+ * Flow result waiting for delivery to SP API, request ID is sent as idempotency key so the server recognizes
+ * repeated delivery of the same result
+ */
+public class OutboxEntry {
+
+  private final String requestId;
+  private final String flowId;
+  private final String sessionId;
+  private final String url;
+  private final String payload;
+  private final Date created;
+  private final Date expires;
+  private int attempts;
+  private String lastError;
+
+  public OutboxEntry(String requestId, String flowId, String sessionId, String url, String payload, Date created,
+                     Date expires) {
+    this.requestId = requestId;
+    this.flowId = flowId;
+    this.sessionId = sessionId;
+    this.url = url;
+    this.payload = payload;
+    this.created = created;
+    this.expires = expires;
+  }
+
+  public String getRequestId() {
+    return requestId;
+  }
+
+  public String getFlowId() {
+    return flowId;
+  }
+
+  /**
+   * Work session the result belongs to (might be null), credentials of another session are never used
+   */
+  public String getSessionId() {
+    return sessionId;
+  }
+
+  /**
+   * Work endpoint the result is posted to
+   */
+  public String getUrl() {
+    return url;
+  }
+
+  /**
+   * Result serialized as JSON
+   */
+  public String getPayload() {
+    return payload;
+  }
+
+  public Date getCreated() {
+    return created;
+  }
+
+  public Date getExpires() {
+    return expires;
+  }
+
+  public boolean isExpired(long now) {
+    return expires.getTime() <= now;
+  }
+
+  public int getAttempts() {
+    return attempts;
+  }
+
+  public String getLastError() {
+    return lastError;
+  }
+
+  public void failed(String error) {
+    this.attempts++;
+    this.lastError = error;
+  }
+}
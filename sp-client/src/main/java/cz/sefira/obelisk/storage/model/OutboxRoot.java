@@ -0,0 +1,29 @@
+package cz.sefira.obelisk.storage.model;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.storage.model.OutboxRoot
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Outbox root object - undelivered flow results by request ID in order of their creation
+ */
+public class OutboxRoot {
+
+  private Map<String, OutboxEntry> entries;
+
+  public Map<String, OutboxEntry> getEntries() {
+    if (entries == null) {
+      entries = new LinkedHashMap<>();
+    }
+    return entries;
+  }
+}
@@ -0,0 +1,80 @@
+package cz.sefira.obelisk.storage.model;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.storage.model.SSLCacheEntry
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import one.microstream.reference.Lazy;
+
+import java.security.cert.X509Certificate;
+import java.util.List;
+
+/**
+ * Cached SSL certificate chain, only the metadata are loaded at startup and the certificates are loaded on first use
+ */
+public class SSLCacheEntry {
+
+  private final String fingerprint;
+  private final List<String> subjects;
+  private final long created;
+  private long lastUsed;
+  private final Lazy<List<X509Certificate>> chain;
+
+  public SSLCacheEntry(String fingerprint, List<String> subjects, List<X509Certificate> chain, long created) {
+    this.fingerprint = fingerprint;
+    this.subjects = subjects;
+    this.chain = Lazy.Reference(chain);
+    this.created = created;
+    this.lastUsed = created;
+  }
+
+  /**
+   * @return SHA-256 fingerprint of the chain
+   */
+  public String getFingerprint() {
+    return fingerprint;
+  }
+
+  /**
+   * @return Canonical subject names of the chain certificates
+   */
+  public List<String> getSubjects() {
+    return subjects;
+  }
+
+  public long getCreated() {
+    return created;
+  }
+
+  public long getLastUsed() {
+    return lastUsed;
+  }
+
+  public void setLastUsed(long lastUsed) {
+    this.lastUsed = lastUsed;
+  }
+
+  public boolean isExpired(long now, long ttl) {
+    return now - lastUsed > ttl;
+  }
+
+  /**
+   * @return Certificate chain, loaded from the storage if needed
+   */
+  public List<X509Certificate> getChain() {
+    return Lazy.get(chain);
+  }
+
+  /**
+   * @return True if the certificate chain is loaded
+   */
+  public boolean isLoaded() {
+    return chain.isLoaded();
+  }
+}
@@ -0,0 +1,29 @@
+package cz.sefira.obelisk.storage.model;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.storage.model.SSLCacheRoot
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * SSL cache root object - cached certificate chains by chain fingerprint
+ */
+public class SSLCacheRoot {
+
+  private Map<String, SSLCacheEntry> entries;
+
+  public Map<String, SSLCacheEntry> getEntries() {
+    if (entries == null) {
+      entries = new HashMap<>();
+    }
+    return entries;
+  }
+}
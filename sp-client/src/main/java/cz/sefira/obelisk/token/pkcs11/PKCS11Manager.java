@@ -23,7 +23,8 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -39,7 +40,6 @@ public class PKCS11Manager {
    * Smartcards information database
    */
   private final SmartcardStorage smartcardStorage;
-  private byte[] databaseDigest = new byte[0];
 
   /**
    * Known smartcard models
@@ -63,14 +63,17 @@ public class PKCS11Manager {
 
   /**
    * Loads known supported smartcards information list
-   * @param infos Collection of known supported smartcard informations
-   * @param infosDigest Digest of smartcard informations data
+   * @param infos Collection of added or changed supported smartcard informations
+   * @param removed ATRs of smartcards no longer supported
    */
-  public void supportedSmartcardInfos(List<SmartcardInfo> infos, byte[] infosDigest) {
-    // check digest and update only if new information
-    if(infos != null && infosDigest != null && !Arrays.equals(databaseDigest, infosDigest)) {
-      this.databaseDigest = infosDigest;
-      this.smartcardStorage.setSmartcards(infos);
+  public void supportedSmartcardInfos(List<SmartcardInfo> infos, Collection<String> removed) {
+    if (infos == null) {
+      return;
+    }
+    // storage compares content hashes and writes only new information
+    int changes = this.smartcardStorage.update(infos, removed != null ? removed : Collections.emptyList());
+    if (changes > 0) {
+      log.info("Smartcard database updated: "+changes+" changes");
       this.supported.clear();
       this.supported.putAll(this.smartcardStorage.getSmartcardInfosMap());
     }
@@ -24,6 +24,8 @@ package cz.sefira.obelisk.token.pkcs11;
  */
 
 import cz.sefira.obelisk.api.ReauthCallback;
+import cz.sefira.obelisk.api.trace.Span;
+import cz.sefira.obelisk.api.trace.Tracer;
 import cz.sefira.obelisk.dss.DigestAlgorithm;
 import cz.sefira.obelisk.dss.SignatureAlgorithm;
 import cz.sefira.obelisk.dss.token.PasswordInputCallback;
@@ -34,6 +36,8 @@ import org.slf4j.LoggerFactory;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class TokenHandler {
 
@@ -46,6 +50,11 @@ public class TokenHandler {
   private long sessionHandle = -1;
   private long tokenHandle = -1;
 
+  /**
+   * Private key handles found in current session (by label), keys are not searched again for each signature
+   */
+  private final Map<String, PKCS11PrivateKey> privateKeys = new ConcurrentHashMap<>();
+
   public TokenHandler(PKCS11Module pkcs11Module, String terminalLabel) {
     this.pkcs11Module = pkcs11Module;
     this.terminalLabel = terminalLabel;
@@ -97,6 +106,7 @@ public class TokenHandler {
     }
     this.tokenHandle = -1;
     this.sessionHandle = -1;
+    this.privateKeys.clear();
   }
 
   /**
@@ -106,7 +116,14 @@ public class TokenHandler {
    */
   public void login(PasswordInputCallback callback) throws PKCS11Exception {
     if (callback != null && sessionHandle > 0) {
-      pkcs11Module.login(callback, sessionHandle);
+      try (Span span = Tracer.span("C_Login")) {
+        try {
+          pkcs11Module.login(callback, sessionHandle);
+        } catch (PKCS11Exception e) {
+          span.setError(e);
+          throw e;
+        }
+      }
     }
   }
 
@@ -114,6 +131,7 @@ public class TokenHandler {
    * Log out of user session
    */
   public void logout() throws PKCS11Exception {
+    privateKeys.clear();
     pkcs11Module.logout(sessionHandle);
   }
 
@@ -147,10 +165,23 @@ public class TokenHandler {
    */
   public byte[] sign(String keyLabel, SignatureAlgorithm signatureAlgorithm, byte[] data, ReauthCallback callback)
       throws PKCS11Exception {
-    PKCS11PrivateKey key = pkcs11Module.getPrivateKey(sessionHandle, keyLabel);
+    PKCS11PrivateKey key = privateKeys.get(keyLabel);
+    if (key == null || key.getSignatureKeyHandle() < 0) {
+      key = pkcs11Module.getPrivateKey(sessionHandle, keyLabel);
+      privateKeys.put(keyLabel, key);
+    }
     // determine signature algorithm mechanism
     CK_MECHANISM signatureMechanism = getMechanism(signatureAlgorithm);
-    return pkcs11Module.signData(key, sessionHandle, signatureMechanism, data, callback);
+    try (Span span = Tracer.span("C_Sign")) {
+      span.setAttribute("algorithm", signatureAlgorithm);
+      try {
+        return pkcs11Module.signData(key, sessionHandle, signatureMechanism, data, callback);
+      } catch (PKCS11Exception e) {
+        privateKeys.remove(keyLabel); // handle may no longer be valid
+        span.setError(e);
+        throw e;
+      }
+    }
   }
 
   /**
@@ -23,19 +23,31 @@ package cz.sefira.obelisk.util;
  * Author: hlavnicka
  */
 
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
 import cz.sefira.obelisk.api.dispatcher.Dispatcher;
 import cz.sefira.obelisk.api.ws.HttpResponseException;
 import cz.sefira.obelisk.api.ws.model.Problem;
 import cz.sefira.obelisk.api.ws.ssl.HttpResponse;
 import cz.sefira.obelisk.json.GsonHelper;
+import org.apache.hc.client5.http.utils.DateUtils;
 import org.apache.hc.core5.http.ContentType;
 import org.apache.hc.core5.http.Header;
 import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.HttpRequest;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.*;
 import java.net.URI;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 
 import static org.apache.hc.core5.http.ContentType.APPLICATION_JSON;
 
@@ -46,6 +58,12 @@ public class HttpUtils {
 
   private static final Logger logger = LoggerFactory.getLogger(Dispatcher.class.getName());
 
+  public static final String PREFER = "Prefer";
+
+  public static final String TRACEPARENT = "traceparent";
+
+  private static final int JSON_EXCERPT_LIMIT = 4096;
+
   public static String getLocationURI(HttpResponse response) {
     for (Header h : response.getHeaders()) {
       if (HttpHeaders.LOCATION.equals(h.getName())) {
@@ -55,6 +73,50 @@ public class HttpUtils {
     return null;
   }
 
+  /**
+   * Returns delay requested by the server in Retry-After header (delay in seconds or HTTP date)
+   * @param headers Response headers
+   * @return Delay in milliseconds or -1 if header is missing or invalid
+   */
+  public static long getRetryAfter(Header[] headers) {
+    if (headers != null) {
+      for (Header h : headers) {
+        if (HttpHeaders.RETRY_AFTER.equalsIgnoreCase(h.getName()) && h.getValue() != null) {
+          String value = h.getValue().trim();
+          try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+          } catch (NumberFormatException e) {
+            Instant date = DateUtils.parseStandardDate(value);
+            return date != null ? Math.max(0, date.toEpochMilli() - System.currentTimeMillis()) : -1;
+          }
+        }
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns period the server may hold the request open (RFC 7240 Prefer: wait)
+   * @param request HTTP request
+   * @return Wait period in milliseconds or 0 if request does not ask server to wait
+   */
+  public static long getPreferredWait(HttpRequest request) {
+    Header prefer = request.getFirstHeader(PREFER);
+    if (prefer != null && prefer.getValue() != null) {
+      for (String preference : prefer.getValue().split(",")) {
+        String[] kv = preference.trim().split("=", 2);
+        if (kv.length == 2 && "wait".equalsIgnoreCase(kv[0].trim())) {
+          try {
+            return Math.max(0, Long.parseLong(kv[1].trim()) * 1000);
+          } catch (NumberFormatException e) {
+            return 0;
+          }
+        }
+      }
+    }
+    return 0;
+  }
+
   public static boolean isExpectedContentType(Header[] headers, ContentType contentType) {
     if (headers != null) {
       for (Header h : headers) {
@@ -66,11 +128,60 @@ public class HttpUtils {
     return false;
   }
 
+  /**
+   * Read response body. Body with declared length is read straight into a single array of that size, without
+   * growing buffer and its final copy (compressed responses have no declared length after decoding).
+   * @param entity Response entity
+   * @return Body content, null if the entity has no content stream
+   */
+  public static byte[] readContent(HttpEntity entity) throws IOException {
+    long length = entity.getContentLength();
+    if (length < 0 || length > Integer.MAX_VALUE - 8) {
+      return EntityUtils.toByteArray(entity);
+    }
+    try (InputStream in = entity.getContent()) {
+      if (in == null) {
+        return null;
+      }
+      byte[] content = new byte[(int) length];
+      if (in.readNBytes(content, 0, content.length) < content.length) {
+        throw new EOFException("Premature end of response body, expected "+length+" bytes");
+      }
+      return content;
+    }
+  }
+
+  /**
+   * Decode JSON response body as it is read, the body is never held as bytes. Only its beginning is kept to log
+   * body which fails to decode.
+   * @param entity Response entity
+   * @return JSON tree, {@link JsonNull} for empty body, null if the entity has no content stream
+   */
+  public static JsonElement readJson(HttpEntity entity) throws IOException {
+    Charset charset = null;
+    if (entity.getContentType() != null) {
+      charset = ContentType.parse(entity.getContentType()).getCharset();
+    }
+    try (InputStream in = entity.getContent()) {
+      if (in == null) {
+        return null;
+      }
+      ExcerptInputStream excerpt = new ExcerptInputStream(in, JSON_EXCERPT_LIMIT);
+      try {
+        return JsonParser.parseReader(new JsonReader(new InputStreamReader(excerpt,
+            charset != null ? charset : StandardCharsets.UTF_8)));
+      } catch (JsonParseException e) {
+        logger.error("Unable to decode JSON response body: "+excerpt.getExcerpt(charset));
+        throw new IOException("Unable to decode JSON response body: "+e.getMessage(), e);
+      }
+    }
+  }
+
   public static Problem processProblem(HttpResponseException response) {
     try {
       if (response.getHeaders() != null && response.getContent() != null) {
         if (HttpUtils.isExpectedContentType(response.getHeaders(), APPLICATION_JSON)) {
-          return GsonHelper.fromJson(new String(response.getContent(), StandardCharsets.UTF_8), Problem.class);
+          return GsonHelper.fromJson(response.getContent(), Problem.class);
         }
       }
     } catch (Exception e) {
@@ -79,4 +190,41 @@ public class HttpUtils {
     return null;
   }
 
+  /**
+   * Stream keeping copy of the first bytes read
+   */
+  private static class ExcerptInputStream extends FilterInputStream {
+
+    private final ByteArrayOutputStream excerpt;
+    private final int limit;
+
+    ExcerptInputStream(InputStream in, int limit) {
+      super(in);
+      this.limit = limit;
+      this.excerpt = new ByteArrayOutputStream(Math.min(limit, 512));
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b >= 0 && excerpt.size() < limit) {
+        excerpt.write(b);
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int n = super.read(b, off, len);
+      if (n > 0 && excerpt.size() < limit) {
+        excerpt.write(b, off, Math.min(n, limit - excerpt.size()));
+      }
+      return n;
+    }
+
+    String getExcerpt(Charset charset) {
+      return excerpt.toString(charset != null ? charset : StandardCharsets.UTF_8);
+    }
+  }
+
 }
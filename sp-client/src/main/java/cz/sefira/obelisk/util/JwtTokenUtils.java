@@ -51,10 +51,24 @@ public class JwtTokenUtils {
    * @return True if the token is expired, false otherwise
    */
   public static boolean isExpired(String fullToken) {
-    JwtToken token = parsePayload(fullToken);
-    long expiration = token.getExpiration();
-    long issuedAt = token.getIssuedAt();
+    return System.currentTimeMillis() >= getExpirationThreshold(parsePayload(fullToken));
+  }
+
+  /**
+   * Returns time from which the token is considered expired, 10% of the token lifetime before its expiration
+   * is reserved for refresh period
+   * @param token Parsed JWS payload object
+   * @return Expiration threshold in milliseconds since epoch (Long.MAX_VALUE if token does not expire)
+   */
+  public static long getExpirationThreshold(JwtToken token) {
+    long expiration = token.getExpiration() != null ? token.getExpiration() : 0L;
+    long issuedAt = token.getIssuedAt() != null ? token.getIssuedAt() : 0L;
+    if (expiration < -1L) {
+      return Long.MIN_VALUE;
+    } else if (expiration <= 0L) {
+      return Long.MAX_VALUE;
+    }
     long threshold = (expiration - issuedAt) / 10; // 10% of time is reserved for refresh period
-    return expiration < -1L || expiration > 0L && (System.currentTimeMillis() / 1000L) + threshold >= expiration;
+    return (expiration - threshold) * 1000L;
   }
 }
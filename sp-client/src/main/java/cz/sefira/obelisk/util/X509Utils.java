@@ -25,8 +25,10 @@ package cz.sefira.obelisk.util;
 
 import cz.sefira.crypto.MSCryptoStore;
 import cz.sefira.crypto.StoreType;
+import cz.sefira.obelisk.api.AppConfig;
 import cz.sefira.obelisk.api.model.OS;
 import cz.sefira.obelisk.api.ws.ssl.SSLCertificateProvider;
+import cz.sefira.obelisk.api.ws.ssl.TrustAnchorLoader;
 import cz.sefira.obelisk.dss.DSSException;
 import cz.sefira.obelisk.dss.DigestAlgorithm;
 import cz.sefira.obelisk.dss.x509.CertificateToken;
@@ -54,13 +56,16 @@ import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.ResourceBundle;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 public class X509Utils {
 
   private static final Logger logger = LoggerFactory.getLogger(X509Utils.class.getName());
 
+  private static final String LINUX_CERTS_DIRECTORY = "/etc/ssl/certs";
+  private static final String LINUX_ANCHORS_SNAPSHOT = "ssl-certs.bin";
+  private static final String MACOS_SYSTEM_KEYCHAINS_DIRECTORY = "/System/Library/Keychains";
+  private static final String MACOS_KEYCHAINS_DIRECTORY = "/Library/Keychains";
+
   public static X509Certificate getCertificateFromBase64(String base64certificate) throws CertificateException {
     return getCertificateFromBytes(Base64.decodeBase64(base64certificate));
   }
@@ -181,8 +186,29 @@ public class X509Utils {
     return String.join(delimiter, keyUsageList);
   }
 
-  public static void loadSSLCertificates(KeyStore truststore, SSLCertificateProvider provider) {
+  /**
+   * Trust SSL certificates from OS specific stores
+   * @return Certificates loaded from OS stores
+   */
+  public static List<X509Certificate> loadSSLCertificates(KeyStore truststore, SSLCertificateProvider provider) {
     int count = 0;
+    List<X509Certificate> certificates = loadSystemCertificates();
+    try {
+      count = X509Utils.addToTrust(certificates, truststore, provider);
+    } catch (Exception e) {
+      logger.error("Unable to add SSL certificates from OS: "+e.getMessage(), e);
+    } finally {
+      logger.info("Added "+count+" new SSL certificates to trust store");
+    }
+    return certificates;
+  }
+
+  /**
+   * Load trusted SSL certificates from OS specific stores
+   * @return Trusted certificates (may contain duplicates across stores)
+   */
+  public static List<X509Certificate> loadSystemCertificates() {
+    List<X509Certificate> certificates = new ArrayList<>();
     try  (LogUtils.Time total = new LogUtils.Time("SSL certificates loaded in total time")) {
       KeyStore systemStore = null;
 
@@ -190,10 +216,7 @@ public class X509Utils {
       if (OS.isWindows()) {
         // load native MSCAPI - ROOT store
         try (LogUtils.Time rootTime = new LogUtils.Time("Windows-ROOT store loaded in")) {
-          List<Certificate> caList = MSCryptoStore.getCertificates(StoreType.ROOT);
-          for (Certificate ca : caList) {
-            count += X509Utils.addToTrust((X509Certificate) ca, truststore, provider);
-          }
+          certificates.addAll(toX509(MSCryptoStore.getCertificates(StoreType.ROOT)));
         } catch (Exception e) {
           logger.error("Native MSCAPI-ROOT failed: "+e.getMessage(), e);
           // FALLBACK - load Java MSCAPI - ROOT store
@@ -202,10 +225,7 @@ public class X509Utils {
 
         // load native MSCAPI - CA store
         try (LogUtils.Time caTime = new LogUtils.Time("Windows-CA store loaded in")) {
-          List<Certificate> caList = MSCryptoStore.getCertificates(StoreType.CA);
-          for (Certificate ca : caList) {
-            count += X509Utils.addToTrust((X509Certificate) ca, truststore, provider);
-          }
+          certificates.addAll(toX509(MSCryptoStore.getCertificates(StoreType.CA)));
         } catch (Exception e) {
           logger.error("Native MSCAPI-CA failed: "+e.getMessage(), e);
         }
@@ -214,25 +234,16 @@ public class X509Utils {
       // load up macOS trusted certificates
       if (OS.isMacOS()) {
         systemStore = KeyStore.getInstance("KeychainStore");
-        List<X509Certificate> caList = X509Utils.loadMacOSSystemRoot();
-        for (X509Certificate certificate : caList) {
-          count += X509Utils.addToTrust(certificate, truststore, provider);
-        }
+        certificates.addAll(X509Utils.loadMacOSSystemRoot());
       }
 
       // load up Linux trusted certificates
       if (OS.isLinux()) {
-        try (Stream<Path> list = Files.list(Paths.get("/etc/ssl/certs"));
-             LogUtils.Time linux = new LogUtils.Time("Linux SSL CAs loaded in")) {
-          List<Path> certificates = list.filter(Files::isRegularFile).collect(Collectors.toList());
-          for (Path certPath : certificates) {
-            try (InputStream in = Files.newInputStream(certPath)) {
-              X509Certificate certificate = X509Utils.getCertificateFromStream(in);
-              count += X509Utils.addToTrust(certificate, truststore, provider);
-            } catch (Exception e) {
-              logger.error(e.getMessage());
-            }
-          }
+        try (LogUtils.Time linux = new LogUtils.Time("Linux SSL CAs loaded in")) {
+          // parsed anchors are kept in a snapshot, unchanged directory is not parsed again
+          TrustAnchorLoader loader = new TrustAnchorLoader(AppConfig.get().getAppStorageDirectory()
+              .resolve(LINUX_ANCHORS_SNAPSHOT));
+          certificates.addAll(loader.load(Paths.get(LINUX_CERTS_DIRECTORY)));
         } catch (Exception e) {
           logger.error("Unable to load /etc/ssl/certs: " + e.getMessage());
         }
@@ -245,26 +256,50 @@ public class X509Utils {
           Enumeration<String> trustAliases = systemStore.aliases();
           while (trustAliases.hasMoreElements()) {
             String alias = trustAliases.nextElement();
-            Certificate ca = systemStore.getCertificate(alias);
-            count += X509Utils.addToTrust((X509Certificate) ca, truststore, provider);
+            certificates.add((X509Certificate) systemStore.getCertificate(alias));
           }
         }
       }
     } catch (Exception e) {
       logger.error("Unable to load SSL certificates from OS: "+e.getMessage(), e);
-    } finally {
-      logger.info("Added "+count+" new SSL certificates to trust store");
     }
+    return certificates;
+  }
+
+  /**
+   * Directories holding OS trusted SSL certificates, Windows stores are kept in registry
+   * @return Existing directories to be watched for changes
+   */
+  public static List<Path> getSystemCertificateDirectories() {
+    List<Path> directories = new ArrayList<>();
+    if (OS.isLinux()) {
+      directories.add(Paths.get(LINUX_CERTS_DIRECTORY));
+    }
+    if (OS.isMacOS()) {
+      directories.add(Paths.get(MACOS_SYSTEM_KEYCHAINS_DIRECTORY));
+      directories.add(Paths.get(MACOS_KEYCHAINS_DIRECTORY));
+    }
+    directories.removeIf(d -> !Files.isDirectory(d));
+    return directories;
   }
 
-  private static int addToTrust(X509Certificate cert, KeyStore truststore, SSLCertificateProvider provider)
+  private static int addToTrust(List<X509Certificate> certs, KeyStore truststore, SSLCertificateProvider provider)
       throws KeyStoreException, CertificateEncodingException {
-    if (provider.put(cert)) {
+    // whole batch is published to the anchor index at once
+    List<X509Certificate> added = provider.putAll(certs);
+    for (X509Certificate cert : added) {
       String alias = Hex.encodeHexString(DSSUtils.digest(DigestAlgorithm.SHA1, cert.getEncoded()));
       truststore.setCertificateEntry(alias, cert);
-      return 1;
     }
-    return 0;
+    return added.size();
+  }
+
+  private static List<X509Certificate> toX509(List<Certificate> certs) {
+    List<X509Certificate> x509Certs = new ArrayList<>(certs.size());
+    for (Certificate cert : certs) {
+      x509Certs.add((X509Certificate) cert);
+    }
+    return x509Certs;
   }
 
   private static List<X509Certificate> loadMacOSSystemRoot() {
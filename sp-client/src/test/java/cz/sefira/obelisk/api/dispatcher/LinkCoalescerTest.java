@@ -0,0 +1,92 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.api.dispatcher;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.api.dispatcher.LinkCoalescerTest
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import cz.sefira.obelisk.ipc.Message;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * JUnit test for {@link LinkCoalescer}.
+ */
+public class LinkCoalescerTest {
+
+  private static final long WINDOW = 5000;
+
+  @Test
+  public void testDuplicateInsideWindow() {
+    LinkCoalescer coalescer = new LinkCoalescer(WINDOW);
+    String key = LinkCoalescer.getLinkKey(message("obelisk://link?m=magic1&l=cs"));
+    Assert.assertFalse(coalescer.isDuplicate(key, 1000L, 1000));
+    // opened again while the flow was running
+    Assert.assertTrue(coalescer.isDuplicate(key, 3000L, 3000));
+    coalescer.executed(key, 20000);
+    // window runs from the end of execution
+    Assert.assertTrue(coalescer.isDuplicate(key, 24000L, 24500));
+  }
+
+  @Test
+  public void testOutsideWindow() {
+    LinkCoalescer coalescer = new LinkCoalescer(WINDOW);
+    String key = LinkCoalescer.getLinkKey(message("obelisk://link?m=magic1&l=cs"));
+    Assert.assertFalse(coalescer.isDuplicate(key, 1000L, 1000));
+    coalescer.executed(key, 2000);
+    Assert.assertFalse(coalescer.isDuplicate(key, 2000 + WINDOW + 1, 2000 + WINDOW + 1));
+    // message without receive time is checked against the current time
+    coalescer.executed(key, 10000);
+    Assert.assertTrue(coalescer.isDuplicate(key, null, 10000 + WINDOW));
+    Assert.assertFalse(coalescer.isDuplicate(key, null, 20000 + WINDOW));
+  }
+
+  @Test
+  public void testDistinctLinks() {
+    LinkCoalescer coalescer = new LinkCoalescer(WINDOW);
+    String first = LinkCoalescer.getLinkKey(message("obelisk://link?m=magic1&l=cs"));
+    String other = LinkCoalescer.getLinkKey(message("obelisk://link?m=magic2&l=cs"));
+    String otherLanguage = LinkCoalescer.getLinkKey(message("obelisk://link?m=magic1&l=en"));
+    Assert.assertFalse(coalescer.isDuplicate(first, 1000L, 1000));
+    Assert.assertFalse(coalescer.isDuplicate(other, 1000L, 1000));
+    Assert.assertFalse(coalescer.isDuplicate(otherLanguage, 1000L, 1000));
+    // messages without magic link are never coalesced
+    Assert.assertNull(LinkCoalescer.getLinkKey(message("obelisk://link?l=cs")));
+    Assert.assertNull(LinkCoalescer.getLinkKey(new Message("id", null, null)));
+    Assert.assertFalse(coalescer.isDuplicate(null, 1000L, 1000));
+    Assert.assertFalse(coalescer.isDuplicate(null, 1000L, 1000));
+  }
+
+  @Test
+  public void testDisabled() {
+    LinkCoalescer coalescer = new LinkCoalescer(0);
+    String key = LinkCoalescer.getLinkKey(message("obelisk://link?m=magic1&l=cs"));
+    Assert.assertFalse(coalescer.isDuplicate(key, 1000L, 1000));
+    Assert.assertFalse(coalescer.isDuplicate(key, 1000L, 1000));
+  }
+
+  private static Message message(String link) {
+    return new Message("id", null, link.getBytes(StandardCharsets.UTF_8));
+  }
+
+}
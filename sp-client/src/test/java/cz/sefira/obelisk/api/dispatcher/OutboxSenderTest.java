@@ -0,0 +1,261 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.api.dispatcher;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.api.dispatcher.OutboxSenderTest
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import cz.sefira.obelisk.api.ws.HttpResponseException;
+import cz.sefira.obelisk.api.ws.auth.AuthenticationProvider;
+import cz.sefira.obelisk.api.ws.auth.AuthenticationProviderException;
+import cz.sefira.obelisk.api.ws.auth.CommunicationExpirationException;
+import cz.sefira.obelisk.api.ws.resilience.ResilientTransport;
+import cz.sefira.obelisk.api.ws.ssl.HttpResponse;
+import cz.sefira.obelisk.storage.OutboxStorage;
+import cz.sefira.obelisk.storage.model.OutboxEntry;
+import org.apache.hc.client5.http.classic.methods.HttpPost;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.apache.hc.core5.http.io.entity.StringEntity;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+/**
+ * JUnit test for {@link OutboxSender} with local server dropping connections.
+ */
+public class OutboxSenderTest {
+
+  private final Queue<String> requestIds = new ConcurrentLinkedQueue<>();
+  private final Queue<String> bodies = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger drop = new AtomicInteger();
+  private volatile int status = 204;
+
+  private ServerSocket server;
+  private Path store;
+  private OutboxStorage outbox;
+  private CloseableHttpClient http;
+  private String url;
+
+  @Before
+  public void setUp() throws Exception {
+    server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    Thread serverThread = new Thread(this::serve);
+    serverThread.setDaemon(true);
+    serverThread.start();
+    url = "http://127.0.0.1:" + server.getLocalPort() + "/api/v1/work/1";
+    store = Files.createTempDirectory("outbox");
+    outbox = new OutboxStorage(store);
+    http = HttpClients.custom().disableAutomaticRetries().build();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    http.close();
+    outbox.close();
+    server.close();
+    try (Stream<Path> files = Files.walk(store)) {
+      files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+    }
+  }
+
+  @Test
+  public void testDeliveryAfterDroppedConnections() throws Exception {
+    drop.set(2);
+    OutboxSender sender = sender();
+    Assert.assertTrue(sender.enqueue(entry("r1", 60000), Mockito.mock(AuthenticationProvider.class)));
+    // same result is not queued twice
+    Assert.assertFalse(sender.enqueue(entry("r1", 60000), Mockito.mock(AuthenticationProvider.class)));
+    await(() -> outbox.getEntries().isEmpty());
+    // all attempts carry the same idempotency key and payload
+    Assert.assertEquals(List.of("r1", "r1", "r1"), new ArrayList<>(requestIds));
+    Assert.assertEquals(3, bodies.size());
+    Assert.assertTrue(bodies.stream().allMatch("{\"success\":true}"::equals));
+  }
+
+  @Test
+  public void testSurvivesRestart() throws Exception {
+    drop.set(Integer.MAX_VALUE);
+    OutboxSender sender = sender();
+    sender.enqueue(entry("r1", 60000), Mockito.mock(AuthenticationProvider.class));
+    await(() -> outbox.get("r1").getAttempts() > 0);
+    outbox.close();
+
+    // restarted application, entry waits for credentials of a process working with the same endpoint and session
+    drop.set(0);
+    outbox = new OutboxStorage(store);
+    OutboxEntry entry = outbox.get("r1");
+    Assert.assertNotNull(entry);
+    Assert.assertEquals("step-1", entry.getFlowId());
+    Assert.assertEquals("{\"success\":true}", entry.getPayload());
+    sender = sender();
+    sender.attempt("r1");
+    Assert.assertEquals(1, outbox.getEntries().size());
+    Assert.assertEquals(0, sender.resume(url + "/other", "session-1", Mockito.mock(AuthenticationProvider.class)));
+    Assert.assertEquals(0, sender.resume(url, "session-2", Mockito.mock(AuthenticationProvider.class)));
+    Assert.assertEquals(0, sender.resume(url, null, Mockito.mock(AuthenticationProvider.class)));
+    Assert.assertEquals(1, sender.resume(url, "session-1", Mockito.mock(AuthenticationProvider.class)));
+    await(() -> outbox.getEntries().isEmpty());
+  }
+
+  @Test
+  public void testContinuation() throws Exception {
+    Queue<Integer> continued = new ConcurrentLinkedQueue<>();
+    OutboxSender sender = sender();
+    sender.setContinuation((entry, response, authProvider) -> continued.add(response.getCode()));
+    // no more work
+    sender.enqueue(entry("r1", 60000), Mockito.mock(AuthenticationProvider.class));
+    await(() -> outbox.getEntries().isEmpty());
+    Assert.assertTrue(continued.isEmpty());
+    // next work request
+    status = 200;
+    sender.enqueue(entry("r2", 60000), Mockito.mock(AuthenticationProvider.class));
+    await(() -> continued.size() == 1);
+    Assert.assertEquals(200, (int) continued.peek());
+  }
+
+  @Test
+  public void testRejected() throws Exception {
+    status = 400;
+    OutboxSender sender = sender();
+    sender.enqueue(entry("r1", 60000), Mockito.mock(AuthenticationProvider.class));
+    await(() -> outbox.getEntries().isEmpty());
+    Assert.assertEquals(1, requestIds.size());
+  }
+
+  @Test
+  public void testExpired() throws Exception {
+    drop.set(Integer.MAX_VALUE);
+    OutboxSender sender = sender();
+    sender.enqueue(entry("r1", 300), Mockito.mock(AuthenticationProvider.class));
+    await(() -> outbox.getEntries().isEmpty());
+    outbox.add(entry("r2", -1));
+    Assert.assertEquals(1, outbox.removeExpired(System.currentTimeMillis()));
+  }
+
+  @Test
+  public void testUndelivered() {
+    Assert.assertTrue(OutboxSender.isUndelivered(new IOException("Connection reset")));
+    Assert.assertTrue(OutboxSender.isUndelivered(new CommunicationExpirationException("Connection expired")));
+    Assert.assertTrue(OutboxSender.isUndelivered(new HttpResponseException(503, "Service Unavailable")));
+    Assert.assertTrue(OutboxSender.isUndelivered(new HttpResponseException(429, "Too Many Requests")));
+    Assert.assertFalse(OutboxSender.isUndelivered(new HttpResponseException(500, "Internal Server Error")));
+    Assert.assertFalse(OutboxSender.isUndelivered(new HttpResponseException(409, "Conflict")));
+    Assert.assertFalse(OutboxSender.isUndelivered(new IllegalStateException()));
+    // token refresh failed
+    Assert.assertTrue(OutboxSender.isUndelivered(new AuthenticationProviderException(new IOException("Timeout"))));
+    Assert.assertFalse(OutboxSender.isUndelivered(new AuthenticationProviderException(
+        new HttpResponseException(400, "Bad Request"))));
+    OutboxSender sender = new OutboxSender(outbox, null, 1000, 4000);
+    Assert.assertTrue(sender.backoff(1) > 750 && sender.backoff(1) <= 1000);
+    Assert.assertTrue(sender.backoff(10) > 3000 && sender.backoff(10) <= 4000);
+  }
+
+  private OutboxSender sender() {
+    return new OutboxSender(outbox, (entry, authProvider) -> {
+      HttpPost post = new HttpPost(entry.getUrl());
+      post.setHeader(ResilientTransport.IDEMPOTENCY_KEY, entry.getRequestId());
+      post.setEntity(new StringEntity(entry.getPayload(), ContentType.APPLICATION_JSON));
+      return http.execute(post, response -> {
+        EntityUtils.consume(response.getEntity());
+        if (response.getCode() >= 300) {
+          throw new HttpResponseException(response.getCode(), response.getReasonPhrase());
+        }
+        return new HttpResponse(response.getCode(), response.getReasonPhrase(), response.getHeaders(), null);
+      });
+    }, 20, 100);
+  }
+
+  private OutboxEntry entry(String requestId, long ttl) {
+    long now = System.currentTimeMillis();
+    return new OutboxEntry(requestId, "step-1", "session-1", url, "{\"success\":true}", new Date(now), new Date(now + ttl));
+  }
+
+  private static void await(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10000;
+    while (!condition.getAsBoolean()) {
+      Assert.assertTrue("Timeout", System.currentTimeMillis() < deadline);
+      Thread.sleep(10);
+    }
+  }
+
+  private void serve() {
+    while (!server.isClosed()) {
+      try (Socket socket = server.accept()) {
+        InputStream in = new BufferedInputStream(socket.getInputStream());
+        int length = 0;
+        String line;
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+          int colon = line.indexOf(':');
+          if (colon < 0) {
+            continue;
+          }
+          String name = line.substring(0, colon).trim();
+          String value = line.substring(colon + 1).trim();
+          if (name.equalsIgnoreCase(ResilientTransport.IDEMPOTENCY_KEY)) {
+            requestIds.add(value);
+          } else if (name.equalsIgnoreCase("Content-Length")) {
+            length = Integer.parseInt(value);
+          }
+        }
+        bodies.add(new String(in.readNBytes(length), StandardCharsets.UTF_8));
+        if (drop.getAndUpdate(d -> d > 0 ? d - 1 : 0) > 0) {
+          continue; // connection dropped without response
+        }
+        OutputStream out = socket.getOutputStream();
+        out.write(("HTTP/1.1 " + status + " Stub\r\nContent-Length: 0\r\nConnection: close\r\n\r\n")
+            .getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+      } catch (IOException e) {
+        // stub closed
+      }
+    }
+  }
+
+  private static String readLine(InputStream in) throws IOException {
+    StringBuilder sb = new StringBuilder();
+    int c;
+    while ((c = in.read()) != -1 && c != '\n') {
+      if (c != '\r') {
+        sb.append((char) c);
+      }
+    }
+    return c == -1 && sb.length() == 0 ? null : sb.toString();
+  }
+
+}
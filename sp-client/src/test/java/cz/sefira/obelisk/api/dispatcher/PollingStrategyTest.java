@@ -0,0 +1,112 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.api.dispatcher;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.api.dispatcher.PollingStrategyTest
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import cz.sefira.obelisk.api.ws.ssl.HttpResponse;
+import cz.sefira.obelisk.util.HttpUtils;
+import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.apache.hc.client5.http.utils.DateUtils;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.message.BasicHeader;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Instant;
+
+/**
+ * JUnit test for {@link PollingStrategy}.
+ */
+public class PollingStrategyTest {
+
+  @Test
+  public void testFixed() {
+    PollingStrategy strategy = PollingStrategy.create(PollingStrategy.FIXED, 20);
+    Assert.assertEquals(PollingStrategy.FIXED, strategy.getName());
+    Assert.assertEquals(0, strategy.getWait());
+    Assert.assertEquals(2000, strategy.nextDelay(1, 10, pending()));
+    Assert.assertEquals(2000, strategy.nextDelay(10, 10, pending()));
+  }
+
+  @Test
+  public void testAdaptive() {
+    PollingStrategy strategy = PollingStrategy.create(PollingStrategy.ADAPTIVE, 20);
+    Assert.assertEquals(100, strategy.nextDelay(1, 10, pending()));
+    Assert.assertEquals(200, strategy.nextDelay(2, 10, pending()));
+    Assert.assertEquals(800, strategy.nextDelay(4, 10, pending()));
+    Assert.assertEquals(2000, strategy.nextDelay(6, 10, pending()));
+    Assert.assertEquals(2000, strategy.nextDelay(100, 10, pending()));
+    // unknown strategy falls back to adaptive
+    Assert.assertEquals(PollingStrategy.ADAPTIVE, PollingStrategy.create("unknown", 20).getName());
+  }
+
+  @Test
+  public void testLongPoll() {
+    PollingStrategy strategy = PollingStrategy.create(PollingStrategy.LONG_POLL, 20);
+    Assert.assertEquals(PollingStrategy.LONG_POLL, strategy.getName());
+    Assert.assertEquals(20, strategy.getWait());
+    // server held the request, poll again immediately
+    Assert.assertEquals(0, strategy.nextDelay(1, 20000, pending()));
+    // server answered immediately, long-poll not supported
+    Assert.assertEquals(100, strategy.nextDelay(1, 15, pending()));
+    Assert.assertEquals(400, strategy.nextDelay(3, 15, pending()));
+    // disabled wait
+    Assert.assertEquals(PollingStrategy.ADAPTIVE, PollingStrategy.create(PollingStrategy.LONG_POLL, 0).getName());
+  }
+
+  @Test
+  public void testServerHint() {
+    PollingStrategy strategy = PollingStrategy.create(PollingStrategy.ADAPTIVE, 20);
+    Assert.assertEquals(3000, strategy.nextDelay(1, 10, pending(new BasicHeader("Retry-After", "3"))));
+    Assert.assertEquals(50, strategy.nextDelay(5, 10, pending(new BasicHeader("X-Poll-Interval", "50"))));
+    // Retry-After takes precedence
+    Assert.assertEquals(1000, strategy.nextDelay(1, 10, pending(new BasicHeader("X-Poll-Interval", "50"),
+        new BasicHeader("Retry-After", "1"))));
+    // invalid hint is ignored
+    Assert.assertEquals(100, strategy.nextDelay(1, 10, pending(new BasicHeader("X-Poll-Interval", "soon"))));
+    // hint is capped
+    Assert.assertEquals(30000, strategy.nextDelay(1, 10, pending(new BasicHeader("Retry-After", "3600"))));
+    // HTTP date
+    String date = DateUtils.formatStandardDate(Instant.now().plusSeconds(10));
+    long delay = strategy.nextDelay(1, 10, pending(new BasicHeader("Retry-After", date)));
+    Assert.assertTrue(String.valueOf(delay), delay > 8000 && delay <= 10000);
+    // long-poll honors hint too
+    Assert.assertEquals(500, PollingStrategy.create(PollingStrategy.LONG_POLL, 20)
+        .nextDelay(1, 20000, pending(new BasicHeader("X-Poll-Interval", "500"))));
+  }
+
+  @Test
+  public void testPreferredWait() {
+    HttpGet request = new HttpGet("https://localhost/api/v1/work");
+    Assert.assertEquals(0, HttpUtils.getPreferredWait(request));
+    request.setHeader(HttpUtils.PREFER, "respond-async, wait=15");
+    Assert.assertEquals(15000, HttpUtils.getPreferredWait(request));
+    request.setHeader(HttpUtils.PREFER, "wait=x");
+    Assert.assertEquals(0, HttpUtils.getPreferredWait(request));
+  }
+
+  private static HttpResponse pending(Header... headers) {
+    return new HttpResponse(202, "Accepted", headers, null);
+  }
+
+}
@@ -0,0 +1,143 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.api.dispatcher;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.api.dispatcher.SmartcardSyncTest
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import cz.sefira.obelisk.api.PlatformAPI;
+import cz.sefira.obelisk.api.ws.SpApiClient;
+import cz.sefira.obelisk.api.ws.auth.AuthenticationProvider;
+import cz.sefira.obelisk.api.ws.model.SmartcardInfo;
+import cz.sefira.obelisk.api.ws.ssl.HttpResponse;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.message.BasicHeader;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Matchers;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * JUnit test for {@link SmartcardSync}.
+ */
+public class SmartcardSyncTest {
+
+  private static final String WORK_URL = "https://sp.example.test/api/v1/work/1";
+
+  private final Deque<HttpResponse> responses = new ArrayDeque<>();
+  private final List<String> urls = new ArrayList<>();
+  private final List<Map<String, String>> requestHeaders = new ArrayList<>();
+
+  private PlatformAPI api;
+  private SmartcardSync sync;
+
+  @Before
+  public void setUp() throws Exception {
+    api = mock(PlatformAPI.class);
+    SpApiClient client = mock(SpApiClient.class);
+    when(client.get(anyString(), any(AuthenticationProvider.class), Matchers.<Header>anyVararg())).thenAnswer(i -> {
+      Object[] args = i.getArguments();
+      urls.add((String) args[0]);
+      Map<String, String> headers = new HashMap<>();
+      for (int n = 2; n < args.length; n++) {
+        Header header = (Header) args[n];
+        headers.put(header.getName(), header.getValue());
+      }
+      requestHeaders.add(headers);
+      return responses.poll();
+    });
+    sync = new SmartcardSync(api, client, "../../smartcards");
+  }
+
+  @Test
+  public void testConditionalDelta() {
+    responses.add(response(200, "[{\"atr\":\"3B01\",\"drivers\":[\"a.so\"]}]", "\"v1\""));
+    responses.add(response(304, null, null));
+    responses.add(response(226, "{\"changed\":[{\"atr\":\"3B02\",\"drivers\":[\"b.so\"]}],\"removed\":[\"3B01\"]}",
+        "\"v2\"", new BasicHeader(SmartcardSync.IM, SmartcardSync.DELTA)));
+    responses.add(response(304, null, null));
+
+    Assert.assertTrue(sync.sync(WORK_URL, null));
+    Assert.assertEquals("https://sp.example.test/api/smartcards", urls.get(0));
+    Assert.assertTrue(requestHeaders.get(0).isEmpty());
+    verify(api).supportedSmartcardInfos(argThatAtrs("3B01"), eq(Collections.emptyList()));
+
+    // not modified
+    Assert.assertTrue(sync.sync(WORK_URL, null));
+    Assert.assertEquals("\"v1\"", requestHeaders.get(1).get(HttpHeaders.IF_NONE_MATCH));
+    Assert.assertEquals(SmartcardSync.DELTA, requestHeaders.get(1).get(SmartcardSync.A_IM));
+
+    // delta
+    Assert.assertTrue(sync.sync(WORK_URL, null));
+    verify(api).supportedSmartcardInfos(argThatAtrs("3B02"), eq(List.of("3B01")));
+
+    Assert.assertTrue(sync.sync(WORK_URL, null));
+    Assert.assertEquals("\"v2\"", requestHeaders.get(3).get(HttpHeaders.IF_NONE_MATCH));
+    verify(api, times(2)).supportedSmartcardInfos(any(), any());
+  }
+
+  @Test
+  public void testFallback() {
+    // failure or unknown manipulation = database is sent with work request
+    Assert.assertFalse(sync.sync(WORK_URL, null));
+    responses.add(response(226, "{}", "\"v1\"", new BasicHeader(SmartcardSync.IM, "gzip")));
+    Assert.assertFalse(sync.sync(WORK_URL, null));
+    verify(api, never()).supportedSmartcardInfos(any(), any());
+    Assert.assertFalse(new SmartcardSync(api, null, "").isEnabled());
+  }
+
+  private static List<SmartcardInfo> argThatAtrs(String... atrs) {
+    return argThat(new org.hamcrest.BaseMatcher<List<SmartcardInfo>>() {
+      @Override
+      @SuppressWarnings("unchecked")
+      public boolean matches(Object item) {
+        List<String> actual = new ArrayList<>();
+        for (SmartcardInfo info : (List<SmartcardInfo>) item) {
+          actual.add(info.getAtr());
+        }
+        return actual.equals(List.of(atrs));
+      }
+
+      @Override
+      public void describeTo(org.hamcrest.Description description) {
+        description.appendValue(atrs);
+      }
+    });
+  }
+
+  private static HttpResponse response(int code, String content, String etag, Header... headers) {
+    List<Header> all = new ArrayList<>(Arrays.asList(headers));
+    if (etag != null) {
+      all.add(new BasicHeader(HttpHeaders.ETAG, etag));
+    }
+    return new HttpResponse(code, null, all.toArray(new Header[0]),
+        content != null ? content.getBytes(StandardCharsets.UTF_8) : null);
+  }
+
+}
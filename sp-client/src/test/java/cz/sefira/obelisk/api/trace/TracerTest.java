@@ -0,0 +1,162 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.api.trace;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.api.trace.TracerTest
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import cz.sefira.obelisk.json.GsonHelper;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * JUnit test for {@link Tracer}, {@link Trace} and {@link TraceExporter}
+ */
+public class TracerTest {
+
+  @After
+  public void tearDown() {
+    Tracer.finish();
+  }
+
+  @Test
+  public void testNesting() {
+    Span root = Tracer.start("dispatch");
+    Assert.assertTrue(root.isRecording());
+    Tracer.record("queue", System.currentTimeMillis() - 100, System.currentTimeMillis());
+    try (Span http = Tracer.span("http GET")) {
+      http.setAttribute("status", 200);
+      try (Span inner = Tracer.span("inner")) {
+        Assert.assertEquals(http.getSpanId(), inner.getParentId());
+      }
+    }
+    try (Span flow = Tracer.span("flow")) {
+      Assert.assertEquals(root.getSpanId(), flow.getParentId());
+    }
+    Trace trace = Tracer.finish();
+    Assert.assertNull(Tracer.current());
+    List<Span> spans = trace.getSpans();
+    Assert.assertEquals(List.of("dispatch", "queue", "http GET", "inner", "flow"),
+        spans.stream().map(Span::getName).collect(Collectors.toList()));
+    Assert.assertEquals(root.getSpanId(), spans.get(1).getParentId());
+    Assert.assertEquals(100.0, spans.get(1).getDuration(), 1.0);
+    Assert.assertEquals("200", spans.get(2).getAttributes().get("status"));
+    for (Span span : spans) {
+      Assert.assertNotNull(span.getName(), span.getDuration());
+    }
+  }
+
+  @Test
+  public void testTraceparent() {
+    Assert.assertNull(Tracer.traceparent());
+    Tracer.start("dispatch");
+    try (Span http = Tracer.span("http POST")) {
+      String traceparent = Tracer.traceparent();
+      Assert.assertTrue(traceparent, traceparent.matches("00-[0-9a-f]{32}-[0-9a-f]{16}-01"));
+      Assert.assertTrue(traceparent.contains(Tracer.current().getTraceId()));
+      Assert.assertTrue(traceparent.contains(http.getSpanId()));
+    }
+  }
+
+  @Test
+  public void testWrap() throws Exception {
+    Span root = Tracer.start("dispatch");
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      String parentId = executor.submit(Tracer.wrap(() -> {
+        try (Span operation = Tracer.span("operation")) {
+          return operation.getParentId();
+        }
+      })).get();
+      Assert.assertEquals(root.getSpanId(), parentId);
+      // context is not left on the executor thread
+      Assert.assertNull(executor.submit(Tracer::current).get());
+    } finally {
+      executor.shutdown();
+    }
+    Assert.assertEquals(2, Tracer.finish().getSpans().size());
+  }
+
+  @Test
+  public void testNoTrace() {
+    try (Span span = Tracer.span("detached")) {
+      Assert.assertFalse(span.isRecording());
+      span.setAttribute("key", "value");
+      Assert.assertNull(span.getAttributes());
+    }
+    Tracer.record("queue", 0, 1);
+    Assert.assertNull(Tracer.current());
+    Assert.assertNull(Tracer.finish());
+  }
+
+  @Test
+  public void testSnapshot() {
+    Tracer.start("dispatch");
+    Span flow = Tracer.span("flow");
+    flow.setError(new IllegalStateException("failed"));
+    Trace snapshot = Tracer.current().snapshot();
+    Span copy = snapshot.getSpans().get(1);
+    Assert.assertNotNull(copy.getDuration());
+    Assert.assertNull(flow.getDuration());
+    Assert.assertEquals("IllegalStateException: failed", copy.getAttributes().get("error"));
+    String json = snapshot.toJson();
+    Assert.assertTrue(json, json.contains("\"open\":true"));
+    Trace parsed = GsonHelper.fromJson(json, Trace.class);
+    Assert.assertEquals(snapshot.getTraceId(), parsed.getTraceId());
+    Assert.assertEquals(2, parsed.getSpans().size());
+    Assert.assertEquals(copy.getParentId(), parsed.getSpans().get(1).getParentId());
+  }
+
+  @Test
+  public void testExport() throws Exception {
+    Path directory = Files.createTempDirectory("traces");
+    try {
+      TraceExporter exporter = new TraceExporter(directory, 2);
+      for (int i = 0; i < 3; i++) {
+        Tracer.start("dispatch-" + i);
+        Path file = exporter.write(Tracer.finish());
+        Assert.assertTrue(Files.readString(file).contains("dispatch-" + i));
+        Thread.sleep(2); // distinct file names
+      }
+      try (Stream<Path> files = Files.list(directory)) {
+        List<String> names = files.map(p -> p.getFileName().toString()).sorted().collect(Collectors.toList());
+        Assert.assertEquals(2, names.size());
+      }
+    } finally {
+      try (Stream<Path> files = Files.list(directory)) {
+        for (Path p : files.collect(Collectors.toList())) {
+          Files.delete(p);
+        }
+      }
+      Files.delete(directory);
+    }
+  }
+
+}
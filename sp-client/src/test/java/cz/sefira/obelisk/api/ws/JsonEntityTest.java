@@ -0,0 +1,88 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.api.ws;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.api.ws.JsonEntityTest
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import cz.sefira.obelisk.json.GsonHelper;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * JUnit test for {@link JsonEntity}.
+ */
+public class JsonEntityTest {
+
+  @Test
+  public void testPlain() throws Exception {
+    Payload payload = payload();
+    JsonEntity entity = new JsonEntity(payload, false);
+    Assert.assertNull(entity.getContentEncoding());
+    Assert.assertTrue(entity.isChunked());
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    entity.writeTo(out);
+    Assert.assertEquals(GsonHelper.toJson(payload), out.toString(StandardCharsets.UTF_8));
+    assertPayload(GsonHelper.fromJson(out.toByteArray(), Payload.class));
+  }
+
+  @Test
+  public void testCompressed() throws Exception {
+    JsonEntity entity = new JsonEntity(payload(), true);
+    Assert.assertEquals("gzip", entity.getContentEncoding());
+    // entity is repeatable, second write produces the same content
+    for (int i = 0; i < 2; i++) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      entity.writeTo(out);
+      try (InputStreamReader reader = new InputStreamReader(new GZIPInputStream(
+          new ByteArrayInputStream(out.toByteArray())), StandardCharsets.UTF_8)) {
+        assertPayload(GsonHelper.fromJson(reader, Payload.class));
+      }
+    }
+  }
+
+  private static Payload payload() {
+    Payload payload = new Payload();
+    payload.name = "dokument č. 1";
+    payload.data = new byte[64 * 1024];
+    Arrays.fill(payload.data, (byte) 7);
+    return payload;
+  }
+
+  private static void assertPayload(Payload payload) {
+    Assert.assertEquals("dokument č. 1", payload.name);
+    Assert.assertEquals(64 * 1024, payload.data.length);
+    Assert.assertEquals(7, payload.data[1000]);
+  }
+
+  private static class Payload {
+    private String name;
+    private byte[] data;
+  }
+
+}
@@ -0,0 +1,90 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.api.ws.auth;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.api.ws.auth.TokenStateTest
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import org.apache.commons.codec.binary.Base64;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * JUnit test for {@link TokenState}.
+ */
+public class TokenStateTest {
+
+  private static final long NOW = 1697622000000L;
+
+  @Test
+  public void testExpiration() {
+    // 300 s access token, last 30 s are reserved for refresh
+    TokenState state = new TokenState(token(jwt(NOW / 1000, 300), jwt(NOW / 1000, 1800)), NOW);
+    Assert.assertTrue(state.isAccessValid(NOW));
+    Assert.assertTrue(state.isAccessValid(NOW + 269999));
+    Assert.assertFalse(state.isAccessValid(NOW + 270000));
+    Assert.assertTrue(state.canRefresh(NOW + 270000));
+    Assert.assertFalse(state.canRefresh(NOW + 1620000));
+  }
+
+  @Test
+  public void testRefreshDelay() {
+    TokenState state = new TokenState(token(jwt(NOW / 1000, 300), jwt(NOW / 1000, 1800)), NOW);
+    Random random = new Random(1);
+    for (int i = 0; i < 100; i++) {
+      long delay = state.getRefreshDelay(NOW, random);
+      Assert.assertTrue(String.valueOf(delay), delay <= 270000 && delay >= 270000 - 270000 / 20);
+    }
+    // past the threshold the refresh runs immediately
+    Assert.assertEquals(0, state.getRefreshDelay(NOW + 280000, random));
+  }
+
+  @Test
+  public void testNoRefresh() {
+    // refresh token expires sooner than the access token
+    TokenState state = new TokenState(token(jwt(NOW / 1000, 300), jwt(NOW / 1000, 100)), NOW);
+    Assert.assertEquals(-1, state.getRefreshDelay(NOW, new Random()));
+    // no refresh token
+    state = new TokenState(token(jwt(NOW / 1000, 300), null), NOW);
+    Assert.assertEquals(-1, state.getRefreshDelay(NOW, new Random()));
+    Assert.assertFalse(state.canRefresh(NOW));
+    // access token without expiration
+    state = new TokenState(token(jwt(NOW / 1000, -NOW / 1000), null), NOW);
+    Assert.assertTrue(state.isAccessValid(Long.MAX_VALUE - 1));
+    Assert.assertEquals(-1, state.getRefreshDelay(NOW, new Random()));
+  }
+
+  private static BearerToken token(String accessToken, String refreshToken) {
+    BearerToken token = new BearerToken();
+    token.setAccessToken(accessToken);
+    token.setRefreshToken(refreshToken);
+    return token;
+  }
+
+  private static String jwt(long issuedAt, long lifetime) {
+    String payload = "{\"iat\":" + issuedAt + ",\"exp\":" + (issuedAt + lifetime) + "}";
+    return "eyJhbGciOiJSUzI1NiJ9." + Base64.encodeBase64URLSafeString(payload.getBytes(StandardCharsets.UTF_8)) + ".c2ln";
+  }
+
+}
@@ -0,0 +1,142 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.api.ws.dns;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.api.ws.dns.CachingDnsResolverTest
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import org.apache.hc.client5.http.DnsResolver;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * JUnit test for {@link CachingDnsResolver}.
+ */
+public class CachingDnsResolverTest {
+
+  private final AtomicInteger lookups = new AtomicInteger();
+  private final AtomicReference<InetAddress[]> answer = new AtomicReference<>();
+
+  private final DnsResolver delegate = new DnsResolver() {
+    @Override
+    public InetAddress[] resolve(String host) throws UnknownHostException {
+      lookups.incrementAndGet();
+      InetAddress[] addresses = answer.get();
+      if (addresses == null) {
+        throw new UnknownHostException(host);
+      }
+      return addresses;
+    }
+
+    @Override
+    public String resolveCanonicalHostname(String host) {
+      return host;
+    }
+  };
+
+  @Test
+  public void testCache() throws Exception {
+    answer.set(addresses("127.0.0.1", "::1"));
+    CachingDnsResolver resolver = new CachingDnsResolver(delegate, 60000, 60000, 60000);
+    Assert.assertArrayEquals(answer.get(), resolver.resolve("sp.example.test"));
+    Assert.assertArrayEquals(answer.get(), resolver.resolve("sp.example.test"));
+    Assert.assertEquals(1, lookups.get());
+    resolver.resolve("other.example.test");
+    Assert.assertEquals(2, lookups.get());
+    resolver.invalidate();
+    resolver.resolve("sp.example.test");
+    Assert.assertEquals(3, lookups.get());
+  }
+
+  @Test
+  public void testNegativeCache() throws Exception {
+    CachingDnsResolver resolver = new CachingDnsResolver(delegate, 60000, 60000, 60000);
+    for (int i = 0; i < 2; i++) {
+      try {
+        resolver.resolve("missing.example.test");
+        Assert.fail("Host should not be resolved");
+      } catch (UnknownHostException e) {
+        Assert.assertEquals("missing.example.test", e.getMessage());
+      }
+    }
+    Assert.assertEquals(1, lookups.get());
+    // negative answers are not served stale
+    CachingDnsResolver expiring = new CachingDnsResolver(delegate, 60000, 0, 60000);
+    Assert.assertThrows(UnknownHostException.class, () -> expiring.resolve("missing.example.test"));
+    Thread.sleep(5);
+    answer.set(addresses("127.0.0.1"));
+    Assert.assertArrayEquals(answer.get(), expiring.resolve("missing.example.test"));
+    Assert.assertEquals(3, lookups.get());
+  }
+
+  @Test
+  public void testStaleWhileRevalidate() throws Exception {
+    InetAddress[] first = addresses("127.0.0.1");
+    InetAddress[] second = addresses("127.0.0.2");
+    answer.set(first);
+    CachingDnsResolver resolver = new CachingDnsResolver(delegate, 0, 0, 60000);
+    resolver.resolve("sp.example.test");
+    answer.set(second);
+    Thread.sleep(5);
+    // expired answer is served while the lookup runs in background
+    Assert.assertArrayEquals(first, resolver.resolve("sp.example.test"));
+    long deadline = System.currentTimeMillis() + 5000;
+    while (lookups.get() < 2 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    Thread.sleep(50);
+    Assert.assertEquals(2, lookups.get());
+    // failed revalidation keeps the stale answer
+    answer.set(null);
+    Assert.assertArrayEquals(second, resolver.resolve("sp.example.test"));
+    deadline = System.currentTimeMillis() + 5000;
+    while (lookups.get() < 3 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    Thread.sleep(50);
+    Assert.assertArrayEquals(second, resolver.resolve("sp.example.test"));
+  }
+
+  @Test
+  public void testStaleWindowElapsed() throws Exception {
+    answer.set(addresses("127.0.0.1"));
+    CachingDnsResolver resolver = new CachingDnsResolver(delegate, 0, 0, 0);
+    resolver.resolve("sp.example.test");
+    Thread.sleep(5);
+    answer.set(addresses("127.0.0.2"));
+    Assert.assertArrayEquals(answer.get(), resolver.resolve("sp.example.test"));
+    Assert.assertEquals(2, lookups.get());
+  }
+
+  static InetAddress[] addresses(String... literals) throws UnknownHostException {
+    InetAddress[] addresses = new InetAddress[literals.length];
+    for (int i = 0; i < literals.length; i++) {
+      addresses[i] = InetAddress.getByName(literals[i]);
+    }
+    return addresses;
+  }
+
+}
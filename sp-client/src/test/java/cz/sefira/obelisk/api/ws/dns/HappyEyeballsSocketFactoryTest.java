@@ -0,0 +1,210 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.api.ws.dns;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.api.ws.dns.HappyEyeballsSocketFactoryTest
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.hc.client5.http.DnsResolver;
+import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.socket.ConnectionSocketFactory;
+import org.apache.hc.client5.http.socket.PlainConnectionSocketFactory;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http.config.RegistryBuilder;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.apache.hc.core5.pool.PoolConcurrencyPolicy;
+import org.apache.hc.core5.pool.PoolReusePolicy;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * JUnit test for {@link HappyEyeballsSocketFactory} against loopback listeners with injected connect delays.
+ */
+public class HappyEyeballsSocketFactoryTest {
+
+  private static final String HOST = "sp.example.test";
+
+  private final Map<InetAddress, Long> delays = new ConcurrentHashMap<>();
+  private final Map<InetAddress, Boolean> failures = new ConcurrentHashMap<>();
+
+  private HttpServer server;
+  private InetAddress ipv6;
+  private InetAddress ipv4;
+
+  @Before
+  public void setUp() throws Exception {
+    // wildcard listener accepts on both loopback addresses
+    server = HttpServer.create(new InetSocketAddress(0), 0);
+    server.createContext("/", exchange -> {
+      byte[] body = exchange.getLocalAddress().getAddress().getHostAddress().getBytes(StandardCharsets.UTF_8);
+      exchange.sendResponseHeaders(200, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+      exchange.close();
+    });
+    server.start();
+    ipv6 = InetAddress.getByName("::1");
+    ipv4 = InetAddress.getByName("127.0.0.1");
+  }
+
+  @After
+  public void tearDown() {
+    server.stop(0);
+  }
+
+  @Test
+  public void testSlowPreferredAddress() throws Exception {
+    delays.put(ipv6, 3000L);
+    HappyEyeballsSocketFactory factory = factory(250);
+    Socket socket = factory.createSocket(null);
+    long start = System.currentTimeMillis();
+    Socket connected = factory.connectSocket(socket, new HttpHost("http", HOST, port()),
+        new InetSocketAddress(ipv6, port()), null, Timeout.ofSeconds(10), null, null);
+    try {
+      Assert.assertTrue("Waited for slow address", System.currentTimeMillis() - start < 2000);
+      Assert.assertEquals(ipv4, connected.getInetAddress());
+      // losing attempt is cancelled
+      Assert.assertTrue(socket.isClosed());
+    } finally {
+      connected.close();
+    }
+  }
+
+  @Test
+  public void testFailedAttemptStartsNext() throws Exception {
+    failures.put(ipv6, true);
+    // failure does not wait for the attempt delay
+    HappyEyeballsSocketFactory factory = factory(5000);
+    long start = System.currentTimeMillis();
+    Socket connected = factory.connectSocket(factory.createSocket(null), new HttpHost("http", HOST, port()),
+        new InetSocketAddress(ipv6, port()), null, Timeout.ofSeconds(10), null, null);
+    try {
+      Assert.assertTrue(System.currentTimeMillis() - start < 2000);
+      Assert.assertEquals(ipv4, connected.getInetAddress());
+    } finally {
+      connected.close();
+    }
+  }
+
+  @Test
+  public void testAllAttemptsFailed() {
+    failures.put(ipv6, true);
+    failures.put(ipv4, true);
+    HappyEyeballsSocketFactory factory = factory(250);
+    Assert.assertThrows(ConnectException.class, () -> factory.connectSocket(factory.createSocket(null),
+        new HttpHost("http", HOST, port()), new InetSocketAddress(ipv6, port()), null, Timeout.ofSeconds(10),
+        null, null));
+  }
+
+  @Test
+  public void testTimeout() {
+    delays.put(ipv6, 3000L);
+    delays.put(ipv4, 3000L);
+    HappyEyeballsSocketFactory factory = factory(250);
+    long start = System.currentTimeMillis();
+    Assert.assertThrows(SocketTimeoutException.class, () -> factory.connectSocket(factory.createSocket(null),
+        new HttpHost("http", HOST, port()), new InetSocketAddress(ipv6, port()), null, Timeout.ofMilliseconds(500),
+        null, null));
+    Assert.assertTrue(System.currentTimeMillis() - start < 2000);
+  }
+
+  @Test
+  public void testOrder() throws Exception {
+    InetAddress[] addresses = CachingDnsResolverTest.addresses("::1", "::2", "127.0.0.1", "127.0.0.2");
+    Assert.assertEquals(List.of(addresses[0], addresses[2], addresses[1], addresses[3]),
+        HappyEyeballsSocketFactory.order(addresses[0], addresses));
+    Assert.assertEquals(List.of(addresses[2], addresses[0], addresses[3], addresses[1]),
+        HappyEyeballsSocketFactory.order(addresses[2], addresses));
+  }
+
+  @Test
+  public void testConnectionManager() throws Exception {
+    delays.put(ipv6, 3000L);
+    HappyEyeballsSocketFactory factory = factory(250);
+    PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(
+        RegistryBuilder.<ConnectionSocketFactory>create().register("http", factory).build(),
+        PoolConcurrencyPolicy.STRICT, PoolReusePolicy.LIFO, TimeValue.NEG_ONE_MILLISECOND, null,
+        HappyEyeballsSocketFactory.preferredAddress(resolver()), null);
+    try (CloseableHttpClient client = HttpClients.custom().setConnectionManager(connectionManager).build()) {
+      long start = System.currentTimeMillis();
+      String address = client.execute(new HttpGet("http://" + HOST + ":" + port() + "/"),
+          response -> EntityUtils.toString(response.getEntity()));
+      Assert.assertTrue(System.currentTimeMillis() - start < 2000);
+      Assert.assertEquals(ipv4.getHostAddress(), address);
+    }
+  }
+
+  private int port() {
+    return server.getAddress().getPort();
+  }
+
+  private DnsResolver resolver() {
+    return new DnsResolver() {
+      @Override
+      public InetAddress[] resolve(String host) {
+        return new InetAddress[]{ipv6, ipv4};
+      }
+
+      @Override
+      public String resolveCanonicalHostname(String host) {
+        return host;
+      }
+    };
+  }
+
+  private HappyEyeballsSocketFactory factory(long attemptDelay) {
+    return new HappyEyeballsSocketFactory(PlainConnectionSocketFactory.getSocketFactory(), resolver(), attemptDelay) {
+      @Override
+      void connect(Socket socket, InetSocketAddress address, int timeout) throws IOException {
+        if (failures.containsKey(address.getAddress())) {
+          throw new ConnectException("Connection refused");
+        }
+        Long delay = delays.get(address.getAddress());
+        if (delay != null) {
+          try {
+            Thread.sleep(delay);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+        super.connect(socket, address, timeout);
+      }
+    };
+  }
+
+}
@@ -0,0 +1,218 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.api.ws.proxy;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.api.ws.proxy.ProxyResolverTest
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import com.github.markusbernhardt.proxy.ProxySearchStrategy;
+import com.github.markusbernhardt.proxy.selector.pac.PacProxySelector;
+import com.github.markusbernhardt.proxy.selector.pac.UrlPacScriptSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * JUnit test for {@link ProxyResolver} with local PAC file and HTTP proxy stub.
+ */
+public class ProxyResolverTest {
+
+  private final Queue<String> proxiedRequests = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger pacLoads = new AtomicInteger();
+  private final AtomicReference<String> fingerprint = new AtomicReference<>("net-1");
+
+  private ServerSocket proxyStub;
+  private Thread proxyThread;
+  private Path pacFile;
+
+  @Before
+  public void setUp() throws Exception {
+    proxyStub = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    proxyThread = new Thread(this::serveProxy);
+    proxyThread.setDaemon(true);
+    proxyThread.start();
+    pacFile = Files.createTempFile("proxy", ".pac");
+    Files.writeString(pacFile, "function FindProxyForURL(url, host) {\n" +
+        "  if (host == \"sp.example.test\") return \"PROXY 127.0.0.1:" + proxyStub.getLocalPort() + "\";\n" +
+        "  return \"DIRECT\";\n" +
+        "}\n");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    proxyStub.close();
+    Files.deleteIfExists(pacFile);
+  }
+
+  @Test
+  public void testHighestPriorityStrategy() throws Exception {
+    ProxyResolver resolver = resolver(60000);
+    long start = System.currentTimeMillis();
+    List<Proxy> proxies = resolver.resolve(URI.create("http://sp.example.test/ping"));
+    Assert.assertTrue("Waited for lower priority strategy", System.currentTimeMillis() - start < 2500);
+    Assert.assertEquals(1, proxies.size());
+    Assert.assertEquals(Proxy.Type.HTTP, proxies.get(0).type());
+    Assert.assertEquals(proxyStub.getLocalPort(), ((InetSocketAddress) proxies.get(0).address()).getPort());
+
+    // request goes through the resolved proxy
+    InetSocketAddress address = (InetSocketAddress) proxies.get(0).address();
+    Proxy proxy = new Proxy(Proxy.Type.HTTP, new InetSocketAddress(address.getHostString(), address.getPort()));
+    HttpURLConnection connection = (HttpURLConnection) new URL("http://sp.example.test/ping").openConnection(proxy);
+    try (InputStream in = connection.getInputStream()) {
+      Assert.assertEquals("proxied", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+    }
+    Assert.assertEquals("GET http://sp.example.test/ping HTTP/1.1", proxiedRequests.poll());
+  }
+
+  @Test
+  public void testCache() {
+    ProxyResolver resolver = resolver(60000);
+    URI target = URI.create("https://sp.example.test/api");
+    List<Proxy> proxies = resolver.resolve(target);
+    Assert.assertSame(proxies, resolver.resolve(target));
+    Assert.assertEquals(1, pacLoads.get());
+    // other host is resolved separately
+    Assert.assertEquals(Proxy.NO_PROXY, resolver.resolve(URI.create("https://other.example.test/")).get(0));
+    Assert.assertEquals(2, pacLoads.get());
+    Assert.assertSame(proxies, resolver.resolve(target));
+    Assert.assertEquals(2, pacLoads.get());
+    // network change
+    fingerprint.set("net-2");
+    Assert.assertEquals(proxies, resolver.resolve(target));
+    Assert.assertEquals(3, pacLoads.get());
+    // explicit reset
+    resolver.invalidate();
+    resolver.resolve(target);
+    Assert.assertEquals(4, pacLoads.get());
+  }
+
+  @Test
+  public void testExpiration() {
+    ProxyResolver resolver = resolver(0);
+    URI target = URI.create("https://sp.example.test/api");
+    resolver.resolve(target);
+    resolver.resolve(target);
+    Assert.assertEquals(2, pacLoads.get());
+  }
+
+  @Test
+  public void testPriorityOverFasterDirect() {
+    // fast lower priority strategy answers DIRECT before the PAC strategy is loaded
+    ProxySearchStrategy pac = strategy("PAC", () -> {
+      sleep(500);
+      return new PacProxySelector(new UrlPacScriptSource(pacFile.toUri().toString()));
+    });
+    ProxySearchStrategy direct = strategy("Direct", () -> new PacProxySelector(new UrlPacScriptSource(directPac())));
+    ProxyResolver resolver = new ProxyResolver(List.of(pac, direct), fingerprint::get, 60000, 0);
+    List<Proxy> proxies = resolver.resolve(URI.create("https://sp.example.test/api"));
+    Assert.assertEquals(Proxy.Type.HTTP, proxies.get(0).type());
+    // without settings of the PAC strategy the lower priority answer is used
+    ProxySearchStrategy none = strategy("Empty", () -> {
+      sleep(500);
+      return null;
+    });
+    resolver = new ProxyResolver(List.of(none, direct), fingerprint::get, 60000, 0);
+    Assert.assertEquals(Proxy.NO_PROXY, resolver.resolve(URI.create("https://sp.example.test/api")).get(0));
+  }
+
+  @Test
+  public void testNoSettings() {
+    ProxyResolver resolver = new ProxyResolver(List.of(strategy("Empty", () -> null)), fingerprint::get, 60000, 0);
+    Assert.assertTrue(resolver.resolve(URI.create("https://sp.example.test/api")).isEmpty());
+  }
+
+  private ProxyResolver resolver(long ttl) {
+    ProxySearchStrategy slow = strategy("Slow", () -> {
+      sleep(5000);
+      return null;
+    });
+    ProxySearchStrategy empty = strategy("Empty", () -> null);
+    ProxySearchStrategy pac = strategy("PAC", () -> {
+      pacLoads.incrementAndGet();
+      return new PacProxySelector(new UrlPacScriptSource(pacFile.toUri().toString()));
+    });
+    return new ProxyResolver(List.of(empty, pac, slow), fingerprint::get, ttl, 0);
+  }
+
+  private String directPac() {
+    try {
+      Path direct = Files.createTempFile("direct", ".pac");
+      direct.toFile().deleteOnExit();
+      Files.writeString(direct, "function FindProxyForURL(url, host) { return \"DIRECT\"; }\n");
+      return direct.toUri().toString();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static ProxySearchStrategy strategy(String name, java.util.function.Supplier<ProxySelector> selector) {
+    return new ProxySearchStrategy() {
+      @Override
+      public ProxySelector getProxySelector() {
+        return selector.get();
+      }
+
+      @Override
+      public String getName() {
+        return name;
+      }
+    };
+  }
+
+  private void serveProxy() {
+    while (!proxyStub.isClosed()) {
+      try (Socket socket = proxyStub.accept()) {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+        proxiedRequests.add(reader.readLine());
+        String line;
+        while ((line = reader.readLine()) != null && !line.isEmpty()) {
+          // skip headers
+        }
+        OutputStream out = socket.getOutputStream();
+        out.write("HTTP/1.1 200 OK\r\nContent-Length: 7\r\nConnection: close\r\n\r\nproxied".getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+      } catch (IOException e) {
+        // stub closed
+      }
+    }
+  }
+
+}
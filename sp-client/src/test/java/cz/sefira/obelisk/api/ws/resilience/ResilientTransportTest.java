@@ -0,0 +1,260 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.api.ws.resilience;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.api.ws.resilience.ResilientTransportTest
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import cz.sefira.obelisk.api.ws.HttpResponseException;
+import cz.sefira.obelisk.api.ws.ssl.HttpResponse;
+import cz.sefira.obelisk.api.ws.ssl.HttpTransport;
+import org.apache.hc.client5.http.classic.methods.HttpUriRequestBase;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.NoHttpResponseException;
+import org.apache.hc.core5.http.message.BasicHeader;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.ConnectException;
+import java.net.URI;
+import java.security.GeneralSecurityException;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * JUnit test for {@link ResilientTransport} with scripted transport.
+ */
+public class ResilientTransportTest {
+
+  private static final URI URL = URI.create("https://sp.example.test/api/v1/work");
+
+  private final Queue<HttpUriRequestBase> requests = new ConcurrentLinkedQueue<>();
+  private final Deque<Object> script = new ArrayDeque<>();
+
+  private final HttpTransport transport = (request, requestConfig) -> {
+    requests.add(request);
+    Object next;
+    synchronized (script) {
+      next = script.isEmpty() ? ok() : script.poll();
+    }
+    if (next instanceof Long) {
+      try {
+        Thread.sleep((Long) next);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return ok();
+    }
+    if (next instanceof java.io.IOException) {
+      throw (java.io.IOException) next;
+    }
+    if (next instanceof GeneralSecurityException) {
+      throw (GeneralSecurityException) next;
+    }
+    return (HttpResponse) next;
+  };
+
+  @Test
+  public void testRetryGet() throws Exception {
+    script.add(new HttpResponseException(503, "Service Unavailable"));
+    script.add(new NoHttpResponseException("no response"));
+    ResilientTransport client = client("attempts=3,backoff=1,max_backoff=5", 5);
+    Assert.assertEquals(200, client.execute(new HttpUriRequestBase("GET", URL), null).getCode());
+    Assert.assertEquals(3, requests.size());
+    List<ResilienceEvent> events = client.drainEvents();
+    Assert.assertEquals(2, events.size());
+    Assert.assertEquals(ResilienceEvent.Action.RETRY, events.get(0).getAction());
+    Assert.assertEquals("HTTP 503", events.get(0).getDetail());
+    Assert.assertTrue(client.drainEvents().isEmpty());
+  }
+
+  @Test
+  public void testAttemptsExhausted() {
+    for (int i = 0; i < 3; i++) {
+      script.add(new HttpResponseException(502, "Bad Gateway"));
+    }
+    ResilientTransport client = client("attempts=2,backoff=1,max_backoff=5", 5);
+    HttpResponseException e = Assert.assertThrows(HttpResponseException.class,
+        () -> client.execute(new HttpUriRequestBase("GET", URL), null));
+    Assert.assertEquals(502, e.getStatusCode());
+    Assert.assertEquals(2, requests.size());
+  }
+
+  @Test
+  public void testNotRetryable() {
+    script.add(new HttpResponseException(400, "Bad Request"));
+    ResilientTransport client = client("attempts=3,backoff=1,max_backoff=5", 5);
+    Assert.assertThrows(HttpResponseException.class, () -> client.execute(new HttpUriRequestBase("GET", URL), null));
+    Assert.assertEquals(1, requests.size());
+  }
+
+  @Test
+  public void testPostRetry() throws Exception {
+    // request possibly processed by server is not repeated
+    script.add(new NoHttpResponseException("no response"));
+    ResilientTransport client = client("attempts=3,backoff=1,max_backoff=5", 5);
+    Assert.assertThrows(NoHttpResponseException.class,
+        () -> client.execute(new HttpUriRequestBase("POST", URL), null));
+    Assert.assertEquals(1, requests.size());
+    Assert.assertFalse(requests.poll().containsHeader(ResilientTransport.IDEMPOTENCY_KEY));
+    // request which was not sent is repeated
+    script.add(new ConnectException("Connection refused"));
+    Assert.assertEquals(200, client.execute(new HttpUriRequestBase("POST", URL), null).getCode());
+    Assert.assertEquals(2, requests.size());
+  }
+
+  @Test
+  public void testIdempotentPost() throws Exception {
+    script.add(new NoHttpResponseException("no response"));
+    script.add(new HttpResponseException(504, "Gateway Timeout"));
+    ResilientTransport client = client("attempts=3,backoff=1,max_backoff=5,idempotent=true", 5);
+    Assert.assertEquals(200, client.execute(new HttpUriRequestBase("POST", URL), null).getCode());
+    Assert.assertEquals(3, requests.size());
+    Set<String> keys = new HashSet<>();
+    for (HttpUriRequestBase request : requests) {
+      keys.add(request.getFirstHeader(ResilientTransport.IDEMPOTENCY_KEY).getValue());
+    }
+    Assert.assertEquals(1, keys.size());
+  }
+
+  @Test
+  public void testRetryAfter() throws Exception {
+    script.add(new HttpResponseException(503, "Service Unavailable",
+        new Header[]{new BasicHeader("Retry-After", "1")}, null));
+    ResilientTransport client = client("attempts=2,backoff=1,max_backoff=2000", 5);
+    long start = System.currentTimeMillis();
+    client.execute(new HttpUriRequestBase("GET", URL), null);
+    Assert.assertTrue(System.currentTimeMillis() - start >= 1000);
+    // server asks to wait longer than the policy allows
+    script.add(new HttpResponseException(503, "Service Unavailable",
+        new Header[]{new BasicHeader("Retry-After", "60")}, null));
+    Assert.assertThrows(HttpResponseException.class, () -> client.execute(new HttpUriRequestBase("GET", URL), null));
+    Assert.assertEquals(3, requests.size());
+  }
+
+  @Test
+  public void testCircuitBreaker() throws Exception {
+    for (int i = 0; i < 2; i++) {
+      script.add(new ConnectException("Connection refused"));
+    }
+    ResilientTransport client = new ResilientTransport(transport, e -> ResiliencePolicy.NONE, 2, 200);
+    for (int i = 0; i < 2; i++) {
+      Assert.assertThrows(ConnectException.class, () -> client.execute(new HttpUriRequestBase("GET", URL), null));
+    }
+    // fails fast without sending the request
+    Assert.assertThrows(CircuitOpenException.class, () -> client.execute(new HttpUriRequestBase("GET", URL), null));
+    Assert.assertEquals(2, requests.size());
+    // other host is not affected
+    client.execute(new HttpUriRequestBase("GET", URI.create("https://other.example.test/")), null);
+    // probe after open period closes the circuit
+    Thread.sleep(250);
+    client.execute(new HttpUriRequestBase("GET", URL), null);
+    client.execute(new HttpUriRequestBase("GET", URL), null);
+    Assert.assertEquals(5, requests.size());
+    List<ResilienceEvent> events = client.drainEvents();
+    Assert.assertEquals(ResilienceEvent.Action.CIRCUIT_OPENED, events.get(0).getAction());
+    Assert.assertEquals(ResilienceEvent.Action.CIRCUIT_REJECTED, events.get(1).getAction());
+  }
+
+  @Test
+  public void testHalfOpenProbeFailure() throws Exception {
+    CircuitBreaker breaker = new CircuitBreaker(1, 100);
+    Assert.assertTrue(breaker.allow(0));
+    Assert.assertTrue(breaker.onFailure(0));
+    Assert.assertFalse(breaker.allow(50));
+    Assert.assertTrue(breaker.allow(100));
+    // single probe only
+    Assert.assertFalse(breaker.allow(100));
+    Assert.assertTrue(breaker.onFailure(100));
+    Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    Assert.assertFalse(breaker.allow(150));
+    Assert.assertTrue(breaker.allow(200));
+    breaker.onSuccess();
+    Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+  }
+
+  @Test
+  public void testHalfOpenProbeNotIOException() throws Exception {
+    script.add(new ConnectException("Connection refused"));
+    ResilientTransport client = new ResilientTransport(transport, e -> ResiliencePolicy.NONE, 1, 100);
+    Assert.assertThrows(ConnectException.class, () -> client.execute(new HttpUriRequestBase("GET", URL), null));
+    Thread.sleep(150);
+    // probe fails before telling anything about the server
+    script.add(new GeneralSecurityException("Unable to initialize SSL context"));
+    Assert.assertThrows(GeneralSecurityException.class, () -> client.execute(new HttpUriRequestBase("GET", URL), null));
+    // next request probes again and closes the circuit
+    Assert.assertEquals(200, client.execute(new HttpUriRequestBase("GET", URL), null).getCode());
+    Assert.assertEquals(200, client.execute(new HttpUriRequestBase("GET", URL), null).getCode());
+    Assert.assertEquals(4, requests.size());
+  }
+
+  @Test
+  public void testHedging() throws Exception {
+    ResilientTransport client = client("attempts=1,hedge=0.9", 5);
+    // collect latency samples
+    for (int i = 0; i < 20; i++) {
+      client.execute(new HttpUriRequestBase("GET", URL), null);
+    }
+    Assert.assertTrue(client.drainEvents().isEmpty());
+    requests.clear();
+    // slow primary request is raced by hedged request
+    script.add(5000L);
+    long start = System.currentTimeMillis();
+    Assert.assertEquals(200, client.execute(new HttpUriRequestBase("GET", URL), null).getCode());
+    Assert.assertTrue(System.currentTimeMillis() - start < 2000);
+    Assert.assertEquals(2, requests.size());
+    HttpUriRequestBase primary = requests.poll();
+    Assert.assertTrue(primary.isCancelled());
+    Assert.assertFalse(requests.poll().isCancelled());
+    List<ResilienceEvent> events = client.drainEvents();
+    Assert.assertEquals(1, events.size());
+    Assert.assertEquals(ResilienceEvent.Action.HEDGE, events.get(0).getAction());
+    // POST is never hedged
+    requests.clear();
+    script.add(300L);
+    client.execute(new HttpUriRequestBase("POST", URL), null);
+    Assert.assertEquals(1, requests.size());
+  }
+
+  @Test
+  public void testParsePolicy() {
+    ResiliencePolicy policy = ResiliencePolicy.parse("attempts=4, backoff=200, max_backoff=100, hedge=0.95, " +
+        "idempotent=true, unknown=1, attempts=x");
+    Assert.assertEquals(4, policy.getMaxAttempts());
+    Assert.assertEquals(200, policy.getBackoff());
+    Assert.assertEquals(200, policy.getMaxBackoff());
+    Assert.assertTrue(policy.isHedging());
+    Assert.assertTrue(policy.isIdempotent());
+    Assert.assertFalse(ResiliencePolicy.parse("hedge=0").isHedging());
+    Assert.assertEquals(1, ResiliencePolicy.parse("").getMaxAttempts());
+  }
+
+  private ResilientTransport client(String policy, int failureThreshold) {
+    ResiliencePolicy resiliencePolicy = ResiliencePolicy.parse(policy);
+    return new ResilientTransport(transport, e -> resiliencePolicy, failureThreshold, 60000);
+  }
+
+  private static HttpResponse ok() {
+    return new HttpResponse(200, "OK", new Header[0], new byte[0]);
+  }
+
+}
@@ -0,0 +1,203 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.api.ws.ssl;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.api.ws.ssl.AIAResolverTest
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import com.sun.net.httpserver.HttpServer;
+import cz.sefira.obelisk.storage.AIACacheStorage;
+import org.apache.commons.io.FileUtils;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.*;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509ExtensionUtils;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * JUnit test for {@link AIAResolver} against local HTTP server serving DER/PKCS#7 issuers.
+ */
+public class AIAResolverTest {
+
+  private final Map<String, byte[]> content = new ConcurrentHashMap<>();
+  private final Map<String, AtomicInteger> hits = new ConcurrentHashMap<>();
+
+  private HttpServer server;
+  private String baseUrl;
+  private Path storeDir;
+
+  private X509Certificate root;
+  private X509Certificate intermediate1;
+  private X509Certificate intermediate2;
+  private X509Certificate leaf;
+
+  private final AIAResolver.Fetcher fetcher = url -> {
+    try (InputStream in = new URL(url).openStream()) {
+      return in.readAllBytes();
+    }
+  };
+
+  @Before
+  public void setUp() throws Exception {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/", exchange -> {
+      String path = exchange.getRequestURI().getPath();
+      hits.computeIfAbsent(path, p -> new AtomicInteger()).incrementAndGet();
+      byte[] body = content.get(path);
+      exchange.sendResponseHeaders(body != null ? 200 : 404, body != null ? body.length : -1);
+      if (body != null) {
+        try (OutputStream out = exchange.getResponseBody()) {
+          out.write(body);
+        }
+      }
+      exchange.close();
+    });
+    server.start();
+    baseUrl = "http://localhost:" + server.getAddress().getPort();
+    storeDir = Files.createTempDirectory("aia");
+
+    KeyPair rootKey = keyPair();
+    KeyPair int1Key = keyPair();
+    KeyPair int2Key = keyPair();
+    root = certificate("CN=Root", rootKey, "CN=Root", rootKey, true);
+    intermediate1 = certificate("CN=Intermediate 1", int1Key, "CN=Root", rootKey, true);
+    intermediate2 = certificate("CN=Intermediate 2", int2Key, "CN=Intermediate 1", int1Key, true,
+        baseUrl + "/int1.p7c");
+    leaf = certificate("CN=localhost", keyPair(), "CN=Intermediate 2", int2Key, false,
+        baseUrl + "/missing.cer", baseUrl + "/int2.cer");
+    content.put("/int2.cer", intermediate2.getEncoded());
+    content.put("/int1.p7c", CertificateFactory.getInstance("X.509")
+        .generateCertPath(List.of(intermediate1)).getEncoded("PKCS7"));
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    server.stop(0);
+    FileUtils.deleteDirectory(storeDir.toFile());
+  }
+
+  @Test
+  public void testResolve() throws Exception {
+    AIAResolver resolver = new AIAResolver(null);
+    List<X509Certificate> chain = resolver.resolve(List.of(leaf), anchors(), fetcher);
+    Assert.assertEquals(List.of(leaf, intermediate2, intermediate1), chain);
+    // alternative locations are all accessed
+    Assert.assertEquals(1, hits.get("/missing.cer").get());
+    Assert.assertEquals(1, hits.get("/int2.cer").get());
+    Assert.assertEquals(1, hits.get("/int1.p7c").get());
+  }
+
+  @Test
+  public void testUntrusted() {
+    AIAResolver resolver = new AIAResolver(null);
+    Assert.assertNull(resolver.resolve(List.of(leaf), new SSLCertificateProvider(null), fetcher));
+  }
+
+  @Test
+  public void testNegativeCache() throws Exception {
+    content.remove("/int2.cer");
+    AIAResolver resolver = new AIAResolver(null, 5000, 60000);
+    Assert.assertNull(resolver.resolve(List.of(leaf), anchors(), fetcher));
+    Assert.assertNull(resolver.resolve(List.of(leaf), anchors(), fetcher));
+    Assert.assertEquals(1, hits.get("/missing.cer").get());
+    Assert.assertEquals(1, hits.get("/int2.cer").get());
+    // expired entries are accessed again
+    resolver = new AIAResolver(null, 5000, 0);
+    Assert.assertNull(resolver.resolve(List.of(leaf), anchors(), fetcher));
+    Thread.sleep(5);
+    Assert.assertNull(resolver.resolve(List.of(leaf), anchors(), fetcher));
+    Assert.assertEquals(3, hits.get("/missing.cer").get());
+  }
+
+  @Test
+  public void testPersistentStore() throws Exception {
+    AIACacheStorage store = new AIACacheStorage(storeDir);
+    try {
+      Assert.assertNotNull(new AIAResolver(store).resolve(List.of(leaf), anchors(), fetcher));
+    } finally {
+      store.close();
+    }
+    hits.clear();
+    store = new AIACacheStorage(storeDir);
+    try {
+      List<X509Certificate> chain = new AIAResolver(store).resolve(List.of(leaf), anchors(), fetcher);
+      Assert.assertEquals(List.of(leaf, intermediate2, intermediate1), chain);
+      Assert.assertTrue(hits.isEmpty());
+    } finally {
+      store.close();
+    }
+  }
+
+  private SSLCertificateProvider anchors() {
+    SSLCertificateProvider provider = new SSLCertificateProvider(null);
+    provider.put(root);
+    return provider;
+  }
+
+  private static KeyPair keyPair() throws Exception {
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+    generator.initialize(256);
+    return generator.generateKeyPair();
+  }
+
+  private static X509Certificate certificate(String subject, KeyPair subjectKey, String issuer, KeyPair issuerKey,
+                                             boolean ca, String... aia) throws Exception {
+    long now = System.currentTimeMillis();
+    JcaX509ExtensionUtils utils = new JcaX509ExtensionUtils();
+    JcaX509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(new X500Name(issuer),
+        BigInteger.valueOf(now).add(BigInteger.valueOf(subject.hashCode())), new Date(now - 60000),
+        new Date(now + 3600000), new X500Name(subject), subjectKey.getPublic());
+    builder.addExtension(Extension.subjectKeyIdentifier, false, utils.createSubjectKeyIdentifier(subjectKey.getPublic()));
+    builder.addExtension(Extension.authorityKeyIdentifier, false, utils.createAuthorityKeyIdentifier(issuerKey.getPublic()));
+    builder.addExtension(Extension.basicConstraints, true, new BasicConstraints(ca));
+    if (aia.length > 0) {
+      AccessDescription[] descriptions = new AccessDescription[aia.length];
+      for (int i = 0; i < aia.length; i++) {
+        descriptions[i] = new AccessDescription(AccessDescription.id_ad_caIssuers,
+            new GeneralName(GeneralName.uniformResourceIdentifier, aia[i]));
+      }
+      builder.addExtension(Extension.authorityInfoAccess, false, new AuthorityInformationAccess(descriptions));
+    }
+    return new JcaX509CertificateConverter().getCertificate(
+        builder.build(new JcaContentSignerBuilder("SHA256withECDSA").build(issuerKey.getPrivate())));
+  }
+
+}
@@ -0,0 +1,236 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.api.ws.ssl;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.api.ws.ssl.AsyncHttpsClientTest
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import cz.sefira.obelisk.api.PlatformAPI;
+import cz.sefira.obelisk.api.ws.HttpResponseException;
+import cz.sefira.obelisk.api.ws.proxy.ProxyProvider;
+import org.apache.hc.client5.http.classic.methods.HttpUriRequestBase;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.core5.http.*;
+import org.apache.hc.core5.http.io.entity.StringEntity;
+import org.apache.hc.core5.http.nio.AsyncRequestConsumer;
+import org.apache.hc.core5.http.nio.AsyncServerRequestHandler;
+import org.apache.hc.core5.http.nio.entity.AsyncEntityProducers;
+import org.apache.hc.core5.http.nio.entity.StringAsyncEntityConsumer;
+import org.apache.hc.core5.http.nio.support.AsyncResponseBuilder;
+import org.apache.hc.core5.http.nio.support.BasicRequestConsumer;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.http.protocol.HttpCoreContext;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.http2.impl.nio.ProtocolNegotiationException;
+import org.apache.hc.core5.http2.impl.nio.bootstrap.H2ServerBootstrap;
+import org.apache.hc.core5.http2.ssl.H2ServerTlsStrategy;
+import org.apache.hc.core5.http.impl.bootstrap.AsyncServerBootstrap;
+import org.apache.hc.core5.http.impl.bootstrap.HttpAsyncServer;
+import org.apache.hc.core5.http.nio.ssl.BasicServerTlsStrategy;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.reactor.ListenerEndpoint;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * JUnit test for {@link AsyncHttpsClient} against local TLS HTTP/2 stub server.
+ */
+public class AsyncHttpsClientTest {
+
+  private static final char[] PASSWORD = "password".toCharArray();
+
+  private final Set<SocketAddress> connections = ConcurrentHashMap.newKeySet();
+  private final Set<ProtocolVersion> protocols = ConcurrentHashMap.newKeySet();
+
+  private SSLContext serverContext;
+  private HttpAsyncServer server;
+  private int port;
+  private AsyncHttpsClient client;
+
+  @Before
+  public void setUp() throws Exception {
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+    generator.initialize(2048);
+    KeyPair keyPair = generator.generateKeyPair();
+    X509Certificate certificate = selfSigned(keyPair);
+
+    KeyStore serverStore = KeyStore.getInstance("PKCS12");
+    serverStore.load(null, null);
+    serverStore.setKeyEntry("server", keyPair.getPrivate(), PASSWORD, new X509Certificate[]{certificate});
+    KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+    kmf.init(serverStore, PASSWORD);
+    serverContext = SSLContext.getInstance("TLS");
+    serverContext.init(kmf.getKeyManagers(), null, null);
+
+    server = H2ServerBootstrap.bootstrap()
+        .setVersionPolicy(HttpVersionPolicy.FORCE_HTTP_2)
+        .setTlsStrategy(new H2ServerTlsStrategy(serverContext))
+        .register("*", new StubHandler())
+        .create();
+    server.start();
+    Future<ListenerEndpoint> endpoint = server.listen(new InetSocketAddress("localhost", 0), URIScheme.HTTPS);
+    port = ((InetSocketAddress) endpoint.get().getAddress()).getPort();
+
+    KeyStore trustStore = KeyStore.getInstance("PKCS12");
+    trustStore.load(null, null);
+    trustStore.setCertificateEntry("server", certificate);
+    SSLCertificateProvider provider = new SSLCertificateProvider(null);
+    provider.setTrustStore(trustStore);
+    ProxyProvider proxyProvider = Mockito.mock(ProxyProvider.class);
+    Mockito.when(proxyProvider.getProxyKey(Mockito.any(HttpUriRequestBase.class))).thenReturn("direct");
+    PlatformAPI api = Mockito.mock(PlatformAPI.class);
+    Mockito.when(api.getSslCertificateProvider()).thenReturn(provider);
+    Mockito.when(api.getProxyProvider()).thenReturn(proxyProvider);
+    client = new AsyncHttpsClient(api);
+  }
+
+  @After
+  public void tearDown() {
+    server.close(CloseMode.IMMEDIATE);
+  }
+
+  @Test
+  public void testPostOverHttp2() throws Exception {
+    HttpUriRequestBase request = new HttpUriRequestBase("POST", uri("/echo"));
+    request.setEntity(new StringEntity("{\"value\":1}", ContentType.APPLICATION_JSON));
+    HttpResponse response = client.send(request, RequestConfig.DEFAULT);
+    Assert.assertEquals(HttpStatus.SC_OK, response.getCode());
+    Assert.assertEquals("POST /echo {\"value\":1}", new String(response.getContent(), StandardCharsets.UTF_8));
+    Assert.assertEquals(Collections.singleton(HttpVersion.HTTP_2), protocols);
+  }
+
+  @Test
+  public void testConcurrentRequestsMultiplexed() throws Exception {
+    client.send(new HttpUriRequestBase("GET", uri("/warmup")), RequestConfig.DEFAULT);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<HttpResponse>> responses = new ArrayList<>();
+      for (int i = 0; i < 16; i++) {
+        final URI uri = uri("/poll/" + i);
+        responses.add(executor.submit(() -> client.send(new HttpUriRequestBase("GET", uri), RequestConfig.DEFAULT)));
+      }
+      for (Future<HttpResponse> response : responses) {
+        Assert.assertEquals(HttpStatus.SC_OK, response.get(30, TimeUnit.SECONDS).getCode());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    // concurrent requests are multiplexed over one connection
+    Assert.assertEquals(1, connections.size());
+    Assert.assertEquals(Collections.singleton(HttpVersion.HTTP_2), protocols);
+  }
+
+  @Test
+  public void testHttp1Host() throws Exception {
+    HttpAsyncServer http1Server = AsyncServerBootstrap.bootstrap()
+        .setTlsStrategy(new BasicServerTlsStrategy(serverContext))
+        .register("*", new StubHandler())
+        .create();
+    http1Server.start();
+    try {
+      Future<ListenerEndpoint> endpoint = http1Server.listen(new InetSocketAddress("localhost", 0), URIScheme.HTTPS);
+      int http1Port = ((InetSocketAddress) endpoint.get().getAddress()).getPort();
+      URI uri = URI.create("https://localhost:" + http1Port + "/echo");
+      // failed negotiation hands the host over to the classic client
+      Assert.assertThrows(ProtocolNegotiationException.class,
+          () -> client.send(new HttpUriRequestBase("GET", uri), RequestConfig.DEFAULT));
+      Assert.assertTrue(protocols.isEmpty());
+    } finally {
+      http1Server.close(CloseMode.IMMEDIATE);
+    }
+  }
+
+  @Test
+  public void testErrorStatus() throws Exception {
+    try {
+      client.send(new HttpUriRequestBase("GET", uri("/missing")), RequestConfig.DEFAULT);
+      Assert.fail("Expected HttpResponseException");
+    } catch (HttpResponseException e) {
+      Assert.assertEquals(HttpStatus.SC_NOT_FOUND, e.getStatusCode());
+    }
+  }
+
+  private URI uri(String path) {
+    return URI.create("https://localhost:" + port + path);
+  }
+
+  private static X509Certificate selfSigned(KeyPair keyPair) throws Exception {
+    X500Name name = new X500Name("CN=localhost");
+    long now = System.currentTimeMillis();
+    JcaX509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(name, BigInteger.valueOf(now),
+        new Date(now - 60000), new Date(now + 3600000), name, keyPair.getPublic());
+    builder.addExtension(Extension.subjectAlternativeName, false,
+        new GeneralNames(new GeneralName(GeneralName.dNSName, "localhost")));
+    return new JcaX509CertificateConverter().getCertificate(
+        builder.build(new JcaContentSignerBuilder("SHA256withRSA").build(keyPair.getPrivate())));
+  }
+
+  private class StubHandler implements AsyncServerRequestHandler<Message<HttpRequest, String>> {
+
+    @Override
+    public AsyncRequestConsumer<Message<HttpRequest, String>> prepare(HttpRequest request, EntityDetails entityDetails,
+                                                                      HttpContext context) {
+      return new BasicRequestConsumer<>(entityDetails != null ? new StringAsyncEntityConsumer() : null);
+    }
+
+    @Override
+    public void handle(Message<HttpRequest, String> message, ResponseTrigger responseTrigger, HttpContext context)
+        throws HttpException, java.io.IOException {
+      HttpCoreContext coreContext = HttpCoreContext.adapt(context);
+      connections.add(coreContext.getEndpointDetails().getRemoteAddress());
+      protocols.add(coreContext.getProtocolVersion());
+      HttpRequest request = message.getHead();
+      if (request.getPath().startsWith("/missing")) {
+        responseTrigger.submitResponse(AsyncResponseBuilder.create(HttpStatus.SC_NOT_FOUND).build(), context);
+        return;
+      }
+      String body = request.getMethod() + " " + request.getPath() + (message.getBody() != null ? " " + message.getBody() : "");
+      responseTrigger.submitResponse(AsyncResponseBuilder.create(HttpStatus.SC_OK)
+          .setEntity(AsyncEntityProducers.create(body, ContentType.TEXT_PLAIN))
+          .build(), context);
+    }
+  }
+
+}
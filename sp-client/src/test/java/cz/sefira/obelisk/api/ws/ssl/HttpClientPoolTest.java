@@ -0,0 +1,105 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.api.ws.ssl;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.api.ws.ssl.HttpClientPoolTest
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import cz.sefira.obelisk.api.PlatformAPI;
+import cz.sefira.obelisk.api.ws.proxy.ProxyProvider;
+import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.apache.hc.client5.http.classic.methods.HttpUriRequestBase;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.core5.util.Timeout;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.io.IOException;
+
+/**
+ * JUnit test for {@link HttpClientPool} with proxy resolved per target host.
+ */
+public class HttpClientPoolTest {
+
+  private PlatformAPI api;
+  private ProxyProvider proxyProvider;
+  private HttpClientPool pool;
+
+  @Before
+  public void setUp() throws Exception {
+    api = Mockito.mock(PlatformAPI.class);
+    proxyProvider = Mockito.mock(ProxyProvider.class);
+    Mockito.when(api.getProxyProvider()).thenReturn(proxyProvider);
+    Mockito.when(proxyProvider.getProxyKey(Mockito.any(HttpUriRequestBase.class))).thenAnswer(invocation -> {
+      String host = ((HttpUriRequestBase) invocation.getArguments()[0]).getUri().getHost();
+      return host.startsWith("proxied") ? "http://proxy-" + host + ":8080" : "direct";
+    });
+    pool = new HttpClientPool(Timeout.ofSeconds(1), Timeout.ofSeconds(1), Timeout.ofSeconds(1));
+  }
+
+  @Test
+  public void testClientPerProxy() throws Exception {
+    CloseableHttpClient direct = pool.getClient(api, new HttpGet("https://sp.example.test/"));
+    CloseableHttpClient proxied = pool.getClient(api, new HttpGet("https://proxied1.example.test/"));
+    Assert.assertNotSame(direct, proxied);
+    // alternating targets reuse their clients
+    Assert.assertSame(direct, pool.getClient(api, new HttpGet("https://other.example.test/")));
+    Assert.assertSame(proxied, pool.getClient(api, new HttpGet("https://proxied1.example.test/")));
+  }
+
+  @Test
+  public void testLeastRecentlyUsedRetired() throws Exception {
+    CloseableHttpClient direct = pool.getClient(api, new HttpGet("https://sp.example.test/"));
+    CloseableHttpClient first = pool.getClient(api, new HttpGet("https://proxied1.example.test/"));
+    for (int i = 2; i <= 4; i++) {
+      pool.getClient(api, new HttpGet("https://proxied" + i + ".example.test/"));
+      Assert.assertSame(direct, pool.getClient(api, new HttpGet("https://sp.example.test/")));
+    }
+    // limit exceeded, least recently used client is replaced
+    Assert.assertNotSame(first, pool.getClient(api, new HttpGet("https://proxied1.example.test/")));
+    Assert.assertSame(direct, pool.getClient(api, new HttpGet("https://sp.example.test/")));
+  }
+
+  @Test
+  public void testRetiredClientClosed() throws Exception {
+    CloseableHttpClient first = pool.getClient(api, new HttpGet("https://proxied1.example.test/"));
+    for (int i = 2; i <= 5; i++) {
+      pool.getClient(api, new HttpGet("https://proxied" + i + ".example.test/"));
+    }
+    // closed after the retire timeout without further use of the pool
+    long deadline = System.currentTimeMillis() + 10000;
+    while (true) {
+      try {
+        first.execute(new HttpGet("http://127.0.0.1:1/"), response -> null);
+      } catch (IllegalStateException e) {
+        // connection pool shut down
+        return;
+      } catch (IOException e) {
+        // not closed yet
+      }
+      Assert.assertTrue("Retired client not closed", System.currentTimeMillis() < deadline);
+      Thread.sleep(100);
+    }
+  }
+
+}
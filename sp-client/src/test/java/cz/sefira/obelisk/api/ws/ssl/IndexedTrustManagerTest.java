@@ -0,0 +1,237 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.api.ws.ssl;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.api.ws.ssl.IndexedTrustManagerTest
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.*;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509ExtensionUtils;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * JUnit test for {@link IndexedTrustManager} and {@link AnchorIndex} with generated root, intermediate and leaf.
+ */
+public class IndexedTrustManagerTest {
+
+  private static KeyPair rootKeys;
+  private static X509Certificate root;
+  private static X509Certificate intermediate;
+  private static X509Certificate leaf;
+  private static X509Certificate clientLeaf;
+
+  @BeforeClass
+  public static void setUpClass() throws Exception {
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+    generator.initialize(256);
+    rootKeys = generator.generateKeyPair();
+    KeyPair intermediateKeys = generator.generateKeyPair();
+    root = certificate("CN=Test Root", rootKeys, "CN=Test Root", rootKeys, null, true, null);
+    intermediate = certificate("CN=Test Intermediate", intermediateKeys, "CN=Test Root", rootKeys, root, true, null);
+    leaf = certificate("CN=localhost", generator.generateKeyPair(), "CN=Test Intermediate", intermediateKeys,
+        intermediate, false, KeyPurposeId.id_kp_serverAuth);
+    clientLeaf = certificate("CN=client", generator.generateKeyPair(), "CN=Test Intermediate", intermediateKeys,
+        intermediate, false, KeyPurposeId.id_kp_clientAuth);
+  }
+
+  @Test
+  public void testCopyOnWrite() {
+    AnchorIndex empty = AnchorIndex.EMPTY;
+    AnchorIndex index = empty.with(List.of(root));
+    Assert.assertEquals(0, empty.size());
+    Assert.assertEquals(1, index.size());
+    Assert.assertSame(index, index.with(List.of(root)));
+    Assert.assertTrue(index.contains(root));
+    Assert.assertEquals(List.of(root), index.getBySubject(root.getSubjectX500Principal()));
+    Assert.assertNull(index.getBySubject(intermediate.getSubjectX500Principal()));
+    // issuer found by authority key identifier
+    Assert.assertEquals(List.of(root), index.findIssuers(intermediate));
+    Assert.assertTrue(index.findIssuers(leaf).isEmpty());
+  }
+
+  @Test
+  public void testTrustedChain() throws Exception {
+    IndexedTrustManager trustManager = new IndexedTrustManager();
+    Assert.assertEquals(List.of(root), trustManager.add(List.of(root)));
+    Assert.assertTrue(trustManager.add(List.of(root)).isEmpty());
+    trustManager.checkServerTrusted(new X509Certificate[]{leaf, intermediate}, "ECDHE_ECDSA");
+    trustManager.checkServerTrusted(new X509Certificate[]{leaf, intermediate, root}, "ECDHE_ECDSA");
+    Assert.assertEquals(1, trustManager.getAcceptedIssuers().length);
+  }
+
+  @Test
+  public void testDelegateReused() throws Exception {
+    IndexedTrustManager trustManager = new IndexedTrustManager();
+    trustManager.add(List.of(root));
+    trustManager.checkServerTrusted(new X509Certificate[]{leaf, intermediate}, "ECDHE_ECDSA");
+    trustManager.checkServerTrusted(new X509Certificate[]{leaf, intermediate}, "ECDHE_ECDSA");
+    Assert.assertEquals(1, trustManager.getDelegateCount());
+    // different candidates get their own delegate
+    trustManager.add(List.of(intermediate));
+    trustManager.checkServerTrusted(new X509Certificate[]{leaf, intermediate}, "ECDHE_ECDSA");
+    Assert.assertEquals(2, trustManager.getDelegateCount());
+    // replaced index drops cached delegates
+    AnchorIndex current = trustManager.getIndex();
+    Assert.assertTrue(trustManager.publish(current, AnchorIndex.EMPTY.with(List.of(root))));
+    Assert.assertEquals(0, trustManager.getDelegateCount());
+  }
+
+  @Test
+  public void testIncrementalAdd() throws Exception {
+    IndexedTrustManager trustManager = new IndexedTrustManager();
+    trustManager.add(List.of(root));
+    try {
+      trustManager.checkServerTrusted(new X509Certificate[]{leaf}, "ECDHE_ECDSA");
+      Assert.fail("Missing intermediate certificate");
+    } catch (CertificateException e) {
+      Assert.assertEquals(IndexedTrustManager.NO_TRUSTED_PATH, e.getMessage());
+    }
+    // intermediate becomes trusted without rebuilding the trust manager
+    trustManager.add(List.of(intermediate));
+    trustManager.checkServerTrusted(new X509Certificate[]{leaf}, "ECDHE_ECDSA");
+  }
+
+  @Test
+  public void testIssuerSource() throws Exception {
+    IndexedTrustManager trustManager = new IndexedTrustManager();
+    trustManager.add(List.of(root));
+    List<X509Certificate> requested = new ArrayList<>();
+    // intermediate is trusted on demand, e.g. from SSL cache
+    trustManager.setIssuerSource(certificate -> {
+      requested.add(certificate);
+      return certificate.getIssuerX500Principal().equals(intermediate.getSubjectX500Principal()) &&
+          !trustManager.add(List.of(intermediate)).isEmpty();
+    });
+    trustManager.checkServerTrusted(new X509Certificate[]{leaf}, "ECDHE_ECDSA");
+    Assert.assertEquals(List.of(leaf), requested);
+    // indexed since then
+    trustManager.checkServerTrusted(new X509Certificate[]{leaf}, "ECDHE_ECDSA");
+    Assert.assertEquals(1, requested.size());
+  }
+
+  @Test
+  public void testInvalidChain() throws Exception {
+    IndexedTrustManager trustManager = new IndexedTrustManager();
+    trustManager.add(List.of(root));
+    try {
+      trustManager.checkServerTrusted(new X509Certificate[]{clientLeaf, intermediate}, "ECDHE_ECDSA");
+      Assert.fail("Client certificate accepted for server authentication");
+    } catch (CertificateException e) {
+      // expected
+    }
+    trustManager.checkClientTrusted(new X509Certificate[]{clientLeaf, intermediate}, "ECDHE_ECDSA");
+    // anchor with same name but different key
+    IndexedTrustManager other = new IndexedTrustManager();
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+    generator.initialize(256);
+    KeyPair keys = generator.generateKeyPair();
+    other.add(List.of(certificate("CN=Test Root", keys, "CN=Test Root", keys, null, true, null)));
+    try {
+      other.checkServerTrusted(new X509Certificate[]{leaf, intermediate}, "ECDHE_ECDSA");
+      Assert.fail("Chain accepted by foreign anchor");
+    } catch (CertificateException e) {
+      Assert.assertEquals(IndexedTrustManager.NO_TRUSTED_PATH, e.getMessage());
+    }
+  }
+
+  @Test
+  public void testAlternativeAnchors() throws Exception {
+    // anchor with the same name as the issuing root does not prevent validation against the issuing root
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+    generator.initialize(256);
+    KeyPair keys = generator.generateKeyPair();
+    X509Certificate foreign = certificate("CN=Test Root", keys, "CN=Test Root", keys, null, true, null);
+    IndexedTrustManager trustManager = new IndexedTrustManager();
+    trustManager.add(List.of(foreign, root));
+    trustManager.checkServerTrusted(new X509Certificate[]{leaf, intermediate}, "ECDHE_ECDSA");
+    // root cross-signed by another trusted root
+    KeyPair otherKeys = generator.generateKeyPair();
+    X509Certificate other = certificate("CN=Other Root", otherKeys, "CN=Other Root", otherKeys, null, true, null);
+    X509Certificate crossSigned = certificate("CN=Test Root", rootKeys, "CN=Other Root", otherKeys, other, true, null);
+    IndexedTrustManager crossTrust = new IndexedTrustManager();
+    crossTrust.add(List.of(other));
+    crossTrust.checkServerTrusted(new X509Certificate[]{leaf, intermediate, crossSigned}, "ECDHE_ECDSA");
+  }
+
+  @Test
+  public void testDisabledAlgorithm() throws Exception {
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+    generator.initialize(2048);
+    KeyPair keys = generator.generateKeyPair();
+    X509Certificate rsaRoot = certificate("CN=RSA Root", keys, "CN=RSA Root", keys, null, true, null, "SHA256withRSA");
+    X509Certificate md5Leaf = certificate("CN=localhost", generator.generateKeyPair(), "CN=RSA Root", keys, rsaRoot,
+        false, KeyPurposeId.id_kp_serverAuth, "MD5withRSA");
+    IndexedTrustManager trustManager = new IndexedTrustManager();
+    trustManager.add(List.of(rsaRoot));
+    try {
+      trustManager.checkServerTrusted(new X509Certificate[]{md5Leaf}, "RSA");
+      Assert.fail("Certificate signed by disabled algorithm accepted");
+    } catch (CertificateException e) {
+      Assert.assertNotEquals(IndexedTrustManager.NO_TRUSTED_PATH, e.getMessage());
+    }
+  }
+
+  private static X509Certificate certificate(String subject, KeyPair subjectKeys, String issuer, KeyPair issuerKeys,
+                                             X509Certificate issuerCert, boolean ca, KeyPurposeId purpose)
+      throws Exception {
+    return certificate(subject, subjectKeys, issuer, issuerKeys, issuerCert, ca, purpose, "SHA256withECDSA");
+  }
+
+  private static X509Certificate certificate(String subject, KeyPair subjectKeys, String issuer, KeyPair issuerKeys,
+                                             X509Certificate issuerCert, boolean ca, KeyPurposeId purpose,
+                                             String signatureAlgorithm) throws Exception {
+    long now = System.currentTimeMillis();
+    JcaX509ExtensionUtils utils = new JcaX509ExtensionUtils();
+    JcaX509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(new X500Name(issuer),
+        BigInteger.valueOf(now + subject.hashCode()), new Date(now - 60000), new Date(now + 3600000),
+        new X500Name(subject), subjectKeys.getPublic());
+    builder.addExtension(Extension.basicConstraints, true, new BasicConstraints(ca));
+    builder.addExtension(Extension.subjectKeyIdentifier, false, utils.createSubjectKeyIdentifier(subjectKeys.getPublic()));
+    builder.addExtension(Extension.authorityKeyIdentifier, false, issuerCert != null ?
+        utils.createAuthorityKeyIdentifier(issuerCert) : utils.createAuthorityKeyIdentifier(issuerKeys.getPublic()));
+    if (ca) {
+      builder.addExtension(Extension.keyUsage, true, new KeyUsage(KeyUsage.keyCertSign | KeyUsage.cRLSign));
+    } else {
+      builder.addExtension(Extension.keyUsage, true, new KeyUsage(KeyUsage.digitalSignature));
+      builder.addExtension(Extension.extendedKeyUsage, false, new ExtendedKeyUsage(purpose));
+      builder.addExtension(Extension.subjectAlternativeName, false,
+          new GeneralNames(new GeneralName(GeneralName.dNSName, "localhost")));
+    }
+    return new JcaX509CertificateConverter().getCertificate(builder.build(
+        new JcaContentSignerBuilder(signatureAlgorithm).build(issuerKeys.getPrivate())));
+  }
+
+}
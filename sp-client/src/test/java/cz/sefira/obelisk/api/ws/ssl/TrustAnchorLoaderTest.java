@@ -0,0 +1,157 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.api.ws.ssl;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.api.ws.ssl.TrustAnchorLoaderTest
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import cz.sefira.obelisk.util.X509Utils;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * JUnit test for {@link TrustAnchorLoader}
+ */
+public class TrustAnchorLoaderTest {
+
+  private Path directory;
+  private Path snapshot;
+  private final List<X509Certificate> certificates = new ArrayList<>();
+
+  @Before
+  public void setUp() throws Exception {
+    directory = Files.createTempDirectory("certs");
+    snapshot = Files.createTempDirectory("storage").resolve("anchors.bin");
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+    generator.initialize(1024);
+    KeyPair keyPair = generator.generateKeyPair();
+    for (int i = 0; i < 3; i++) {
+      X509Certificate certificate = selfSigned(keyPair, "CN=Root " + i);
+      certificates.add(certificate);
+      Path file = directory.resolve("root-" + i + ".pem");
+      Files.writeString(file, X509Utils.wrapPEMCertificate(Base64.getEncoder().encodeToString(
+          certificate.getEncoded())), StandardCharsets.US_ASCII);
+      // hash alias (c_rehash)
+      Files.createSymbolicLink(directory.resolve(String.format("%08x.0", i)), file.getFileName());
+    }
+    Files.writeString(directory.resolve("README"), "not a certificate");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    delete(directory);
+    delete(snapshot.getParent());
+  }
+
+  @Test
+  public void testAliasesParsedOnce() throws Exception {
+    CountingLoader loader = new CountingLoader(snapshot);
+    List<X509Certificate> anchors = loader.load(directory);
+    Assert.assertEquals(certificates, anchors);
+    // 3 certificates + invalid file, aliases are skipped
+    Assert.assertEquals(4, loader.parsed.get());
+    Assert.assertTrue(Files.isRegularFile(snapshot));
+  }
+
+  @Test
+  public void testSnapshot() throws Exception {
+    new CountingLoader(snapshot).load(directory);
+    // warm start
+    CountingLoader loader = new CountingLoader(snapshot);
+    Assert.assertEquals(certificates, loader.load(directory));
+    Assert.assertEquals(0, loader.parsed.get());
+    // new alias of known file does not change the anchors
+    Files.createSymbolicLink(directory.resolve("ffffffff.0"), Path.of("root-0.pem"));
+    Assert.assertEquals(certificates, loader.load(directory));
+    Assert.assertEquals(0, loader.parsed.get());
+    // changed file
+    Path file = directory.resolve("root-2.pem");
+    Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() - 60000));
+    Assert.assertEquals(certificates, loader.load(directory));
+    Assert.assertEquals(4, loader.parsed.get());
+    // removed file
+    Files.delete(directory.resolve("root-0.pem"));
+    Assert.assertEquals(certificates.subList(1, 3), loader.load(directory));
+  }
+
+  @Test
+  public void testCorruptedSnapshot() throws Exception {
+    Files.writeString(snapshot, "corrupted");
+    CountingLoader loader = new CountingLoader(snapshot);
+    Assert.assertEquals(certificates, loader.load(directory));
+    Assert.assertEquals(4, loader.parsed.get());
+    Assert.assertEquals(certificates, new CountingLoader(snapshot).load(directory));
+  }
+
+  private static class CountingLoader extends TrustAnchorLoader {
+
+    private final AtomicInteger parsed = new AtomicInteger();
+
+    private CountingLoader(Path snapshot) {
+      super(snapshot);
+    }
+
+    @Override
+    X509Certificate parse(Path file) throws IOException, CertificateException {
+      parsed.incrementAndGet();
+      return super.parse(file);
+    }
+  }
+
+  private static X509Certificate selfSigned(KeyPair keyPair, String subject) throws Exception {
+    X500Name name = new X500Name(subject);
+    long now = System.currentTimeMillis();
+    JcaX509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(name, BigInteger.valueOf(now),
+        new Date(now - 60000), new Date(now + 3600000), name, keyPair.getPublic());
+    return new JcaX509CertificateConverter().getCertificate(
+        builder.build(new JcaContentSignerBuilder("SHA256withRSA").build(keyPair.getPrivate())));
+  }
+
+  private static void delete(Path path) throws IOException {
+    try (Stream<Path> files = Files.walk(path)) {
+      for (Path p : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+        Files.delete(p);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,160 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.api.ws.ssl;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.api.ws.ssl.TrustStoreWatcherTest
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Security;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.*;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+/**
+ * JUnit test for {@link TrustStoreWatcher} with a temporary certificate directory.
+ */
+public class TrustStoreWatcherTest {
+
+  private final AtomicInteger anchorLoads = new AtomicInteger();
+  private final Semaphore reloads = new Semaphore(0);
+
+  private Path anchorDirectory;
+  private X509Certificate startupRoot;
+  private SSLCertificateProvider provider;
+  private TrustStoreWatcher watcher;
+
+  @Before
+  public void setUp() throws Exception {
+    Security.addProvider(new BouncyCastleProvider());
+    anchorDirectory = Files.createTempDirectory("anchors");
+    startupRoot = selfSigned("CN=Startup Root");
+    Files.write(anchorDirectory.resolve("startup.pem"), startupRoot.getEncoded());
+    provider = new SSLCertificateProvider(null) {
+      @Override
+      public void reload(Collection<X509Certificate> anchors) {
+        super.reload(anchors);
+        reloads.release();
+      }
+    };
+    // anchors loaded at startup are trusted already
+    provider.putAll(List.of(startupRoot));
+    watcher = new TrustStoreWatcher(provider, List.of(startupRoot), this::loadAnchors, List.of(anchorDirectory), 100);
+    watcher.start();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    watcher.close();
+    try (Stream<Path> files = Files.walk(anchorDirectory)) {
+      files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+    }
+  }
+
+  @Test
+  public void testAnchorsChanged() throws Exception {
+    X509Certificate root = selfSigned("CN=Watched Root");
+    X509Certificate temporary = selfSigned("CN=Temporary");
+    provider.addToRuntimeTruststore(List.of(temporary));
+
+    Files.write(anchorDirectory.resolve("root.pem"), root.getEncoded());
+    Assert.assertTrue("Anchor directory change not detected", await(() -> provider.getAnchorIndex().contains(root)));
+    // certificates trusted at runtime survive the rebuild
+    Assert.assertTrue(provider.getAnchorIndex().contains(temporary));
+    Assert.assertTrue(provider.getAnchorIndex().contains(startupRoot));
+
+    Files.delete(anchorDirectory.resolve("root.pem"));
+    Assert.assertTrue("Anchor directory change not detected", await(() -> !provider.getAnchorIndex().contains(root)));
+    Assert.assertTrue(provider.getAnchorIndex().contains(temporary));
+  }
+
+  @Test
+  public void testAnchorsNotChanged() throws Exception {
+    // touched file with the same content, anchors loaded at startup are compared
+    Files.write(anchorDirectory.resolve("startup.pem"), startupRoot.getEncoded());
+    Assert.assertTrue("Anchor directory change not detected", await(() -> anchorLoads.get() > 0));
+    Assert.assertFalse(reloads.tryAcquire(500, TimeUnit.MILLISECONDS));
+    Assert.assertTrue(provider.getAnchorIndex().contains(startupRoot));
+  }
+
+  private static boolean await(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 15000;
+    while (!condition.getAsBoolean()) {
+      if (System.currentTimeMillis() > deadline) {
+        return false;
+      }
+      Thread.sleep(50);
+    }
+    return true;
+  }
+
+  private Collection<X509Certificate> loadAnchors() {
+    anchorLoads.incrementAndGet();
+    List<X509Certificate> anchors = new ArrayList<>();
+    try (Stream<Path> files = Files.list(anchorDirectory)) {
+      CertificateFactory factory = CertificateFactory.getInstance("X.509");
+      for (Path file : (Iterable<Path>) files::iterator) {
+        try (InputStream in = Files.newInputStream(file)) {
+          anchors.add((X509Certificate) factory.generateCertificate(in));
+        }
+      }
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+    return anchors;
+  }
+
+  private static X509Certificate selfSigned(String subject) throws Exception {
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+    generator.initialize(256);
+    KeyPair keyPair = generator.generateKeyPair();
+    long now = System.currentTimeMillis();
+    JcaX509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(new X500Name(subject),
+        BigInteger.valueOf(now), new Date(now - 60000), new Date(now + 3600000), new X500Name(subject),
+        keyPair.getPublic());
+    builder.addExtension(Extension.basicConstraints, true, new BasicConstraints(true));
+    return new JcaX509CertificateConverter().getCertificate(builder.build(
+        new JcaContentSignerBuilder("SHA256withECDSA").build(keyPair.getPrivate())));
+  }
+
+}
@@ -0,0 +1,115 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.flow.operation;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.flow.operation.BatchSignOperationTest
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import cz.sefira.obelisk.api.flow.BasicOperationStatus;
+import cz.sefira.obelisk.api.flow.OperationResult;
+import cz.sefira.obelisk.api.ws.model.SignParameters;
+import cz.sefira.obelisk.dss.DigestAlgorithm;
+import cz.sefira.obelisk.dss.SignatureValue;
+import cz.sefira.obelisk.dss.token.DSSPrivateKeyEntry;
+import cz.sefira.obelisk.dss.token.SignatureTokenConnection;
+import cz.sefira.obelisk.token.keystore.KeyStoreSignatureTokenConnection;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.security.KeyStore.PasswordProtection;
+import java.security.Security;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * JUnit test for {@link BatchSignOperation}.
+ */
+public class BatchSignOperationTest {
+
+  @BeforeClass
+  public static void setUp() {
+    Security.addProvider(new BouncyCastleProvider());
+  }
+
+  @Test
+  public void testSignAll() throws Exception {
+    SignatureTokenConnection token = new KeyStoreSignatureTokenConnection(
+        getClass().getResourceAsStream("/keystore.jks"), "JKS", new PasswordProtection("password".toCharArray()));
+    DSSPrivateKeyEntry key = token.getKeys().get(0);
+    List<SignParameters> items = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      items.add(item("document " + i));
+    }
+    items.set(5, item(null)); // invalid item
+    List<OperationResult<SignatureValue>> results = BatchSignOperation.signAll(items, item ->
+        new OperationResult<>(token.sign(item.getToBeSigned(), item.getDigestAlgorithm(), key)));
+
+    Assert.assertEquals(items.size(), results.size());
+    for (int i = 0; i < items.size(); i++) {
+      if (i == 5) {
+        Assert.assertEquals(BasicOperationStatus.EXCEPTION, results.get(i).getStatus());
+        continue;
+      }
+      // results are in order of the items
+      SignatureValue value = results.get(i).getResult();
+      Signature verifier = Signature.getInstance(value.getAlgorithm().getJCEId());
+      verifier.initVerify(key.getCertificateToken().getPublicKey());
+      verifier.update(items.get(i).getToBeSigned());
+      Assert.assertTrue("Signature " + i, verifier.verify(value.getValue()));
+    }
+  }
+
+  @Test
+  public void testItemErrors() {
+    AtomicInteger signed = new AtomicInteger();
+    List<SignParameters> items = List.of(item("a"), item("b"), item("c"), item("d"));
+    List<OperationResult<SignatureValue>> results = BatchSignOperation.signAll(items, item -> {
+      signed.incrementAndGet();
+      if (item == items.get(1)) {
+        throw new IllegalStateException("Item failure");
+      }
+      if (item == items.get(2)) {
+        return new OperationResult<>(BasicOperationStatus.USER_CANCEL);
+      }
+      return new OperationResult<>(new SignatureValue());
+    });
+    Assert.assertEquals(BasicOperationStatus.SUCCESS, results.get(0).getStatus());
+    // failed item does not stop the batch
+    Assert.assertEquals(BasicOperationStatus.EXCEPTION, results.get(1).getStatus());
+    Assert.assertEquals("Item failure", results.get(1).getException().getMessage());
+    // cancellation does
+    Assert.assertEquals(BasicOperationStatus.USER_CANCEL, results.get(2).getStatus());
+    Assert.assertEquals(BasicOperationStatus.USER_CANCEL, results.get(3).getStatus());
+    Assert.assertEquals(3, signed.get());
+  }
+
+  private static SignParameters item(String data) {
+    SignParameters item = new SignParameters();
+    item.setDigestAlgorithm(DigestAlgorithm.SHA256);
+    item.setToBeSigned(data != null ? data.getBytes() : null);
+    return item;
+  }
+
+}
@@ -0,0 +1,151 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.json;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.json.DiscriminatorTypeAdapterFactoryTest
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import cz.sefira.obelisk.api.ws.model.*;
+import cz.sefira.obelisk.dss.DigestAlgorithm;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * JUnit test for {@link DiscriminatorTypeAdapterFactory}.
+ */
+public class DiscriminatorTypeAdapterFactoryTest {
+
+  private static final String SMARTCARDS = "\"smartcards\":[{\"atr\":\"3B:7F\",\"modelName\":\"Card\",\"drivers\":[\"lib.so\"]}]";
+
+  @Test
+  public void testSignatureRequest() {
+    String json = "{\"operation\":\"Sign\",\"description\":\"Sign document\",\"userInteraction\":false," +
+        "\"session\":{\"sessionId\":\"id\",\"sessionSignature\":\"sig\"}," + SMARTCARDS + "," +
+        "\"signParams\":{\"stepId\":7,\"toBeSigned\":\"AQID\",\"digestAlgorithm\":\"SHA256\",\"useRsaPss\":true}}";
+    BaseRequest req = GsonHelper.fromJson(json.getBytes(StandardCharsets.UTF_8), BaseRequest.class);
+    Assert.assertTrue(req instanceof SignatureRequest);
+    SignatureRequest signatureRequest = (SignatureRequest) req;
+    Assert.assertEquals(Operation.SIGN, req.getOperation());
+    Assert.assertEquals("Sign document", req.getDescription());
+    Assert.assertFalse(req.isUserInteraction());
+    Assert.assertEquals(new SessionValue("id", "sig"), req.getSession());
+    Assert.assertEquals(1, req.getSmartcards().size());
+    Assert.assertEquals("3B:7F", req.getSmartcards().get(0).getAtr());
+    Assert.assertEquals(Long.valueOf(7), signatureRequest.getSignParams().getStepId());
+    Assert.assertArrayEquals(new byte[]{1, 2, 3}, signatureRequest.getSignParams().getToBeSigned());
+    Assert.assertEquals(DigestAlgorithm.SHA256, signatureRequest.getSignParams().getDigestAlgorithm());
+    Assert.assertTrue(signatureRequest.getSignParams().isUseRsaPss());
+  }
+
+  @Test
+  public void testDiscriminatorLast() {
+    String json = "{\"signParams\":{\"stepId\":3,\"toBeSigned\":\"AQID\"},\"userInteraction\":false," +
+        "\"operation\":\"Sign\"}";
+    SignatureRequest req = (SignatureRequest) GsonHelper.fromJson(json, BaseRequest.class);
+    Assert.assertEquals(Long.valueOf(3), req.getSignParams().getStepId());
+    Assert.assertFalse(req.isUserInteraction());
+    // fields of other subtype are dropped
+    json = "{\"signParams\":{\"stepId\":3},\"operation\":\"GetCertificate\"}";
+    Assert.assertEquals(GetCertificateRequest.class, GsonHelper.fromJson(json, BaseRequest.class).getClass());
+  }
+
+  @Test
+  public void testGetCertificateRequest() {
+    GetCertificateRequest req = (GetCertificateRequest) GsonHelper.fromJson("{\"operation\":\"GetCertificate\"}",
+        BaseRequest.class);
+    // defaults of the no-arg constructor are kept
+    Assert.assertNotNull(req.getCertificateFilter());
+    Assert.assertTrue(req.isUserInteraction());
+    req = (GetCertificateRequest) GsonHelper.fromJson("{\"operation\":\"GetCertificate\"," +
+        "\"certificateFilter\":{\"allowExpired\":true,\"certificateId\":\"AQID\"}}", BaseRequest.class);
+    Assert.assertTrue(req.getCertificateFilter().getAllowExpired());
+    Assert.assertArrayEquals(new byte[]{1, 2, 3}, req.getCertificateFilter().getCertificateId());
+  }
+
+  @Test
+  public void testUnknownFieldsAndOperation() {
+    String json = "{\"extension\":{\"nested\":[1,{\"a\":null},\"x\"]},\"operation\":\"Wait\",\"description\":\"d\"," +
+        "\"more\":[true,false]}";
+    BaseRequest req = GsonHelper.fromJson(json, BaseRequest.class);
+    Assert.assertEquals(BaseRequest.class, req.getClass());
+    Assert.assertEquals(Operation.WAIT, req.getOperation());
+    Assert.assertEquals("d", req.getDescription());
+    Assert.assertEquals(BaseRequest.class, GsonHelper.fromJson("{\"description\":\"d\"}", BaseRequest.class).getClass());
+    Assert.assertNull(GsonHelper.fromJson("null", BaseRequest.class));
+  }
+
+  @Test
+  public void testSameAsTwoPass() {
+    SignParameters params = new SignParameters();
+    params.setStepId(2L);
+    params.setToBeSigned(new byte[512]);
+    params.setDigestAlgorithm(DigestAlgorithm.SHA512);
+    SignatureRequest signatureRequest = new SignatureRequest(params);
+    signatureRequest.setOperation(Operation.SIGN);
+    signatureRequest.setSession(new SessionValue("s", "v"));
+    String json = GsonHelper.toJson(signatureRequest);
+    SignatureRequest single = (SignatureRequest) GsonHelper.fromJson(json, BaseRequest.class);
+    SignatureRequest twoPass = GsonHelper.fromJson(json, SignatureRequest.class);
+    Assert.assertEquals(GsonHelper.toJson(twoPass), GsonHelper.toJson(single));
+  }
+
+  @Test
+  public void testBatchSignatureRequest() {
+    // signParams is an object in Sign and an array in BatchSign operation
+    String json = "{\"signParams\":[{\"stepId\":1,\"digestAlgorithm\":\"SHA256\"},{\"stepId\":2}]," +
+        "\"operation\":\"BatchSign\"," + SMARTCARDS + "}";
+    BatchSignatureRequest req = (BatchSignatureRequest) GsonHelper.fromJson(json, BaseRequest.class);
+    Assert.assertEquals(2, req.getSignParams().size());
+    Assert.assertEquals(DigestAlgorithm.SHA256, req.getSignParams().get(0).getDigestAlgorithm());
+    Assert.assertEquals(Long.valueOf(2), req.getSignParams().get(1).getStepId());
+    Assert.assertEquals(1, req.getSmartcards().size());
+  }
+
+  @Test
+  public void testAmbiguousField() {
+    Gson gson = new GsonBuilder().registerTypeAdapterFactory(DiscriminatorTypeAdapterFactory.of(Shape.class, "kind")
+        .registerSubtype(Circle.class, "circle").registerSubtype(Label.class, "label")).create();
+    Circle circle = (Circle) gson.fromJson("{\"value\":2.5,\"kind\":\"circle\"}", Shape.class);
+    Assert.assertEquals(2.5, circle.value, 0);
+    Label label = (Label) gson.fromJson("{\"value\":\"text\",\"kind\":\"label\"}", Shape.class);
+    Assert.assertEquals("text", label.value);
+    Assert.assertEquals("label", label.kind);
+    // serialization of declared base type writes concrete type
+    Assert.assertEquals("{\"value\":\"text\",\"kind\":\"label\"}", gson.toJson(label, Shape.class));
+  }
+
+  static class Shape {
+    String kind;
+  }
+
+  static class Circle extends Shape {
+    double value;
+  }
+
+  static class Label extends Shape {
+    String value;
+  }
+
+}
@@ -0,0 +1,118 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.json;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.json.RequestDecodingBenchmark
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import cz.sefira.obelisk.api.ws.model.*;
+import cz.sefira.obelisk.dss.DigestAlgorithm;
+import cz.sefira.obelisk.dss.x509.CertificateToken;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares decoding of dispatcher work items in a single pass ({@link DiscriminatorTypeAdapterFactory}) with
+ * previous decoding as base request followed by decoding as the concrete request.
+ * <p>
+ * Usage: {@code RequestDecodingBenchmark [toBeSignedBytes] [iterations]}
+ */
+public class RequestDecodingBenchmark {
+
+  private static final Gson twoPassGson = new GsonBuilder().disableHtmlEscaping()
+      .registerTypeHierarchyAdapter(byte[].class, new ByteArrayTypeAdapter())
+      .registerTypeAdapter(CertificateToken.class, new CertificateTypeAdapter())
+      .registerTypeAdapter(DigestAlgorithm.class, new DigestAlgorithmAdapter())
+      .create();
+
+  public static void main(String[] args) {
+    int size = args.length > 0 ? Integer.parseInt(args[0]) : 256 * 1024;
+    int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+    byte[] json = signatureRequest(size);
+    System.out.printf("request %d bytes, %d iterations%n", json.length, iterations);
+    for (int round = 0; round < 3; round++) {
+      long twoPass = measure(json, iterations, false);
+      long singlePass = measure(json, iterations, true);
+      System.out.printf("round %d: two-pass %d us/op, single-pass %d us/op (%.2fx)%n", round, twoPass, singlePass,
+          (double) twoPass / singlePass);
+    }
+  }
+
+  /**
+   * Returns average decoding time in microseconds
+   */
+  static long measure(byte[] json, int iterations, boolean singlePass) {
+    long checksum = 0;
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      SignatureRequest req = singlePass ? (SignatureRequest) GsonHelper.fromJson(json, BaseRequest.class) :
+          twoPass(json);
+      checksum += req.getSignParams().getToBeSigned().length;
+    }
+    long elapsed = System.nanoTime() - start;
+    if (checksum == 0) {
+      throw new IllegalStateException("Nothing decoded");
+    }
+    return elapsed / iterations / 1000;
+  }
+
+  private static SignatureRequest twoPass(byte[] json) {
+    BaseRequest req = twoPassGson.fromJson(reader(json), BaseRequest.class);
+    if (!Operation.SIGN.equals(req.getOperation())) {
+      throw new IllegalStateException("Unexpected operation: " + req.getOperation());
+    }
+    return twoPassGson.fromJson(reader(json), SignatureRequest.class);
+  }
+
+  private static InputStreamReader reader(byte[] json) {
+    return new InputStreamReader(new ByteArrayInputStream(json), StandardCharsets.UTF_8);
+  }
+
+  static byte[] signatureRequest(int size) {
+    byte[] toBeSigned = new byte[size];
+    new Random(1).nextBytes(toBeSigned);
+    SignParameters params = new SignParameters();
+    params.setStepId(1L);
+    params.setToBeSigned(toBeSigned);
+    params.setDigestAlgorithm(DigestAlgorithm.SHA256);
+    SignatureRequest req = new SignatureRequest(params);
+    req.setOperation(Operation.SIGN);
+    req.setDescription("Benchmark signature request");
+    req.setSession(new SessionValue("session", "signature"));
+    List<SmartcardInfo> smartcards = new ArrayList<>();
+    StringBuilder sb = new StringBuilder("[");
+    for (int i = 0; i < 200; i++) {
+      sb.append(i > 0 ? "," : "").append("{\"atr\":\"3B:7F:").append(i).append("\",\"modelName\":\"Card ").append(i)
+          .append("\",\"drivers\":[\"lib").append(i).append(".so\"]}");
+    }
+    smartcards.addAll(List.of(GsonHelper.fromJson(sb.append("]").toString(), SmartcardInfo[].class)));
+    req.setSmartcards(smartcards);
+    return GsonHelper.toJson(req).getBytes(StandardCharsets.UTF_8);
+  }
+
+}
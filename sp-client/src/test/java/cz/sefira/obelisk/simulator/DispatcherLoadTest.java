@@ -0,0 +1,44 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.simulator;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.simulator.DispatcherLoadTest
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * End-to-end test pushing magic links through the message queue and dispatcher to the SP API simulator.
+ * Skipped when JavaFX toolkit is not available.
+ */
+public class DispatcherLoadTest {
+
+  @Test
+  public void testLoad() throws Exception {
+    Assume.assumeTrue(LoadDriver.startToolkit());
+    LoadDriver.Result result = LoadDriver.run(3, new SpApiSimulator.Scenario().pendingPolls(1).redirect(false));
+    Assert.assertEquals(result.getReport(), 3, result.getCompleted());
+    Assert.assertEquals(0, result.getFailed());
+  }
+
+}
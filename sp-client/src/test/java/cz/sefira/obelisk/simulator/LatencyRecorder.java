@@ -0,0 +1,84 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.simulator;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.simulator.LatencyRecorder
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import java.util.*;
+
+/**
+ * Per-phase latency samples of simulated SP API sessions
+ */
+public class LatencyRecorder {
+
+  private final Map<String, List<Long>> samples = new LinkedHashMap<>();
+
+  /**
+   * Record phase duration
+   * @param phase Phase name
+   * @param millis Duration in milliseconds
+   */
+  public synchronized void record(String phase, long millis) {
+    samples.computeIfAbsent(phase, p -> new ArrayList<>()).add(millis);
+  }
+
+  public synchronized int count(String phase) {
+    List<Long> values = samples.get(phase);
+    return values != null ? values.size() : 0;
+  }
+
+  /**
+   * Returns phase latency percentile (nearest rank)
+   * @param phase Phase name
+   * @param p Percentile (0-1)
+   * @return Latency in milliseconds or -1 if phase has no samples
+   */
+  public synchronized long percentile(String phase, double p) {
+    List<Long> values = samples.get(phase);
+    if (values == null || values.isEmpty()) {
+      return -1;
+    }
+    List<Long> sorted = new ArrayList<>(values);
+    Collections.sort(sorted);
+    return sorted.get(Math.max(0, (int) Math.ceil(p * sorted.size()) - 1));
+  }
+
+  /**
+   * Format report comparable run to run
+   * @param elapsedMillis Duration of the whole run
+   * @param completed Number of completed sessions
+   * @return Report table with per-phase percentiles and throughput
+   */
+  public synchronized String report(long elapsedMillis, int completed) {
+    StringBuilder sb = new StringBuilder();
+    sb.append(String.format("%-10s %8s %8s %8s %8s %8s%n", "phase", "count", "p50", "p90", "p99", "max"));
+    for (String phase : samples.keySet()) {
+      sb.append(String.format("%-10s %8d %8d %8d %8d %8d%n", phase, count(phase), percentile(phase, 0.5),
+          percentile(phase, 0.9), percentile(phase, 0.99), percentile(phase, 1)));
+    }
+    double seconds = elapsedMillis / 1000.0;
+    sb.append(String.format("completed %d sessions in %.2f s, throughput %.2f sessions/s%n", completed, seconds,
+        seconds > 0 ? completed / seconds : 0));
+    return sb.toString();
+  }
+
+}
@@ -0,0 +1,125 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.simulator;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.simulator.LoadDriver
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import cz.sefira.obelisk.api.AppConfig;
+import cz.sefira.obelisk.api.PlatformAPI;
+import cz.sefira.obelisk.api.dispatcher.Dispatcher;
+import cz.sefira.obelisk.ipc.MessageQueue;
+import cz.sefira.obelisk.ipc.MessageQueueFactory;
+import javafx.application.Platform;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * End-to-end load harness: pushes magic links through the real message queue to the dispatcher connected to
+ * the local SP API simulator and reports per-phase latency percentiles and throughput.
+ * <p>
+ * Usage: {@code LoadDriver [links] [pendingPolls]}, JavaFX toolkit (display) is required by the busy indicators.
+ */
+public class LoadDriver {
+
+  private static final Logger logger = LoggerFactory.getLogger(LoadDriver.class.getName());
+
+  private static final long SESSION_TIMEOUT_MILLISECONDS = 60000;
+
+  public static void main(String[] args) throws Exception {
+    int links = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+    int pendingPolls = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+    if (!startToolkit()) {
+      System.err.println("JavaFX toolkit is not available");
+      System.exit(1);
+    }
+    Result result = run(links, new SpApiSimulator.Scenario().pendingPolls(pendingPolls));
+    System.out.print(result.getReport());
+    System.exit(result.getCompleted() == links ? 0 : 1);
+  }
+
+  /**
+   * Start JavaFX toolkit
+   * @return False if toolkit cannot be started (headless environment)
+   */
+  public static boolean startToolkit() {
+    try {
+      Platform.startup(() -> {});
+      Platform.setImplicitExit(false);
+      return true;
+    } catch (IllegalStateException e) {
+      return true; // already started
+    } catch (Throwable t) {
+      logger.warn("JavaFX toolkit unavailable: " + t.getMessage());
+      return false;
+    }
+  }
+
+  /**
+   * Execute load run
+   * @param links Number of magic links (sessions)
+   * @param scenario Simulated session behavior
+   * @return Run result
+   */
+  public static Result run(int links, SpApiSimulator.Scenario scenario) throws Exception {
+    try (SpApiSimulator simulator = new SpApiSimulator(scenario)) {
+      PlatformAPI api = SimulatorPlatform.create(simulator, new SoftwareKeystoreSigner());
+      new Dispatcher().init("dispatcher", api);
+      MessageQueue queue = MessageQueueFactory.getInstance(AppConfig.get());
+      long start = System.currentTimeMillis();
+      for (int i = 0; i < links; i++) {
+        queue.addMessage(simulator.newMessagePayload().getBytes(StandardCharsets.UTF_8));
+      }
+      simulator.awaitCompleted(links, SESSION_TIMEOUT_MILLISECONDS * links);
+      long elapsed = System.currentTimeMillis() - start;
+      return new Result(simulator.getCompleted(), simulator.getFailed(),
+          simulator.getRecorder().report(elapsed, simulator.getCompleted()));
+    }
+  }
+
+  public static class Result {
+
+    private final int completed;
+    private final int failed;
+    private final String report;
+
+    private Result(int completed, int failed, String report) {
+      this.completed = completed;
+      this.failed = failed;
+      this.report = report;
+    }
+
+    public int getCompleted() {
+      return completed;
+    }
+
+    public int getFailed() {
+      return failed;
+    }
+
+    public String getReport() {
+      return report;
+    }
+  }
+
+}
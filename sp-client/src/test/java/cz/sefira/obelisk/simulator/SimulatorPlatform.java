@@ -0,0 +1,63 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.simulator;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.simulator.SimulatorPlatform
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import cz.sefira.obelisk.Systray;
+import cz.sefira.obelisk.api.Execution;
+import cz.sefira.obelisk.api.PlatformAPI;
+import cz.sefira.obelisk.api.ws.model.GetCertificateRequest;
+import cz.sefira.obelisk.api.ws.model.SignatureRequest;
+import cz.sefira.obelisk.api.ws.proxy.ProxyProvider;
+import cz.sefira.obelisk.storage.EventsStorage;
+import org.apache.hc.client5.http.classic.methods.HttpUriRequestBase;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Platform API connected to the simulator: server certificate is trusted, no proxy is used and certificate
+ * and signature flows are executed by the software keystore signer
+ */
+public class SimulatorPlatform {
+
+  private SimulatorPlatform() {}
+
+  public static PlatformAPI create(SpApiSimulator simulator, SoftwareKeystoreSigner signer) throws Exception {
+    PlatformAPI api = mock(PlatformAPI.class);
+    ProxyProvider proxyProvider = mock(ProxyProvider.class);
+    when(proxyProvider.getProxyKey(any(HttpUriRequestBase.class))).thenReturn("direct");
+    when(api.getProxyProvider()).thenReturn(proxyProvider);
+    when(api.getSslCertificateProvider()).thenReturn(simulator.getCertificateProvider());
+    when(api.getSystray()).thenReturn(mock(Systray.class));
+    when(api.getEventsStorage()).thenReturn(mock(EventsStorage.class));
+    when(api.checkSession(any())).thenReturn(new Execution<>(true));
+    when(api.getCertificate(any(GetCertificateRequest.class)))
+        .thenAnswer(invocation -> signer.getCertificate((GetCertificateRequest) invocation.getArguments()[0]));
+    when(api.sign(any(SignatureRequest.class)))
+        .thenAnswer(invocation -> signer.sign((SignatureRequest) invocation.getArguments()[0]));
+    return api;
+  }
+
+}
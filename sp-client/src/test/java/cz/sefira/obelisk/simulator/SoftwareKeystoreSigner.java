@@ -0,0 +1,65 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.simulator;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.simulator.SoftwareKeystoreSigner
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import cz.sefira.obelisk.api.Execution;
+import cz.sefira.obelisk.api.ws.model.GetCertificateRequest;
+import cz.sefira.obelisk.api.ws.model.GetCertificateResponse;
+import cz.sefira.obelisk.api.ws.model.SignParameters;
+import cz.sefira.obelisk.api.ws.model.SignatureRequest;
+import cz.sefira.obelisk.api.ws.model.SignatureResponse;
+import cz.sefira.obelisk.dss.SignatureValue;
+import cz.sefira.obelisk.dss.token.DSSPrivateKeyEntry;
+import cz.sefira.obelisk.token.keystore.KeyStoreSignatureTokenConnection;
+
+import java.security.KeyStore.PasswordProtection;
+
+/**
+ * Software keystore product executing certificate and signature requests without user interaction
+ */
+public class SoftwareKeystoreSigner {
+
+  private final KeyStoreSignatureTokenConnection token;
+  private final DSSPrivateKeyEntry key;
+
+  public SoftwareKeystoreSigner() {
+    this.token = new KeyStoreSignatureTokenConnection(getClass().getResourceAsStream("/keystore.jks"), "JKS",
+        new PasswordProtection("password".toCharArray()));
+    this.key = token.getKeys().get(0);
+  }
+
+  public Execution<GetCertificateResponse> getCertificate(GetCertificateRequest request) {
+    GetCertificateResponse response = new GetCertificateResponse();
+    response.setCertificate(key.getCertificateToken());
+    response.setCertificateChain(key.getCertificateChain());
+    return new Execution<>(response);
+  }
+
+  public synchronized Execution<SignatureResponse> sign(SignatureRequest request) {
+    SignParameters params = request.getSignParams();
+    SignatureValue value = token.sign(params.getToBeSigned(), params.getDigestAlgorithm(), key);
+    return new Execution<>(new SignatureResponse(value, key.getCertificateToken(), key.getCertificateChain()));
+  }
+
+}
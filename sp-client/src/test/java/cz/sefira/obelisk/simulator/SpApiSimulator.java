@@ -0,0 +1,441 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.simulator;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.simulator.SpApiSimulator
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+import cz.sefira.obelisk.api.ws.model.*;
+import cz.sefira.obelisk.api.ws.ssl.SSLCertificateProvider;
+import cz.sefira.obelisk.dss.DigestAlgorithm;
+import cz.sefira.obelisk.json.GsonHelper;
+import org.apache.commons.codec.binary.Base64;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.SecureRandom;
+import java.security.cert.X509Certificate;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Embedded HTTPS server emulating SP API endpoints: magic-link action token, bearer token, work endpoint
+ * answering 202 while the request is pending, certificate and signature requests, 303 redirects between the
+ * operations and the supported devices database. Durations of the session phases are recorded.
+ */
+public class SpApiSimulator implements Closeable {
+
+  public static final String PHASE_TOKEN = "token";
+  public static final String PHASE_POLL = "poll";
+  public static final String PHASE_EXECUTE = "execute";
+  public static final String PHASE_SESSION = "session";
+
+  private static final String REALM_PATH = "/realms/sp";
+  private static final String ACTION_TOKEN_PATH = REALM_PATH + "/login-actions/action-token";
+  private static final String TOKEN_PATH = REALM_PATH + "/protocol/openid-connect/token";
+  private static final String WORK_PATH = "/api/v1/work/";
+
+  /**
+   * Simulated session behavior
+   */
+  public static class Scenario {
+
+    private int pendingPolls = 1;
+    private boolean redirect = true;
+    private List<String> operations = List.of(Operation.GET_CERTIFICATE, Operation.SIGN);
+
+    public Scenario pendingPolls(int pendingPolls) {
+      this.pendingPolls = pendingPolls;
+      return this;
+    }
+
+    /**
+     * Next operation is announced by 303 redirect (true) or returned directly in the result response (false)
+     */
+    public Scenario redirect(boolean redirect) {
+      this.redirect = redirect;
+      return this;
+    }
+
+    public Scenario operations(String... operations) {
+      this.operations = List.of(operations);
+      return this;
+    }
+  }
+
+  private final Scenario scenario;
+  private final HttpsServer server;
+  private final ExecutorService executor;
+  private final X509Certificate certificate;
+  private final Map<String, Link> links = new ConcurrentHashMap<>();
+  private final LatencyRecorder recorder = new LatencyRecorder();
+  private final AtomicInteger linkCounter = new AtomicInteger();
+  private final AtomicInteger completed = new AtomicInteger();
+  private final AtomicInteger failed = new AtomicInteger();
+  private final AtomicInteger deviceSyncs = new AtomicInteger();
+  private final Semaphore completions = new Semaphore(0);
+  private final SecureRandom random = new SecureRandom();
+  private final List<SmartcardInfo> devices;
+
+  public SpApiSimulator(Scenario scenario) throws Exception {
+    this.scenario = scenario;
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+    generator.initialize(256);
+    KeyPair keyPair = generator.generateKeyPair();
+    this.certificate = selfSigned(keyPair);
+    KeyStore keyStore = KeyStore.getInstance("PKCS12");
+    keyStore.load(null, null);
+    keyStore.setKeyEntry("server", keyPair.getPrivate(), new char[0], new X509Certificate[]{certificate});
+    KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+    kmf.init(keyStore, new char[0]);
+    SSLContext sslContext = SSLContext.getInstance("TLS");
+    sslContext.init(kmf.getKeyManagers(), null, null);
+    this.devices = Arrays.asList(GsonHelper.fromJson("[{\"atr\":\"3B:DF:18:00:81:31:FE:7D:00:6B:15:0C:01:81:01:11:01:43:4E:53:10:31:80:E8\"," +
+        "\"description\":\"Simulated card\",\"modelName\":\"SIM-1\",\"downloadUrl\":\"https://localhost/drivers\"," +
+        "\"drivers\":[\"libsim.so\"]}]", SmartcardInfo[].class));
+    this.server = HttpsServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 100);
+    this.server.setHttpsConfigurator(new HttpsConfigurator(sslContext));
+    this.executor = Executors.newFixedThreadPool(8, r -> {
+      Thread t = new Thread(r, "SpApiSimulator");
+      t.setDaemon(true);
+      return t;
+    });
+    this.server.setExecutor(executor);
+    this.server.createContext(ACTION_TOKEN_PATH, this::actionToken);
+    this.server.createContext(TOKEN_PATH, this::token);
+    this.server.createContext(WORK_PATH, this::work);
+    this.server.start();
+  }
+
+  /**
+   * Create new simulated session
+   * @return Magic link starting the session
+   */
+  public String newMagicLink() {
+    Link link = new Link(String.valueOf(linkCounter.incrementAndGet()), scenario.operations);
+    links.put(link.id, link);
+    return getBaseUrl() + ACTION_TOKEN_PATH + "?key=" + link.id;
+  }
+
+  /**
+   * Create queue message payload for new simulated session
+   * @return Payload as passed to the application by the browser
+   */
+  public String newMessagePayload() {
+    return "sp-client://sign?m=" + URLEncoder.encode(newMagicLink(), StandardCharsets.UTF_8);
+  }
+
+  public String getBaseUrl() {
+    return "https://localhost:" + server.getAddress().getPort();
+  }
+
+  /**
+   * Returns certificate provider trusting the simulator server certificate
+   */
+  public SSLCertificateProvider getCertificateProvider() throws Exception {
+    KeyStore trustStore = KeyStore.getInstance("PKCS12");
+    trustStore.load(null, null);
+    trustStore.setCertificateEntry("simulator", certificate);
+    SSLCertificateProvider provider = new SSLCertificateProvider(null);
+    provider.setTrustStore(trustStore);
+    provider.put(certificate);
+    return provider;
+  }
+
+  /**
+   * Returns SSL context trusting the simulator server certificate
+   */
+  public SSLContext getClientContext() throws Exception {
+    TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+    KeyStore trustStore = KeyStore.getInstance("PKCS12");
+    trustStore.load(null, null);
+    trustStore.setCertificateEntry("simulator", certificate);
+    tmf.init(trustStore);
+    SSLContext context = SSLContext.getInstance("TLS");
+    context.init(null, tmf.getTrustManagers(), null);
+    return context;
+  }
+
+  /**
+   * Wait until given number of sessions is completed
+   * @return True if sessions completed before the timeout elapsed
+   */
+  public boolean awaitCompleted(int sessions, long timeoutMillis) throws InterruptedException {
+    return completions.tryAcquire(sessions, timeoutMillis, TimeUnit.MILLISECONDS);
+  }
+
+  public int getCompleted() {
+    return completed.get();
+  }
+
+  /**
+   * Number of results reported as unsuccessful by the client
+   */
+  public int getFailed() {
+    return failed.get();
+  }
+
+  /**
+   * Number of work requests carrying the supported devices database
+   */
+  public int getDeviceSyncs() {
+    return deviceSyncs.get();
+  }
+
+  public LatencyRecorder getRecorder() {
+    return recorder;
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  private void actionToken(HttpExchange exchange) throws IOException {
+    Link link = links.get(queryParams(exchange.getRequestURI().getRawQuery()).get("key"));
+    if (link == null) {
+      send(exchange, 404, null);
+      return;
+    }
+    link.start = System.nanoTime();
+    exchange.getResponseHeaders().add("Location", getBaseUrl() + WORK_PATH + link.id + "?code=code-" + link.id +
+        "&session_state=state-" + link.id);
+    send(exchange, 302, null);
+  }
+
+  private void token(HttpExchange exchange) throws IOException {
+    Map<String, String> params = queryParams(new String(readBody(exchange), StandardCharsets.UTF_8));
+    String code = params.get("code");
+    Link link = code != null && code.startsWith("code-") ? links.get(code.substring(5)) : null;
+    if (link == null) {
+      send(exchange, 400, "{\"error\":\"invalid_grant\"}");
+      return;
+    }
+    if ("authorization_code".equals(params.get("grant_type"))) {
+      recorder.record(PHASE_TOKEN, millisSince(link.start));
+    }
+    long now = System.currentTimeMillis() / 1000;
+    JsonObject token = new JsonObject();
+    token.addProperty("access_token", jwt(link.id, now, 300));
+    token.addProperty("expires_in", 300);
+    token.addProperty("refresh_expires_in", 1800);
+    token.addProperty("refresh_token", jwt(link.id, now, 1800));
+    token.addProperty("token_type", "Bearer");
+    send(exchange, 200, token.toString());
+  }
+
+  private void work(HttpExchange exchange) throws IOException {
+    String id = exchange.getRequestURI().getPath().substring(WORK_PATH.length());
+    Link link = links.get(id);
+    String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+    if (link == null) {
+      send(exchange, 404, null);
+      return;
+    }
+    if (authorization == null || !authorization.startsWith("Bearer ")) {
+      send(exchange, 401, null);
+      return;
+    }
+    boolean devices = "true".equals(queryParams(exchange.getRequestURI().getRawQuery()).get("devices"));
+    synchronized (link) {
+      if ("POST".equals(exchange.getRequestMethod())) {
+        result(exchange, link, devices);
+      } else {
+        poll(exchange, link, devices);
+      }
+    }
+  }
+
+  private void poll(HttpExchange exchange, Link link, boolean devices) throws IOException {
+    if (link.operations.isEmpty()) {
+      send(exchange, 204, null);
+      return;
+    }
+    if (link.pollStart == 0) {
+      link.pollStart = System.nanoTime();
+    }
+    if (link.pending > 0) {
+      link.pending--;
+      send(exchange, 202, null);
+      return;
+    }
+    recorder.record(PHASE_POLL, millisSince(link.pollStart));
+    deliver(exchange, 200, link, devices);
+  }
+
+  private void result(HttpExchange exchange, Link link, boolean devices) throws IOException {
+    JsonObject result = GsonHelper.fromJson(readBody(exchange), JsonObject.class);
+    if (link.delivered == 0 || link.operations.isEmpty()) {
+      send(exchange, 409, null);
+      return;
+    }
+    recorder.record(PHASE_EXECUTE, millisSince(link.delivered));
+    if (result == null || !result.has("success") || !result.get("success").getAsBoolean()) {
+      failed.incrementAndGet();
+    }
+    link.operations.poll();
+    link.delivered = 0;
+    link.pollStart = 0;
+    link.pending = scenario.pendingPolls;
+    if (link.operations.isEmpty()) {
+      recorder.record(PHASE_SESSION, millisSince(link.start));
+      completed.incrementAndGet();
+      send(exchange, 204, null);
+      completions.release();
+    } else if (scenario.redirect) {
+      exchange.getResponseHeaders().add("Location", getBaseUrl() + WORK_PATH + link.id);
+      send(exchange, 303, null);
+    } else {
+      deliver(exchange, 200, link, devices);
+    }
+  }
+
+  private void deliver(HttpExchange exchange, int status, Link link, boolean devices) throws IOException {
+    BaseRequest request;
+    String operation = link.operations.peek();
+    if (Operation.SIGN.equals(operation)) {
+      SignParameters params = new SignParameters();
+      params.setStepId(link.step++);
+      params.setDigestAlgorithm(DigestAlgorithm.SHA256);
+      byte[] toBeSigned = new byte[64];
+      random.nextBytes(toBeSigned);
+      params.setToBeSigned(toBeSigned);
+      SignatureRequest signatureRequest = new SignatureRequest();
+      signatureRequest.setSignParams(params);
+      request = signatureRequest;
+    } else {
+      request = new GetCertificateRequest();
+    }
+    request.setOperation(operation);
+    request.setDescription("Simulated " + operation + " request " + link.id);
+    request.setUserInteraction(false);
+    request.setSession(new SessionValue("session-" + link.id, "signature-" + link.id));
+    if (devices) {
+      request.setSmartcards(this.devices);
+      deviceSyncs.incrementAndGet();
+    }
+    link.delivered = System.nanoTime();
+    send(exchange, status, GsonHelper.toJson(request));
+  }
+
+  private static byte[] readBody(HttpExchange exchange) throws IOException {
+    InputStream in = exchange.getRequestBody();
+    if ("gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+      in = new GZIPInputStream(in);
+    }
+    try (InputStream body = in) {
+      return body.readAllBytes();
+    }
+  }
+
+  private static void send(HttpExchange exchange, int status, String json) throws IOException {
+    byte[] body = json != null ? json.getBytes(StandardCharsets.UTF_8) : null;
+    if (body != null) {
+      exchange.getResponseHeaders().add("Content-Type", "application/json");
+    }
+    // empty body is sent chunked, keep-alive connection with -1 length breaks following POST on the JDK server
+    exchange.sendResponseHeaders(status, body != null ? body.length : status == 204 ? -1 : 0);
+    try (OutputStream out = exchange.getResponseBody()) {
+      if (body != null) {
+        out.write(body);
+      }
+    }
+    exchange.close();
+  }
+
+  private static Map<String, String> queryParams(String query) {
+    Map<String, String> params = new HashMap<>();
+    if (query != null) {
+      for (String pair : query.split("&")) {
+        String[] kv = pair.split("=", 2);
+        params.put(URLDecoder.decode(kv[0], StandardCharsets.UTF_8),
+            kv.length > 1 ? URLDecoder.decode(kv[1], StandardCharsets.UTF_8) : "");
+      }
+    }
+    return params;
+  }
+
+  private static long millisSince(long nanoTime) {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - nanoTime);
+  }
+
+  private static String jwt(String subject, long issuedAt, long lifetime) {
+    String payload = "{\"sub\":\"link-" + subject + "\",\"iat\":" + issuedAt + ",\"exp\":" + (issuedAt + lifetime) + "}";
+    return "eyJhbGciOiJSUzI1NiJ9." + Base64.encodeBase64URLSafeString(payload.getBytes(StandardCharsets.UTF_8)) +
+        ".c2ln";
+  }
+
+  private static X509Certificate selfSigned(KeyPair keyPair) throws Exception {
+    long now = System.currentTimeMillis();
+    JcaX509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(new X500Name("CN=localhost"),
+        BigInteger.valueOf(now), new Date(now - 60000), new Date(now + 86400000), new X500Name("CN=localhost"),
+        keyPair.getPublic());
+    builder.addExtension(Extension.subjectAlternativeName, false, new GeneralNames(new GeneralName[]{
+        new GeneralName(GeneralName.dNSName, "localhost"), new GeneralName(GeneralName.iPAddress, "127.0.0.1")}));
+    return new JcaX509CertificateConverter().getCertificate(
+        builder.build(new JcaContentSignerBuilder("SHA256withECDSA").build(keyPair.getPrivate())));
+  }
+
+  private class Link {
+
+    private final String id;
+    private final Deque<String> operations;
+    private int pending = scenario.pendingPolls;
+    private long step = 1;
+    private long start;
+    private long pollStart;
+    private long delivered;
+
+    private Link(String id, List<String> operations) {
+      this.id = id;
+      this.operations = new ArrayDeque<>(operations);
+    }
+  }
+
+}
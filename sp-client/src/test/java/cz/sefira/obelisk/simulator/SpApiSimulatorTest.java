@@ -0,0 +1,149 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.simulator;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.simulator.SpApiSimulatorTest
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import com.google.gson.JsonObject;
+import cz.sefira.obelisk.api.ws.model.Operation;
+import cz.sefira.obelisk.json.GsonHelper;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * JUnit test for {@link SpApiSimulator} protocol emulation.
+ */
+public class SpApiSimulatorTest {
+
+  private SpApiSimulator simulator;
+  private HttpClient client;
+
+  @Before
+  public void setUp() throws Exception {
+    simulator = new SpApiSimulator(new SpApiSimulator.Scenario().pendingPolls(1));
+    client = HttpClient.newBuilder().sslContext(simulator.getClientContext())
+        .followRedirects(HttpClient.Redirect.NEVER).build();
+  }
+
+  @After
+  public void tearDown() {
+    simulator.close();
+  }
+
+  @Test
+  public void testSession() throws Exception {
+    // magic link
+    HttpResponse<String> response = get(simulator.newMagicLink(), null);
+    Assert.assertEquals(302, response.statusCode());
+    String location = response.headers().firstValue("Location").orElseThrow();
+    Assert.assertTrue(location.contains("code=code-1"));
+    Assert.assertTrue(location.contains("session_state=state-1"));
+    String workUrl = location.substring(0, location.indexOf('?'));
+
+    // token
+    String form = "grant_type=authorization_code&code=code-1&redirect_uri=" +
+        URLEncoder.encode(workUrl, StandardCharsets.UTF_8);
+    response = client.send(HttpRequest.newBuilder(URI.create(simulator.getBaseUrl() +
+            "/realms/sp/protocol/openid-connect/token")).header("Content-Type", "application/x-www-form-urlencoded")
+        .POST(HttpRequest.BodyPublishers.ofString(form)).build(), HttpResponse.BodyHandlers.ofString());
+    Assert.assertEquals(200, response.statusCode());
+    JsonObject token = GsonHelper.fromJson(response.body().getBytes(StandardCharsets.UTF_8), JsonObject.class);
+    String bearer = "Bearer " + token.get("access_token").getAsString();
+    Assert.assertEquals(300, token.get("expires_in").getAsInt());
+
+    // work requests
+    Assert.assertEquals(401, get(workUrl, null).statusCode());
+    Assert.assertEquals(202, get(workUrl + "?devices=true", bearer).statusCode());
+    response = get(workUrl + "?devices=true", bearer);
+    Assert.assertEquals(200, response.statusCode());
+    JsonObject request = GsonHelper.fromJson(response.body().getBytes(StandardCharsets.UTF_8), JsonObject.class);
+    Assert.assertEquals(Operation.GET_CERTIFICATE, request.get("operation").getAsString());
+    Assert.assertEquals(1, request.getAsJsonArray("smartcards").size());
+    Assert.assertEquals(1, simulator.getDeviceSyncs());
+
+    // result redirects to next operation
+    response = post(workUrl, bearer, "{\"success\":true}");
+    Assert.assertEquals(303, response.statusCode());
+    Assert.assertEquals(workUrl, response.headers().firstValue("Location").orElseThrow());
+    Assert.assertEquals(202, get(workUrl + "?devices=false", bearer).statusCode());
+    response = get(workUrl + "?devices=false", bearer);
+    request = GsonHelper.fromJson(response.body().getBytes(StandardCharsets.UTF_8), JsonObject.class);
+    Assert.assertEquals(Operation.SIGN, request.get("operation").getAsString());
+    Assert.assertFalse(request.has("smartcards"));
+    Assert.assertEquals(1, request.getAsJsonObject("signParams").get("stepId").getAsLong());
+
+    // last result finishes the session
+    Assert.assertEquals(204, post(workUrl, bearer, "{\"success\":false}").statusCode());
+    Assert.assertEquals(204, get(workUrl, bearer).statusCode());
+    Assert.assertTrue(simulator.awaitCompleted(1, 1000));
+    Assert.assertEquals(1, simulator.getFailed());
+
+    LatencyRecorder recorder = simulator.getRecorder();
+    Assert.assertEquals(1, recorder.count(SpApiSimulator.PHASE_TOKEN));
+    Assert.assertEquals(2, recorder.count(SpApiSimulator.PHASE_POLL));
+    Assert.assertEquals(2, recorder.count(SpApiSimulator.PHASE_EXECUTE));
+    Assert.assertEquals(1, recorder.count(SpApiSimulator.PHASE_SESSION));
+    Assert.assertTrue(recorder.report(1000, 1).contains("throughput 1.00 sessions/s"));
+  }
+
+  @Test
+  public void testUnknownLink() throws Exception {
+    Assert.assertEquals(404, get(simulator.getBaseUrl() + "/realms/sp/login-actions/action-token?key=x", null)
+        .statusCode());
+  }
+
+  @Test
+  public void testPercentile() {
+    LatencyRecorder recorder = new LatencyRecorder();
+    Assert.assertEquals(-1, recorder.percentile("poll", 0.5));
+    for (int i = 1; i <= 100; i++) {
+      recorder.record("poll", i);
+    }
+    Assert.assertEquals(50, recorder.percentile("poll", 0.5));
+    Assert.assertEquals(99, recorder.percentile("poll", 0.99));
+    Assert.assertEquals(100, recorder.percentile("poll", 1));
+  }
+
+  private HttpResponse<String> get(String url, String authorization) throws Exception {
+    HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url)).GET();
+    if (authorization != null) {
+      builder.header("Authorization", authorization);
+    }
+    return client.send(builder.build(), HttpResponse.BodyHandlers.ofString());
+  }
+
+  private HttpResponse<String> post(String url, String authorization, String json) throws Exception {
+    return client.send(HttpRequest.newBuilder(URI.create(url)).header("Authorization", authorization)
+            .header("Content-Type", "application/json").POST(HttpRequest.BodyPublishers.ofString(json)).build(),
+        HttpResponse.BodyHandlers.ofString());
+  }
+
+}
@@ -0,0 +1,177 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.storage;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.storage.SSLCacheStorageTest
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import cz.sefira.obelisk.storage.handler.X509CertificateTypeHandler;
+import cz.sefira.obelisk.storage.model.CertificateChain;
+import cz.sefira.obelisk.storage.model.SSLCacheEntry;
+import one.microstream.storage.embedded.types.EmbeddedStorage;
+import one.microstream.storage.embedded.types.EmbeddedStorageFoundation;
+import one.microstream.storage.embedded.types.EmbeddedStorageManager;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.X509Certificate;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * JUnit test for {@link SSLCacheStorage} index, lazy loading, eviction and migration of the legacy cache
+ */
+public class SSLCacheStorageTest {
+
+  private static final long DAY = 24 * 60 * 60 * 1000L;
+
+  private Path directory;
+  private Path store;
+
+  @Before
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("storage");
+    store = directory.resolve("ssl-cache");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    try (Stream<Path> files = Files.walk(directory)) {
+      files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+    }
+  }
+
+  @Test
+  public void testAddAndFind() throws Exception {
+    List<X509Certificate> chain = chain("CN=Intermediate A");
+    try (SSLCacheStorage cache = new SSLCacheStorage(store, null, 10, DAY)) {
+      Assert.assertTrue(cache.add(chain));
+      Assert.assertFalse(cache.add(new ArrayList<>(chain)));
+      Assert.assertEquals(1, cache.size());
+      List<SSLCacheEntry> found = cache.findBySubject(chain.get(0).getSubjectX500Principal());
+      Assert.assertEquals(1, found.size());
+      Assert.assertEquals(SSLCacheStorage.fingerprint(chain), found.get(0).getFingerprint());
+      Assert.assertEquals(found, cache.findBySubject(chain.get(1).getSubjectX500Principal()));
+      Assert.assertEquals(chain, cache.load(found.get(0)));
+      cache.remove(found.get(0).getFingerprint());
+      Assert.assertTrue(cache.findBySubject(chain.get(0).getSubjectX500Principal()).isEmpty());
+      Assert.assertEquals(0, cache.size());
+    }
+  }
+
+  @Test
+  public void testLazyLoading() throws Exception {
+    List<X509Certificate> chain = chain("CN=Intermediate A");
+    try (SSLCacheStorage cache = new SSLCacheStorage(store, null, 10, DAY)) {
+      cache.add(chain);
+    }
+    try (SSLCacheStorage cache = new SSLCacheStorage(store, null, 10, DAY)) {
+      SSLCacheEntry entry = cache.get(SSLCacheStorage.fingerprint(chain));
+      Assert.assertNotNull(entry);
+      // only the metadata are loaded at startup
+      Assert.assertFalse(entry.isLoaded());
+      Assert.assertEquals(List.of(entry), cache.findBySubject(chain.get(0).getSubjectX500Principal()));
+      Assert.assertEquals(chain, cache.load(entry));
+      Assert.assertTrue(entry.isLoaded());
+    }
+  }
+
+  @Test
+  public void testEviction() throws Exception {
+    List<X509Certificate> first = chain("CN=Intermediate A");
+    List<X509Certificate> second = chain("CN=Intermediate B");
+    List<X509Certificate> third = chain("CN=Intermediate C");
+    try (SSLCacheStorage cache = new SSLCacheStorage(store, null, 2, DAY)) {
+      cache.add(first);
+      Thread.sleep(5);
+      cache.add(second);
+      Thread.sleep(5);
+      cache.add(third);
+      // least recently used chain is evicted above the size limit
+      Assert.assertEquals(2, cache.size());
+      Assert.assertNull(cache.get(SSLCacheStorage.fingerprint(first)));
+      Assert.assertNotNull(cache.get(SSLCacheStorage.fingerprint(third)));
+    }
+    Thread.sleep(5);
+    // expired chains are evicted at startup
+    try (SSLCacheStorage cache = new SSLCacheStorage(store, null, 2, 1)) {
+      Assert.assertEquals(0, cache.size());
+    }
+  }
+
+  @Test
+  public void testMigration() throws Exception {
+    Path legacyStore = directory.resolve("ssl");
+    List<X509Certificate> chain = chain("CN=Intermediate A");
+    Set<CertificateChain> chains = new HashSet<>();
+    EmbeddedStorageFoundation<?> foundation = EmbeddedStorage.Foundation(legacyStore);
+    foundation.registerTypeHandler(new X509CertificateTypeHandler());
+    EmbeddedStorageManager legacy = foundation.createEmbeddedStorageManager(chains).start();
+    chains.add(new CertificateChain(chain));
+    legacy.storeRoot();
+    legacy.shutdown();
+
+    try (SSLCacheStorage cache = new SSLCacheStorage(store, legacyStore, 10, DAY)) {
+      Assert.assertEquals(1, cache.size());
+      Assert.assertEquals(chain, cache.load(cache.get(SSLCacheStorage.fingerprint(chain))));
+    }
+    Assert.assertFalse(Files.exists(legacyStore));
+    // migrated chains are persisted
+    try (SSLCacheStorage cache = new SSLCacheStorage(store, legacyStore, 10, DAY)) {
+      Assert.assertEquals(1, cache.size());
+    }
+  }
+
+  /**
+   * Intermediate and root certificate
+   */
+  private static List<X509Certificate> chain(String subject) throws Exception {
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+    generator.initialize(256);
+    KeyPair rootKeys = generator.generateKeyPair();
+    X509Certificate root = certificate("CN=Root", rootKeys, rootKeys);
+    X509Certificate intermediate = certificate(subject, generator.generateKeyPair(), rootKeys);
+    return List.of(intermediate, root);
+  }
+
+  private static X509Certificate certificate(String subject, KeyPair subjectKeys, KeyPair issuerKeys) throws Exception {
+    long now = System.currentTimeMillis();
+    String issuer = subjectKeys == issuerKeys ? subject : "CN=Root";
+    JcaX509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(new X500Name(issuer),
+        BigInteger.valueOf(now), new Date(now - 60000), new Date(now + 3600000), new X500Name(subject),
+        subjectKeys.getPublic());
+    return new JcaX509CertificateConverter().getCertificate(builder.build(
+        new JcaContentSignerBuilder("SHA256withECDSA").build(issuerKeys.getPrivate())));
+  }
+
+}
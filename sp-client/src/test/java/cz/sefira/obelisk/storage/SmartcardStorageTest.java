@@ -0,0 +1,119 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.storage;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.storage.SmartcardStorageTest
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import cz.sefira.obelisk.api.ws.model.SmartcardInfo;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * JUnit test for {@link SmartcardStorage} incremental updates
+ */
+public class SmartcardStorageTest {
+
+  private Path store;
+
+  @Before
+  public void setUp() throws IOException {
+    store = Files.createTempDirectory("smartcards");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    try (Stream<Path> files = Files.walk(store)) {
+      files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+    }
+  }
+
+  @Test
+  public void testUnchangedNotStored() {
+    try (CountingStorage storage = new CountingStorage(store)) {
+      Assert.assertEquals(2, storage.setSmartcards(List.of(card("3B01", "a.so"), card("3B02", "b.so"))));
+      Assert.assertEquals(1, storage.writes);
+      // same content
+      Assert.assertEquals(0, storage.setSmartcards(List.of(card("3B01", "a.so"), card("3B02", "b.so"))));
+      Assert.assertEquals(0, storage.update(Collections.emptyList(), List.of("3BFF")));
+      Assert.assertEquals(1, storage.writes);
+    }
+  }
+
+  @Test
+  public void testUpdate() {
+    try (CountingStorage storage = new CountingStorage(store)) {
+      storage.setSmartcards(List.of(card("3B01", "a.so"), card("3B02", "b.so"), card("3B03", "c.so")));
+      // changed entry replaced in place, new one appended, removed one dropped
+      Assert.assertEquals(3, storage.update(List.of(card("3B02", "b2.so"), card("3B04", "d.so")), List.of("3B01")));
+      Assert.assertEquals(2, storage.writes);
+      Map<String, SmartcardInfo> infos = storage.getSmartcardInfosMap();
+      Assert.assertEquals(3, infos.size());
+      Assert.assertFalse(infos.containsKey("3B01"));
+      Assert.assertEquals("b2.so", infos.get("3B02").getDrivers().get(0));
+      // index is consistent after removal
+      Assert.assertEquals(1, storage.setSmartcards(List.of(card("3B03", "c2.so"))));
+      Assert.assertEquals("c2.so", storage.getSmartcardInfosMap().get("3B03").getDrivers().get(0));
+    }
+    // changes are persisted
+    try (SmartcardStorage storage = new SmartcardStorage(store)) {
+      Map<String, SmartcardInfo> infos = storage.getSmartcardInfosMap();
+      Assert.assertEquals(3, infos.size());
+      Assert.assertEquals("b2.so", infos.get("3B02").getDrivers().get(0));
+      Assert.assertEquals("c2.so", infos.get("3B03").getDrivers().get(0));
+      Assert.assertEquals("d.so", infos.get("3B04").getDrivers().get(0));
+      Assert.assertEquals(0, storage.setSmartcards(List.of(card("3B04", "d.so"))));
+    }
+  }
+
+  private static SmartcardInfo card(String atr, String driver) {
+    SmartcardInfo info = new SmartcardInfo(atr, driver);
+    info.setModelName("Model " + atr);
+    return info;
+  }
+
+  private static class CountingStorage extends SmartcardStorage {
+
+    private int writes;
+
+    private CountingStorage(Path store) {
+      super(store);
+    }
+
+    @Override
+    protected void storeChange(Object root) {
+      writes++;
+      super.storeChange(root);
+    }
+  }
+
+}
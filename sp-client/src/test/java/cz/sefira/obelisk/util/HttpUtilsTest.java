@@ -0,0 +1,92 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.util;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.util.HttpUtilsTest
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import com.google.gson.JsonElement;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.io.entity.AbstractHttpEntity;
+import org.apache.hc.core5.http.io.entity.BasicHttpEntity;
+import org.apache.hc.core5.http.io.entity.ByteArrayEntity;
+import org.apache.hc.core5.http.io.entity.StringEntity;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * JUnit test for response body reading of {@link HttpUtils}.
+ */
+public class HttpUtilsTest {
+
+  @Test
+  public void testReadJson() throws Exception {
+    JsonElement json = HttpUtils.readJson(new StringEntity("{\"operation\":\"SIGN\",\"values\":[1,2]}",
+        ContentType.APPLICATION_JSON));
+    Assert.assertEquals("SIGN", json.getAsJsonObject().get("operation").getAsString());
+    Assert.assertEquals(2, json.getAsJsonObject().getAsJsonArray("values").size());
+    Assert.assertTrue(HttpUtils.readJson(new StringEntity("", ContentType.APPLICATION_JSON)).isJsonNull());
+  }
+
+  @Test
+  public void testReadMalformedJson() {
+    IOException e = Assert.assertThrows(IOException.class,
+        () -> HttpUtils.readJson(new StringEntity("{\"operation\":", ContentType.APPLICATION_JSON)));
+    Assert.assertNotNull(e.getCause());
+  }
+
+  @Test
+  public void testReadContent() throws Exception {
+    byte[] body = "content".getBytes(StandardCharsets.UTF_8);
+    Assert.assertArrayEquals(body, HttpUtils.readContent(new ByteArrayEntity(body, ContentType.TEXT_PLAIN)));
+    // declared length longer than the body
+    Assert.assertThrows(EOFException.class, () -> HttpUtils.readContent(
+        new BasicHttpEntity(new ByteArrayInputStream(body), body.length + 1, ContentType.TEXT_PLAIN)));
+    // declared length without content stream
+    Assert.assertNull(HttpUtils.readContent(new AbstractHttpEntity(ContentType.TEXT_PLAIN, null) {
+      @Override
+      public InputStream getContent() {
+        return null;
+      }
+
+      @Override
+      public long getContentLength() {
+        return body.length;
+      }
+
+      @Override
+      public boolean isStreaming() {
+        return false;
+      }
+
+      @Override
+      public void close() {
+      }
+    }));
+  }
+
+}
@@ -48,6 +48,20 @@ public class AppConfig {
   private static final String TOKEN_ENDPOINT = "token_endpoint";
   private static final String WINDOWS_INSTALLED_PATH = "windows_installed_path";
   private static final String USER_PREFERENCES_EDITABLE = "user_preferences_editable";
+  private static final String IPC_QUEUE = "ipc_queue";
+  private static final String LINK_COALESCE_WINDOW = "link_coalesce_window";
+  private static final String HTTP_TRANSPORT = "http_transport";
+  private static final String HTTP_COMPRESS_REQUESTS = "http_compress_requests";
+  private static final String HTTP_CIRCUIT_FAILURE_THRESHOLD = "http_circuit_failure_threshold";
+  private static final String HTTP_CIRCUIT_OPEN_DURATION = "http_circuit_open_duration";
+  private static final String POLLING_STRATEGY = "polling_strategy";
+  private static final String POLLING_LONG_WAIT = "polling_long_wait";
+  private static final String SMARTCARDS_ENDPOINT = "smartcards_endpoint";
+  private static final String TRACING_ENABLED = "tracing_enabled";
+  private static final String TRACING_EXPORT = "tracing_export";
+  private static final String OUTBOX_EXPIRATION = "outbox_expiration";
+  private static final String SSL_CACHE_MAX_SIZE = "ssl_cache_max_size";
+  private static final String SSL_CACHE_EXPIRATION = "ssl_cache_expiration";
 
   private static final Logger logger = LoggerFactory.getLogger(AppConfig.class.getName());
 
@@ -70,6 +84,21 @@ public class AppConfig {
 
   private boolean userPreferencesEditable;
 
+  private String ipcQueue;
+  private long linkCoalesceWindow;
+  private String httpTransport;
+  private boolean httpCompressRequests;
+  private int httpCircuitFailureThreshold;
+  private long httpCircuitOpenDuration;
+  private String pollingStrategy;
+  private long pollingLongWait;
+  private String smartcardsEndpoint;
+  private boolean tracingEnabled;
+  private boolean tracingExport;
+  private long outboxExpiration;
+  private int sslCacheMaxSize;
+  private long sslCacheExpiration;
+
   private String backgroundLogo;
   private byte[] iconLogo;
 
@@ -133,6 +162,21 @@ public class AppConfig {
     this.setWindowsInstalledPath(
         props.getProperty(WINDOWS_INSTALLED_PATH, "C:\\Program Files\\SEFIRA\\OBELISK Signing Portal Client v2\\"));
 
+    this.setIpcQueue(props.getProperty(IPC_QUEUE, "file"));
+    this.setLinkCoalesceWindow(Long.parseLong(props.getProperty(LINK_COALESCE_WINDOW, "5000")));
+    this.setHttpTransport(props.getProperty(HTTP_TRANSPORT, "classic"));
+    this.setHttpCompressRequests(Boolean.parseBoolean(props.getProperty(HTTP_COMPRESS_REQUESTS, "false")));
+    this.setHttpCircuitFailureThreshold(Integer.parseInt(props.getProperty(HTTP_CIRCUIT_FAILURE_THRESHOLD, "5")));
+    this.setHttpCircuitOpenDuration(Long.parseLong(props.getProperty(HTTP_CIRCUIT_OPEN_DURATION, "30000")));
+    this.setPollingStrategy(props.getProperty(POLLING_STRATEGY, "adaptive"));
+    this.setPollingLongWait(Long.parseLong(props.getProperty(POLLING_LONG_WAIT, "20")));
+    this.setSmartcardsEndpoint(props.getProperty(SMARTCARDS_ENDPOINT, ""));
+    this.setTracingEnabled(Boolean.parseBoolean(props.getProperty(TRACING_ENABLED, "true")));
+    this.setTracingExport(Boolean.parseBoolean(props.getProperty(TRACING_EXPORT, "false")));
+    this.setOutboxExpiration(Long.parseLong(props.getProperty(OUTBOX_EXPIRATION, "3600000")));
+    this.setSslCacheMaxSize(Integer.parseInt(props.getProperty(SSL_CACHE_MAX_SIZE, "500")));
+    this.setSslCacheExpiration(Long.parseLong(props.getProperty(SSL_CACHE_EXPIRATION, "15552000000")));
+
     this.setTicketUrl(props.getProperty(TICKET_URL, "ob-support@sefira.cz"));
     this.setEnableIncidentReport(Boolean.parseBoolean(props.getProperty(ENABLE_INCIDENT_REPORT, "false")));
   }
@@ -177,6 +221,104 @@ public class AppConfig {
     return windowsInstalledPath;
   }
 
+  /**
+   * IPC message queue engine (socket, file or mapped)
+   */
+  public String getIpcQueue() {
+    return ipcQueue;
+  }
+
+  /**
+   * Period in milliseconds in which repeated identical links are coalesced into a single execution
+   */
+  public long getLinkCoalesceWindow() {
+    return linkCoalesceWindow;
+  }
+
+  /**
+   * HTTP transport of the SP API client (classic or async)
+   */
+  public String getHttpTransport() {
+    return httpTransport;
+  }
+
+  /**
+   * Send SP API request bodies gzip compressed (server must accept Content-Encoding: gzip)
+   */
+  public boolean isHttpCompressRequests() {
+    return httpCompressRequests;
+  }
+
+  /**
+   * Consecutive failures of SP API host opening its circuit breaker
+   */
+  public int getHttpCircuitFailureThreshold() {
+    return httpCircuitFailureThreshold;
+  }
+
+  /**
+   * Period (ms) the open circuit breaker fails requests fast before letting a probe through
+   */
+  public long getHttpCircuitOpenDuration() {
+    return httpCircuitOpenDuration;
+  }
+
+  /**
+   * Polling of pending SP API work (fixed, adaptive or long-poll)
+   */
+  public String getPollingStrategy() {
+    return pollingStrategy;
+  }
+
+  /**
+   * Period (s) the server may hold long-poll request open
+   */
+  public long getPollingLongWait() {
+    return pollingLongWait;
+  }
+
+  /**
+   * Supported smartcards database endpoint (relative to SP API work URL), empty = database is sent with work request
+   */
+  public String getSmartcardsEndpoint() {
+    return smartcardsEndpoint;
+  }
+
+  /**
+   * Record flow timeline spans and propagate trace context (traceparent) to SP API
+   */
+  public boolean isTracingEnabled() {
+    return tracingEnabled;
+  }
+
+  /**
+   * Export flow timelines as JSON files to the application user home
+   */
+  public boolean isTracingExport() {
+    return tracingExport;
+  }
+
+  /**
+   * Period (ms) undelivered flow results are kept in the outbox and delivery is retried
+   */
+  public long getOutboxExpiration() {
+    return outboxExpiration;
+  }
+
+  /**
+   * Maximum number of cached SSL certificate chains, least recently used chains are evicted
+   */
+  public int getSslCacheMaxSize() {
+    return sslCacheMaxSize;
+  }
+
+  /**
+   * Period (ms) after which unused cached SSL certificate chain is evicted
+   */
+  public long getSslCacheExpiration() {
+    return sslCacheExpiration;
+  }
+
   public File getAppUserHome() {
     if (this.appUserHome != null) {
       return this.appUserHome;
@@ -312,6 +454,62 @@ public class AppConfig {
     this.windowsInstalledPath = windowsInstalledPath;
   }
 
+  private void setIpcQueue(String ipcQueue) {
+    this.ipcQueue = ipcQueue;
+  }
+
+  private void setLinkCoalesceWindow(long linkCoalesceWindow) {
+    this.linkCoalesceWindow = linkCoalesceWindow;
+  }
+
+  private void setHttpTransport(String httpTransport) {
+    this.httpTransport = httpTransport;
+  }
+
+  private void setHttpCompressRequests(boolean httpCompressRequests) {
+    this.httpCompressRequests = httpCompressRequests;
+  }
+
+  private void setHttpCircuitFailureThreshold(int httpCircuitFailureThreshold) {
+    this.httpCircuitFailureThreshold = httpCircuitFailureThreshold;
+  }
+
+  private void setHttpCircuitOpenDuration(long httpCircuitOpenDuration) {
+    this.httpCircuitOpenDuration = httpCircuitOpenDuration;
+  }
+
+  private void setPollingStrategy(String pollingStrategy) {
+    this.pollingStrategy = pollingStrategy;
+  }
+
+  private void setPollingLongWait(long pollingLongWait) {
+    this.pollingLongWait = pollingLongWait;
+  }
+
+  private void setSmartcardsEndpoint(String smartcardsEndpoint) {
+    this.smartcardsEndpoint = smartcardsEndpoint;
+  }
+
+  private void setTracingEnabled(boolean tracingEnabled) {
+    this.tracingEnabled = tracingEnabled;
+  }
+
+  private void setTracingExport(boolean tracingExport) {
+    this.tracingExport = tracingExport;
+  }
+
+  private void setOutboxExpiration(long outboxExpiration) {
+    this.outboxExpiration = outboxExpiration;
+  }
+
+  private void setSslCacheMaxSize(int sslCacheMaxSize) {
+    this.sslCacheMaxSize = sslCacheMaxSize;
+  }
+
+  private void setSslCacheExpiration(long sslCacheExpiration) {
+    this.sslCacheExpiration = sslCacheExpiration;
+  }
+
   private void setTicketUrl(final String ticketUrl) {
     this.ticketUrl = ticketUrl;
   }
@@ -28,16 +28,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.nio.file.*;
 import java.util.*;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 
 import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
 
 /**
  * IPC message queue between N-instances of Launcher and 1 client
@@ -48,8 +46,26 @@ public final class FileMessageQueue implements MessageQueue {
   private static final String messageFilesDir = "queue";
   private static final String fileExt = ".obmsg";
   private static final String partExt = ".obmsg.part";
+  private static final String signalExt = ".obsignal";
+  private static final String sequenceFile = "queue.seq";
+  private static final long POLL_PERIOD_MILLIS = 500;
+  private static final int DELIVERED_IDS_LIMIT = 1024;
 
   private final AppConfig appConfig;
+  private final Queue<Message> delivered = new ConcurrentLinkedQueue<>();
+  // IDs of recently consumed messages, message arriving by more transports is consumed only once
+  private final Set<String> deliveredIds = Collections.newSetFromMap(new LinkedHashMap<>() {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+      return size() > DELIVERED_IDS_LIMIT;
+    }
+  });
+  private MessageIdGenerator idGenerator;
+
+  private final Object signal = new Object();
+  private boolean signalled = false;
+  private Thread watcher;
+  private boolean watchUnavailable = false;
 
   FileMessageQueue(AppConfig appConfig) {
     this.appConfig = appConfig;
@@ -64,6 +80,7 @@ public final class FileMessageQueue implements MessageQueue {
         out.write(message); // TODO - encrypt message?
       }
       Files.move(filename, Paths.get(messagesDir, filenameId + fileExt), ATOMIC_MOVE);
+      signal();
       return filenameId + fileExt;
     }
     catch (Exception e) {
@@ -81,6 +98,7 @@ public final class FileMessageQueue implements MessageQueue {
         out.write(message.getPayload()); // TODO - encrypt message?
       }
       Files.move(filename, Paths.get(messagesDir, filenameId + fileExt), ATOMIC_MOVE);
+      signal();
       return filenameId + fileExt;
     } catch (Exception e) {
       logger.error("Failed to push message object to queue: "+e.getMessage(), e);
@@ -89,51 +107,217 @@ public final class FileMessageQueue implements MessageQueue {
   }
 
   public Message getMessage() throws Exception {
+    List<Message> messages = drain(1);
+    return messages.isEmpty() ? null : messages.get(0);
+  }
+
+  public List<Message> drain(int max) throws Exception {
+    List<Message> messages = new ArrayList<>();
+    // messages delivered directly by other transport come first
+    Message message;
+    while (messages.size() < max && (message = delivered.poll()) != null) {
+      if (firstDelivery(message.getId())) {
+        messages.add(message);
+      }
+    }
+    if (messages.size() >= max) {
+      return messages;
+    }
     try {
-      String messagesDir = getMessagesDirectory();
-      try (Stream<Path> list = Files.list(Paths.get(messagesDir))) {
-        List<Path> msgFiles = list.filter(Files::isRegularFile)
-            .filter(file -> file.getFileName().toString().endsWith(fileExt))
-            .collect(Collectors.toList());
-        if (!msgFiles.isEmpty()) {
-          msgFiles.sort(Comparator.comparing(file -> file.getFileName().toString()));
-          Path msgFile = msgFiles.get(0);
-          try {
-            String fileMessageName = msgFile.getFileName().toString();
-            Long timestamp = getMessageIdTimestamp(fileMessageName);
-            return new Message(fileMessageName, timestamp, Files.readAllBytes(msgFile)); // TODO - decrypt message?
+      // message IDs sort in FIFO order, so keep only the lowest names in a single pass over the directory
+      final int limit = max - messages.size();
+      PriorityQueue<Path> lowest = new PriorityQueue<>(limit, Comparator.comparing(Path::getFileName).reversed());
+      try (DirectoryStream<Path> list = Files.newDirectoryStream(Paths.get(getMessagesDirectory()), "*" + fileExt)) {
+        for (Path file : list) {
+          lowest.add(file);
+          if (lowest.size() > limit) {
+            lowest.poll();
           }
-          finally {
-            Files.delete(msgFile);
+        }
+      }
+      List<Path> msgFiles = new ArrayList<>(lowest);
+      msgFiles.sort(Comparator.comparing(Path::getFileName));
+      for (Path msgFile : msgFiles) {
+        try {
+          String fileMessageName = msgFile.getFileName().toString();
+          Long timestamp = getMessageIdTimestamp(fileMessageName);
+          if (firstDelivery(fileMessageName)) {
+            messages.add(new Message(fileMessageName, timestamp, Files.readAllBytes(msgFile))); // TODO - decrypt message?
+          } else {
+            logger.warn("Skipping already delivered message: "+fileMessageName);
           }
         }
+        finally {
+          Files.delete(msgFile);
+        }
       }
-      return null;
     }
     catch (Exception e) {
       logger.error("Failed to read message from queue: "+e.getMessage(), e);
     }
-    return null;
+    return messages;
+  }
+
+  public Message takeMessage(long timeout, TimeUnit unit) throws Exception {
+    final long deadline = System.nanoTime() + unit.toNanos(timeout);
+    while (true) {
+      arm();
+      Message message = getMessage();
+      if (message != null) {
+        return message;
+      }
+      if (!await(deadline)) {
+        return null; // timeout elapsed, caller performs safety-net scan on next call
+      }
+    }
+  }
+
+  /**
+   * Start watching the queue directory and forget earlier signals, call before looking for a message
+   */
+  void arm() {
+    watch();
+    synchronized (signal) {
+      signalled = false;
+    }
+  }
+
+  /**
+   * Wait for a signal since the last {@link #arm()}
+   * @param deadline Deadline in {@link System#nanoTime()} units
+   * @return False if deadline elapsed without a signal
+   */
+  boolean await(long deadline) throws InterruptedException {
+    synchronized (signal) {
+      long remaining;
+      while (!signalled && (remaining = deadline - System.nanoTime()) > 0) {
+        if (watchUnavailable) {
+          // no change notifications, fall back to periodic directory scan
+          remaining = Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(POLL_PERIOD_MILLIS));
+          TimeUnit.NANOSECONDS.timedWait(signal, remaining);
+          signalled = true;
+        } else {
+          TimeUnit.NANOSECONDS.timedWait(signal, remaining);
+        }
+      }
+      return signalled;
+    }
+  }
+
+  /**
+   * Wake up consumer of any process, creation of the signal file is reported by the directory watcher
+   */
+  void signalConsumer() {
+    signal();
+    try {
+      Files.delete(Files.createTempFile(Paths.get(getMessagesDirectory()), null, signalExt));
+    } catch (IOException e) {
+      logger.error("Unable to signal message queue consumer: "+e.getMessage(), e);
+    }
   }
 
-  private String getFileMessageId() throws NoSuchAlgorithmException {
-    long timestamp = System.currentTimeMillis();
-    byte[] id = MessageDigest.getInstance("MD5").digest(UUID.randomUUID().toString().getBytes());
-    StringBuilder hex = new StringBuilder();
-    for (byte b : id) {
-      hex.append(String.format("%02x", b));
+  /**
+   * Hand over message received by other transport, it skips the queue directory altogether
+   * @param message Delivered message
+   */
+  void deliver(Message message) {
+    delivered.add(message);
+    signal();
+  }
+
+  /**
+   * Remember consumed message ID
+   * @param messageId Message ID (with or without message file extension)
+   * @return False if message with the same ID was already consumed
+   */
+  private boolean firstDelivery(String messageId) {
+    String id = messageId.endsWith(fileExt) ? messageId.substring(0, messageId.length() - fileExt.length()) : messageId;
+    synchronized (deliveredIds) {
+      return deliveredIds.add(id);
+    }
+  }
+
+  /**
+   * Wake up consumer waiting for a message
+   */
+  void signal() {
+    synchronized (signal) {
+      signalled = true;
+      signal.notifyAll();
     }
-    String hexId = hex.toString();
-    return timestamp + "_" + hexId;
   }
 
-  private Long getMessageIdTimestamp(String fileMessageId) {
-    String time = fileMessageId.split("_")[0];
+  /**
+   * Start watching the queue directory for newly moved message files
+   */
+  private synchronized void watch() {
+    if (watcher != null || watchUnavailable) {
+      return;
+    }
+    WatchService registered = null;
     try {
-      return Long.parseLong(time);
+      final Path messagesDir = Paths.get(getMessagesDirectory());
+      final WatchService watchService = registered = messagesDir.getFileSystem().newWatchService();
+      // ATOMIC_MOVE of the part file is reported as a creation of the message file
+      messagesDir.register(watchService, ENTRY_CREATE);
+      watcher = new Thread(() -> {
+        try {
+          while (true) {
+            WatchKey key = watchService.take();
+            boolean arrived = false;
+            for (WatchEvent<?> event : key.pollEvents()) {
+              if (OVERFLOW.equals(event.kind()) || event.context().toString().endsWith(fileExt)
+                  || event.context().toString().endsWith(signalExt)) {
+                arrived = true;
+              }
+            }
+            if (arrived) {
+              signal();
+            }
+            if (!key.reset()) {
+              logger.error("Message queue directory is no longer watched");
+              break;
+            }
+          }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+          logger.info("Message queue watcher stopped");
+        } finally {
+          // new watch service is created on next take
+          try {
+            watchService.close();
+          } catch (IOException e) {
+            logger.error("Unable to close message queue watch service: "+e.getMessage(), e);
+          }
+        }
+        synchronized (FileMessageQueue.this) {
+          watcher = null; // register again on next take
+        }
+        signal();
+      }, "MessageQueueWatcher");
+      watcher.setDaemon(true);
+      watcher.start();
     } catch (Exception e) {
-      return null;
+      logger.error("Unable to watch message queue, polling instead: "+e.getMessage(), e);
+      watchUnavailable = true;
+      if (registered != null && watcher == null) {
+        try {
+          registered.close();
+        } catch (IOException ex) {
+          // ignored, watch service was not used
+        }
+      }
+    }
+  }
+
+  synchronized String getFileMessageId() throws IOException {
+    if (idGenerator == null) {
+      idGenerator = new MessageIdGenerator(appConfig.getAppProcessDirectory().resolve(sequenceFile));
     }
+    return idGenerator.nextId();
+  }
+
+  Long getMessageIdTimestamp(String fileMessageId) {
+    return MessageIdGenerator.getTimestamp(fileMessageId);
   }
 
   private synchronized String getMessagesDirectory() throws IOException {
@@ -0,0 +1,319 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.ipc;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.ipc.MappedMessageQueue
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import cz.sefira.obelisk.api.AppConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * IPC message queue stored in fixed-size memory-mapped ring buffer file.
+ * <p>
+ * File layout: header (magic, version, geometry, write sequence, read cursor, spill counter, consumer
+ * waiting flag) followed by fixed-size slots. Each slot holds CRC32, sequence number, timestamp, message id
+ * and payload. Producers write under exclusive {@link FileLock}, single consumer advances the read cursor.
+ * Messages that do not fit into a slot or arrive while the ring is full are spilled to the file queue.
+ * <p>
+ * Waiting consumer spins briefly on the mapped header, then parks on the file queue signal. Producer that
+ * finds the consumer parked wakes it by the file queue signal file, so idle consumer costs no polling.
+ */
+public final class MappedMessageQueue implements MessageQueue {
+
+  private static final Logger logger = LoggerFactory.getLogger(MappedMessageQueue.class.getName());
+  private static final String ringFile = "queue.obring";
+
+  private static final int MAGIC = 0x4F424D51; // OBMQ
+  private static final int VERSION = 1;
+  static final int SLOT_COUNT = 1024;
+  static final int SLOT_SIZE = 2048;
+
+  // header offsets
+  private static final int H_MAGIC = 0;
+  private static final int H_VERSION = 4;
+  private static final int H_SLOT_COUNT = 8;
+  private static final int H_SLOT_SIZE = 12;
+  private static final int H_WRITE_SEQ = 16;
+  private static final int H_READ_SEQ = 24;
+  static final int H_SPILLED = 32;
+  private static final int H_WAITING = 40;
+  static final int HEADER_SIZE = 64;
+
+  // slot offsets
+  private static final int S_CRC = 0;
+  private static final int S_SEQ = 4;
+  private static final int S_TIMESTAMP = 12;
+  private static final int S_ID_LENGTH = 20;
+  private static final int S_PAYLOAD_LENGTH = 22;
+  static final int S_DATA = 26;
+
+  private static final long SPIN_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+  private static final long MAX_PARK_MILLIS = 100;
+
+  private final AppConfig appConfig;
+  private final FileMessageQueue fileQueue;
+
+  private FileChannel channel;
+  private MappedByteBuffer ring;
+  private long spilledSeen = -1;
+
+  MappedMessageQueue(AppConfig appConfig, FileMessageQueue fileQueue) {
+    this.appConfig = appConfig;
+    this.fileQueue = fileQueue;
+  }
+
+  public String addMessage(byte[] message) {
+    try {
+      String id = fileQueue.getFileMessageId();
+      return addMessage(new Message(id, fileQueue.getMessageIdTimestamp(id), message));
+    } catch (Exception e) {
+      logger.error("Failed to push byte[] message to queue: "+e.getMessage(), e);
+    }
+    return null;
+  }
+
+  public String addMessage(Message message) {
+    try {
+      byte[] id = message.getId().getBytes(StandardCharsets.UTF_8);
+      byte[] payload = message.getPayload();
+      if (S_DATA + id.length + payload.length <= SLOT_SIZE && write(message, id, payload)) {
+        wakeUp();
+        return message.getId();
+      }
+    } catch (Exception e) {
+      logger.error("Failed to push message to mapped queue, using file queue: "+e.getMessage(), e);
+    }
+    return spill(message);
+  }
+
+  public Message getMessage() throws Exception {
+    Message message = read();
+    if (message != null) {
+      return message;
+    }
+    // look into the file queue only when producers spilled something since the last look
+    long spilled = getRing().getLong(H_SPILLED);
+    if (spilled != spilledSeen) {
+      message = fileQueue.getMessage();
+      if (message == null) {
+        spilledSeen = spilled;
+      }
+    }
+    return message;
+  }
+
+  public List<Message> drain(int max) throws Exception {
+    List<Message> messages = new ArrayList<>();
+    Message message;
+    while (messages.size() < max && (message = read()) != null) {
+      messages.add(message);
+    }
+    long spilled = getRing().getLong(H_SPILLED);
+    if (messages.size() < max && spilled != spilledSeen) {
+      int size = messages.size();
+      messages.addAll(fileQueue.drain(max - size));
+      if (messages.size() - size < max - size) {
+        spilledSeen = spilled; // file queue drained
+      }
+    }
+    return messages;
+  }
+
+  public Message takeMessage(long timeout, TimeUnit unit) throws Exception {
+    final long deadline = System.nanoTime() + unit.toNanos(timeout);
+    while (true) {
+      fileQueue.arm();
+      Message message = getMessage();
+      if (message != null) {
+        return message;
+      }
+      if (deadline - System.nanoTime() <= 0) {
+        spilledSeen = -1; // safety-net scan of the file queue on next call
+        return null;
+      }
+      // header is read from mapped memory, so spinning costs no system calls
+      final MappedByteBuffer ring = getRing();
+      final long writeSeq = ring.getLong(H_WRITE_SEQ);
+      final long spilled = ring.getLong(H_SPILLED);
+      final long spinDeadline = System.nanoTime() + SPIN_NANOS;
+      while (!changed(ring, writeSeq, spilled) && spinDeadline - System.nanoTime() > 0) {
+        Thread.onSpinWait();
+      }
+      if (changed(ring, writeSeq, spilled)) {
+        continue;
+      }
+      // announce parked consumer before the last look, producers publish before they check it
+      ring.putLong(H_WAITING, 1);
+      VarHandle.fullFence();
+      if (!changed(ring, writeSeq, spilled)) {
+        // park is bounded in case the directory watcher misses the signal file
+        long parkDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_PARK_MILLIS);
+        fileQueue.await(deadline - parkDeadline < 0 ? deadline : parkDeadline);
+      }
+      ring.putLong(H_WAITING, 0);
+    }
+  }
+
+  /**
+   * Wake up consumer parked on the file queue signal
+   */
+  private void wakeUp() throws IOException {
+    final MappedByteBuffer ring = getRing();
+    VarHandle.fullFence();
+    if (ring.getLong(H_WAITING) != 0) {
+      ring.putLong(H_WAITING, 0);
+      fileQueue.signalConsumer();
+    }
+  }
+
+  private static boolean changed(MappedByteBuffer ring, long writeSeq, long spilled) {
+    return ring.getLong(H_WRITE_SEQ) != writeSeq || ring.getLong(H_SPILLED) != spilled;
+  }
+
+  private synchronized boolean write(Message message, byte[] id, byte[] payload) throws IOException {
+    final MappedByteBuffer ring = getRing();
+    try (FileLock ignored = channel.lock()) {
+      long writeSeq = ring.getLong(H_WRITE_SEQ);
+      long readSeq = ring.getLong(H_READ_SEQ);
+      if (writeSeq - readSeq >= SLOT_COUNT) {
+        logger.info("Mapped message queue is full");
+        return false;
+      }
+      final ByteBuffer slot = getSlot(ring, writeSeq);
+      slot.putLong(S_SEQ, writeSeq);
+      slot.putLong(S_TIMESTAMP, message.getTimestamp() != null ? message.getTimestamp() : System.currentTimeMillis());
+      slot.putShort(S_ID_LENGTH, (short) id.length);
+      slot.putInt(S_PAYLOAD_LENGTH, payload.length);
+      slot.put(S_DATA, id);
+      slot.put(S_DATA + id.length, payload);
+      slot.putInt(S_CRC, checksum(slot, S_DATA + id.length + payload.length));
+      // publish the slot
+      ring.putLong(H_WRITE_SEQ, writeSeq + 1);
+      return true;
+    }
+  }
+
+  private synchronized Message read() throws IOException {
+    final MappedByteBuffer ring = getRing();
+    if (ring.getLong(H_READ_SEQ) == ring.getLong(H_WRITE_SEQ)) {
+      return null;
+    }
+    try (FileLock ignored = channel.lock()) {
+      long readSeq = ring.getLong(H_READ_SEQ);
+      while (readSeq < ring.getLong(H_WRITE_SEQ)) {
+        final ByteBuffer slot = getSlot(ring, readSeq);
+        readSeq++;
+        ring.putLong(H_READ_SEQ, readSeq);
+        int idLength = slot.getShort(S_ID_LENGTH);
+        int payloadLength = slot.getInt(S_PAYLOAD_LENGTH);
+        int length = S_DATA + idLength + payloadLength;
+        if (slot.getLong(S_SEQ) != readSeq - 1 || idLength < 0 || payloadLength < 0 || length > SLOT_SIZE
+            || slot.getInt(S_CRC) != checksum(slot, length)) {
+          logger.error("Corrupted message slot skipped: "+(readSeq - 1));
+          continue;
+        }
+        byte[] id = new byte[idLength];
+        byte[] payload = new byte[payloadLength];
+        slot.get(S_DATA, id);
+        slot.get(S_DATA + idLength, payload);
+        return new Message(new String(id, StandardCharsets.UTF_8), slot.getLong(S_TIMESTAMP), payload);
+      }
+      return null;
+    }
+  }
+
+  private String spill(Message message) {
+    String id = fileQueue.addMessage(message);
+    if (id != null) {
+      try {
+        final MappedByteBuffer ring = getRing();
+        synchronized (this) {
+          try (FileLock ignored = channel.lock()) {
+            ring.putLong(H_SPILLED, ring.getLong(H_SPILLED) + 1);
+          }
+        }
+      } catch (Exception e) {
+        logger.error("Unable to announce spilled message: "+e.getMessage(), e);
+      }
+    }
+    return id;
+  }
+
+  private synchronized MappedByteBuffer getRing() throws IOException {
+    if (ring != null) {
+      return ring;
+    }
+    final Path ringPath = appConfig.getAppProcessDirectory().resolve(ringFile);
+    final long size = HEADER_SIZE + (long) SLOT_COUNT * SLOT_SIZE;
+    channel = FileChannel.open(ringPath, CREATE, READ, WRITE);
+    try (FileLock ignored = channel.lock()) {
+      boolean valid = channel.size() == size;
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+      if (!valid || buffer.getInt(H_MAGIC) != MAGIC || buffer.getInt(H_VERSION) != VERSION
+          || buffer.getInt(H_SLOT_COUNT) != SLOT_COUNT || buffer.getInt(H_SLOT_SIZE) != SLOT_SIZE) {
+        logger.info("Initializing mapped message queue: "+ringPath);
+        buffer.putInt(H_VERSION, VERSION);
+        buffer.putInt(H_SLOT_COUNT, SLOT_COUNT);
+        buffer.putInt(H_SLOT_SIZE, SLOT_SIZE);
+        buffer.putLong(H_WRITE_SEQ, 0);
+        buffer.putLong(H_READ_SEQ, 0);
+        buffer.putLong(H_SPILLED, 0);
+        buffer.putLong(H_WAITING, 0);
+        buffer.putInt(H_MAGIC, MAGIC);
+      }
+      ring = buffer;
+    } catch (IOException e) {
+      channel.close();
+      channel = null;
+      throw e;
+    }
+    return ring;
+  }
+
+  private static ByteBuffer getSlot(MappedByteBuffer ring, long seq) {
+    int offset = HEADER_SIZE + (int) (seq % SLOT_COUNT) * SLOT_SIZE;
+    return ring.slice(offset, SLOT_SIZE);
+  }
+
+  private static int checksum(ByteBuffer slot, int length) {
+    CRC32 crc = new CRC32();
+    crc.update(slot.slice(S_SEQ, length - S_SEQ));
+    return (int) crc.getValue();
+  }
+
+}
@@ -0,0 +1,151 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.ipc;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.ipc.MessageIdGenerator
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Generator of message IDs that sort lexicographically in the order they were generated, across processes.
+ * <p>
+ * ID format is {@code <13 digits timestamp>_<8 hex counter><8 hex pid>}. Last issued timestamp and counter are
+ * shared in a sequence file guarded by {@link FileLock}, timestamp never goes backwards and counter orders IDs
+ * issued within the same millisecond. If the sequence file is not available, ordering is guaranteed only within
+ * the process and the pid keeps IDs unique.
+ */
+public final class MessageIdGenerator {
+
+  private static final Logger logger = LoggerFactory.getLogger(MessageIdGenerator.class.getName());
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+  private static final int TIMESTAMP_DIGITS = 13;
+  private static final int ID_LENGTH = TIMESTAMP_DIGITS + 1 + 16;
+
+  private final Path sequenceFile;
+  private final int pid = (int) ProcessHandle.current().pid();
+  private final ByteBuffer state = ByteBuffer.allocate(16);
+
+  private FileChannel channel;
+  private boolean sequenceUnavailable = false;
+  private long lastTimestamp = 0;
+  private long counter = 0;
+
+  public MessageIdGenerator(Path sequenceFile) {
+    this.sequenceFile = sequenceFile;
+  }
+
+  /**
+   * Generate next message ID
+   * @return Message ID greater than any ID generated before
+   */
+  public String nextId() {
+    // generators of one process share the same lock file, JVM does not allow overlapping locks
+    synchronized (MessageIdGenerator.class) {
+      long timestamp = System.currentTimeMillis();
+      FileChannel channel = getChannel();
+      if (channel != null) {
+        try (FileLock ignored = channel.lock()) {
+          state.clear();
+          if (channel.read(state, 0) == state.capacity()) {
+            lastTimestamp = state.getLong(0);
+            counter = state.getLong(8);
+          }
+          next(timestamp);
+          state.clear();
+          state.putLong(0, lastTimestamp).putLong(8, counter);
+          channel.write(state, 0);
+          return encode(lastTimestamp, counter, pid);
+        } catch (IOException e) {
+          logger.error("Unable to use message sequence file: "+e.getMessage(), e);
+        }
+      }
+      next(timestamp);
+      return encode(lastTimestamp, counter, pid);
+    }
+  }
+
+  private void next(long timestamp) {
+    if (timestamp > lastTimestamp) {
+      lastTimestamp = timestamp;
+      counter = 0;
+    } else {
+      counter++; // same millisecond or clock went backwards, keep last timestamp
+    }
+  }
+
+  private FileChannel getChannel() {
+    if (channel == null && !sequenceUnavailable) {
+      try {
+        channel = FileChannel.open(sequenceFile, CREATE, READ, WRITE);
+      } catch (IOException e) {
+        logger.error("Unable to open message sequence file, ordering is kept only in process: "+e.getMessage(), e);
+        sequenceUnavailable = true;
+      }
+    }
+    return channel;
+  }
+
+  /**
+   * Encode message ID without intermediate strings
+   */
+  static String encode(long timestamp, long counter, int pid) {
+    char[] id = new char[ID_LENGTH];
+    long t = timestamp;
+    for (int i = TIMESTAMP_DIGITS - 1; i >= 0; i--) {
+      id[i] = (char) ('0' + (t % 10));
+      t /= 10;
+    }
+    id[TIMESTAMP_DIGITS] = '_';
+    for (int i = 0; i < 8; i++) {
+      id[TIMESTAMP_DIGITS + 8 - i] = HEX[(int) (counter >>> (i * 4)) & 0xf];
+      id[TIMESTAMP_DIGITS + 16 - i] = HEX[(pid >>> (i * 4)) & 0xf];
+    }
+    return new String(id);
+  }
+
+  /**
+   * Returns timestamp part of the message ID
+   * @param messageId Message ID (or message file name)
+   * @return Timestamp or null if ID is not valid
+   */
+  static Long getTimestamp(String messageId) {
+    int separator = messageId.indexOf('_');
+    if (separator <= 0) {
+      return null;
+    }
+    try {
+      return Long.parseLong(messageId, 0, separator, 10);
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+}
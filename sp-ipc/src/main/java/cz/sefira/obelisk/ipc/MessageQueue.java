@@ -23,6 +23,9 @@ package cz.sefira.obelisk.ipc;
  * Author: hlavnicka
  */
 
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
 /**
  * MessageQueue interface
  */
@@ -48,4 +51,19 @@ public interface MessageQueue {
    */
   Message getMessage() throws Exception;
 
+  /**
+   * Retrieve message from queue, waiting for a message to arrive if the queue is empty
+   * @param timeout Maximum time to wait for a message
+   * @param unit Time unit of the timeout argument
+   * @return Message instance or null if no message arrived before the timeout elapsed
+   */
+  Message takeMessage(long timeout, TimeUnit unit) throws Exception;
+
+  /**
+   * Retrieve all pending messages from queue, at most max messages in queue order
+   * @param max Maximum number of messages retrieved
+   * @return List of messages, empty if queue is empty
+   */
+  List<Message> drain(int max) throws Exception;
+
 }
@@ -30,8 +30,27 @@ import cz.sefira.obelisk.api.AppConfig;
  */
 public class MessageQueueFactory {
 
-  public static MessageQueue getInstance(AppConfig appConfig) {
-    return new FileMessageQueue(appConfig);
+  private static MessageQueue instance;
+
+  /**
+   * Returns process-wide message queue instance, so producers in the same process can wake up the consumer.
+   * Engine is selected by configuration, file queue serves as a fallback of the other engines.
+   */
+  public static synchronized MessageQueue getInstance(AppConfig appConfig) {
+    if (instance == null) {
+      String engine = appConfig.getIpcQueue() != null ? appConfig.getIpcQueue() : "file";
+      switch (engine) {
+        case "socket":
+          instance = new SocketMessageQueue(appConfig, new FileMessageQueue(appConfig));
+          break;
+        case "mapped":
+          instance = new MappedMessageQueue(appConfig, new FileMessageQueue(appConfig));
+          break;
+        default:
+          instance = new FileMessageQueue(appConfig);
+      }
+    }
+    return instance;
   }
 
 }
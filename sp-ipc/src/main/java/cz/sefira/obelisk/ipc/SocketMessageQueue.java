@@ -0,0 +1,329 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.ipc;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.ipc.SocketMessageQueue
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import cz.sefira.obelisk.api.AppConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * IPC message queue that pushes messages directly to the running client over Unix domain socket, client hands
+ * received message to the consumer from memory and acknowledges it immediately. Sender leaves a pending copy of
+ * the message in the run directory, it is removed once the message is consumed and moved to the file queue when
+ * the client starts again (crash of the client). File message queue is used as a fallback when no client listens
+ * on the socket.
+ */
+public final class SocketMessageQueue implements MessageQueue {
+
+  private static final Logger logger = LoggerFactory.getLogger(SocketMessageQueue.class.getName());
+  private static final String socketFile = "app.sock";
+  private static final String pendingDir = "pending";
+  private static final String pendingExt = ".obpending";
+  private static final byte ACK = 0x06;
+  private static final int MAX_FRAME_SIZE = 1024 * 1024;
+  private static final long ACK_TIMEOUT_MILLIS = 2000;
+  private static final long RECEIVE_TIMEOUT_MILLIS = 2000;
+
+  private final AppConfig appConfig;
+  private final FileMessageQueue fileQueue;
+
+  private ServerSocketChannel server;
+  private boolean listenUnavailable = false;
+
+  private final ExecutorService receivers = Executors.newCachedThreadPool(r -> {
+    Thread t = new Thread(r, "MessageQueueReceiver");
+    t.setDaemon(true);
+    return t;
+  });
+
+  SocketMessageQueue(AppConfig appConfig, FileMessageQueue fileQueue) {
+    this.appConfig = appConfig;
+    this.fileQueue = fileQueue;
+  }
+
+  public String addMessage(byte[] message) {
+    try {
+      String id = fileQueue.getFileMessageId();
+      return addMessage(new Message(id, fileQueue.getMessageIdTimestamp(id), message));
+    } catch (Exception e) {
+      logger.error("Failed to push byte[] message to queue: "+e.getMessage(), e);
+    }
+    return null;
+  }
+
+  public String addMessage(Message message) {
+    try {
+      if (send(message)) {
+        return message.getId();
+      }
+    } catch (Exception e) {
+      // frame was not written completely, client discards it
+      logger.info("Unable to deliver message over socket, using file queue: "+e.getMessage());
+    }
+    String id = fileQueue.addMessage(message);
+    deletePending(message.getId());
+    return id;
+  }
+
+  public Message getMessage() throws Exception {
+    listen();
+    return consumed(fileQueue.getMessage());
+  }
+
+  public Message takeMessage(long timeout, TimeUnit unit) throws Exception {
+    listen();
+    return consumed(fileQueue.takeMessage(timeout, unit));
+  }
+
+  public List<Message> drain(int max) throws Exception {
+    listen();
+    List<Message> messages = fileQueue.drain(max);
+    messages.forEach(this::consumed);
+    return messages;
+  }
+
+  /**
+   * Pending copy of the consumed message is no longer needed, it is removed outside of the consumer thread
+   */
+  private Message consumed(Message message) {
+    if (message != null) {
+      receivers.execute(() -> deletePending(message.getId()));
+    }
+    return message;
+  }
+
+  /**
+   * Send message frame to listening client and wait for delivery acknowledgement
+   * @param message Message instance
+   * @return True if the whole frame was written, the message must not be sent again by other means even if
+   * the acknowledgement does not arrive, false if nobody listens
+   */
+  private boolean send(Message message) throws IOException {
+    final Path socketPath = getSocketPath();
+    if (!socketPath.toFile().exists()) {
+      return false; // client is not running
+    }
+    try (SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+      try {
+        channel.connect(UnixDomainSocketAddress.of(socketPath));
+      } catch (IOException e) {
+        return false; // stale socket file, client is not running
+      }
+      writePending(message);
+      ByteArrayOutputStream frame = new ByteArrayOutputStream();
+      try (DataOutputStream out = new DataOutputStream(frame)) {
+        out.writeUTF(message.getId());
+        out.writeLong(message.getTimestamp() != null ? message.getTimestamp() : System.currentTimeMillis());
+        out.writeInt(message.getPayload().length);
+        out.write(message.getPayload());
+      }
+      ByteBuffer buffer = ByteBuffer.wrap(frame.toByteArray());
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      // complete frame is written, client owns the message now (falling back would deliver it twice)
+      try {
+        if (awaitAck(channel)) {
+          if (logger.isDebugEnabled()) {
+            logger.debug("Message delivered over socket: "+message.getId());
+          }
+        } else {
+          logger.warn("Message sent over socket, but not acknowledged in time: "+message.getId());
+        }
+      } catch (IOException e) {
+        logger.warn("Message sent over socket, acknowledgement failed: "+message.getId()+" - "+e.getMessage());
+      }
+      return true;
+    }
+  }
+
+  private boolean awaitAck(SocketChannel channel) throws IOException {
+    channel.configureBlocking(false);
+    try (Selector selector = Selector.open()) {
+      channel.register(selector, SelectionKey.OP_READ);
+      ByteBuffer ack = ByteBuffer.allocate(1);
+      long deadline = System.currentTimeMillis() + ACK_TIMEOUT_MILLIS;
+      long remaining;
+      while (ack.hasRemaining() && (remaining = deadline - System.currentTimeMillis()) > 0) {
+        selector.select(remaining);
+        if (channel.read(ack) < 0) {
+          break; // closed without acknowledgement
+        }
+      }
+      return !ack.hasRemaining() && ack.get(0) == ACK;
+    }
+  }
+
+  /**
+   * Start listening on the socket, messages received are delivered to the consumer immediately
+   */
+  private synchronized void listen() {
+    if (server != null || listenUnavailable) {
+      return;
+    }
+    try {
+      final Path socketPath = getSocketPath();
+      Files.deleteIfExists(socketPath); // stale socket of previous instance
+      final ServerSocketChannel channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+      channel.bind(UnixDomainSocketAddress.of(socketPath));
+      server = channel;
+      Thread listener = new Thread(() -> {
+        try {
+          while (true) {
+            SocketChannel client = channel.accept();
+            receivers.execute(() -> receive(client));
+          }
+        } catch (IOException e) {
+          logger.error("Message queue socket closed: "+e.getMessage(), e);
+        }
+        synchronized (SocketMessageQueue.this) {
+          server = null; // bind again on next take
+        }
+      }, "MessageQueueListener");
+      listener.setDaemon(true);
+      listener.start();
+      logger.info("Listening for messages on "+socketPath);
+      recoverPending();
+    } catch (Exception e) {
+      logger.error("Unable to listen on message queue socket, using file queue only: "+e.getMessage(), e);
+      listenUnavailable = true;
+    }
+  }
+
+  /**
+   * Receive message frame, client that does not send the complete frame in time is disconnected
+   */
+  private void receive(SocketChannel channel) {
+    try (channel; Selector selector = Selector.open()) {
+      channel.configureBlocking(false);
+      channel.register(selector, SelectionKey.OP_READ);
+      final long deadline = System.currentTimeMillis() + RECEIVE_TIMEOUT_MILLIS;
+      ByteBuffer idLength = read(channel, selector, 2, deadline);
+      ByteBuffer header = read(channel, selector, (idLength.getShort(0) & 0xFFFF) + 12, deadline);
+      byte[] utf = new byte[idLength.capacity() + header.capacity() - 12];
+      idLength.get(0, utf, 0, 2);
+      header.get(0, utf, 2, utf.length - 2);
+      String id = new DataInputStream(new ByteArrayInputStream(utf)).readUTF();
+      long timestamp = header.getLong(utf.length - 2);
+      int length = header.getInt(utf.length + 6);
+      if (length < 0 || length > MAX_FRAME_SIZE) {
+        throw new IOException("Invalid message length: "+length);
+      }
+      byte[] payload = read(channel, selector, length, deadline).array();
+      // sender keeps pending copy until the message is consumed
+      fileQueue.deliver(new Message(id, timestamp, payload));
+      ByteBuffer ack = ByteBuffer.wrap(new byte[]{ACK});
+      while (ack.hasRemaining() && System.currentTimeMillis() < deadline) {
+        if (channel.write(ack) == 0) {
+          selector.select(10);
+        }
+      }
+    } catch (Exception e) {
+      logger.error("Failed to receive message from socket: "+e.getMessage(), e);
+    }
+  }
+
+  private static ByteBuffer read(SocketChannel channel, Selector selector, int length, long deadline)
+      throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    long remaining;
+    while (buffer.hasRemaining()) {
+      if ((remaining = deadline - System.currentTimeMillis()) <= 0) {
+        throw new IOException("Message not received in time");
+      }
+      if (channel.read(buffer) < 0) {
+        throw new EOFException("Incomplete message frame");
+      }
+      if (buffer.hasRemaining()) {
+        selector.select(remaining);
+      }
+    }
+    return buffer;
+  }
+
+  /**
+   * Keep copy of the sent message until the client consumes it
+   */
+  private void writePending(Message message) {
+    try {
+      Path pending = getPendingDirectory().resolve(message.getId() + pendingExt);
+      Files.write(pending, message.getPayload());
+    } catch (IOException e) {
+      logger.error("Unable to write pending copy of message: "+message.getId()+" - "+e.getMessage(), e);
+    }
+  }
+
+  private void deletePending(String messageId) {
+    try {
+      Files.deleteIfExists(getPendingDirectory().resolve(messageId + pendingExt));
+    } catch (IOException e) {
+      logger.error("Unable to delete pending copy of message: "+messageId+" - "+e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Messages sent to the previous client, but not consumed by it, are moved to the file queue
+   */
+  private void recoverPending() {
+    try (DirectoryStream<Path> list = Files.newDirectoryStream(getPendingDirectory(), "*" + pendingExt)) {
+      for (Path pending : list) {
+        String name = pending.getFileName().toString();
+        String id = name.substring(0, name.length() - pendingExt.length());
+        if (fileQueue.addMessage(new Message(id, fileQueue.getMessageIdTimestamp(id), Files.readAllBytes(pending)))
+            != null) {
+          Files.delete(pending);
+          logger.info("Recovered message not consumed by previous instance: "+id);
+        }
+      }
+    } catch (Exception e) {
+      logger.error("Unable to recover pending messages: "+e.getMessage(), e);
+    }
+  }
+
+  private Path getPendingDirectory() throws IOException {
+    Path pending = appConfig.getAppRunDirectory().resolve(pendingDir);
+    if (!Files.isDirectory(pending)) {
+      Files.createDirectories(pending);
+    }
+    return pending;
+  }
+
+  private Path getSocketPath() throws IOException {
+    return appConfig.getAppRunDirectory().resolve(socketFile);
+  }
+
+}
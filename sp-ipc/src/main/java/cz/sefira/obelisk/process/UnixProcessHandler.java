@@ -30,30 +30,12 @@ public class UnixProcessHandler implements ProcessHandler {
 
   @Override
   public boolean isProccessRunning(long pid) {
-    return kill(pid, 0);
+    return ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false);
   }
 
   @Override
   public boolean killProcess(long pid) {
-    return kill(pid, 9);
-  }
-
-  /**
-   * Terminate process (specified by a pid) with given signal
-   * @param pid Process identifier
-   * @param signal Signal number
-   * @return True if success
-   */
-  private boolean kill(long pid, long signal) {
-    try {
-      Runtime runtime = Runtime.getRuntime();
-      Process killProcess = runtime.exec(new String[] { "kill", "-"+signal, String.valueOf(pid) });
-      int killProcessExitCode = killProcess.waitFor();
-      return killProcessExitCode == 0;
-    }
-    catch (Exception e) {
-      return false;
-    }
+    return ProcessHandle.of(pid).map(ProcessHandle::destroyForcibly).orElse(false);
   }
 
 }
@@ -23,9 +23,6 @@ package cz.sefira.obelisk.process;
  * Author: hlavnicka
  */
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-
 /**
  *  Process handler For Windows operating system
  */
@@ -33,32 +30,12 @@ public class WindowsProcessHandler implements ProcessHandler {
 
   @Override
   public boolean isProccessRunning(long pid) {
-    try {
-      Process tasklistProcess = Runtime.getRuntime().exec(
-          new String[]{"cmd", "/c", "tasklist /FI \"PID eq " + pid + "\""});
-      BufferedReader tasklistOutputReader = new BufferedReader(new InputStreamReader(tasklistProcess.getInputStream()));
-      String line = null;
-      boolean processRunning = false;
-      while ((line = tasklistOutputReader.readLine()) != null) {
-        if (line.contains(" " + pid + " ")) {
-          processRunning = true;
-          break;
-        }
-      }
-      return processRunning;
-    } catch (Exception ex) {
-      return false;
-    }
+    return ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false);
   }
 
   @Override
   public boolean killProcess(long pid) {
-    try {
-      Runtime.getRuntime().exec(new String[]{"cmd", "/c", "taskkill /PID " + pid + " /F"});
-      return true;
-    } catch (Exception ex) {
-      return false;
-    }
+    return ProcessHandle.of(pid).map(ProcessHandle::destroyForcibly).orElse(false);
   }
 
 }
@@ -0,0 +1,132 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.ipc;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.ipc.FileMessageQueueTest
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import cz.sefira.obelisk.api.AppConfig;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * JUnit test for {@link FileMessageQueue} blocking take, batch drain and duplicate suppression
+ */
+public class FileMessageQueueTest {
+
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+  private AppConfig appConfig;
+
+  @Before
+  public void setUp() throws Exception {
+    appConfig = TestAppHome.get();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    executor.shutdownNow();
+    TestAppHome.clean();
+  }
+
+  @Test
+  public void testTakeWakeup() throws Exception {
+    FileMessageQueue consumer = new FileMessageQueue(appConfig);
+    FileMessageQueue producer = new FileMessageQueue(appConfig);
+    Future<Message> taken = executor.submit(() -> consumer.takeMessage(10, TimeUnit.SECONDS));
+    Thread.sleep(200);
+    Assert.assertFalse(taken.isDone());
+    long start = System.nanoTime();
+    producer.addMessage(bytes("link"));
+    // woken up by the directory watcher, not by the timeout
+    Message message = taken.get(5, TimeUnit.SECONDS);
+    Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    Assert.assertEquals("link", text(message));
+  }
+
+  @Test
+  public void testTakeTimeout() throws Exception {
+    FileMessageQueue consumer = new FileMessageQueue(appConfig);
+    long start = System.nanoTime();
+    Assert.assertNull(consumer.takeMessage(300, TimeUnit.MILLISECONDS));
+    Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(300));
+  }
+
+  @Test
+  public void testDrainOrderAndCap() throws Exception {
+    FileMessageQueue consumer = new FileMessageQueue(appConfig);
+    FileMessageQueue producer = new FileMessageQueue(appConfig);
+    for (int i = 0; i < 5; i++) {
+      producer.addMessage(bytes("m" + i));
+    }
+    List<Message> first = consumer.drain(3);
+    Assert.assertEquals(3, first.size());
+    Assert.assertEquals("m0", text(first.get(0)));
+    Assert.assertEquals("m1", text(first.get(1)));
+    Assert.assertEquals("m2", text(first.get(2)));
+    List<Message> rest = consumer.drain(10);
+    Assert.assertEquals(2, rest.size());
+    Assert.assertEquals("m3", text(rest.get(0)));
+    Assert.assertEquals("m4", text(rest.get(1)));
+    Assert.assertTrue(consumer.drain(10).isEmpty());
+  }
+
+  @Test
+  public void testDeliveredFirst() throws Exception {
+    FileMessageQueue queue = new FileMessageQueue(appConfig);
+    queue.addMessage(bytes("file"));
+    queue.deliver(new Message(queue.getFileMessageId(), System.currentTimeMillis(), bytes("memory")));
+    List<Message> messages = queue.drain(10);
+    Assert.assertEquals(2, messages.size());
+    Assert.assertEquals("memory", text(messages.get(0)));
+    Assert.assertEquals("file", text(messages.get(1)));
+  }
+
+  @Test
+  public void testDuplicateSuppressed() throws Exception {
+    FileMessageQueue queue = new FileMessageQueue(appConfig);
+    Message message = new Message(queue.getFileMessageId(), System.currentTimeMillis(), bytes("link"));
+    queue.deliver(message);
+    queue.deliver(message);
+    queue.addMessage(message);
+    Assert.assertEquals(1, queue.drain(10).size());
+    // consumed IDs are remembered across drains
+    queue.addMessage(message);
+    Assert.assertNull(queue.takeMessage(100, TimeUnit.MILLISECONDS));
+    // other message is not affected
+    queue.addMessage(bytes("other"));
+    Assert.assertEquals("other", text(queue.takeMessage(1, TimeUnit.SECONDS)));
+  }
+
+  private static byte[] bytes(String text) {
+    return text.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static String text(Message message) {
+    return new String(message.getPayload(), StandardCharsets.UTF_8);
+  }
+
+}
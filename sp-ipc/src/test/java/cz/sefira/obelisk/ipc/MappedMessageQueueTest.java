@@ -0,0 +1,225 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.ipc;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.ipc.MappedMessageQueueTest
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import cz.sefira.obelisk.api.AppConfig;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * JUnit test for {@link MappedMessageQueue} ring handling, spilling and producers of other processes
+ */
+public class MappedMessageQueueTest {
+
+  private static final int PRODUCER_MESSAGES = 300;
+
+  private AppConfig appConfig;
+  private Path processDirectory;
+
+  @Before
+  public void setUp() throws IOException {
+    appConfig = TestAppHome.get();
+    processDirectory = appConfig.getAppProcessDirectory();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    TestAppHome.clean();
+  }
+
+  @Test
+  public void testWrapAround() throws Exception {
+    MappedMessageQueue queue = newQueue();
+    int count = 0;
+    // three rounds of 700 messages cross the end of the ring twice
+    for (int round = 0; round < 3; round++) {
+      List<String> ids = new ArrayList<>();
+      for (int i = 0; i < 700; i++) {
+        ids.add(queue.addMessage(payload(count + i)));
+      }
+      List<Message> messages = queue.drain(1000);
+      Assert.assertEquals(700, messages.size());
+      for (int i = 0; i < 700; i++) {
+        Assert.assertEquals(ids.get(i), messages.get(i).getId());
+        Assert.assertEquals("message-" + (count + i), new String(messages.get(i).getPayload(), StandardCharsets.UTF_8));
+      }
+      count += 700;
+    }
+    Assert.assertNull(queue.getMessage());
+    Assert.assertEquals(0, spilled());
+  }
+
+  @Test
+  public void testCorruptedSlotSkipped() throws Exception {
+    MappedMessageQueue queue = newQueue();
+    queue.addMessage(payload(0));
+    queue.addMessage(payload(1));
+    queue.addMessage(payload(2));
+    // flip the first message id byte of the second slot, its CRC no longer matches
+    try (FileChannel channel = FileChannel.open(processDirectory.resolve("queue.obring"), READ, WRITE)) {
+      long offset = MappedMessageQueue.HEADER_SIZE + MappedMessageQueue.SLOT_SIZE + MappedMessageQueue.S_DATA;
+      ByteBuffer data = ByteBuffer.allocate(1);
+      channel.read(data, offset);
+      data.put(0, (byte) (data.get(0) ^ 0xFF)).rewind();
+      channel.write(data, offset);
+    }
+    Assert.assertEquals("message-0", new String(queue.getMessage().getPayload(), StandardCharsets.UTF_8));
+    Assert.assertEquals("message-2", new String(queue.getMessage().getPayload(), StandardCharsets.UTF_8));
+    Assert.assertNull(queue.getMessage());
+  }
+
+  @Test
+  public void testFullRingSpilled() throws Exception {
+    MappedMessageQueue queue = newQueue();
+    for (int i = 0; i < MappedMessageQueue.SLOT_COUNT; i++) {
+      queue.addMessage(payload(i));
+    }
+    Assert.assertEquals(0, spilled());
+    Assert.assertEquals(0, count(processDirectory.resolve("queue")));
+    // ring is full, next message goes to the file queue and is announced in the header
+    String id = queue.addMessage(payload(MappedMessageQueue.SLOT_COUNT));
+    Assert.assertEquals(1, spilled());
+    Assert.assertTrue(Files.exists(processDirectory.resolve("queue").resolve(id)));
+    List<Message> messages = queue.drain(2 * MappedMessageQueue.SLOT_COUNT);
+    Assert.assertEquals(MappedMessageQueue.SLOT_COUNT + 1, messages.size());
+    for (int i = 0; i <= MappedMessageQueue.SLOT_COUNT; i++) {
+      Assert.assertEquals("message-" + i, new String(messages.get(i).getPayload(), StandardCharsets.UTF_8));
+    }
+    Assert.assertEquals(0, count(processDirectory.resolve("queue")));
+    Assert.assertNull(queue.getMessage());
+  }
+
+  @Test
+  public void testTakeWakeup() throws Exception {
+    MappedMessageQueue consumer = newQueue();
+    Assert.assertNull(consumer.takeMessage(10, TimeUnit.MILLISECONDS));
+    Thread producer = new Thread(() -> {
+      try {
+        Thread.sleep(200); // consumer is parked by then
+        newQueue().addMessage(payload(0));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    producer.start();
+    Message message = consumer.takeMessage(5, TimeUnit.SECONDS);
+    producer.join();
+    Assert.assertNotNull(message);
+    Assert.assertEquals("message-0", new String(message.getPayload(), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testProducerProcesses() throws Exception {
+    MappedMessageQueue consumer = newQueue();
+    Assert.assertNull(consumer.getMessage()); // ring initialized before producers start
+    List<Process> producers = new ArrayList<>();
+    for (String name : new String[]{"first", "second"}) {
+      producers.add(new ProcessBuilder(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+          "-Duser.home=" + TestAppHome.getHome(), "-cp", System.getProperty("java.class.path"),
+          MappedMessageQueueTest.class.getName(), name).inheritIO().start());
+    }
+    Map<String, Integer> received = new HashMap<>();
+    int total = 0;
+    long deadline = System.currentTimeMillis() + 30000;
+    while (total < 2 * PRODUCER_MESSAGES && System.currentTimeMillis() < deadline) {
+      Message message = consumer.takeMessage(1, TimeUnit.SECONDS);
+      if (message == null) {
+        continue;
+      }
+      // messages of one producer keep their order
+      String[] payload = new String(message.getPayload(), StandardCharsets.UTF_8).split(":");
+      int next = received.getOrDefault(payload[0], 0);
+      Assert.assertEquals(next, Integer.parseInt(payload[1]));
+      received.put(payload[0], next + 1);
+      total++;
+    }
+    for (Process producer : producers) {
+      Assert.assertTrue(producer.waitFor(30, TimeUnit.SECONDS));
+      Assert.assertEquals(0, producer.exitValue());
+    }
+    Assert.assertEquals(PRODUCER_MESSAGES, (int) received.get("first"));
+    Assert.assertEquals(PRODUCER_MESSAGES, (int) received.get("second"));
+    Assert.assertNull(consumer.takeMessage(100, TimeUnit.MILLISECONDS));
+  }
+
+  /**
+   * Producer process of {@link #testProducerProcesses()}
+   * @param args Producer name
+   */
+  public static void main(String[] args) throws Exception {
+    AppConfig appConfig = AppConfig.get();
+    MappedMessageQueue producer = new MappedMessageQueue(appConfig, new FileMessageQueue(appConfig));
+    for (int i = 0; i < PRODUCER_MESSAGES; i++) {
+      if (producer.addMessage((args[0] + ":" + i).getBytes(StandardCharsets.UTF_8)) == null) {
+        System.exit(1);
+      }
+    }
+    System.exit(0);
+  }
+
+  private MappedMessageQueue newQueue() {
+    return new MappedMessageQueue(appConfig, new FileMessageQueue(appConfig));
+  }
+
+  private long spilled() throws IOException {
+    try (FileChannel channel = FileChannel.open(processDirectory.resolve("queue.obring"), READ)) {
+      ByteBuffer spilled = ByteBuffer.allocate(Long.BYTES);
+      channel.read(spilled, MappedMessageQueue.H_SPILLED);
+      return spilled.getLong(0);
+    }
+  }
+
+  private static byte[] payload(int i) {
+    return ("message-" + i).getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static long count(Path directory) throws IOException {
+    if (!Files.exists(directory)) {
+      return 0;
+    }
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.count();
+    }
+  }
+
+}
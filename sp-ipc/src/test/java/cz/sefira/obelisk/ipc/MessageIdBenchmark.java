@@ -0,0 +1,96 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.ipc;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.ipc.MessageIdBenchmark
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.UUID;
+
+/**
+ * Compares message ID generation of {@link MessageIdGenerator} (with and without the shared sequence file) with
+ * previous timestamp and MD5 of random UUID encoded by {@code String.format}.
+ * <p>
+ * Usage: {@code MessageIdBenchmark [iterations]}
+ */
+public class MessageIdBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+    Path dir = Files.createTempDirectory("message-ids");
+    Path sequence = dir.resolve("queue.seq");
+    try {
+      System.out.printf("%d iterations%n", iterations);
+      for (int round = 0; round < 3; round++) {
+        long legacy = measure(iterations, MessageIdBenchmark::legacyId);
+        MessageIdGenerator shared = new MessageIdGenerator(sequence);
+        long sequenced = measure(iterations, shared::nextId);
+        // directory instead of file, generator falls back to in-process ordering
+        MessageIdGenerator local = new MessageIdGenerator(dir);
+        long inProcess = measure(iterations, local::nextId);
+        System.out.printf("round %d: legacy %d ns/op, sequence file %d ns/op, in-process %d ns/op%n", round,
+            legacy, sequenced, inProcess);
+      }
+    } finally {
+      Files.deleteIfExists(sequence);
+      Files.delete(dir);
+    }
+  }
+
+  /**
+   * Returns average time of ID generation in nanoseconds
+   */
+  static long measure(int iterations, IdSource source) throws Exception {
+    long checksum = 0;
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      checksum += source.next().length();
+    }
+    long elapsed = System.nanoTime() - start;
+    if (checksum == 0) {
+      throw new IllegalStateException("Nothing generated");
+    }
+    return elapsed / iterations;
+  }
+
+  /**
+   * ID generation used by {@link FileMessageQueue} before {@link MessageIdGenerator}
+   */
+  static String legacyId() throws Exception {
+    long timestamp = System.currentTimeMillis();
+    byte[] id = MessageDigest.getInstance("MD5").digest(UUID.randomUUID().toString().getBytes());
+    StringBuilder hex = new StringBuilder();
+    for (byte b : id) {
+      hex.append(String.format("%02x", b));
+    }
+    return timestamp + "_" + hex;
+  }
+
+  interface IdSource {
+
+    String next() throws Exception;
+
+  }
+
+}
@@ -0,0 +1,131 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.ipc;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.ipc.MessageIdGeneratorTest
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JUnit test for {@link MessageIdGenerator}.
+ */
+public class MessageIdGeneratorTest {
+
+  private static final int PROCESSES = 3;
+  private static final int IDS_PER_PROCESS = 2000;
+
+  @Test
+  public void testEncode() {
+    String id = MessageIdGenerator.encode(1697622000123L, 0x1fL, 0xabc);
+    Assert.assertEquals("1697622000123_0000001f00000abc", id);
+    Assert.assertEquals(Long.valueOf(1697622000123L), MessageIdGenerator.getTimestamp(id));
+    Assert.assertEquals(Long.valueOf(1697622000123L), MessageIdGenerator.getTimestamp(id + ".obmsg"));
+    Assert.assertNull(MessageIdGenerator.getTimestamp("invalid"));
+  }
+
+  @Test
+  public void testOrderInProcess() throws Exception {
+    Path sequence = Files.createTempFile("queue", ".seq");
+    try {
+      MessageIdGenerator generator = new MessageIdGenerator(sequence);
+      String last = "";
+      for (int i = 0; i < 10000; i++) {
+        String id = generator.nextId();
+        Assert.assertTrue(id + " <= " + last, id.compareTo(last) > 0);
+        last = id;
+      }
+    } finally {
+      Files.deleteIfExists(sequence);
+    }
+  }
+
+  @Test
+  public void testOrderAcrossProcesses() throws Exception {
+    Path dir = Files.createTempDirectory("message-ids");
+    Path sequence = dir.resolve("queue.seq");
+    try {
+      List<Process> processes = new ArrayList<>();
+      for (int i = 0; i < PROCESSES; i++) {
+        ProcessBuilder pb = new ProcessBuilder(
+            System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+            "-cp", System.getProperty("java.class.path"), MessageIdGeneratorTest.class.getName(),
+            sequence.toString(), dir.resolve("ids-" + i).toString(), String.valueOf(IDS_PER_PROCESS));
+        pb.redirectErrorStream(true);
+        pb.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        processes.add(pb.start());
+      }
+      for (Process p : processes) {
+        Assert.assertTrue(p.waitFor(60, TimeUnit.SECONDS));
+        Assert.assertEquals(0, p.exitValue());
+      }
+      Set<String> all = new HashSet<>();
+      Map<Long, Set<Long>> countersByTimestamp = new HashMap<>();
+      for (int i = 0; i < PROCESSES; i++) {
+        List<String> ids = Files.readAllLines(dir.resolve("ids-" + i), StandardCharsets.UTF_8);
+        Assert.assertEquals(IDS_PER_PROCESS, ids.size());
+        String last = "";
+        for (String id : ids) {
+          Assert.assertTrue(id + " <= " + last, id.compareTo(last) > 0);
+          Assert.assertTrue("Duplicate ID " + id, all.add(id));
+          last = id;
+          long counter = Long.parseLong(id.substring(14, 22), 16);
+          countersByTimestamp.computeIfAbsent(MessageIdGenerator.getTimestamp(id), t -> new HashSet<>()).add(counter);
+        }
+      }
+      // all processes share one sequence, so counters within a millisecond are contiguous
+      for (Map.Entry<Long, Set<Long>> e : countersByTimestamp.entrySet()) {
+        for (long c = 0; c < e.getValue().size(); c++) {
+          Assert.assertTrue("Counter gap at " + e.getKey(), e.getValue().contains(c));
+        }
+      }
+    } finally {
+      try (var files = Files.list(dir)) {
+        for (Path f : (Iterable<Path>) files::iterator) {
+          Files.delete(f);
+        }
+      }
+      Files.delete(dir);
+    }
+  }
+
+  /**
+   * Generator process of the multi-process test
+   */
+  public static void main(String[] args) throws Exception {
+    MessageIdGenerator generator = new MessageIdGenerator(Path.of(args[0]));
+    int count = Integer.parseInt(args[2]);
+    List<String> ids = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      ids.add(generator.nextId());
+    }
+    Files.write(Path.of(args[1]), ids, StandardCharsets.UTF_8);
+  }
+
+}
@@ -0,0 +1,138 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.ipc;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.ipc.MessageQueueBenchmark
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import cz.sefira.obelisk.api.AppConfig;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Compares {@link FileMessageQueue}, {@link MappedMessageQueue} and {@link SocketMessageQueue}. Producer and
+ * consumer are separate queue instances working with the same directories (as separate processes would), the
+ * application home is redirected to a temporary directory.
+ * <p>
+ * Latency: producer adds a message and waits until the consumer takes it. Throughput: producer adds a burst of
+ * messages, consumer drains them.
+ * <p>
+ * Usage: {@code MessageQueueBenchmark [messages] [payload bytes]}
+ */
+public class MessageQueueBenchmark {
+
+  private static final long TAKE_TIMEOUT_SECONDS = 10;
+
+  public static void main(String[] args) throws Exception {
+    int messages = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+    int payloadSize = args.length > 1 ? Integer.parseInt(args[1]) : 256;
+    Path home = Files.createTempDirectory("ipc-benchmark");
+    System.setProperty("user.home", home.toString());
+    try {
+      AppConfig appConfig = AppConfig.get();
+      byte[] payload = new byte[payloadSize];
+      Arrays.fill(payload, (byte) 'x');
+      Pair[] engines = {
+          new Pair("file", new FileMessageQueue(appConfig), new FileMessageQueue(appConfig)),
+          new Pair("mapped", new MappedMessageQueue(appConfig, new FileMessageQueue(appConfig)),
+              new MappedMessageQueue(appConfig, new FileMessageQueue(appConfig))),
+          new Pair("socket", new SocketMessageQueue(appConfig, new FileMessageQueue(appConfig)),
+              new SocketMessageQueue(appConfig, new FileMessageQueue(appConfig)))
+      };
+      System.out.printf("%d messages, %d bytes payload%n", messages, payloadSize);
+      for (int round = 0; round < 3; round++) {
+        for (Pair engine : engines) {
+          // consumer is listening before the producer starts (socket server, directory watcher)
+          engine.consumer.takeMessage(10, TimeUnit.MILLISECONDS);
+          long[] latencies = latency(engine, messages, payload);
+          long throughput = throughput(engine, messages, payload);
+          System.out.printf("round %d %-6s: latency p50 %d us, p99 %d us, max %d us; burst %d msg/s%n", round,
+              engine.name, latencies[latencies.length / 2] / 1000, latencies[latencies.length * 99 / 100] / 1000,
+              latencies[latencies.length - 1] / 1000, throughput);
+        }
+      }
+    } finally {
+      try (Stream<Path> files = Files.walk(home)) {
+        files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+      }
+    }
+  }
+
+  /**
+   * Returns sorted round trip times (add to take) in nanoseconds
+   */
+  static long[] latency(Pair engine, int messages, byte[] payload) throws Exception {
+    long[] latencies = new long[messages];
+    for (int i = 0; i < messages; i++) {
+      long start = System.nanoTime();
+      engine.producer.addMessage(payload);
+      take(engine);
+      latencies[i] = System.nanoTime() - start;
+    }
+    Arrays.sort(latencies);
+    return latencies;
+  }
+
+  /**
+   * Returns messages per second of a burst added by the producer and taken by the consumer
+   */
+  static long throughput(Pair engine, int messages, byte[] payload) throws Exception {
+    long start = System.nanoTime();
+    for (int i = 0; i < messages; i++) {
+      engine.producer.addMessage(payload);
+    }
+    for (int received = 0; received < messages; ) {
+      int drained = engine.consumer.drain(messages - received).size();
+      if (drained == 0) {
+        take(engine);
+        drained = 1;
+      }
+      received += drained;
+    }
+    long elapsed = System.nanoTime() - start;
+    return messages * TimeUnit.SECONDS.toNanos(1) / Math.max(elapsed, 1);
+  }
+
+  private static void take(Pair engine) throws Exception {
+    if (engine.consumer.takeMessage(TAKE_TIMEOUT_SECONDS, TimeUnit.SECONDS) == null) {
+      throw new IllegalStateException("Message not delivered by " + engine.name + " queue");
+    }
+  }
+
+  static class Pair {
+
+    private final String name;
+    private final MessageQueue producer;
+    private final MessageQueue consumer;
+
+    Pair(String name, MessageQueue producer, MessageQueue consumer) {
+      this.name = name;
+      this.producer = producer;
+      this.consumer = consumer;
+    }
+  }
+
+}
@@ -0,0 +1,159 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.ipc;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.ipc.SocketMessageQueueTest
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import cz.sefira.obelisk.api.AppConfig;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * JUnit test for {@link SocketMessageQueue} delivery over socket, at-most-once handover and pending copies
+ */
+public class SocketMessageQueueTest {
+
+  private AppConfig appConfig;
+  private Path processDirectory;
+  private Path runDirectory;
+
+  @Before
+  public void setUp() throws IOException {
+    appConfig = TestAppHome.get();
+    processDirectory = appConfig.getAppProcessDirectory();
+    runDirectory = appConfig.getAppRunDirectory();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    TestAppHome.clean();
+  }
+
+  @Test
+  public void testDeliveredOverSocket() throws Exception {
+    SocketMessageQueue consumer = new SocketMessageQueue(appConfig, new FileMessageQueue(appConfig));
+    Assert.assertNull(consumer.takeMessage(10, TimeUnit.MILLISECONDS)); // starts listening
+    SocketMessageQueue producer = new SocketMessageQueue(appConfig, new FileMessageQueue(appConfig));
+    String id = producer.addMessage("link".getBytes(StandardCharsets.UTF_8));
+    Message message = consumer.takeMessage(5, TimeUnit.SECONDS);
+    Assert.assertNotNull(message);
+    Assert.assertEquals("link", new String(message.getPayload(), StandardCharsets.UTF_8));
+    Assert.assertTrue(message.getId().startsWith(id));
+    Assert.assertNull(consumer.takeMessage(200, TimeUnit.MILLISECONDS));
+    // pending copy of the sender is removed once consumed
+    Path pending = runDirectory.resolve("pending");
+    long deadline = System.currentTimeMillis() + 5000;
+    while (count(pending) > 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    Assert.assertEquals(0, count(pending));
+  }
+
+  @Test
+  public void testPendingRecovered() throws Exception {
+    // client crashed after acknowledging the message, before consuming it
+    Path pending = Files.createDirectories(runDirectory.resolve("pending"));
+    FileMessageQueue fileQueue = new FileMessageQueue(appConfig);
+    String id = fileQueue.getFileMessageId();
+    Files.write(pending.resolve(id + ".obpending"), "link".getBytes(StandardCharsets.UTF_8));
+    SocketMessageQueue consumer = new SocketMessageQueue(appConfig, fileQueue);
+    Message message = consumer.takeMessage(5, TimeUnit.SECONDS);
+    Assert.assertNotNull(message);
+    Assert.assertEquals("link", new String(message.getPayload(), StandardCharsets.UTF_8));
+    Assert.assertEquals(0, count(pending));
+  }
+
+  @Test
+  public void testIdleClientDisconnected() throws Exception {
+    SocketMessageQueue consumer = new SocketMessageQueue(appConfig, new FileMessageQueue(appConfig));
+    Assert.assertNull(consumer.takeMessage(10, TimeUnit.MILLISECONDS)); // starts listening
+    try (SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+      channel.connect(UnixDomainSocketAddress.of(runDirectory.resolve("app.sock")));
+      long start = System.currentTimeMillis();
+      // nothing is sent, receiver gives up after its deadline
+      Assert.assertEquals(-1, channel.read(ByteBuffer.allocate(1)));
+      Assert.assertTrue(System.currentTimeMillis() - start < 10000);
+    }
+  }
+
+  @Test
+  public void testNoFallbackAfterFrameWritten() throws Exception {
+    // client reads the frame, but does not acknowledge it
+    try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+      server.bind(UnixDomainSocketAddress.of(runDirectory.resolve("app.sock")));
+      Thread client = new Thread(() -> {
+        try (SocketChannel channel = server.accept()) {
+          channel.read(ByteBuffer.allocate(1024));
+        } catch (IOException e) {
+          // closed
+        }
+      });
+      client.start();
+      SocketMessageQueue producer = new SocketMessageQueue(appConfig, new FileMessageQueue(appConfig));
+      Assert.assertNotNull(producer.addMessage("link".getBytes(StandardCharsets.UTF_8)));
+      client.join(5000);
+    }
+    // message was not written to the file queue as well
+    Path queue = processDirectory.resolve("queue");
+    if (Files.exists(queue)) {
+      try (Stream<Path> files = Files.list(queue)) {
+        Assert.assertEquals(0, files.count());
+      }
+    }
+  }
+
+  @Test
+  public void testDuplicateSkipped() throws Exception {
+    FileMessageQueue queue = new FileMessageQueue(appConfig);
+    Message message = new Message(queue.getFileMessageId(), System.currentTimeMillis(), new byte[]{1});
+    queue.deliver(message);
+    queue.addMessage(message);
+    List<Message> messages = queue.drain(10);
+    Assert.assertEquals(1, messages.size());
+    Assert.assertTrue(queue.drain(10).isEmpty());
+  }
+
+  private static long count(Path directory) throws IOException {
+    if (!Files.isDirectory(directory)) {
+      return 0;
+    }
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.count();
+    }
+  }
+
+}
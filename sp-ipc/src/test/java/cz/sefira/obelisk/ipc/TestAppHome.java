@@ -0,0 +1,93 @@
+/**
+ * © SEFIRA spol. s r.o., 2020-2023
+ * <p>
+ * Licensed under EUPL Version 1.2 or - upon approval by the European Commission - later versions of the EUPL (the "License").
+ * You may use this work only in accordance with the License.
+ * You can obtain a copy of the License at the following address:
+ * <p>
+ * https://joinup.ec.europa.eu/collection/eupl/eupl-text-eupl-12
+ * <p>
+ * Unless there is a legal or contractual obligation in writing, the software distributed under the License is distributed "as is",
+ * WITHOUT WARRANTIES OR CONDITIONS WHATSOEVER, express or implied.
+ * See the License for specific permissions and language restrictions under the License.
+ */
+package cz.sefira.obelisk.ipc;
+
+/*
+ * Copyright 2023 by SEFIRA, spol. s r. o.
+ * http://www.sefira.cz
+ *
+ * cz.sefira.obelisk.ipc.TestAppHome
+ *
+ * Created: 18.10.2023
+ * Author: hlavnicka
+ */
+
+import cz.sefira.obelisk.api.AppConfig;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Application configuration with user home redirected to a temporary directory, shared by queue tests of the JVM
+ */
+final class TestAppHome {
+
+  private static AppConfig appConfig;
+  private static Path home;
+
+  private TestAppHome() {
+  }
+
+  static synchronized AppConfig get() throws IOException {
+    if (appConfig == null) {
+      home = Files.createTempDirectory("ipc");
+      String userHome = System.getProperty("user.home");
+      System.setProperty("user.home", home.toString());
+      try {
+        appConfig = AppConfig.get();
+        appConfig.getAppUserHome(); // resolved once, kept by the configuration
+      } finally {
+        System.setProperty("user.home", userHome);
+      }
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+        try {
+          delete(home);
+        } catch (IOException e) {
+          // temporary directory
+        }
+      }));
+    }
+    return appConfig;
+  }
+
+  /**
+   * User home of the test configuration, for queue users started in other processes
+   */
+  static synchronized Path getHome() throws IOException {
+    get();
+    return home;
+  }
+
+  /**
+   * Remove all queue files, sockets and sequence of the process directory
+   */
+  static void clean() throws IOException {
+    Path processDirectory = get().getAppProcessDirectory();
+    try (Stream<Path> files = Files.list(processDirectory)) {
+      for (Path file : (Iterable<Path>) files::iterator) {
+        delete(file);
+      }
+    }
+  }
+
+  static void delete(Path path) throws IOException {
+    try (Stream<Path> files = Files.walk(path)) {
+      files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+    }
+  }
+
+}